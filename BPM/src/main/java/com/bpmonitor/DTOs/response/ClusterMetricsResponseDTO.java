@@ -0,0 +1,33 @@
+package com.bpmonitor.DTOs.response;
+
+import java.time.LocalDateTime;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+
+/**
+ * this DTO represents how this node sees the cluster and which share of the tasks it runs.
+ * @author joao7
+ *
+ */
+@Getter @Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class ClusterMetricsResponseDTO {
+
+	private boolean enabled;
+	private String nodeId;
+	private int liveNodes;
+	private int shards;
+	private int ownedShards;
+	private long ownershipValidMillis; // how long the owned shards are trusted without another heartbeat
+	private LocalDateTime lastHeartbeatAt;
+	private long heartbeats;
+	private long heartbeatFailures;
+	private long acquired; // shards taken
+	private long handedOver; // shards freed for the node they now belong to
+	private long lost; // shards another node took while we thought we owned them
+}
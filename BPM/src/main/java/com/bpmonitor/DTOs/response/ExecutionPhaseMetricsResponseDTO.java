@@ -0,0 +1,30 @@
+package com.bpmonitor.DTOs.response;
+
+import com.bpmonitor.executors.ExecutionPhase;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+
+/**
+ * this DTO represents the time spent in one execution phase,
+ * and how long DB connections were held while in it.
+ * @author joao7
+ *
+ */
+@Getter @Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class ExecutionPhaseMetricsResponseDTO {
+
+	private ExecutionPhase phase;
+	private long executions;
+	private double avgPhaseMillis;
+	private long maxPhaseMillis;
+	private long connectionsUsed; // connections returned to the pool while in this phase
+	private double avgConnectionHoldMillis;
+	private long maxConnectionHoldMillis;
+	private long totalConnectionHoldMillis;
+}
@@ -0,0 +1,37 @@
+package com.bpmonitor.DTOs.response;
+
+import java.time.LocalDateTime;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+
+/**
+ * this DTO represents the in-memory hierarchy the tree endpoints read from.
+ * @author joao7
+ *
+ */
+@Getter @Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class HierarchyGraphMetricsResponseDTO {
+
+	private long version; // version of the current snapshot
+	private int processes;
+	private int subprocesses;
+	private int activities;
+	private int tasks;
+	private int systems;
+	private int interfaces;
+	private int results; // latest results kept, resultsPerTask at most per task
+	private int resultsPerTask;
+	private long resultUpdates; // task results applied without going to the DB
+	private long statusUpdates; // parent transitions applied without going to the DB
+	private long rebuilds;
+	private long rebuildFailures;
+	private long lastRebuildMillis;
+	private boolean stale; // a write changed the structure, the next refresh rebuilds it
+	private LocalDateTime lastRebuildAt;
+}
@@ -0,0 +1,28 @@
+package com.bpmonitor.DTOs.response;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+
+/**
+ * this DTO represents the state of the non-blocking HTTP probe engine.
+ * @author joao7
+ *
+ */
+@Getter @Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class HttpProbeEngineMetricsResponseDTO {
+
+	private int ioThreads;
+	private int inFlight;
+	private int idleConnections; // kept-alive connections waiting for the next check
+	private long probes;
+	private long newConnections;
+	private long reusedConnections;
+	private long tlsHandshakes;
+	private long failures;
+	private long timeouts;
+}
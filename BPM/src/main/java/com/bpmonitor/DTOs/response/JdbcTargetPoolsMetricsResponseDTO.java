@@ -0,0 +1,29 @@
+package com.bpmonitor.DTOs.response;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+
+/**
+ * this DTO represents the state of the connection pools kept to the databases checked by QUERYDBTASK's.
+ * @author joao7
+ *
+ */
+@Getter @Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class JdbcTargetPoolsMetricsResponseDTO {
+
+	private int pools;
+	private int maxPools;
+	private int idleConnections;
+	private int borrowedConnections;
+	private long logins; // new connections opened to a target
+	private long reuses; // borrows served by a pooled connection
+	private long evictedPools;
+	private long acquireFailures;
+	private long loginFailures;
+	private long queryFailures;
+}
@@ -0,0 +1,26 @@
+package com.bpmonitor.DTOs.response;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+
+/**
+ * this DTO represents how many probes were shared between tasks checking the same target.
+ * @author joao7
+ *
+ */
+@Getter @Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class ProbeCoalescingMetricsResponseDTO {
+
+	private boolean enabled;
+	private long reuseMillis; // how long a finished probe is still shared
+	private int targets; // targets with a probe in flight or recently finished
+	private long probes; // probes actually run for a shareable target
+	private long coalesced; // results taken from the probe of another task
+	private long unshared; // tasks whose probe can't be shared (invalid or untyped workload)
+	private double duplicationFactor; // results per probe run, what sharing saves
+}
@@ -0,0 +1,32 @@
+package com.bpmonitor.DTOs.response;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+
+/**
+ * this DTO represents the adaptive concurrency limit of the probes of one task type.
+ * @author joao7
+ *
+ */
+@Getter @Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class ProbeConcurrencyLimitResponseDTO {
+
+	private String taskType;
+	private int limit; // probes allowed in flight right now
+	private int inFlight;
+	private int queued;
+	private long baselineLatencyMillis; // smoothed latency of the type's probes, cuts of the limit are at least that far apart
+	private long dispatched;
+	private long queuedTotal; // dispatches that had to wait for a permit
+	private long expired; // dropped after waiting longer than the queue timeout
+	private long rejected; // dropped because the queue was full
+	private long overloads; // dispatches the executor rejected and probes cut by their deadline
+	private double avgQueueWaitMillis;
+	private long maxQueueWaitMillis;
+	private long oldestQueuedMillis; // how long the head of the queue has been waiting
+}
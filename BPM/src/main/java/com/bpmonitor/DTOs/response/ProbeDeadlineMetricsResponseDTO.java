@@ -0,0 +1,25 @@
+package com.bpmonitor.DTOs.response;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+
+/**
+ * this DTO represents the hard deadline of the probes of one task type and how often it was hit.
+ * @author joao7
+ *
+ */
+@Getter @Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class ProbeDeadlineMetricsResponseDTO {
+
+	private String taskType;
+	private long deadlineMillis;
+	private long executions;
+	private long timeouts;
+	private long lingering; // timed out probes that still haven't returned, should stay at 0
+	private long maxElapsedMillis; // slowest probe, until it really returned
+}
@@ -0,0 +1,25 @@
+package com.bpmonitor.DTOs.response;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+
+/**
+ * this DTO represents the state of the TCP-connect reachability engine.
+ * @author joao7
+ *
+ */
+@Getter @Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class ReachabilityEngineMetricsResponseDTO {
+
+	private int inFlight;
+	private int submitted; // handed over and not picked up by the engine thread yet
+	private long probes;
+	private long reachable;
+	private long unreachable;
+	private long timeouts;
+}
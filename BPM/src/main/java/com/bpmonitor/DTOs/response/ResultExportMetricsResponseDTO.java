@@ -0,0 +1,33 @@
+package com.bpmonitor.DTOs.response;
+
+import java.time.LocalDateTime;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+
+/**
+ * this DTO represents the streaming exports of task results and errors.
+ * @author joao7
+ *
+ */
+@Getter @Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class ResultExportMetricsResponseDTO {
+
+	private int running;
+	private int maxConcurrent;
+	private int fetchSize; // rows the driver reads per round trip
+	private long exports; // finished ones
+	private long rowsExported;
+	private long refused; // max-concurrent were already running
+	private long aborted; // the client went away mid export
+	private long failed;
+	private long lastExportRows;
+	private long lastExportMillis;
+	private double lastExportRowsPerSecond;
+	private LocalDateTime lastExportAt;
+}
@@ -0,0 +1,40 @@
+package com.bpmonitor.DTOs.response;
+
+import java.time.LocalDateTime;
+
+import com.bpmonitor.enums.RollupLevel;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+
+/**
+ * this DTO represents what the task results of a node add up to over a period, read from the rollups.
+ * @author joao7
+ *
+ */
+@Getter @Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class ResultHistorySummaryResponseDTO {
+
+	private RollupLevel level;
+	private Long id;
+	private LocalDateTime from; // rounded down to the hour
+	private LocalDateTime to; // rounded up to the hour, exclusive
+	private long results;
+	private long successCount;
+	private long failCount;
+	private long timeoutCount;
+	private long unrunCount;
+	private Double availability; // SUCCESS over the results that ran, null when none ran (no data isn't full uptime)
+	private LocalDateTime firstFailureAt;
+	private LocalDateTime lastFailureAt;
+	private Long latencyMinMs;
+	private Double latencyAvgMs;
+	private Long latencyMaxMs;
+	private int hourlyRowsRead; // the partial days at the edges
+	private int dailyRowsRead; // the whole days in between
+}
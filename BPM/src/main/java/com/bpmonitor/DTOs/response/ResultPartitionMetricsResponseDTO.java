@@ -0,0 +1,35 @@
+package com.bpmonitor.DTOs.response;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+
+/**
+ * this DTO represents the daily partitions of TASK_RESULT and TASK_ERROR and their maintenance.
+ * @author joao7
+ *
+ */
+@Getter @Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class ResultPartitionMetricsResponseDTO {
+
+	private boolean partitioned; // false until db/partition_task_results.sql is run, retention then deletes rows
+	private int partitions; // days kept, including the ones created ahead
+	private LocalDate oldestDay;
+	private LocalDate newestDay;
+	private int daysAhead;
+	private int successRetentionDays;
+	private int retentionDays;
+	private long created; // partitions created ahead of time
+	private long dropped; // whole days dropped
+	private long successDropped; // SUCCESS subpartitions dropped
+	private long failures; // maintenance statements that failed
+	private long lastRunMillis;
+	private LocalDateTime lastRunAt;
+}
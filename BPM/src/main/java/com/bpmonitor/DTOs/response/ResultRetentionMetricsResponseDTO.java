@@ -0,0 +1,36 @@
+package com.bpmonitor.DTOs.response;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+
+/**
+ * this DTO represents the retention policies of task results and how fast old results are purged.
+ * @author joao7
+ *
+ */
+@Getter @Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class ResultRetentionMetricsResponseDTO {
+
+	private List<String> policies; // conditions:hours, most specific first
+	private String window; // when purges run, start-end
+	private boolean inWindow;
+	private boolean purging; // a pass is running right now
+	private long passes;
+	private long resultsPurged;
+	private long errorsPurged;
+	private long chunks; // DELETE ... ROWNUM <= chunk-rows rounds
+	private long windowCutoffs; // passes stopped because the window closed
+	private long failures;
+	private long lastPassRows;
+	private long lastPassMillis;
+	private double lastPassRowsPerSecond;
+	private LocalDateTime lastPassAt;
+}
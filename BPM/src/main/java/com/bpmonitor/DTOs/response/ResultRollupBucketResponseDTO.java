@@ -0,0 +1,34 @@
+package com.bpmonitor.DTOs.response;
+
+import java.time.LocalDateTime;
+
+import com.bpmonitor.enums.RollupGrain;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+
+/**
+ * this DTO represents the task results of a node in one hour or day, as rolled up.
+ * @author joao7
+ *
+ */
+@Getter @Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class ResultRollupBucketResponseDTO {
+
+	private RollupGrain grain;
+	private LocalDateTime bucketStart;
+	private long successCount;
+	private long failCount;
+	private long timeoutCount;
+	private long unrunCount;
+	private LocalDateTime firstFailureAt;
+	private LocalDateTime lastFailureAt;
+	private Long latencyMinMs; // null when no result of the bucket had an elapsed time
+	private Double latencyAvgMs;
+	private Long latencyMaxMs;
+}
@@ -0,0 +1,35 @@
+package com.bpmonitor.DTOs.response;
+
+import java.time.LocalDateTime;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+
+/**
+ * this DTO represents how task results are folded into the hourly and daily rollups.
+ * @author joao7
+ *
+ */
+@Getter @Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class ResultRollupMetricsResponseDTO {
+
+	private long resultsRecorded;
+	private int pendingRows; // rollup rows changed in memory since the last flush
+	private long flushes;
+	private long rowsMerged; // MERGEs into RESULT_ROLLUP_HOURLY and RESULT_ROLLUP_DAILY
+	private long failedFlushes; // their rows are kept and merged with the next flush
+	private long lastFlushRows;
+	private long lastFlushMillis;
+	private LocalDateTime lastFlushAt;
+	private int hourlyRetentionDays;
+	private int dailyRetentionDays;
+	private long hourlyRowsPurged;
+	private long dailyRowsPurged;
+	private long recoveredWriters; // instances that died with rows not flushed, merged back from TASK_RESULT
+	private long recoveredResults;
+}
@@ -0,0 +1,29 @@
+package com.bpmonitor.DTOs.response;
+
+import com.bpmonitor.enums.TaskRecurrence;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+
+/**
+ * this DTO represents how the tasks of one recurrence are spread
+ * over it's period by the scheduler.
+ * @author joao7
+ *
+ */
+@Getter @Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class SchedulerSlotLoadResponseDTO {
+
+	private TaskRecurrence recurrence;
+	private long periodSeconds;
+	private long slotSeconds; // width of each slot
+	private int taskCount;
+	private int minSlotLoad;
+	private int maxSlotLoad;
+	private int[] slotLoads; // tasks starting in each slot of the period
+}
@@ -0,0 +1,25 @@
+package com.bpmonitor.DTOs.response;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+
+/**
+ * this DTO represents the state of the SFTP sessions kept for STFPCONNECTIONTASK's.
+ * @author joao7
+ *
+ */
+@Getter @Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class SftpSessionPoolMetricsResponseDTO {
+
+	private int targets;
+	private int idleSessions;
+	private long handshakes; // full SSH key exchange and login
+	private long reuses; // checks served by a kept session
+	private long failedHealthChecks; // kept sessions found dead when borrowed
+	private long evictedSessions;
+}
@@ -0,0 +1,38 @@
+package com.bpmonitor.DTOs.response;
+
+import java.time.LocalDateTime;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+
+/**
+ * this DTO represents how much work propagating task results up the hierarchy took.
+ * @author joao7
+ *
+ */
+@Getter @Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class StatusPropagationMetricsResponseDTO {
+
+	private int tasks;
+	private int parents; // activities, subprocesses, processes, systems and interfaces with counters
+	private long results;
+	private long unchanged; // results that didn't change their task's status, no work at all
+	private long windows; // propagation windows that had something dirty
+	private int dirtyNow; // nodes waiting for the current window to close
+	private long recomputed; // dirty nodes recomputed, each once per window however many results touched it
+	private long maxDirtyPerWindow;
+	private long taskTransitions;
+	private long activityTransitions;
+	private long subprocessTransitions;
+	private long processTransitions;
+	private long systemTransitions;
+	private long interfaceTransitions;
+	private long rebuilds;
+	private long writeFailures; // propagations that failed and made the counters be rebuilt
+	private LocalDateTime lastRebuildAt;
+}
@@ -0,0 +1,30 @@
+package com.bpmonitor.DTOs.response;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+
+/**
+ * this DTO represents the dashboards connected to the status stream and what was pushed to them.
+ * @author joao7
+ *
+ */
+@Getter @Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class StatusStreamMetricsResponseDTO {
+
+	private int subscribers;
+	private int maxSubscribers;
+	private int bufferEvents; // transitions the shared buffer holds
+	private long published; // transitions serialized into the buffer, once each
+	private long sent; // transitions written to a subscriber
+	private long filtered; // transitions skipped because they were outside a subscriber's subtree
+	private long resets; // subscribers told to reload the trees, they fell behind the buffer or resumed from too far back
+	private long rejected; // connections refused, max-subscribers was reached
+	private long disconnects; // subscribers dropped on a failed write
+	private long stalled; // subscribers dropped because a write to them didn't finish within write-timeout-ms
+	private int writerThreads;
+}
@@ -0,0 +1,33 @@
+package com.bpmonitor.DTOs.response;
+
+import java.time.LocalDateTime;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+
+/**
+ * this DTO represents a status transition pushed to the dashboards through the status stream,
+ * with where the node sits in the hierarchy so a client can place it without the tree.
+ * @author joao7
+ *
+ */
+@Getter @Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class StatusTransitionEventDTO {
+
+	private String level; // PROCESS, SUBPROCESS, ACTIVITY, TASK, SYSTEM or INTERFACE
+	private Long id;
+	private String name;
+	private String previousStatus; // an OperationalStatus, a TaskStatus for tasks
+	private String status;
+	private LocalDateTime at;
+	private Long processId; // the ancestors of the node, null where they don't apply
+	private Long subprocessId;
+	private Long activityId;
+	private Long systemId; // the system of a task
+	private Long interfaceId; // the interface of a task
+}
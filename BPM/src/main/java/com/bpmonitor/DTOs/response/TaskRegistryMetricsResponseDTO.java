@@ -0,0 +1,26 @@
+package com.bpmonitor.DTOs.response;
+
+import java.time.LocalDateTime;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+
+/**
+ * this DTO represents the state of the in-memory task registry.
+ * @author joao7
+ *
+ */
+@Getter @Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class TaskRegistryMetricsResponseDTO {
+
+	private long version;
+	private int taskCount;
+	private long incrementalUpdates; // changes recorded by TaskService
+	private long resyncCorrections; // changes only found by the periodic resync
+	private LocalDateTime lastResync;
+}
@@ -0,0 +1,30 @@
+package com.bpmonitor.DTOs.response;
+
+import java.time.LocalDateTime;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+
+/**
+ * this DTO represents how often a task was skipped because it's previous run was still in flight.
+ * @author joao7
+ *
+ */
+@Getter @Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class TaskSingleFlightResponseDTO {
+
+	private long taskId;
+	private String taskName;
+	private boolean inFlight;
+	private long inFlightMillis; // how long the current run has been going
+	private long runs;
+	private long skipped;
+	private int consecutiveSkipped; // skips since the last run that started, high means slower than it's recurrence
+	private long abandoned; // runs held for so long they were taken over
+	private LocalDateTime lastSkippedAt;
+}
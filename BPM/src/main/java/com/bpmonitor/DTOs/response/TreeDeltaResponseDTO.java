@@ -0,0 +1,27 @@
+package com.bpmonitor.DTOs.response;
+
+import java.util.List;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+
+/**
+ * this DTO represents what changed in a tree since the version a client has.
+ * When that version is too old (or from before a restart) it carries the whole tree instead.
+ * @author joao7
+ *
+ */
+@Getter @Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class TreeDeltaResponseDTO {
+
+	private String since; // the version the client asked from
+	private String version; // the version the client is at once it applies this
+	private boolean full; // true if nodes has the whole tree and changes is empty
+	private List<TreeNodeChangeDTO> changes; // in the order to apply them, parents added before their children
+	private List<?> nodes;
+}
@@ -0,0 +1,28 @@
+package com.bpmonitor.DTOs.response;
+
+import com.bpmonitor.enums.TreeChangeType;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+
+/**
+ * this DTO represents one node of a tree that was added, removed or changed between two versions.
+ * @author joao7
+ *
+ */
+@Getter @Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class TreeNodeChangeDTO {
+
+	private TreeChangeType change;
+	private String level; // PROCESS, SUBPROCESS, ACTIVITY, TASK or RESULT
+	private Long id;
+	private Long parentId; // null for processes and removed nodes
+	private String name; // null for removed nodes
+	private String previousStatus; // null for added nodes
+	private String status; // null for removed nodes
+}
@@ -0,0 +1,33 @@
+package com.bpmonitor.DTOs.response;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+
+/**
+ * this DTO represents how often the cached process and subprocess trees were rendered and how they were served.
+ * @author joao7
+ *
+ */
+@Getter @Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class TreeSnapshotMetricsResponseDTO {
+
+	private long processTreeVersion;
+	private int processTreeBytes;
+	private long processTreeRenders; // times it was mapped and serialized
+	private long processTreeServed; // polls that got the body
+	private long processTreeNotModified; // polls answered with a 304
+	private long processTreeDeltas; // since polls answered with only the changes
+	private long processTreeDeltaFallbacks; // since polls too far behind, answered with the whole tree
+	private long subprocessTreeVersion;
+	private int subprocessTreeBytes;
+	private long subprocessTreeRenders;
+	private long subprocessTreeServed;
+	private long subprocessTreeNotModified;
+	private long subprocessTreeDeltas;
+	private long subprocessTreeDeltaFallbacks;
+}
@@ -0,0 +1,31 @@
+package com.bpmonitor.DTOs.response;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+
+/**
+ * this DTO represents the state of the write-behind queue
+ * that persists task results and errors in batches.
+ * @author joao7
+ *
+ */
+@Getter @Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class WriteBehindMetricsResponseDTO {
+
+	private int queueCapacity;
+	private int queueDepth;
+	private long enqueued;
+	private long rejected; // results dropped because the queue was full
+	private long resultsWritten;
+	private long errorsWritten;
+	private long batches;
+	private long failedBatches;
+	private double avgBatchSize;
+	private long lastFlushMillis;
+	private int pooledIds;
+}
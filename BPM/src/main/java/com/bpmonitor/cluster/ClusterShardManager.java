@@ -0,0 +1,374 @@
+package com.bpmonitor.cluster;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Component;
+
+import com.bpmonitor.DTOs.response.ClusterMetricsResponseDTO;
+import com.bpmonitor.models.ClusterNode;
+import com.bpmonitor.models.ShardLease;
+import com.bpmonitor.repositories.ClusterNodeRepository;
+import com.bpmonitor.repositories.ShardLeaseRepository;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Splits the tasks between the running instances of the monitor, so every task runs on exactly one node.
+ *
+ * The task id space is split in a fixed number of shards (taskId mod shards), each with a lease row in SHARD_LEASE.
+ * Every heartbeat a node:
+ * - writes it's heartbeat to CLUSTER_NODE and reads the live nodes (heartbeat within node-ttl-ms)
+ * - works out which shards are it's own by rendezvous hashing over the live nodes, so a node joining or
+ *   leaving only moves the shards it gains or loses
+ * - frees the shards it owns that now belong to another node, renews the rest and takes the missing ones
+ * - takes shards nobody renewed for a whole lease, so a shard whose owner is stuck isn't left unrun
+ *
+ * Taking and renewing are conditional UPDATEs, a shard is only taken when it's free or it's lease expired,
+ * so two nodes never own a shard at once. A node that can't reach the DB stops running it's shards
+ * when it's leases would have expired (minus max-clock-skew-ms, the clocks of the nodes are compared).
+ *
+ * The heartbeat runs on a thread of it's own, not on the shared scheduler, so a slow job there
+ * (a rebuild, partition DDL, a rollup flush) can't hold it back past the lease and make the node drop it's shards.
+ *
+ * Disabled (the default), this node owns every task and no table is touched.
+ * @author joao7
+ *
+ */
+@Slf4j
+@Component
+public class ClusterShardManager {
+
+	private final ClusterNodeRepository nodeRepository;
+	private final ShardLeaseRepository leaseRepository;
+	private final boolean enabled;
+	private final int shardCount;
+	private final long leaseMs;
+	private final long heartbeatMs;
+	private final long nodeTtlMs;
+	private final long validityNanos; // how long after a renewal the leases are trusted locally
+
+	private final String nodeId;
+	private final String hostName;
+	private final LocalDateTime startedAt = LocalDateTime.now();
+
+	private volatile boolean joined;
+	private ScheduledExecutorService heartbeatThread;
+	private volatile Ownership ownership = new Ownership(new BitSet(), 0);
+	private volatile int liveNodes;
+	private volatile LocalDateTime lastHeartbeatAt;
+
+	private final LongAdder heartbeats = new LongAdder();
+	private final LongAdder heartbeatFailures = new LongAdder();
+	private final LongAdder acquired = new LongAdder();
+	private final LongAdder handedOver = new LongAdder();
+	private final LongAdder lost = new LongAdder();
+
+	public ClusterShardManager(
+			ClusterNodeRepository nodeRepository,
+			ShardLeaseRepository leaseRepository,
+			@Value("${bpm.cluster.enabled:false}") boolean enabled,
+			@Value("${bpm.cluster.shards:64}") int shardCount,
+			@Value("${bpm.cluster.heartbeat-ms:5000}") long heartbeatMs,
+			@Value("${bpm.cluster.lease-ms:20000}") long leaseMs,
+			@Value("${bpm.cluster.node-ttl-ms:15000}") long nodeTtlMs,
+			@Value("${bpm.cluster.max-clock-skew-ms:2000}") long maxClockSkewMs) {
+		this.nodeRepository = nodeRepository;
+		this.leaseRepository = leaseRepository;
+		this.enabled = enabled;
+		this.shardCount = Math.max(1, shardCount);
+		this.leaseMs = leaseMs;
+		this.heartbeatMs = Math.max(100, heartbeatMs);
+		this.nodeTtlMs = nodeTtlMs;
+		this.validityNanos = Math.max(0, leaseMs - maxClockSkewMs) * 1_000_000L;
+		this.hostName = localHostName();
+		String id = hostName + "-" + UUID.randomUUID().toString().substring(0, 8);
+		this.nodeId = id.length() > 100 ? id.substring(id.length() - 100) : id;
+	}
+
+
+	/**
+	 * creates the shard rows that don't exist yet, joins the cluster and starts the heartbeat thread.
+	 */
+	@EventListener(ApplicationReadyEvent.class)
+	public void join() {
+		if (!enabled) {
+			return;
+		}
+		createMissingShards();
+		joined = true;
+		log.info("Node {} joined the cluster, {} shards", nodeId, shardCount);
+		heartbeat();
+		heartbeatThread = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "ClusterHeartbeat");
+			thread.setDaemon(true);
+			thread.setPriority(Thread.MAX_PRIORITY);
+			return thread;
+		});
+		heartbeatThread.scheduleWithFixedDelay(() -> {
+			try {
+				heartbeat();
+			} catch (RuntimeException e) {
+				// an exception would cancel the schedule, the node would lose every shard
+				heartbeatFailures.increment();
+				log.error("Cluster heartbeat of node {} failed", nodeId, e);
+			}
+		}, heartbeatMs, heartbeatMs, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * frees this node's shards on the way out, so the other nodes take them on their next heartbeat
+	 * instead of waiting for the leases to expire.
+	 */
+	@PreDestroy
+	public void leave() {
+		if (!joined) {
+			return;
+		}
+		joined = false;
+		heartbeatThread.shutdown();
+		try {
+			heartbeatThread.awaitTermination(heartbeatMs, TimeUnit.MILLISECONDS); // a heartbeat under way would take the shards back
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		List<Integer> owned = toList(ownership.shards);
+		ownership = new Ownership(new BitSet(), 0);
+		try {
+			if (!owned.isEmpty()) {
+				leaseRepository.release(owned, nodeId, LocalDateTime.now());
+			}
+			nodeRepository.deleteById(nodeId);
+			log.info("Node {} left the cluster, {} shards freed", nodeId, owned.size());
+		} catch (DataAccessException e) {
+			log.warn("Node {} couldn't free it's shards, they'll be taken when the leases expire: {}", nodeId, e.getMessage());
+		}
+	}
+
+
+	/**
+	 * sends this node's heartbeat and rebalances the shards, every heartbeat-ms on the heartbeat thread.
+	 */
+	public void heartbeat() {
+		if (!joined) {
+			return;
+		}
+		long startNanos = java.lang.System.nanoTime();
+		LocalDateTime now = LocalDateTime.now();
+		LocalDateTime until = now.plusNanos(leaseMs * 1_000_000L);
+		try {
+			nodeRepository.save(new ClusterNode(nodeId, hostName, startedAt, now));
+			Set<String> live = new HashSet<>();
+			for (ClusterNode node : nodeRepository.findByHeartbeatAtAfter(now.minusNanos(nodeTtlMs * 1_000_000L))) {
+				live.add(node.getNodeId());
+			}
+			live.add(nodeId);
+
+			BitSet desired = assignment(live);
+			BitSet owned = (BitSet) ownership.shards.clone();
+
+			// shards that now belong to another node
+			BitSet handOver = (BitSet) owned.clone();
+			handOver.andNot(desired);
+			if (!handOver.isEmpty()) {
+				leaseRepository.release(toList(handOver), nodeId, now);
+				owned.andNot(handOver);
+				handedOver.add(handOver.cardinality());
+			}
+
+			// the ones kept are renewed in one go, shard by shard only if some were lost
+			List<Integer> kept = toList(owned);
+			if (!kept.isEmpty() && leaseRepository.renew(kept, nodeId, until) < kept.size()) {
+				for (Integer shard : kept) {
+					if (leaseRepository.tryAcquire(shard, nodeId, now, until) == 0) {
+						owned.clear(shard);
+						lost.increment();
+						log.warn("Node {} lost shard {}", nodeId, shard);
+					}
+				}
+			}
+
+			BitSet missing = (BitSet) desired.clone();
+			missing.andNot(owned);
+			for (Integer shard : toList(missing)) {
+				acquire(shard, now, until, owned);
+			}
+
+			// shards nobody renewed for a whole lease, their owner isn't doing it's job
+			LocalDateTime orphanedBefore = now.minusNanos(leaseMs * 1_000_000L);
+			for (ShardLease lease : leaseRepository.findAll()) {
+				int shard = lease.getShardId();
+				if (shard < shardCount && !owned.get(shard)
+						&& (lease.getLeaseUntil() == null ? lease.getOwnerNodeId() == null : lease.getLeaseUntil().isBefore(orphanedBefore))
+						&& acquire(shard, now, until, owned)) {
+					log.info("Node {} took orphaned shard {}", nodeId, shard);
+				}
+			}
+
+			ownership = new Ownership(owned, startNanos + validityNanos);
+			liveNodes = live.size();
+			lastHeartbeatAt = now;
+			heartbeats.increment();
+			nodeRepository.deleteDeadNodes(now.minusNanos(10 * nodeTtlMs * 1_000_000L));
+
+		} catch (DataAccessException e) {
+			// what's owned stays owned until it's local validity ends, by then the leases may be gone
+			heartbeatFailures.increment();
+			log.warn("Cluster heartbeat of node {} failed: {}", nodeId, e.getMessage());
+		}
+	}
+
+	/**
+	 * @param taskId - id of the task.
+	 * @return true if this node runs that task right now.
+	 */
+	public boolean owns(long taskId) {
+		if (!enabled) {
+			return true;
+		}
+		Ownership current = ownership;
+		return java.lang.System.nanoTime() - current.validUntilNanos < 0 && current.shards.get(shardOf(taskId));
+	}
+
+	/**
+	 * @param taskId - id of the task.
+	 * @return the shard the task belongs to.
+	 */
+	public int shardOf(long taskId) {
+		return (int) Math.floorMod(taskId, (long) shardCount);
+	}
+
+	/**
+	 * @return this node's view of the cluster.
+	 */
+	public ClusterMetricsResponseDTO getMetrics() {
+		Ownership current = ownership;
+		long validMillis = enabled ? Math.max(0, (current.validUntilNanos - java.lang.System.nanoTime()) / 1_000_000L) : 0;
+		return new ClusterMetricsResponseDTO(
+				enabled,
+				nodeId,
+				enabled ? liveNodes : 1,
+				shardCount,
+				enabled ? current.shards.cardinality() : shardCount,
+				validMillis,
+				lastHeartbeatAt,
+				heartbeats.sum(),
+				heartbeatFailures.sum(),
+				acquired.sum(),
+				handedOver.sum(),
+				lost.sum());
+	}
+
+
+	private boolean acquire(int shard, LocalDateTime now, LocalDateTime until, BitSet owned) {
+		if (leaseRepository.tryAcquire(shard, nodeId, now, until) == 0) {
+			return false; // it's previous owner still holds it, it'll free it on it's next heartbeat
+		}
+		owned.set(shard);
+		acquired.increment();
+		return true;
+	}
+
+	/**
+	 * rendezvous hashing: a shard goes to the live node with the highest score for it,
+	 * every node computes the same thing from the same live nodes.
+	 */
+	private BitSet assignment(Set<String> live) {
+		BitSet mine = new BitSet(shardCount);
+		for (int shard = 0; shard < shardCount; shard++) {
+			String best = null;
+			long bestScore = Long.MIN_VALUE;
+			for (String node : live) {
+				long score = mix(((long) node.hashCode() << 32) ^ shard);
+				if (best == null || score > bestScore || (score == bestScore && node.compareTo(best) < 0)) {
+					best = node;
+					bestScore = score;
+				}
+			}
+			if (nodeId.equals(best)) {
+				mine.set(shard);
+			}
+		}
+		return mine;
+	}
+
+	private void createMissingShards() {
+		Set<Integer> existing = new HashSet<>();
+		for (ShardLease lease : leaseRepository.findAll()) {
+			existing.add(lease.getShardId());
+		}
+		List<ShardLease> missing = new ArrayList<>();
+		for (int shard = 0; shard < shardCount; shard++) {
+			if (!existing.contains(shard)) {
+				missing.add(new ShardLease(shard));
+			}
+		}
+		if (missing.isEmpty()) {
+			return;
+		}
+		try {
+			leaseRepository.saveAll(missing);
+		} catch (DataIntegrityViolationException e) {
+			log.debug("Another node created the shards first: {}", e.getMessage());
+		}
+	}
+
+	private static List<Integer> toList(BitSet shards) {
+		List<Integer> list = new ArrayList<>(shards.cardinality());
+		for (int shard = shards.nextSetBit(0); shard >= 0; shard = shards.nextSetBit(shard + 1)) {
+			list.add(shard);
+		}
+		return list;
+	}
+
+	/**
+	 * murmur3's finalizer, spreads the bits so node ids that look alike don't get the same shards.
+	 */
+	private static long mix(long h) {
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+
+	private static String localHostName() {
+		try {
+			return InetAddress.getLocalHost().getHostName();
+		} catch (UnknownHostException e) {
+			return "unknown";
+		}
+	}
+
+	/**
+	 * the shards this node owns, immutable once published.
+	 */
+	private static final class Ownership {
+		private final BitSet shards;
+		private final long validUntilNanos;
+
+		private Ownership(BitSet shards, long validUntilNanos) {
+			this.shards = shards;
+			this.validUntilNanos = validUntilNanos;
+		}
+	}
+}
@@ -0,0 +1,49 @@
+package com.bpmonitor.config;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import com.bpmonitor.executors.ExecutionPhaseMetrics;
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.metrics.IMetricsTracker;
+import com.zaxxer.hikari.metrics.MetricsTrackerFactory;
+
+/**
+ * Hooks into the Hikari pool so every connection given back to the pool reports how long it was held,
+ * that time is attributed to the execution phase of the thread returning it.
+ * @author joao7
+ *
+ */
+@Configuration
+public class ConnectionHoldMetricsConfig {
+
+	@Bean
+	public static BeanPostProcessor connectionHoldMetricsPostProcessor(ObjectProvider<ExecutionPhaseMetrics> phaseMetrics) {
+		return new BeanPostProcessor() {
+			@Override
+			public Object postProcessAfterInitialization(Object bean, String beanName) {
+				if (bean instanceof HikariDataSource) {
+					HikariDataSource hikariDS = (HikariDataSource) bean;
+					if (hikariDS.getMetricsTrackerFactory() == null) {
+						hikariDS.setMetricsTrackerFactory(trackerFactory(phaseMetrics));
+					}
+				}
+				return bean;
+			}
+		};
+	}
+
+	private static MetricsTrackerFactory trackerFactory(ObjectProvider<ExecutionPhaseMetrics> phaseMetrics) {
+		return (poolName, poolStats) -> new IMetricsTracker() {
+			@Override
+			public void recordConnectionUsageMillis(long elapsedBorrowedMillis) {
+				ExecutionPhaseMetrics metrics = phaseMetrics.getIfAvailable();
+				if (metrics != null) {
+					metrics.recordConnectionHold(elapsedBorrowedMillis);
+				}
+			}
+		};
+	}
+}
@@ -15,7 +15,8 @@ public class CorsConfig {
                 registry.addMapping("/**")
                         .allowedOrigins("http://localhost:8080", "http://localhost:3001")
                         .allowedMethods("GET", "POST", "PUT", "DELETE", "PATCH", "OPTIONS")
-                        .allowedHeaders("*");
+                        .allowedHeaders("*")
+                        .exposedHeaders("ETag", "X-Tree-Version", "X-Next-Cursor"); // so the dashboards can send them back in If-None-Match, since and cursor
             }
         };
     }
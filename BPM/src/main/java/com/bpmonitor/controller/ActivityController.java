@@ -10,10 +10,12 @@ import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
 import com.bpmonitor.DTOs.CreateActivityDTO;
 import com.bpmonitor.customExceptions.EntityNotFoundException;
+import com.bpmonitor.enums.OperationalStatus;
 import com.bpmonitor.models.Activity;
 import com.bpmonitor.services.ActivityService;
 
@@ -86,16 +88,25 @@ public class ActivityController {
 	
 	
 	/**
-	 * Fetches all activities from the DB.
-	 * @return - a response entity containing all
-	 *  activities if the operation is succesful.
+	 * Fetches one page of activities, by id, without their tasks.
+	 * The cursor of the next page comes in the X-Next-Cursor header, there's no header on the last page.
+	 * @param cursor - X-Next-Cursor of the previous page, none for the first one.
+	 * @param limit - activities per page, bpm.paging.default-limit by default and never more than bpm.paging.max-limit.
+	 * @param status - only activities with this status.
+	 * @param subprocessId - only the activities of this subprocess.
+	 * @return - the page, 400 for a bad cursor.
 	 */
 	 @GetMapping("/getAll")
-	 public ResponseEntity<?> getAllActivities() {
+	 public ResponseEntity<?> getAllActivities(
+			 @RequestParam(required = false) String cursor,
+			 @RequestParam(required = false) Integer limit,
+			 @RequestParam(required = false) OperationalStatus status,
+			 @RequestParam(required = false) Long subprocessId) {
 	    	log.info("Received request to /getAllActvities");
 	    	try {
-	    	   List<Activity> activities =  actService.getAllActivities();
-	    	   return ResponseEntity.status(HttpStatus.OK).body(activities);
+	    	   return actService.findActivitiesPage(status, subprocessId, cursor, limit).toResponse();
+	       }catch(IllegalArgumentException e) {
+	    	   return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(e.getMessage()); // a cursor of another list
 	       }catch(Exception e) {
 	         	return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body("An error occurred while fetching all tasks");
 	       }
@@ -11,12 +11,14 @@ import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
 import com.bpmonitor.DTOs.CreateInterfaceDTO;
 import com.bpmonitor.DTOs.response.InterfaceResponseDTO;
 import com.bpmonitor.DTOs.response.InterfaceTreeNodeDTO;
 import com.bpmonitor.customExceptions.EntityNotFoundException;
+import com.bpmonitor.enums.OperationalStatus;
 import com.bpmonitor.models.Interface;
 import com.bpmonitor.services.InterfaceService;
 
@@ -79,11 +81,25 @@ public class EDPRInterfaceController {
 	        }
 	    }
 
+	    /**
+	     * Fetches one page of EDPRInterfaces, by id, without their tasks.
+	     * The cursor of the next page comes in the X-Next-Cursor header, there's no header on the last page.
+	     * @param cursor - X-Next-Cursor of the previous page, none for the first one.
+	     * @param limit - interfaces per page, bpm.paging.default-limit by default and never more than bpm.paging.max-limit.
+	     * @param status - only interfaces with this status.
+	     * @param systemId - only the interfaces coming from or going to this system.
+	     * @return the page, 400 for a bad cursor.
+	     */
 	    @GetMapping("/getAll")
-	    public ResponseEntity<?> getAllInterfaces() {
+	    public ResponseEntity<?> getAllInterfaces(
+	    		@RequestParam(required = false) String cursor,
+	    		@RequestParam(required = false) Integer limit,
+	    		@RequestParam(required = false) OperationalStatus status,
+	    		@RequestParam(required = false) Long systemId) {
 	        try {
-	            List<Interface> EDPRInterfaces = edprIntService.getAllInterfaces();
-	            return ResponseEntity.status(HttpStatus.OK).body(EDPRInterfaces);
+	            return edprIntService.findInterfacesPage(status, systemId, cursor, limit).toResponse();
+	        } catch (IllegalArgumentException e) {
+	            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(e.getMessage()); // a cursor of another list
 	        } catch (Exception e) {
 	            log.error("Error fetching all EDPRInterfaces: {}", e.getMessage());
 	            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
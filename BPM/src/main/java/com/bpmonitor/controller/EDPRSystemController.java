@@ -11,11 +11,14 @@ import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
 import com.bpmonitor.DTOs.CreateSystemDTO;
 import com.bpmonitor.DTOs.response.SystemResponseDTO;
 import com.bpmonitor.DTOs.response.SystemTreeNodeDTO;
+import com.bpmonitor.enums.EDPRLocal;
+import com.bpmonitor.enums.OperationalStatus;
 import com.bpmonitor.models.System;
 import com.bpmonitor.services.SystemService;
 
@@ -82,12 +85,25 @@ public class EDPRSystemController {
         }
     }
 
-    // Endpoint to get all EDPRSystems
+    /**
+     * Fetches one page of EDPRSystems, by id, without their tasks.
+     * The cursor of the next page comes in the X-Next-Cursor header, there's no header on the last page.
+     * @param cursor - X-Next-Cursor of the previous page, none for the first one.
+     * @param limit - systems per page, bpm.paging.default-limit by default and never more than bpm.paging.max-limit.
+     * @param status - only systems with this status.
+     * @param local - only systems at this local.
+     * @return the page, 400 for a bad cursor.
+     */
     @GetMapping("/getAll")
-    public ResponseEntity<?> getAllEDPRSystems() {
+    public ResponseEntity<?> getAllEDPRSystems(
+            @RequestParam(required = false) String cursor,
+            @RequestParam(required = false) Integer limit,
+            @RequestParam(required = false) OperationalStatus status,
+            @RequestParam(required = false) EDPRLocal local) {
         try {
-            List<System> systems = edprSystemService.findAllEDPRSystems();
-            return ResponseEntity.status(HttpStatus.OK).body(systems);
+            return edprSystemService.findEDPRSystemsPage(status, local, cursor, limit).toResponse();
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(e.getMessage()); // a cursor of another list
         } catch (Exception e) {
             log.error("Error fetching all EDPRSystems: {}", e.getMessage());
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
@@ -0,0 +1,136 @@
+package com.bpmonitor.controller;
+
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.Callable;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.NativeWebRequest;
+import org.springframework.web.context.request.async.CallableProcessingInterceptor;
+import org.springframework.web.context.request.async.WebAsyncUtils;
+
+import com.bpmonitor.enums.ExportFormat;
+import com.bpmonitor.enums.RollupLevel;
+import com.bpmonitor.enums.TaskStatus;
+import com.bpmonitor.services.ResultExportService;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Streams task results and errors out as NDJSON or CSV, for periods too long to page through /getAll.
+ * @author joao7
+ */
+@RestController
+@RequestMapping("/Export")
+@Slf4j
+public class ExportController {
+
+	private static final String EXPORT_PERMIT = ExportController.class.getName() + ".PERMIT";
+	private static final DateTimeFormatter FILE_DATE = DateTimeFormatter.ofPattern("yyyyMMdd'T'HHmm");
+
+	private final ResultExportService exportService;
+
+	public ExportController(ResultExportService exportService) {
+		this.exportService = exportService;
+	}
+
+
+	/**
+	 * Exports the results of a period, oldest first, written as they are read.
+	 * @param format - NDJSON (the default) or CSV.
+	 * @param from - start, ISO date-time, a day before to by default.
+	 * @param to - end, ISO date-time, now by default.
+	 * @param level - TASK, ACTIVITY, SUBPROCESS, PROCESS, SYSTEM or INTERFACE, to only export the tasks under a node.
+	 * @param id - id of that node.
+	 * @param status - only export results with this status.
+	 * @param request - the request, the export's permit is given back when it completes.
+	 * @return the streamed file. 400 for a bad parameter or period, 503 when too many exports are running.
+	 */
+	@GetMapping("/results")
+	public ResponseEntity<?> exportResults(
+			@RequestParam(defaultValue = "NDJSON") String format,
+			@RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+			@RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to,
+			@RequestParam(required = false) String level,
+			@RequestParam(required = false) Long id,
+			@RequestParam(required = false) String status,
+			HttpServletRequest request) {
+		return export(request, "task-results", false, format, from, to, level, id, status);
+	}
+
+	/**
+	 * Exports the errors of a period, oldest first, with the task and status of their result. Workloads aren't exported.
+	 * @param format - NDJSON (the default) or CSV.
+	 * @param from - start, ISO date-time, a day before to by default.
+	 * @param to - end, ISO date-time, now by default.
+	 * @param level - TASK, ACTIVITY, SUBPROCESS, PROCESS, SYSTEM or INTERFACE, to only export the tasks under a node.
+	 * @param id - id of that node.
+	 * @param status - only export errors of results with this status.
+	 * @param request - the request, the export's permit is given back when it completes.
+	 * @return the streamed file. 400 for a bad parameter or period, 503 when too many exports are running.
+	 */
+	@GetMapping("/errors")
+	public ResponseEntity<?> exportErrors(
+			@RequestParam(defaultValue = "NDJSON") String format,
+			@RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+			@RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to,
+			@RequestParam(required = false) String level,
+			@RequestParam(required = false) Long id,
+			@RequestParam(required = false) String status,
+			HttpServletRequest request) {
+		return export(request, "task-errors", true, format, from, to, level, id, status);
+	}
+
+
+	private ResponseEntity<?> export(HttpServletRequest request, String name, boolean errors, String format, LocalDateTime from, LocalDateTime to,
+			String level, Long id, String status) {
+		ExportFormat exportFormat;
+		RollupLevel rollupLevel;
+		TaskStatus taskStatus;
+		try {
+			exportFormat = ExportFormat.valueOf(format.toUpperCase());
+			rollupLevel = level == null ? null : RollupLevel.valueOf(level.toUpperCase());
+			taskStatus = status == null ? null : TaskStatus.valueOf(status.toUpperCase());
+		} catch (IllegalArgumentException e) {
+			return ResponseEntity.status(HttpStatus.BAD_REQUEST).body("Unknown format, level or status.");
+		}
+		if (rollupLevel != null && id == null) {
+			return ResponseEntity.status(HttpStatus.BAD_REQUEST).body("An id is needed with a level.");
+		}
+		LocalDateTime end = to == null ? LocalDateTime.now() : to;
+		LocalDateTime start = from == null ? end.minusDays(1) : from;
+		if (!start.isBefore(end)) {
+			return ResponseEntity.status(HttpStatus.BAD_REQUEST).body("from must be before to.");
+		}
+
+		ResultExportService.ExportBody body = errors
+				? exportService.exportErrors(exportFormat, start, end, rollupLevel, id, taskStatus)
+				: exportService.exportResults(exportFormat, start, end, rollupLevel, id, taskStatus);
+		if (body == null) {
+			log.warn("Refused an export of {}, too many running", name);
+			return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body("Too many exports running, try again later.");
+		}
+		// the body runs on an async thread, if the request times out or fails before it does it never will
+		WebAsyncUtils.getAsyncManager(request).registerCallableInterceptor(EXPORT_PERMIT, new CallableProcessingInterceptor() {
+			@Override
+			public <T> void afterCompletion(NativeWebRequest webRequest, Callable<T> task) {
+				body.abandon();
+			}
+		});
+		String filename = name + "-" + start.format(FILE_DATE) + "-" + end.format(FILE_DATE) + "." + exportFormat.getExtension();
+		return ResponseEntity.ok()
+				.contentType(MediaType.parseMediaType(exportFormat.getContentType() + ";charset=UTF-8"))
+				.header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + filename + "\"")
+				.body(body);
+	}
+}
@@ -0,0 +1,110 @@
+package com.bpmonitor.controller;
+
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import com.bpmonitor.DTOs.response.ResultHistorySummaryResponseDTO;
+import com.bpmonitor.DTOs.response.ResultRollupBucketResponseDTO;
+import com.bpmonitor.enums.RollupGrain;
+import com.bpmonitor.enums.RollupLevel;
+import com.bpmonitor.services.ResultRollupService;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Serves the history of tasks and their parents from the hourly and daily rollups, never from the raw results.
+ * @author joao7
+ */
+@RestController
+@RequestMapping("/History")
+@Slf4j
+public class HistoryController {
+
+	private static final long MAX_HOURLY_BUCKETS = 24L * 31; // a month of hours in one response
+
+	private final ResultRollupService rollupService;
+
+	public HistoryController(ResultRollupService rollupService) {
+		this.rollupService = rollupService;
+	}
+
+
+	/**
+	 * Fetches the hourly or daily buckets of a node.
+	 * @param level - TASK, ACTIVITY, SUBPROCESS, PROCESS, SYSTEM or INTERFACE.
+	 * @param id - id of the node.
+	 * @param grain - HOUR (the default) or DAY.
+	 * @param from - start, ISO date-time, a day before to by default.
+	 * @param to - end, ISO date-time, now by default.
+	 * @return the buckets that had results, oldest first. 400 for an unknown level or grain, a bad period
+	 *  or more than a month of hours.
+	 */
+	@GetMapping("/{level}/{id}")
+	public ResponseEntity<?> getBuckets(
+			@PathVariable String level,
+			@PathVariable Long id,
+			@RequestParam(defaultValue = "HOUR") String grain,
+			@RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+			@RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to) {
+		try {
+			RollupLevel rollupLevel = RollupLevel.valueOf(level.toUpperCase());
+			RollupGrain rollupGrain = RollupGrain.valueOf(grain.toUpperCase());
+			LocalDateTime end = to == null ? LocalDateTime.now() : to;
+			LocalDateTime start = from == null ? end.minusDays(1) : from;
+			if (!start.isBefore(end)) {
+				return ResponseEntity.status(HttpStatus.BAD_REQUEST).body("from must be before to.");
+			}
+			if (rollupGrain == RollupGrain.HOUR && ChronoUnit.HOURS.between(start, end) > MAX_HOURLY_BUCKETS) {
+				return ResponseEntity.status(HttpStatus.BAD_REQUEST).body("Ask for daily buckets over more than a month.");
+			}
+			List<ResultRollupBucketResponseDTO> buckets = rollupService.getBuckets(rollupLevel, id, rollupGrain, start, end);
+			return ResponseEntity.status(HttpStatus.OK).body(buckets);
+		} catch (IllegalArgumentException e) {
+			return ResponseEntity.status(HttpStatus.BAD_REQUEST).body("Unknown level or grain.");
+		} catch (Exception e) {
+			log.error("Couldn't read the history of {} {}", level, id, e);
+			return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body("An error occurred while fetching the history.");
+		}
+	}
+
+	/**
+	 * Adds up the history of a node over a period: counts per status, availability, first and last failure and latency.
+	 * @param level - TASK, ACTIVITY, SUBPROCESS, PROCESS, SYSTEM or INTERFACE.
+	 * @param id - id of the node.
+	 * @param from - start, ISO date-time, 30 days before to by default.
+	 * @param to - end, ISO date-time, now by default.
+	 * @return the summary (availability null if nothing ran in the period), 400 for an unknown level or a bad period.
+	 */
+	@GetMapping("/{level}/{id}/summary")
+	public ResponseEntity<?> getSummary(
+			@PathVariable String level,
+			@PathVariable Long id,
+			@RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+			@RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to) {
+		try {
+			RollupLevel rollupLevel = RollupLevel.valueOf(level.toUpperCase());
+			LocalDateTime end = to == null ? LocalDateTime.now() : to;
+			LocalDateTime start = from == null ? end.minusDays(30) : from;
+			if (!start.isBefore(end)) {
+				return ResponseEntity.status(HttpStatus.BAD_REQUEST).body("from must be before to.");
+			}
+			ResultHistorySummaryResponseDTO summary = rollupService.getSummary(rollupLevel, id, start, end);
+			return ResponseEntity.status(HttpStatus.OK).body(summary);
+		} catch (IllegalArgumentException e) {
+			return ResponseEntity.status(HttpStatus.BAD_REQUEST).body("Unknown level.");
+		} catch (Exception e) {
+			log.error("Couldn't read the history summary of {} {}", level, id, e);
+			return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body("An error occurred while fetching the history summary.");
+		}
+	}
+}
@@ -0,0 +1,322 @@
+package com.bpmonitor.controller;
+
+import java.util.List;
+
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import com.bpmonitor.DTOs.response.ClusterMetricsResponseDTO;
+import com.bpmonitor.DTOs.response.ExecutionPhaseMetricsResponseDTO;
+import com.bpmonitor.DTOs.response.HierarchyGraphMetricsResponseDTO;
+import com.bpmonitor.DTOs.response.HttpProbeEngineMetricsResponseDTO;
+import com.bpmonitor.DTOs.response.JdbcTargetPoolsMetricsResponseDTO;
+import com.bpmonitor.DTOs.response.ProbeCoalescingMetricsResponseDTO;
+import com.bpmonitor.DTOs.response.ProbeConcurrencyLimitResponseDTO;
+import com.bpmonitor.DTOs.response.ProbeDeadlineMetricsResponseDTO;
+import com.bpmonitor.DTOs.response.ReachabilityEngineMetricsResponseDTO;
+import com.bpmonitor.DTOs.response.ResultExportMetricsResponseDTO;
+import com.bpmonitor.DTOs.response.ResultPartitionMetricsResponseDTO;
+import com.bpmonitor.DTOs.response.ResultRetentionMetricsResponseDTO;
+import com.bpmonitor.DTOs.response.ResultRollupMetricsResponseDTO;
+import com.bpmonitor.DTOs.response.SchedulerSlotLoadResponseDTO;
+import com.bpmonitor.DTOs.response.SftpSessionPoolMetricsResponseDTO;
+import com.bpmonitor.DTOs.response.StatusPropagationMetricsResponseDTO;
+import com.bpmonitor.DTOs.response.StatusStreamMetricsResponseDTO;
+import com.bpmonitor.DTOs.response.TaskRegistryMetricsResponseDTO;
+import com.bpmonitor.DTOs.response.TaskSingleFlightResponseDTO;
+import com.bpmonitor.DTOs.response.TreeSnapshotMetricsResponseDTO;
+import com.bpmonitor.DTOs.response.WriteBehindMetricsResponseDTO;
+import com.bpmonitor.cluster.ClusterShardManager;
+import com.bpmonitor.executors.ExecutionPhaseMetrics;
+import com.bpmonitor.executors.ProbeCoalescer;
+import com.bpmonitor.executors.ProbeConcurrencyLimiter;
+import com.bpmonitor.executors.ProbeDeadlines;
+import com.bpmonitor.executors.TaskSingleFlight;
+import com.bpmonitor.hierarchy.HierarchyGraph;
+import com.bpmonitor.probes.HttpProbeEngine;
+import com.bpmonitor.probes.JdbcTargetPools;
+import com.bpmonitor.probes.ReachabilityEngine;
+import com.bpmonitor.probes.SftpSessionPool;
+import com.bpmonitor.registry.TaskRegistry;
+import com.bpmonitor.schedulers.TaskSchedulingEngine;
+import com.bpmonitor.services.ResultExportService;
+import com.bpmonitor.services.ResultPartitionManager;
+import com.bpmonitor.services.ResultRetentionService;
+import com.bpmonitor.services.ResultRollupService;
+import com.bpmonitor.services.StatusPropagationService;
+import com.bpmonitor.services.StatusStreamService;
+import com.bpmonitor.services.TaskResultPersistenceService;
+import com.bpmonitor.services.TreeSnapshotService;
+
+
+/**
+ * This class exposes the internal metrics of the monitor itself,
+ * how the scheduler and executors are behaving.
+ * @author joao7
+ */
+@RestController
+@RequestMapping("/Metrics")
+public class MetricsController {
+
+	private final TaskSchedulingEngine schedulingEngine;
+	private final ExecutionPhaseMetrics phaseMetrics;
+	private final TaskResultPersistenceService persistenceService;
+	private final HttpProbeEngine httpProbeEngine;
+	private final ReachabilityEngine reachabilityEngine;
+	private final JdbcTargetPools jdbcTargetPools;
+	private final SftpSessionPool sftpSessionPool;
+	private final TaskRegistry taskRegistry;
+	private final ProbeConcurrencyLimiter concurrencyLimiter;
+	private final ProbeDeadlines probeDeadlines;
+	private final TaskSingleFlight singleFlight;
+	private final ProbeCoalescer probeCoalescer;
+	private final ClusterShardManager shardManager;
+	private final StatusPropagationService statusPropagation;
+	private final HierarchyGraph hierarchyGraph;
+	private final TreeSnapshotService treeSnapshotService;
+	private final StatusStreamService statusStream;
+	private final ResultPartitionManager partitionManager;
+	private final ResultRetentionService retentionService;
+	private final ResultRollupService rollupService;
+	private final ResultExportService exportService;
+
+	public MetricsController(
+			TaskSchedulingEngine schedulingEngine,
+			ExecutionPhaseMetrics phaseMetrics,
+			TaskResultPersistenceService persistenceService,
+			HttpProbeEngine httpProbeEngine,
+			ReachabilityEngine reachabilityEngine,
+			JdbcTargetPools jdbcTargetPools,
+			SftpSessionPool sftpSessionPool,
+			TaskRegistry taskRegistry,
+			ProbeConcurrencyLimiter concurrencyLimiter,
+			ProbeDeadlines probeDeadlines,
+			TaskSingleFlight singleFlight,
+			ProbeCoalescer probeCoalescer,
+			ClusterShardManager shardManager,
+			StatusPropagationService statusPropagation,
+			HierarchyGraph hierarchyGraph,
+			TreeSnapshotService treeSnapshotService,
+			StatusStreamService statusStream,
+			ResultPartitionManager partitionManager,
+			ResultRetentionService retentionService,
+			ResultRollupService rollupService,
+			ResultExportService exportService) {
+		this.schedulingEngine = schedulingEngine;
+		this.phaseMetrics = phaseMetrics;
+		this.persistenceService = persistenceService;
+		this.httpProbeEngine = httpProbeEngine;
+		this.reachabilityEngine = reachabilityEngine;
+		this.jdbcTargetPools = jdbcTargetPools;
+		this.sftpSessionPool = sftpSessionPool;
+		this.taskRegistry = taskRegistry;
+		this.concurrencyLimiter = concurrencyLimiter;
+		this.probeDeadlines = probeDeadlines;
+		this.singleFlight = singleFlight;
+		this.probeCoalescer = probeCoalescer;
+		this.shardManager = shardManager;
+		this.statusPropagation = statusPropagation;
+		this.hierarchyGraph = hierarchyGraph;
+		this.treeSnapshotService = treeSnapshotService;
+		this.statusStream = statusStream;
+		this.partitionManager = partitionManager;
+		this.retentionService = retentionService;
+		this.rollupService = rollupService;
+		this.exportService = exportService;
+	}
+
+	/**
+	 * Gets how many tasks start in each slot of every recurrence period.
+	 * @return one entry per recurrence.
+	 */
+	@GetMapping("/scheduler/slotLoad")
+	public ResponseEntity<List<SchedulerSlotLoadResponseDTO>> getSchedulerSlotLoad() {
+		return ResponseEntity.ok(schedulingEngine.getSlotLoad());
+	}
+
+	/**
+	 * Gets how long task executions spend probing vs persisting,
+	 * and how long the DB connections used in each phase were held.
+	 * @return one entry per execution phase.
+	 */
+	@GetMapping("/executor/phases")
+	public ResponseEntity<List<ExecutionPhaseMetricsResponseDTO>> getExecutorPhases() {
+		return ResponseEntity.ok(phaseMetrics.snapshot());
+	}
+
+	/**
+	 * Gets the state of the write-behind queue that persists results and errors.
+	 * @return queue depth, batches written and failures.
+	 */
+	@GetMapping("/persistence/writeBehind")
+	public ResponseEntity<WriteBehindMetricsResponseDTO> getWriteBehind() {
+		return ResponseEntity.ok(persistenceService.getMetrics());
+	}
+
+	/**
+	 * Gets the state of the non-blocking HTTP probe engine.
+	 * @return checks in flight, kept-alive connections and how often they were reused.
+	 */
+	@GetMapping("/probes/http")
+	public ResponseEntity<HttpProbeEngineMetricsResponseDTO> getHttpProbes() {
+		return ResponseEntity.ok(httpProbeEngine.getMetrics());
+	}
+
+	/**
+	 * Gets the state of the TCP-connect reachability engine.
+	 * @return checks in flight and how many hosts answered.
+	 */
+	@GetMapping("/probes/reachability")
+	public ResponseEntity<ReachabilityEngineMetricsResponseDTO> getReachabilityProbes() {
+		return ResponseEntity.ok(reachabilityEngine.getMetrics());
+	}
+
+	/**
+	 * Gets the state of the connection pools to the databases checked by QUERYDBTASK's.
+	 * @return pools, connections and failures by stage.
+	 */
+	@GetMapping("/probes/jdbc")
+	public ResponseEntity<JdbcTargetPoolsMetricsResponseDTO> getJdbcTargetPools() {
+		return ResponseEntity.ok(jdbcTargetPools.getMetrics());
+	}
+
+	/**
+	 * Gets the state of the SFTP sessions kept for STFPCONNECTIONTASK's.
+	 * @return kept sessions, handshakes and reuses.
+	 */
+	@GetMapping("/probes/sftp")
+	public ResponseEntity<SftpSessionPoolMetricsResponseDTO> getSftpSessions() {
+		return ResponseEntity.ok(sftpSessionPool.getMetrics());
+	}
+
+	/**
+	 * Gets the state of the in-memory task registry the scheduler runs from.
+	 * @return version, tasks kept and how they were kept up to date.
+	 */
+	@GetMapping("/registry")
+	public ResponseEntity<TaskRegistryMetricsResponseDTO> getTaskRegistry() {
+		return ResponseEntity.ok(taskRegistry.getMetrics());
+	}
+
+	/**
+	 * Gets the adaptive concurrency limit of the probes of every task type.
+	 * @return limit, probes in flight and queued, and how long they waited.
+	 */
+	@GetMapping("/executor/limits")
+	public ResponseEntity<List<ProbeConcurrencyLimitResponseDTO>> getProbeLimits() {
+		return ResponseEntity.ok(concurrencyLimiter.getMetrics());
+	}
+
+	/**
+	 * Gets the hard deadline of the probes of every task type and how often it was hit.
+	 * @return deadline, timeouts and probes still running past it.
+	 */
+	@GetMapping("/executor/deadlines")
+	public ResponseEntity<List<ProbeDeadlineMetricsResponseDTO>> getProbeDeadlines() {
+		return ResponseEntity.ok(probeDeadlines.getMetrics());
+	}
+
+	/**
+	 * Gets the tasks skipped the most because their previous run was still in flight.
+	 * @param limit - how many tasks to return at most.
+	 * @return most skipped tasks first, the ones in flight right now included.
+	 */
+	@GetMapping("/executor/singleFlight")
+	public ResponseEntity<List<TaskSingleFlightResponseDTO>> getSingleFlight(
+			@RequestParam(defaultValue = "50") int limit) {
+		return ResponseEntity.ok(singleFlight.getMetrics(Math.max(0, limit)));
+	}
+
+	/**
+	 * Gets how many probes were shared between tasks checking the same target.
+	 * @return probes run, results shared and the duplication factor.
+	 */
+	@GetMapping("/executor/coalescing")
+	public ResponseEntity<ProbeCoalescingMetricsResponseDTO> getProbeCoalescing() {
+		return ResponseEntity.ok(probeCoalescer.getMetrics());
+	}
+
+	/**
+	 * Gets this node's view of the cluster, the live nodes and the shards of tasks it runs.
+	 * @return node id, live nodes and owned shards.
+	 */
+	@GetMapping("/cluster")
+	public ResponseEntity<ClusterMetricsResponseDTO> getCluster() {
+		return ResponseEntity.ok(shardManager.getMetrics());
+	}
+
+	/**
+	 * Gets how much work propagating task results up the hierarchy took.
+	 * @return results, how many changed nothing and the transitions of every level.
+	 */
+	@GetMapping("/propagation")
+	public ResponseEntity<StatusPropagationMetricsResponseDTO> getStatusPropagation() {
+		return ResponseEntity.ok(statusPropagation.getMetrics());
+	}
+
+	/**
+	 * Gets the size of the in-memory hierarchy the tree endpoints read and how it's kept up to date.
+	 * @return version, nodes per level and how many updates and rebuilds it took.
+	 */
+	@GetMapping("/hierarchy")
+	public ResponseEntity<HierarchyGraphMetricsResponseDTO> getHierarchy() {
+		return ResponseEntity.ok(hierarchyGraph.getMetrics());
+	}
+
+	/**
+	 * Gets how often the process and subprocess trees were rendered and how many polls got a 304.
+	 * @return version, size, renders and polls of each tree.
+	 */
+	@GetMapping("/trees")
+	public ResponseEntity<TreeSnapshotMetricsResponseDTO> getTreeSnapshots() {
+		return ResponseEntity.ok(treeSnapshotService.getMetrics());
+	}
+
+	/**
+	 * Gets the dashboards connected to the status stream and what was pushed to them.
+	 * @return subscribers, transitions published once and written to each subscriber.
+	 */
+	@GetMapping("/stream")
+	public ResponseEntity<StatusStreamMetricsResponseDTO> getStatusStream() {
+		return ResponseEntity.ok(statusStream.getMetrics());
+	}
+
+	/**
+	 * Gets the daily partitions of TASK_RESULT and TASK_ERROR and what their maintenance did.
+	 * @return days kept, partitions created ahead and dropped.
+	 */
+	@GetMapping("/partitions")
+	public ResponseEntity<ResultPartitionMetricsResponseDTO> getResultPartitions() {
+		return ResponseEntity.ok(partitionManager.getMetrics());
+	}
+
+	/**
+	 * Gets the retention policies of task results and how fast old results are purged.
+	 * @return policies, rows purged and the rows per second of the last pass.
+	 */
+	@GetMapping("/retention")
+	public ResponseEntity<ResultRetentionMetricsResponseDTO> getResultRetention() {
+		return ResponseEntity.ok(retentionService.getMetrics());
+	}
+
+	/**
+	 * Gets how task results are folded into the hourly and daily rollups.
+	 * @return results recorded, rows merged per flush and rows purged.
+	 */
+	@GetMapping("/rollups")
+	public ResponseEntity<ResultRollupMetricsResponseDTO> getResultRollups() {
+		return ResponseEntity.ok(rollupService.getMetrics());
+	}
+
+	/**
+	 * Gets the streaming exports of results and errors.
+	 * @return exports running, rows exported and the rows per second of the last export.
+	 */
+	@GetMapping("/exports")
+	public ResponseEntity<ResultExportMetricsResponseDTO> getResultExports() {
+		return ResponseEntity.ok(exportService.getMetrics());
+	}
+}
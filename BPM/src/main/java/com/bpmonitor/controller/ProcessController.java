@@ -3,7 +3,10 @@ package com.bpmonitor.controller;
 import java.util.List;
 import java.util.Optional;
 
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.CrossOrigin;
 import org.springframework.web.bind.annotation.DeleteMapping;
@@ -12,15 +15,18 @@ import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
 import com.bpmonitor.DTOs.CreateProcessDTO;
 import com.bpmonitor.DTOs.response.ProcessResponseDTO;
-import com.bpmonitor.DTOs.response.ProcessTreeNodeResponseDTO;
-import com.bpmonitor.DTOs.response.SubprocessTreeNodeResponseDTO;
+import com.bpmonitor.enums.OperationalStatus;
 import com.bpmonitor.models.Process;
 import com.bpmonitor.services.ProcessService;
+import com.bpmonitor.services.TreeSnapshotService;
+import com.bpmonitor.services.TreeSnapshotService.TreeSnapshot;
 
 import lombok.extern.slf4j.Slf4j;
 
@@ -31,10 +37,14 @@ import lombok.extern.slf4j.Slf4j;
 @Slf4j
 public class ProcessController {
 
+	private static final String TREE_VERSION_HEADER = "X-Tree-Version"; // the since to send for only the changes
+
 	private final ProcessService processService;
+	private final TreeSnapshotService treeSnapshotService;
 
-    public ProcessController(ProcessService processService) {
+    public ProcessController(ProcessService processService, TreeSnapshotService treeSnapshotService) {
         this.processService = processService;
+        this.treeSnapshotService = treeSnapshotService;
     }
 
     /**
@@ -63,32 +73,86 @@ public class ProcessController {
     
 
     /**
-     * Gets all processes.
-     * @return List of processes
+     * Gets one page of processes, by id, without their subprocesses.
+     * The cursor of the next page comes in the X-Next-Cursor header, there's no header on the last page.
+     * @param cursor - X-Next-Cursor of the previous page, none for the first one.
+     * @param limit - processes per page, bpm.paging.default-limit by default and never more than bpm.paging.max-limit.
+     * @param status - only processes with this status.
+     * @return the page, 400 for a bad cursor.
      */
     @GetMapping("/getAll")
-    public ResponseEntity<List<Process>> getAllProcesses() {
-        List<Process> processes = processService.findAllProcesses();
-        return ResponseEntity.ok(processes);
+    public ResponseEntity<?> getAllProcesses(
+            @RequestParam(required = false) String cursor,
+            @RequestParam(required = false) Integer limit,
+            @RequestParam(required = false) OperationalStatus status) {
+        try {
+            return processService.findProcessesPage(status, cursor, limit).toResponse();
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(e.getMessage()); // a cursor of another list
+        }
     }
     
     /**
-     * Gets all process treeNodes to represent in a tree table
+     * Gets all process treeNodes to represent in a tree table.
+     * The body is a list of ProcessTreeNodeResponseDTO, already serialized.
+     * @param ifNoneMatch - ETag of the version the client has, 304 if it's still the current one.
+     * @param since - X-Tree-Version of the version the client has, the body is then a TreeDeltaResponseDTO
+     * with only what changed since it.
      */
     @GetMapping("/getProcessTreeNodes")
-    public ResponseEntity<List<ProcessTreeNodeResponseDTO>> getAllProcessTreeNodes(){
-    	List<ProcessTreeNodeResponseDTO> processes = processService.GetProcessTreeNodes();
-    	return ResponseEntity.ok(processes);
+    public ResponseEntity<byte[]> getAllProcessTreeNodes(
+    		@RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch,
+    		@RequestParam(required = false) String since){
+    	if (since != null) {
+    		return deltaResponse(treeSnapshotService.getProcessTreeSince(since));
+    	}
+    	return treeResponse(treeSnapshotService.getProcessTree(), ifNoneMatch);
     }
 
     
     /**
-     * Gets all process treeNodes to represent in a tree table
+     * Gets all process treeNodes to represent in a tree table, down to the tasks and their results.
+     * The body is a list of SubprocessTreeNodeResponseDTO, already serialized.
+     * @param ifNoneMatch - ETag of the version the client has, 304 if it's still the current one.
+     * @param since - X-Tree-Version of the version the client has, the body is then a TreeDeltaResponseDTO
+     * with only what changed since it.
      */
     @GetMapping("/getSubprocessTreeNodes")
-    public ResponseEntity<List<SubprocessTreeNodeResponseDTO>> getAllSubprocessTreeNodes(){
-    	List<SubprocessTreeNodeResponseDTO> processes = processService.GetSubprocessTreeNodes();
-    	return ResponseEntity.ok(processes);
+    public ResponseEntity<byte[]> getAllSubprocessTreeNodes(
+    		@RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch,
+    		@RequestParam(required = false) String since){
+    	if (since != null) {
+    		return deltaResponse(treeSnapshotService.getSubprocessTreeSince(since));
+    	}
+    	return treeResponse(treeSnapshotService.getSubprocessTree(), ifNoneMatch);
+    }
+
+    /**
+     * the cached bytes go out as they are, Jackson isn't involved.
+     */
+    private ResponseEntity<byte[]> treeResponse(TreeSnapshot tree, String ifNoneMatch) {
+    	if (treeSnapshotService.isNotModified(tree, ifNoneMatch)) {
+    		return ResponseEntity.status(HttpStatus.NOT_MODIFIED)
+    				.eTag(tree.getEtag())
+    				.cacheControl(CacheControl.noCache())
+    				.build();
+    	}
+    	return ResponseEntity.ok()
+    			.contentType(MediaType.APPLICATION_JSON)
+    			.eTag(tree.getEtag())
+    			.header(TREE_VERSION_HEADER, tree.getVersionToken())
+    			.cacheControl(CacheControl.noCache())
+    			.body(tree.getJson());
+    }
+
+    /**
+     * a delta depends on the since it was asked with, nothing in between should keep it.
+     */
+    private ResponseEntity<byte[]> deltaResponse(byte[] delta) {
+    	return ResponseEntity.ok()
+    			.contentType(MediaType.APPLICATION_JSON)
+    			.cacheControl(CacheControl.noStore())
+    			.body(delta);
     }
     
     
@@ -0,0 +1,59 @@
+package com.bpmonitor.controller;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import com.bpmonitor.services.StatusStreamService;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Exposes the status transitions as a Server-Sent Events stream.
+ * @author joao7
+ */
+@RestController
+@RequestMapping("/Stream")
+@Slf4j
+public class StatusStreamController {
+
+	private final StatusStreamService statusStream;
+
+	public StatusStreamController(StatusStreamService statusStream) {
+		this.statusStream = statusStream;
+	}
+
+
+	/**
+	 * Streams the status transitions of tasks, activities, subprocesses, processes, systems and interfaces.
+	 * Every transition is a "transition" event with a StatusTransitionEventDTO, a "reset" event means
+	 * some were missed and the trees should be loaded again.
+	 * @param level - PROCESS, SUBPROCESS, ACTIVITY, TASK, SYSTEM or INTERFACE, to only get the transitions under that node.
+	 * @param id - id of that node.
+	 * @param lastEventId - sent by EventSource when it reconnects, what was missed meanwhile is replayed.
+	 * @return the stream, 400 for an unknown level, 503 if too many dashboards are connected.
+	 */
+	@GetMapping("/transitions")
+	public ResponseEntity<SseEmitter> streamTransitions(
+			@RequestParam(required = false) String level,
+			@RequestParam(required = false) Long id,
+			@RequestHeader(value = "Last-Event-ID", required = false) String lastEventId) {
+		try {
+			SseEmitter emitter = statusStream.subscribe(level, id, lastEventId);
+			if (emitter == null) {
+				log.warn("Refused a status stream connection, too many dashboards are connected");
+				return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build();
+			}
+			// typed as SseEmitter so MVC streams it instead of writing it as JSON
+			return ResponseEntity.ok(emitter);
+		} catch (IllegalArgumentException e) {
+			log.debug("Bad status stream scope : {}", e.getMessage());
+			return ResponseEntity.status(HttpStatus.BAD_REQUEST).build();
+		}
+	}
+}
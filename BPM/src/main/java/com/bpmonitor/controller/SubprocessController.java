@@ -10,10 +10,12 @@ import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
 import com.bpmonitor.DTOs.CreateSubprocessDTO;
 import com.bpmonitor.customExceptions.EntityNotFoundException;
+import com.bpmonitor.enums.OperationalStatus;
 import com.bpmonitor.models.Subprocess;
 import com.bpmonitor.services.SubprocessService;
 
@@ -84,15 +86,24 @@ public class SubprocessController {
 	
 	
 	/**
-	 * Fetches all Subprocesses from the DB.
-	 * @return - a response entity containing all
-	 *  activities if the operation is succesful.
+	 * Fetches one page of Subprocesses, by id, without their activities.
+	 * The cursor of the next page comes in the X-Next-Cursor header, there's no header on the last page.
+	 * @param cursor - X-Next-Cursor of the previous page, none for the first one.
+	 * @param limit - subprocesses per page, bpm.paging.default-limit by default and never more than bpm.paging.max-limit.
+	 * @param status - only subprocesses with this status.
+	 * @param processId - only the subprocesses of this process.
+	 * @return - the page, 400 for a bad cursor.
 	 */
 	 @GetMapping("/getAll")
-	 public ResponseEntity<?> getAllSubprocesses() {
+	 public ResponseEntity<?> getAllSubprocesses(
+			 @RequestParam(required = false) String cursor,
+			 @RequestParam(required = false) Integer limit,
+			 @RequestParam(required = false) OperationalStatus status,
+			 @RequestParam(required = false) Long processId) {
 	    	try {
-	    	   List<Subprocess> subprocesses =  subprocessService.findAllSubprocesses();
-	    	   return ResponseEntity.status(HttpStatus.OK).body(subprocesses);
+	    	   return subprocessService.findSubprocessesPage(status, processId, cursor, limit).toResponse();
+	       }catch(IllegalArgumentException e) {
+	    	   return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(e.getMessage()); // a cursor of another list
 	       }catch(Exception e) {
 	         	return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body("An error occurred while fetching all subprocesses");
 	       }
@@ -10,6 +10,7 @@ import com.bpmonitor.DTOs.CreateTaskDTO;
 import com.bpmonitor.DTOs.response.ProcessTreeNodeResponseDTO;
 import com.bpmonitor.DTOs.response.TaskTreeResponseDTO;
 import com.bpmonitor.enums.TaskRecurrence;
+import com.bpmonitor.enums.TaskStatus;
 import com.bpmonitor.enums.TaskType;
 import com.bpmonitor.models.Task;
 import com.bpmonitor.services.TaskService;
@@ -29,13 +30,35 @@ public class TaskController {
         this.taskService = taskService;
 		}
 	  
+	    /**
+	     * Fetches one page of tasks, by id, without their results.
+	     * The cursor of the next page comes in the X-Next-Cursor header, there's no header on the last page.
+	     * @param cursor - X-Next-Cursor of the previous page, none for the first one.
+	     * @param limit - tasks per page, bpm.paging.default-limit by default and never more than bpm.paging.max-limit.
+	     * @param type - only tasks of this type.
+	     * @param recurrence - only tasks with this recurrence.
+	     * @param status - only tasks with this status.
+	     * @param activityId - only the tasks of this activity.
+	     * @param systemId - only the tasks of this system.
+	     * @param interfaceId - only the tasks of this interface.
+	     * @return the page, 400 for a bad cursor.
+	     */
 	    @GetMapping("/getAll")
-	    public ResponseEntity<?> getAllTasks() {
+	    public ResponseEntity<?> getAllTasks(
+	    		@RequestParam(required = false) String cursor,
+	    		@RequestParam(required = false) Integer limit,
+	    		@RequestParam(required = false) TaskType type,
+	    		@RequestParam(required = false) TaskRecurrence recurrence,
+	    		@RequestParam(required = false) TaskStatus status,
+	    		@RequestParam(required = false) Long activityId,
+	    		@RequestParam(required = false) Long systemId,
+	    		@RequestParam(required = false) Long interfaceId) {
 	    	log.info("Received request to /getAll");
 	       
 	    	try {
-	    	   List<Task> tasks =  taskService.getAllTasks();
-	    	   return ResponseEntity.status(HttpStatus.OK).body(tasks);
+	    	   return taskService.findTasksPage(type, recurrence, status, activityId, systemId, interfaceId, cursor, limit).toResponse();
+	       }catch(IllegalArgumentException e) {
+	    	   return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(e.getMessage()); // a cursor of another list
 	       }catch(Exception e) {
    	         	return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body("An error occurred while fetching all tasks");
 	       }
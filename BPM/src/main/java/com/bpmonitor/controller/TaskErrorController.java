@@ -1,16 +1,21 @@
 package com.bpmonitor.controller;
 
+import java.time.LocalDateTime;
 import java.util.List;
 import java.util.Optional;
 
+import org.springframework.format.annotation.DateTimeFormat;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
 import com.bpmonitor.customExceptions.EntityNotFoundException;
+import com.bpmonitor.enums.TaskStatus;
+import com.bpmonitor.enums.TaskType;
 import com.bpmonitor.models.TaskError;
 import com.bpmonitor.models.TaskValidationResult;
 import com.bpmonitor.services.TaskErrorService;
@@ -28,15 +33,30 @@ public class TaskErrorController {
 	
 	
 	/**
-	 * Fetches all TaskErrors from the DB.
-	 * @return - a response entity containing all
-	 *  TaskErrors if the operation is succesful.
+	 * Fetches one page of TaskErrors, newest first.
+	 * The cursor of the next page comes in the X-Next-Cursor header, there's no header on the last page.
+	 * @param cursor - X-Next-Cursor of the previous page, none for the first one.
+	 * @param limit - errors per page, bpm.paging.default-limit by default and never more than bpm.paging.max-limit.
+	 * @param status - only errors of results with this status.
+	 * @param type - only errors of tasks of this type.
+	 * @param taskId - only the errors of this task.
+	 * @param from - only errors at or after this, ISO date-time.
+	 * @param to - only errors before this, ISO date-time.
+	 * @return - the page, 400 for a bad cursor.
 	 */
 	 @GetMapping("/getAll")
-	 public ResponseEntity<?> getAllTaskErrors() {
+	 public ResponseEntity<?> getAllTaskErrors(
+			 @RequestParam(required = false) String cursor,
+			 @RequestParam(required = false) Integer limit,
+			 @RequestParam(required = false) TaskStatus status,
+			 @RequestParam(required = false) TaskType type,
+			 @RequestParam(required = false) Long taskId,
+			 @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+			 @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to) {
 	    	try {
-	    	   List<TaskError> results =  taskErrorService.findAllTaskErrors();
-	    	   return ResponseEntity.status(HttpStatus.OK).body(results);
+	    	   return taskErrorService.findTaskErrorsPage(status, type, taskId, from, to, cursor, limit).toResponse();
+	       }catch(IllegalArgumentException e) {
+	    	   return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(e.getMessage()); // a cursor of another list
 	       }catch(Exception e) {
 	         	return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body("An error occurred while fetching all taskErrors.");
 	       }
@@ -0,0 +1,18 @@
+package com.bpmonitor.customExceptions;
+
+import com.bpmonitor.enums.DBCheckStage;
+
+public class DBCheckException extends RuntimeException {
+
+	private final DBCheckStage stage;
+
+	// a database check failed, stage tells at which point.
+	public DBCheckException(DBCheckStage stage, String message) {
+		super(message);
+		this.stage = stage;
+	}
+
+	public DBCheckStage getStage() {
+		return stage;
+	}
+}
@@ -0,0 +1,9 @@
+package com.bpmonitor.customExceptions;
+
+public class InvalidWorkloadException extends RuntimeException {
+
+	// the workload json of a task can't be compiled into it's typed workload.
+	public InvalidWorkloadException(String message) {
+		super(message);
+	}
+}
@@ -0,0 +1,9 @@
+package com.bpmonitor.customExceptions;
+
+public class ResultBacklogFullException extends RuntimeException {
+
+	// the write-behind queue of results is full, or shutting down, so the result can't be taken.
+	public ResultBacklogFullException(String message) {
+		super(message);
+	}
+}
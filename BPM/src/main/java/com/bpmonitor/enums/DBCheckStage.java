@@ -0,0 +1,10 @@
+package com.bpmonitor.enums;
+
+/**
+ * where a database check (QUERYDBTASK) failed.
+ */
+public enum DBCheckStage {
+	ACQUIRE, // no connection of the target's pool became free in time
+	LOGIN,   // the driver couldn't open a connection (network, credentials...)
+	QUERY    // connected, but the query itself failed
+}
@@ -0,0 +1,25 @@
+package com.bpmonitor.enums;
+
+/**
+ * the formats results and errors can be exported in, one row per line either way.
+ */
+public enum ExportFormat {
+	NDJSON("application/x-ndjson", "ndjson"), // a JSON object per line
+	CSV("text/csv", "csv"); // a header line then the rows, RFC 4180 quoting
+
+	private final String contentType;
+	private final String extension;
+
+	ExportFormat(String contentType, String extension) {
+		this.contentType = contentType;
+		this.extension = extension;
+	}
+
+	public String getContentType() {
+		return contentType;
+	}
+
+	public String getExtension() {
+		return extension;
+	}
+}
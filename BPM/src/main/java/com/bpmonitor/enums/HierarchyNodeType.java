@@ -0,0 +1,12 @@
+package com.bpmonitor.enums;
+
+/**
+ * the levels of the monitored hierarchy that have a status of their own.
+ */
+public enum HierarchyNodeType {
+	PROCESS,
+	SUBPROCESS,
+	ACTIVITY,
+	SYSTEM,
+	INTERFACE
+}
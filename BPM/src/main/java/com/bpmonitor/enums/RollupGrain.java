@@ -0,0 +1,28 @@
+package com.bpmonitor.enums;
+
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+
+/**
+ * the size of the time buckets task results are rolled up into.
+ */
+public enum RollupGrain {
+	HOUR,
+	DAY;
+
+	/**
+	 * @param at - when a result was taken.
+	 * @return the start of the bucket it falls in.
+	 */
+	public LocalDateTime bucketOf(LocalDateTime at) {
+		return at.truncatedTo(this == HOUR ? ChronoUnit.HOURS : ChronoUnit.DAYS);
+	}
+
+	/**
+	 * @param bucketStart - the start of a bucket.
+	 * @return the start of the next one.
+	 */
+	public LocalDateTime next(LocalDateTime bucketStart) {
+		return this == HOUR ? bucketStart.plusHours(1) : bucketStart.plusDays(1);
+	}
+}
@@ -0,0 +1,13 @@
+package com.bpmonitor.enums;
+
+/**
+ * the levels task results are rolled up at, a task and every node above it.
+ */
+public enum RollupLevel {
+	TASK,
+	ACTIVITY,
+	SUBPROCESS,
+	PROCESS,
+	SYSTEM,
+	INTERFACE
+}
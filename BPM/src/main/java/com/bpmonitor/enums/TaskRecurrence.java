@@ -1,10 +1,23 @@
 package com.bpmonitor.enums;
 
 public enum TaskRecurrence {
-	EVERY_5_MINUTES,
-	EVERY_10_MINUTES,
-	EVERY_30_MINUTES,
-	EVERY_HOUR,
-	EVERY_DAY
+	EVERY_5_MINUTES(5 * 60 * 1000L),
+	EVERY_10_MINUTES(10 * 60 * 1000L),
+	EVERY_30_MINUTES(30 * 60 * 1000L),
+	EVERY_HOUR(60 * 60 * 1000L),
+	EVERY_DAY(24 * 60 * 60 * 1000L);
+
+	private final long periodMillis; // how long between two runs of the same task
+
+	TaskRecurrence(long periodMillis) {
+		this.periodMillis = periodMillis;
+	}
+
+	/**
+	 * @return the period of this recurrence in milliseconds.
+	 */
+	public long getPeriodMillis() {
+		return periodMillis;
+	}
 
 }
@@ -5,5 +5,13 @@ import com.bpmonitor.models.Task;
 public enum TaskStatus {
 	  UNRUN,    // Task has not been run yet
       SUCCESS,  // Task completed successfully
-      FAIL      // Task failed
+      FAIL,     // Task failed
+      TIMEOUT;  // Task didn't finish before it's probe deadline and was cancelled
+
+	/**
+	 * @return true for the statuses that count as a failed task up the hierarchy.
+	 */
+	public boolean isFailure() {
+		return this == FAIL || this == TIMEOUT;
+	}
 }
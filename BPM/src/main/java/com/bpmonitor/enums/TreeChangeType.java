@@ -0,0 +1,11 @@
+package com.bpmonitor.enums;
+
+/**
+ * what happened to a node of a tree between two versions of it.
+ */
+public enum TreeChangeType {
+	ADDED,
+	REMOVED,
+	STATUS_CHANGED,
+	UPDATED // renamed or moved to another parent, the change carries the whole node
+}
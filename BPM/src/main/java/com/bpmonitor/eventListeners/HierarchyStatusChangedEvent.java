@@ -0,0 +1,20 @@
+package com.bpmonitor.eventListeners;
+
+import java.util.List;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * Published once per propagation window with every status transition of that window,
+ * bottom-up (activities before their subprocesses before their processes).
+ * The transitions are already written to the DB when it's published.
+ * @author joao7
+ *
+ */
+@Getter
+@AllArgsConstructor
+public class HierarchyStatusChangedEvent {
+
+	private final List<StatusTransition> transitions;
+}
@@ -0,0 +1,27 @@
+package com.bpmonitor.eventListeners;
+
+import java.time.LocalDateTime;
+
+import com.bpmonitor.enums.HierarchyNodeType;
+import com.bpmonitor.enums.OperationalStatus;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * A node of the hierarchy that changed status, immutable.
+ * @author joao7
+ *
+ */
+@Getter
+@AllArgsConstructor
+@ToString
+public class StatusTransition {
+
+	private final HierarchyNodeType nodeType;
+	private final Long nodeId;
+	private final OperationalStatus previousStatus; // null if the node had none yet
+	private final OperationalStatus newStatus;
+	private final LocalDateTime at;
+}
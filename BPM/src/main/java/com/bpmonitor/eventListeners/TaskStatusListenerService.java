@@ -7,14 +7,14 @@ import org.springframework.stereotype.Service;
 import org.springframework.transaction.event.TransactionPhase;
 import org.springframework.transaction.event.TransactionalEventListener;
 
+import com.bpmonitor.enums.TaskStatus;
+import com.bpmonitor.hierarchy.HierarchyGraph;
 import com.bpmonitor.models.Task;
 import com.bpmonitor.models.TaskValidationResult;
-import com.bpmonitor.services.ActivityService;
-import com.bpmonitor.services.InterfaceService;
-import com.bpmonitor.services.ProcessService;
-import com.bpmonitor.services.SubprocessService;
-import com.bpmonitor.services.SystemService;
-import com.bpmonitor.services.TaskService;
+import com.bpmonitor.registry.TaskRegistry;
+import com.bpmonitor.registry.TaskSpec;
+import com.bpmonitor.services.StatusPropagationService;
+import com.bpmonitor.services.StatusStreamService;
 
 import lombok.extern.slf4j.Slf4j;
 
@@ -23,23 +23,18 @@ import lombok.extern.slf4j.Slf4j;
 public class TaskStatusListenerService {
 
 	
-	private final TaskService taskService;
-    private final ActivityService activityService;
-    private final SubprocessService subprocessService;
-    private final ProcessService processService;
-    private final SystemService systemService;
-    private final InterfaceService interfaceService;
+	private final TaskRegistry taskRegistry;
+	private final StatusPropagationService statusPropagation;
+	private final HierarchyGraph hierarchyGraph;
+	private final StatusStreamService statusStream;
 
     // Constructor injection of services
-    public TaskStatusListenerService(TaskService taskService, ActivityService activityService,
-                                     SubprocessService subprocessService, ProcessService processService,
-                                     SystemService systemService, InterfaceService interfaceService) {
-        this.taskService = taskService;
-        this.activityService = activityService;
-        this.subprocessService = subprocessService;
-        this.processService = processService;
-        this.systemService = systemService;
-        this.interfaceService = interfaceService;
+    public TaskStatusListenerService(TaskRegistry taskRegistry, StatusPropagationService statusPropagation,
+    		HierarchyGraph hierarchyGraph, StatusStreamService statusStream) {
+        this.taskRegistry = taskRegistry;
+        this.statusPropagation = statusPropagation;
+        this.hierarchyGraph = hierarchyGraph;
+        this.statusStream = statusStream;
     }
 
     @EventListener
@@ -53,28 +48,22 @@ public class TaskStatusListenerService {
         
         log.debug("I have been called and am holding the task ID: {} and have the result for validation : {}", task.getTaskID(), result.getStatus());
 
-        // Perform asynchronous updates to the related entities
-        taskService.updateTaskStatusBasedOnResult(task, result); // this one isn't being saved right! added save
+        // the task that ran is detached, where it sits in the hierarchy comes from the registry
+        TaskSpec spec = taskRegistry.get(task.getTaskID());
+        if (spec == null) {
+        	log.debug("Task {} was deleted before it's result was handled", task.getTaskID());
+        	return;
+        }
 
-        // Update activity status based on the task
-        activityService.updateActivityStatusBasedOnTasks(
-        		task.getActivity().getActivityID());
+        // only what changed moves up: the task, then each parent whose status flips
+        statusPropagation.onTaskResult(spec, result.getStatus());
 
-        // Update subprocess status based on the activity
-        subprocessService.updateSubprocessStatusBasedOnActivityStatus(
-        		task.getActivity().getSubprocess().getSubprocessID());
-        
-        processService.updateProcessStatusBasedOnSubprocesses(
-        		task.getActivity().getSubprocess().getProcess().getProcessID());
+        // the tree endpoints see the result right away, without reading it back
+        TaskStatus previousStatus = hierarchyGraph.onTaskResult(task.getTaskID(), result);
 
-        if(task.getSystem() != null) {
-        // update system status based on it's tasks
-        systemService.updateSystemStatusBasedOnTasks(task.getSystem().getSystemID());
-        }
-        
-        if(task.getInterface() != null) {
-        // same for interfaces
-        interfaceService.updateInterfaceStatusBasedOnTasks(task.getInterface().getInterfaceID());
+        // and the dashboards on the status stream get it pushed, their parents follow with the propagation window
+        if (previousStatus != null) {
+        	statusStream.onTaskTransition(task.getTaskID(), previousStatus, result.getStatus(), result.getTimestamp());
         }
     }
 }
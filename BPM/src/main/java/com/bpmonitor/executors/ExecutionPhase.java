@@ -0,0 +1,11 @@
+package com.bpmonitor.executors;
+
+/**
+ * the phases a task execution goes through, used to attribute
+ * time and DB connection usage to each one of them.
+ */
+public enum ExecutionPhase {
+	PROBE,   // the task talks to it's target (ping, http, jdbc...), no transaction open
+	PERSIST, // a batch of results and errors is written to the DB by the write-behind writer
+	OTHER    // anything outside a task execution (REST API, schedulers...)
+}
@@ -0,0 +1,120 @@
+package com.bpmonitor.executors;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.springframework.stereotype.Component;
+
+import com.bpmonitor.DTOs.response.ExecutionPhaseMetricsResponseDTO;
+
+/**
+ * Keeps track of how long task executions spend in each phase, and how long
+ * the DB connections borrowed during each phase were held.
+ *
+ * The current phase is kept per thread, so the connection pool can attribute a
+ * returned connection to the phase of the thread that returns it.
+ * @author joao7
+ *
+ */
+@Component
+public class ExecutionPhaseMetrics {
+
+	private final ThreadLocal<ExecutionPhase> currentPhase = new ThreadLocal<>();
+	private final Map<ExecutionPhase, PhaseStats> stats = new EnumMap<>(ExecutionPhase.class);
+
+	public ExecutionPhaseMetrics() {
+		for (ExecutionPhase phase : ExecutionPhase.values()) {
+			stats.put(phase, new PhaseStats());
+		}
+	}
+
+	/**
+	 * marks the calling thread as being in the given phase.
+	 * @param phase - phase we're entering.
+	 * @return start time in nanos, to hand back to exit.
+	 */
+	public long enter(ExecutionPhase phase) {
+		currentPhase.set(phase);
+		return java.lang.System.nanoTime();
+	}
+
+	/**
+	 * marks the calling thread as out of the phase and records how long it took.
+	 * @param phase - phase we're leaving.
+	 * @param startNanos - value returned by enter.
+	 */
+	public void exit(ExecutionPhase phase, long startNanos) {
+		detach();
+		record(phase, startNanos);
+	}
+
+	/**
+	 * marks the calling thread as out of any phase without recording anything,
+	 * for phases that go on asynchronously on other threads.
+	 */
+	public void detach() {
+		currentPhase.remove();
+	}
+
+	/**
+	 * records how long a phase took, wherever it ended.
+	 * @param phase - phase that ended.
+	 * @param startNanos - value returned by enter.
+	 */
+	public void record(ExecutionPhase phase, long startNanos) {
+		long elapsedMillis = (java.lang.System.nanoTime() - startNanos) / 1_000_000;
+		PhaseStats phaseStats = stats.get(phase);
+		phaseStats.executions.increment();
+		phaseStats.totalPhaseMillis.add(elapsedMillis);
+		phaseStats.maxPhaseMillis.accumulate(elapsedMillis);
+	}
+
+	/**
+	 * records a connection being given back to the pool by the calling thread.
+	 * @param heldMillis - how long the connection was borrowed.
+	 */
+	public void recordConnectionHold(long heldMillis) {
+		ExecutionPhase phase = currentPhase.get();
+		PhaseStats phaseStats = stats.get(phase != null ? phase : ExecutionPhase.OTHER);
+		phaseStats.connections.increment();
+		phaseStats.totalHoldMillis.add(heldMillis);
+		phaseStats.maxHoldMillis.accumulate(heldMillis);
+	}
+
+	/**
+	 * @return a snapshot of every phase.
+	 */
+	public List<ExecutionPhaseMetricsResponseDTO> snapshot() {
+		List<ExecutionPhaseMetricsResponseDTO> response = new ArrayList<>();
+		for (Map.Entry<ExecutionPhase, PhaseStats> entry : stats.entrySet()) {
+			PhaseStats s = entry.getValue();
+			long executions = s.executions.sum();
+			long connections = s.connections.sum();
+			long totalHold = s.totalHoldMillis.sum();
+			response.add(new ExecutionPhaseMetricsResponseDTO(
+					entry.getKey(),
+					executions,
+					executions == 0 ? 0 : (double) s.totalPhaseMillis.sum() / executions,
+					s.maxPhaseMillis.get(),
+					connections,
+					connections == 0 ? 0 : (double) totalHold / connections,
+					s.maxHoldMillis.get(),
+					totalHold));
+		}
+		return response;
+	}
+
+
+	private static final class PhaseStats {
+		private final LongAdder executions = new LongAdder();
+		private final LongAdder totalPhaseMillis = new LongAdder();
+		private final LongAccumulator maxPhaseMillis = new LongAccumulator(Math::max, 0);
+		private final LongAdder connections = new LongAdder();
+		private final LongAdder totalHoldMillis = new LongAdder();
+		private final LongAccumulator maxHoldMillis = new LongAccumulator(Math::max, 0);
+	}
+}
@@ -0,0 +1,155 @@
+package com.bpmonitor.executors;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import com.bpmonitor.DTOs.response.ProbeCoalescingMetricsResponseDTO;
+import com.bpmonitor.enums.TaskType;
+import com.bpmonitor.models.Task;
+import com.bpmonitor.models.TaskValidationResult;
+import com.bpmonitor.workloads.TaskWorkload;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Probes a target once for every task that checks it.
+ *
+ * Tasks of different activities and systems often check the same host, url or query.
+ * Their workloads have the same probe target, so when a task is due while the probe of another task
+ * with the same target is in flight (or finished less than reuse-ms ago) it doesn't probe at all:
+ * it gets a result of it's own with the outcome of that probe.
+ * The TaskSchedulingEngine phases tasks by their probe target, so tasks with the same target come due
+ * on the same tick and land here together.
+ * Probe failures and timeouts are shared the same way.
+ * @author joao7
+ *
+ */
+@Slf4j
+@Component
+public class ProbeCoalescer {
+
+	private final ProbeDeadlines probeDeadlines;
+	private final boolean enabled;
+	private final long reuseNanos;
+
+	private final Map<String, SharedProbe> probes = new ConcurrentHashMap<>();
+
+	private final LongAdder probed = new LongAdder(); // probes actually run for a shareable target
+	private final LongAdder coalesced = new LongAdder(); // results taken from another task's probe
+	private final LongAdder unshared = new LongAdder(); // tasks without a probe target
+
+	public ProbeCoalescer(
+			ProbeDeadlines probeDeadlines,
+			@Value("${bpm.coalescing.enabled:true}") boolean enabled,
+			@Value("${bpm.coalescing.reuse-ms:1000}") long reuseMs) {
+		this.probeDeadlines = probeDeadlines;
+		this.enabled = enabled;
+		this.reuseNanos = Math.max(0, reuseMs) * 1_000_000L;
+	}
+
+
+	/**
+	 * runs the probe of a task under it's deadline, or joins the probe of it's target already running.
+	 * @param task - task to probe.
+	 * @param taskType - it's type, null for untyped tasks.
+	 * @param permit - the task's concurrency permit, given back right away when the task joins another probe
+	 * since it isn't probing anything (and it's wait mustn't count as a probe latency).
+	 * @param onSettled - runs when the probe this task got it's result from is really over.
+	 * @return completes with the task's result, or fails like the probe did.
+	 */
+	public CompletableFuture<TaskValidationResult> run(Task task, TaskType taskType,
+			ProbeConcurrencyLimiter.Permit permit, Runnable onSettled) {
+		TaskWorkload workload = enabled ? task.compiledWorkloadOrNull() : null;
+		String target = workload == null ? null : workload.getProbeTarget();
+		if (target == null) {
+			unshared.increment();
+			return probeDeadlines.run(task, taskType, onSettled);
+		}
+
+		long now = java.lang.System.nanoTime();
+		SharedProbe own = new SharedProbe(task.getTaskID());
+		SharedProbe shared = probes.compute(target, (key, current) ->
+				current != null && current.joinableAt(now, reuseNanos) ? current : own);
+
+		if (shared != own) {
+			coalesced.increment();
+			permit.release(false);
+			log.debug("Task {} shares the probe of task {}", task.getTaskID(), shared.leaderTaskId);
+			shared.outcome.whenComplete((result, error) -> onSettled.run());
+			return shared.outcome.thenApply(result -> fanOut(task, shared.leaderTaskId, result));
+		}
+
+		probed.increment();
+		CompletableFuture<TaskValidationResult> outcome = probeDeadlines.run(task, taskType, onSettled);
+		outcome.whenComplete((result, error) -> {
+			own.settledNanos = java.lang.System.nanoTime();
+			if (error == null) {
+				own.outcome.complete(result);
+			} else {
+				own.outcome.completeExceptionally(error);
+			}
+			if (reuseNanos == 0) {
+				probes.remove(target, own);
+			}
+		});
+		return outcome;
+	}
+
+	/**
+	 * forgets probes settled longer than reuse-ms ago.
+	 */
+	@Scheduled(fixedRateString = "${bpm.coalescing.purge-interval-ms:60000}")
+	public void purgeSettled() {
+		long now = java.lang.System.nanoTime();
+		probes.entrySet().removeIf(entry -> !entry.getValue().joinableAt(now, reuseNanos));
+	}
+
+	/**
+	 * @return how many probes were saved by sharing them.
+	 */
+	public ProbeCoalescingMetricsResponseDTO getMetrics() {
+		long probes = probed.sum();
+		long shared = coalesced.sum();
+		return new ProbeCoalescingMetricsResponseDTO(
+				enabled,
+				reuseNanos / 1_000_000L,
+				this.probes.size(),
+				probes,
+				shared,
+				unshared.sum(),
+				probes == 0 ? 0 : (double) (probes + shared) / probes);
+	}
+
+
+	/**
+	 * the result of a task that shared the probe of another one, it keeps the outcome and the description of the probe.
+	 */
+	private static TaskValidationResult fanOut(Task task, Long leaderTaskId, TaskValidationResult probe) {
+		task.setTaskStatus(probe.getStatus());
+		return new TaskValidationResult(task, probe.getStatus(), probe.getTimestamp(),
+				probe.getResultDescription() + " (shared probe of task " + leaderTaskId + ")");
+	}
+
+	private static final class SharedProbe {
+		private final Long leaderTaskId;
+		private final CompletableFuture<TaskValidationResult> outcome = new CompletableFuture<>();
+		private volatile long settledNanos;
+
+		private SharedProbe(Long leaderTaskId) {
+			this.leaderTaskId = leaderTaskId;
+		}
+
+		/**
+		 * settledNanos is written before the outcome completes, so a done outcome always has it.
+		 */
+		private boolean joinableAt(long nowNanos, long reuseNanos) {
+			return !outcome.isDone() || nowNanos - settledNanos <= reuseNanos;
+		}
+	}
+}
@@ -0,0 +1,388 @@
+package com.bpmonitor.executors;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import com.bpmonitor.DTOs.response.ProbeConcurrencyLimitResponseDTO;
+import com.bpmonitor.enums.TaskType;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Caps how many probes of each task type are in flight, with a limit that adapts (AIMD)
+ * to the latency the probes of that type are seeing.
+ *
+ * - a probe that succeeds within latency-tolerance times the baseline latency of it's target
+ *   grows the limit by 1/limit, so about +1 per limit's worth of probes (additive increase)
+ * - a slower one, a probe cut by it's deadline, or the executor rejecting the dispatch, shrinks it
+ *   by backoff-ratio, at most once per round trip of the type so one burst doesn't collapse it (multiplicative decrease)
+ * - failed probes don't move the limit, a target that's down says nothing about our load,
+ *   and neither does a deadline hit by a target that never answered before
+ * - the baseline is per target, a fast target and a slow one of the same type are each measured against themselves,
+ *   it's a moving average over a long window of that target's probes, so it follows drift without one lucky probe setting it
+ * - the round trip of the type is a moving average over a short window of every probe, timeouts included
+ *
+ * Dispatches over the limit wait in a FIFO queue per type until a permit frees up,
+ * if they're still waiting after queue-timeout-ms they're dropped and counted, never silently.
+ * @author joao7
+ *
+ */
+@Slf4j
+@Component
+public class ProbeConcurrencyLimiter {
+
+	private static final String UNTYPED = "OTHER"; // tasks without a TaskType of their own
+	private static final int BASELINE_WINDOW = 100; // probes of a target it's baseline averages over
+	private static final int RTT_WINDOW = 20; // probes of a type it's round trip averages over
+	private static final long MIN_DECREASE_SPACING_NANOS = 100_000_000L;
+	private static final int MAX_TARGETS = 10_000; // baselines kept per type, the least recently probed go first
+
+	private final double initialLimit;
+	private final int minLimit;
+	private final int maxLimit;
+	private final int queueCapacity;
+	private final long queueTimeoutNanos;
+	private final double latencyTolerance;
+	private final double backoffRatio;
+
+	private final Map<String, TypeLimit> limits = new ConcurrentHashMap<>();
+
+	public ProbeConcurrencyLimiter(
+			@Value("${bpm.limiter.initial-limit:16}") int initialLimit,
+			@Value("${bpm.limiter.min-limit:2}") int minLimit,
+			@Value("${bpm.limiter.max-limit:256}") int maxLimit,
+			@Value("${bpm.limiter.queue-capacity:1000}") int queueCapacity,
+			@Value("${bpm.limiter.queue-timeout-ms:30000}") long queueTimeoutMs,
+			@Value("${bpm.limiter.latency-tolerance:2.0}") double latencyTolerance,
+			@Value("${bpm.limiter.backoff-ratio:0.9}") double backoffRatio) {
+		this.minLimit = Math.max(1, minLimit);
+		this.maxLimit = Math.max(this.minLimit, maxLimit);
+		this.initialLimit = Math.min(this.maxLimit, Math.max(this.minLimit, initialLimit));
+		this.queueCapacity = Math.max(0, queueCapacity);
+		this.queueTimeoutNanos = queueTimeoutMs * 1_000_000L;
+		this.latencyTolerance = Math.max(1.0, latencyTolerance);
+		this.backoffRatio = Math.min(0.99, Math.max(0.1, backoffRatio));
+	}
+
+
+	/**
+	 * runs the dispatch now if the type is under it's limit, queues it otherwise.
+	 * The dispatch gets a permit it must release when the probe is over,
+	 * if it throws a RejectedExecutionException the permit is released as an overload.
+	 * @param taskType - type of the task, null for untyped tasks.
+	 * @param taskId - id of the task, for the logs.
+	 * @param target - probe target of the task, it's latency is measured against that target's baseline,
+	 * null when the task has none (then it's measured against it's own).
+	 * @param dispatch - starts the probe.
+	 * @param dropped - runs instead if the probe never starts (queue full, waited too long or the dispatch failed).
+	 * @return false if the queue of that type is full and the dispatch was dropped.
+	 */
+	public boolean submit(TaskType taskType, long taskId, String target, Consumer<Permit> dispatch, Runnable dropped) {
+		TypeLimit limit = limits.computeIfAbsent(taskType == null ? UNTYPED : taskType.name(), TypeLimit::new);
+		Waiter waiter = new Waiter(taskId, target == null ? "task " + taskId : target, dispatch, dropped,
+				java.lang.System.nanoTime());
+		List<Waiter> ready = new ArrayList<>(1);
+		boolean accepted = limit.offer(waiter, ready);
+		start(limit, ready);
+		if (!accepted) {
+			log.warn("{} probe queue is full, task {} was dropped", limit.name, taskId);
+			dropped.run();
+		}
+		return accepted;
+	}
+
+	/**
+	 * drops queued dispatches that waited too long, for types with nothing completing to do it.
+	 */
+	@Scheduled(fixedRateString = "${bpm.scheduler.tick-ms:1000}")
+	public void expireQueued() {
+		for (TypeLimit limit : limits.values()) {
+			List<Waiter> ready = new ArrayList<>();
+			limit.drain(ready);
+			start(limit, ready);
+		}
+	}
+
+	/**
+	 * @return the current limit, in flight count and queue of every task type seen so far.
+	 */
+	public List<ProbeConcurrencyLimitResponseDTO> getMetrics() {
+		List<ProbeConcurrencyLimitResponseDTO> response = new ArrayList<>();
+		for (TypeLimit limit : new TreeMap<>(limits).values()) {
+			response.add(limit.snapshot());
+		}
+		return response;
+	}
+
+
+	private void start(TypeLimit limit, List<Waiter> ready) {
+		for (Waiter waiter : ready) {
+			Permit permit = new Permit(this, limit, waiter.taskId, waiter.target);
+			try {
+				waiter.dispatch.accept(permit);
+			} catch (RejectedExecutionException e) {
+				log.warn("Executor rejected task {}, {} limit backs off", waiter.taskId, limit.name);
+				permit.releaseOverloaded();
+				waiter.dropped.run();
+			} catch (RuntimeException e) {
+				log.error("Failed to dispatch task {}", waiter.taskId, e);
+				permit.release(false);
+				waiter.dropped.run();
+			}
+		}
+	}
+
+	private void released(TypeLimit limit, String target, long latencyNanos, Outcome outcome) {
+		List<Waiter> ready = new ArrayList<>();
+		limit.release(target, latencyNanos, outcome, ready);
+		start(limit, ready);
+	}
+
+
+	/**
+	 * exponential moving average over about window samples, the first sample starts it.
+	 */
+	static double average(double current, long sample, int window) {
+		if (current == 0) {
+			return sample;
+		}
+		return current + (sample - current) * 2.0 / (window + 1);
+	}
+
+
+	private enum Outcome {
+		HEALTHY, // probe succeeded, it's latency is a sample
+		IGNORED, // probe failed, says nothing about our load
+		TIMED_OUT, // probe was cut by it's deadline
+		OVERLOADED // the dispatch itself was rejected
+	}
+
+	/**
+	 * A slot of the limit of one task type, release it exactly once when the probe is over.
+	 */
+	public static final class Permit {
+		private final ProbeConcurrencyLimiter limiter;
+		private final TypeLimit limit;
+		private final long taskId;
+		private final String target;
+		private final long grantedNanos = java.lang.System.nanoTime();
+		private final AtomicBoolean released = new AtomicBoolean();
+
+		private Permit(ProbeConcurrencyLimiter limiter, TypeLimit limit, long taskId, String target) {
+			this.limiter = limiter;
+			this.limit = limit;
+			this.taskId = taskId;
+			this.target = target;
+		}
+
+		/**
+		 * @param succeeded - true if the probe got an answer from it's target,
+		 * only those are used to adapt the limit.
+		 */
+		public void release(boolean succeeded) {
+			finish(succeeded ? Outcome.HEALTHY : Outcome.IGNORED);
+		}
+
+		/**
+		 * the probe ran into it's deadline, an overload unless it's target never answered before.
+		 */
+		public void releaseTimedOut() {
+			finish(Outcome.TIMED_OUT);
+		}
+
+		/**
+		 * the probe couldn't even start because we're overloaded.
+		 */
+		public void releaseOverloaded() {
+			finish(Outcome.OVERLOADED);
+		}
+
+		public long getTaskId() {
+			return taskId;
+		}
+
+		private void finish(Outcome outcome) {
+			if (released.compareAndSet(false, true)) {
+				limiter.released(limit, target, java.lang.System.nanoTime() - grantedNanos, outcome);
+			}
+		}
+	}
+
+	private static final class Waiter {
+		private final long taskId;
+		private final String target;
+		private final Consumer<Permit> dispatch;
+		private final Runnable dropped;
+		private final long queuedNanos;
+
+		private Waiter(long taskId, String target, Consumer<Permit> dispatch, Runnable dropped, long queuedNanos) {
+			this.taskId = taskId;
+			this.target = target;
+			this.dispatch = dispatch;
+			this.dropped = dropped;
+			this.queuedNanos = queuedNanos;
+		}
+	}
+
+	/**
+	 * limit, in flight count and queue of one task type.
+	 */
+	private final class TypeLimit {
+		private final String name;
+		private final ArrayDeque<Waiter> queue = new ArrayDeque<>();
+
+		private double limit = initialLimit;
+		private int inFlight;
+		private double rttNanos; // 0 until the first probe is over
+		private long lastDecreaseNanos;
+		// smoothed latency of each target, access ordered so the least recently probed is dropped first
+		private final LinkedHashMap<String, double[]> baselines = new LinkedHashMap<String, double[]>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, double[]> eldest) {
+				return size() > MAX_TARGETS;
+			}
+		};
+
+		private long dispatched;
+		private long queuedTotal;
+		private long expired;
+		private long rejected;
+		private long overloads;
+		private long totalQueueWaitNanos;
+		private long maxQueueWaitNanos;
+
+		private TypeLimit(String name) {
+			this.name = name;
+		}
+
+		/**
+		 * @return false if the queue is full.
+		 */
+		private synchronized boolean offer(Waiter waiter, List<Waiter> ready) {
+			drain(waiter.queuedNanos, ready); // the ones already waiting go first
+			if (queue.isEmpty() && inFlight < (int) limit) {
+				grant(waiter, waiter.queuedNanos, ready);
+				return true;
+			}
+			if (queue.size() >= queueCapacity) {
+				rejected++;
+				return false;
+			}
+			queue.addLast(waiter);
+			queuedTotal++;
+			return true;
+		}
+
+		private synchronized void release(String target, long latencyNanos, Outcome outcome, List<Waiter> ready) {
+			inFlight--;
+			long now = java.lang.System.nanoTime();
+			if (outcome == Outcome.HEALTHY) {
+				rttNanos = average(rttNanos, latencyNanos, RTT_WINDOW);
+				double[] baseline = baselines.get(target);
+				if (baseline == null) {
+					baselines.put(target, new double[] { latencyNanos });
+					grow();
+				} else {
+					boolean slow = latencyNanos > baseline[0] * latencyTolerance;
+					baseline[0] = average(baseline[0], latencyNanos, BASELINE_WINDOW);
+					if (slow) {
+						decrease(now);
+					} else {
+						grow();
+					}
+				}
+			} else if (outcome == Outcome.TIMED_OUT) {
+				rttNanos = average(rttNanos, latencyNanos, RTT_WINDOW);
+				if (baselines.containsKey(target)) {
+					overloads++;
+					decrease(now);
+				}
+			} else if (outcome == Outcome.OVERLOADED) {
+				overloads++;
+				decrease(now);
+			}
+			drain(now, ready);
+		}
+
+		private synchronized void drain(List<Waiter> ready) {
+			drain(java.lang.System.nanoTime(), ready);
+		}
+
+		private void drain(long now, List<Waiter> ready) {
+			expireHead(now);
+			while (!queue.isEmpty() && inFlight < (int) limit) {
+				grant(queue.pollFirst(), now, ready);
+			}
+		}
+
+		private void grant(Waiter waiter, long now, List<Waiter> ready) {
+			long waited = now - waiter.queuedNanos;
+			inFlight++;
+			dispatched++;
+			totalQueueWaitNanos += waited;
+			maxQueueWaitNanos = Math.max(maxQueueWaitNanos, waited);
+			ready.add(waiter);
+		}
+
+		/**
+		 * every waiter has the same timeout, so the oldest ones are always at the head.
+		 */
+		private void expireHead(long now) {
+			while (!queue.isEmpty() && now - queue.peekFirst().queuedNanos > queueTimeoutNanos) {
+				Waiter dropped = queue.pollFirst();
+				expired++;
+				log.debug("Task {} waited over the queue timeout for a {} permit, dropped", dropped.taskId, name);
+				dropped.dropped.run();
+			}
+		}
+
+		private void grow() {
+			limit = Math.min(maxLimit, limit + 1.0 / limit);
+		}
+
+		/**
+		 * the probes that were in flight when the limit was cut still report the overload they saw,
+		 * waiting a round trip before cutting again keeps one overload from being counted many times.
+		 */
+		private void decrease(long now) {
+			long spacing = Math.max(MIN_DECREASE_SPACING_NANOS, (long) rttNanos);
+			if (lastDecreaseNanos != 0 && now - lastDecreaseNanos < spacing) {
+				return;
+			}
+			limit = Math.max(minLimit, limit * backoffRatio);
+			lastDecreaseNanos = now;
+		}
+
+		private synchronized ProbeConcurrencyLimitResponseDTO snapshot() {
+			long oldestWait = queue.isEmpty() ? 0 : java.lang.System.nanoTime() - queue.peekFirst().queuedNanos;
+			return new ProbeConcurrencyLimitResponseDTO(
+					name,
+					(int) limit,
+					inFlight,
+					queue.size(),
+					(long) rttNanos / 1_000_000L,
+					dispatched,
+					queuedTotal,
+					expired,
+					rejected,
+					overloads,
+					dispatched == 0 ? 0 : (double) totalQueueWaitNanos / dispatched / 1_000_000d,
+					maxQueueWaitNanos / 1_000_000L,
+					oldestWait / 1_000_000L);
+		}
+	}
+}
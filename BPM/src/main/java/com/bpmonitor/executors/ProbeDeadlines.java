@@ -0,0 +1,161 @@
+package com.bpmonitor.executors;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.bpmonitor.DTOs.response.ProbeDeadlineMetricsResponseDTO;
+import com.bpmonitor.customExceptions.TaskTimeoutException;
+import com.bpmonitor.enums.TaskType;
+import com.bpmonitor.models.Task;
+import com.bpmonitor.models.TaskValidationResult;
+import com.bpmonitor.probes.ProbeDeadline;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Runs every probe under a hard deadline for it's task type.
+ *
+ * The probe gets a ProbeDeadline: it caps it's own timeouts with it and registers how to cancel
+ * what it blocks on, and the calling thread is bound to it while the probe runs on it.
+ * When the deadline expires the returned future fails with a TaskTimeoutException right away,
+ * the cancel actions run and the bound thread is interrupted, so a hung probe can't hold a thread
+ * much past it's deadline. Probes still running after their deadline are counted as lingering.
+ * @author joao7
+ *
+ */
+@Slf4j
+@Component
+public class ProbeDeadlines {
+
+	private final long defaultMs;
+	private final Map<TaskType, Long> deadlineMs = new EnumMap<>(TaskType.class);
+	private final Map<String, TypeStats> stats = new ConcurrentHashMap<>();
+
+	// one thread is plenty, it only fires expiries
+	private final ScheduledThreadPoolExecutor timer;
+
+	public ProbeDeadlines(
+			@Value("${bpm.deadlines.default-ms:30000}") long defaultMs,
+			@Value("${bpm.deadlines.http-ms:15000}") long httpMs,
+			@Value("${bpm.deadlines.ping-ms:8000}") long pingMs,
+			@Value("${bpm.deadlines.query-db-ms:30000}") long queryDbMs,
+			@Value("${bpm.deadlines.sftp-ms:20000}") long sftpMs) {
+		this.defaultMs = defaultMs;
+		deadlineMs.put(TaskType.HTTPCHECKTASK, httpMs);
+		deadlineMs.put(TaskType.PINGSERVERTASK, pingMs);
+		deadlineMs.put(TaskType.QUERYDBTASK, queryDbMs);
+		deadlineMs.put(TaskType.STFPCONNECTIONTASK, sftpMs);
+
+		this.timer = new ScheduledThreadPoolExecutor(1, runnable -> {
+			Thread thread = new Thread(runnable, "ProbeDeadline");
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.timer.setRemoveOnCancelPolicy(true); // most deadlines are cancelled, don't keep them queued
+	}
+
+	@PreDestroy
+	public void stop() {
+		timer.shutdownNow();
+	}
+
+
+	/**
+	 * starts the probe of a task under the deadline of it's type.
+	 * @param task - task to probe.
+	 * @param taskType - it's type, null for untyped tasks.
+	 * @param onSettled - runs when the probe is really over, for a lingering probe that's after the deadline.
+	 * @return completes with the probe's result, or fails with a TaskTimeoutException at the deadline.
+	 */
+	public CompletableFuture<TaskValidationResult> run(Task task, TaskType taskType, Runnable onSettled) {
+		long budget = deadlineFor(taskType);
+		TypeStats typeStats = stats.computeIfAbsent(taskType == null ? "OTHER" : taskType.name(), k -> new TypeStats());
+		typeStats.executions.increment();
+
+		long startNanos = java.lang.System.nanoTime();
+		ProbeDeadline deadline = ProbeDeadline.in(budget);
+		CompletableFuture<TaskValidationResult> outcome = new CompletableFuture<>();
+
+		ScheduledFuture<?> expiry = timer.schedule(() -> {
+			if (outcome.completeExceptionally(new TaskTimeoutException(
+					"Probe of task " + task.getTaskID() + " didn't finish within it's " + budget + "ms deadline"))) {
+				typeStats.timeouts.increment();
+				typeStats.lingering.increment();
+				deadline.expire();
+			}
+		}, budget, TimeUnit.MILLISECONDS);
+
+		CompletableFuture<TaskValidationResult> probe;
+		deadline.bind(Thread.currentThread());
+		try {
+			probe = task.executeAsync(deadline);
+		} catch (RuntimeException e) {
+			probe = new CompletableFuture<>();
+			probe.completeExceptionally(e);
+		} finally {
+			deadline.unbind();
+		}
+
+		probe.whenComplete((result, error) -> {
+			expiry.cancel(false);
+			typeStats.maxElapsedMillis.accumulate((java.lang.System.nanoTime() - startNanos) / 1_000_000L);
+			boolean first = error == null ? outcome.complete(result) : outcome.completeExceptionally(error);
+			if (!first) {
+				typeStats.lingering.decrement(); // timed out already, it's finally over
+			}
+			onSettled.run();
+		});
+		return outcome;
+	}
+
+	/**
+	 * @param taskType - type of the task, null for untyped tasks.
+	 * @return it's deadline in milliseconds.
+	 */
+	public long deadlineFor(TaskType taskType) {
+		Long ms = taskType == null ? null : deadlineMs.get(taskType);
+		return ms == null ? defaultMs : ms;
+	}
+
+	/**
+	 * @return deadline, executions and timeouts of every task type seen so far.
+	 */
+	public List<ProbeDeadlineMetricsResponseDTO> getMetrics() {
+		List<ProbeDeadlineMetricsResponseDTO> response = new ArrayList<>();
+		for (Map.Entry<String, TypeStats> entry : new TreeMap<>(stats).entrySet()) {
+			TypeStats s = entry.getValue();
+			TaskType type = "OTHER".equals(entry.getKey()) ? null : TaskType.valueOf(entry.getKey());
+			response.add(new ProbeDeadlineMetricsResponseDTO(
+					entry.getKey(),
+					deadlineFor(type),
+					s.executions.sum(),
+					s.timeouts.sum(),
+					s.lingering.sum(),
+					s.maxElapsedMillis.get()));
+		}
+		return response;
+	}
+
+
+	private static final class TypeStats {
+		private final LongAdder executions = new LongAdder();
+		private final LongAdder timeouts = new LongAdder();
+		private final LongAdder lingering = new LongAdder();
+		private final LongAccumulator maxElapsedMillis = new LongAccumulator(Math::max, 0);
+	}
+}
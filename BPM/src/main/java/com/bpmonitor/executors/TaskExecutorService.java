@@ -2,25 +2,21 @@ package com.bpmonitor.executors;
 
 
 import java.time.LocalDateTime;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
 
-import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.scheduling.annotation.Async;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
 
+import com.bpmonitor.customExceptions.TaskTimeoutException;
 import com.bpmonitor.enums.TaskStatus;
-import com.bpmonitor.eventListeners.TaskStatusChangedEvent;
-import com.bpmonitor.factories.TaskFactory;
 import com.bpmonitor.models.Task;
-import com.bpmonitor.models.TaskError;
 import com.bpmonitor.models.TaskValidationResult;
-import com.bpmonitor.repositories.TaskErrorRepository;
-import com.bpmonitor.repositories.TaskValidationResultRepository;
-import com.bpmonitor.services.ActivityService;
-import com.bpmonitor.services.EmailNotificationService;
-import com.bpmonitor.services.TaskErrorService;
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.bpmonitor.registry.TaskSpec;
+import com.bpmonitor.services.TaskResultPersistenceService;
 
 import lombok.extern.slf4j.Slf4j;
 
@@ -29,129 +25,115 @@ import lombok.extern.slf4j.Slf4j;
 public class TaskExecutorService {
 
 
-	private final TaskValidationResultRepository taskValRepo;
-	private final TaskErrorRepository taskErrorRepo;
-	private final TaskErrorService taskErrorService;
-	private final ActivityService actService;
-	private final EmailNotificationService emailService;
-	private final TaskFactory taskFactory;
-	
-	private ApplicationEventPublisher eventPublisher;
-	
+	private final TaskResultPersistenceService persistenceService;
+	private final ExecutionPhaseMetrics phaseMetrics;
+	private final ProbeCoalescer probeCoalescer;
+	private final Executor callbackExecutor; // where non-blocking probes hand their result back
+
 	public TaskExecutorService(
-			TaskValidationResultRepository taskValRepo,
-			TaskFactory taskFactory,
-			 TaskErrorRepository taskErrorRepo,
-			 TaskErrorService taskErrorService,
-			 EmailNotificationService emailService,
-			 ActivityService actService,
-			 ApplicationEventPublisher eventPublisher) {
-		this.taskValRepo = taskValRepo;
-		this.taskFactory = taskFactory;
-		this.taskErrorRepo = taskErrorRepo;
-		this.taskErrorService = taskErrorService; 
-		this.emailService = emailService;
-		this.actService = actService;
-		this.eventPublisher = eventPublisher;
+			TaskResultPersistenceService persistenceService,
+			ExecutionPhaseMetrics phaseMetrics,
+			ProbeCoalescer probeCoalescer,
+			@Qualifier("taskExecutor") Executor callbackExecutor) {
+		this.persistenceService = persistenceService;
+		this.phaseMetrics = phaseMetrics;
+		this.probeCoalescer = probeCoalescer;
+		this.callbackExecutor = callbackExecutor;
 	}
-	
-	
+
+
+	/**
+	 * Executes a task in two phases:
+	 * PROBE runs the task itself with no transaction and no DB connection held,
+	 * under the hard deadline of it's type (a probe over it is cancelled and recorded as TIMEOUT),
+	 * unless another task checking the same target is probing it right now, then it's outcome is shared,
+	 * then the result is queued and PERSIST happens in batches on the result writer thread.
+	 *
+	 * Tasks with a non-blocking probe (http) return right away and this thread is freed,
+	 * the rest of the execution continues when the probe completes.
+	 * @param spec - task to execute.
+	 * @param permit - slot of the ProbeConcurrencyLimiter this probe runs under, released when the probe is over.
+	 * @param flight - the task's TaskSingleFlight claim, finished only once the probe is really over (past it's deadline too).
+	 */
 	@Async("taskExecutor")
-	@Transactional
-	public void executeControlTask(Task task) {
-		
-		  try {
-		        TaskValidationResult result = task.execute(); // execute task
-
-		        log.error(result.getTask().getWorkload()); // is my task null?
-		        log.error("this is my description for this result {}", result.getResultDescription()); // why is this empty
-		        // Save TaskValidationResult first
-		        saveTaskValidationResultAndCommit(result);
-		        log.error("result id is {}", result.getTaskValidationResultID());
-		        
-		       
-
-		        // Ensure the error creation happens after commit of the result
-		        if (result.getStatus() == TaskStatus.FAIL) {		        
-		            createTaskError(result);			            
-		        }
-		        
-		        // I publish my taskStatusChangedEvent!
-		        //This will trigger @EventListener methods 
-		        /**
-		         * This way, the event handling is separated 
-		         * from the business logic, and the status updates are done 
-		         * asynchronously and in the right order: task -> activity -> subprocess -> system/interface.
-		         */
-		       
-		        eventPublisher.publishEvent(new TaskStatusChangedEvent(task, result));
-		        log.error("I published the event with {} taskID, and {} result", task.getTaskID(), result.getStatus());
-
-		    } catch (Exception e) {
-		        log.error("Something went wrong saving TaskValidationResult in TaskExecutorService");
-		        e.printStackTrace();
-		    }
-		
+	public void executeControlTask(TaskSpec spec, ProbeConcurrencyLimiter.Permit permit, TaskSingleFlight.Flight flight) {
+
+		Task task = spec.getExecutable();
+		long probeStart = phaseMetrics.enter(ExecutionPhase.PROBE);
+		CompletableFuture<TaskValidationResult> probe;
+		try {
+			probe = probeCoalescer.run(task, spec.getTaskType(), permit, flight::finish); // execute task, or share the probe of it's target
+		} catch (Exception e) {
+			phaseMetrics.exit(ExecutionPhase.PROBE, probeStart);
+			permit.release(false);
+			flight.finish();
+			log.error("Something went wrong executing task {} in TaskExecutorService", task.getTaskID(), e);
+			return;
+		}
+		phaseMetrics.detach();
+
+		if (probe.isDone()) {
+			handleProbeOutcome(task, permit, probeStart, probe);
+		} else {
+			// the probe completes on an I/O or deadline thread, which must not wait on the result queue
+			probe.whenCompleteAsync((result, e) -> handleProbeOutcome(task, permit, probeStart, probe), callbackExecutor);
+		}
 	}
-	
-	
 
 
-	@Transactional
-	public void saveTaskValidationResultAndCommit(TaskValidationResult result) {
-	    taskValRepo.save(result); 
-	    taskValRepo.flush(); // Forces DB write immediately
-	    // No explicit wait, the @Transactional annotation will manage commit
-	}
-	
-	private String extractResponsiblePartyFromWorkload(String workload) {
-	    try {
-	        // Parse the JSON string
-	        ObjectMapper objectMapper = new ObjectMapper();
-	        JsonNode workloadNode = objectMapper.readTree(workload);  // Parse JSON string into a JsonNode
-	        
-	        // Extract the RESPONSIBLEPARTY field from the JSON
-	        JsonNode responsiblePartyNode = workloadNode.get("RESPONSIBLEPARTY");
-	        
-	        if (responsiblePartyNode != null && responsiblePartyNode.isTextual()) {
-	            return responsiblePartyNode.asText();  // Return the value as text (e.g., email)
-	        } else {
-	            return "default@domain.com";  // Default value if the field is not found
-	        }
-	    } catch (Exception e) {
-	        log.error("Error parsing workload JSON", e);
-	        return "default@domain.com";  // Fallback value if there's an issue
-	    }
-	}
-	
-	@Transactional
-	public void createTaskError(TaskValidationResult result) {
+	private void handleProbeOutcome(Task task, ProbeConcurrencyLimiter.Permit permit, long probeStart,
+			CompletableFuture<TaskValidationResult> probe) {
+		long elapsedMillis = (java.lang.System.nanoTime() - probeStart) / 1_000_000L;
+		TaskValidationResult result = null;
+		Throwable error = null;
 		try {
-	        
-	        TaskError error = new TaskError(
-	            result,
-	            LocalDateTime.now(),
-	            result.getResultDescription(),
-	            result.getTask().getWorkload()
-	        );
-	        
-	        // Parse the workload JSON
-	        String workload = result.getTask().getWorkload();
-	        String responsibleParty = extractResponsiblePartyFromWorkload(workload);
-	        
-	       // emailService.notifyResponsibleParty(responsibleParty,
-	       // 		result.getResultDescription());
-	        
-	        log.error("email has been sent ");
-	        
-	        result.getTaskErrors().add(error); // associate error with result
-	        taskErrorRepo.save(error);
-	       
-
-	    } catch (Exception e) {
-	        log.error("Failed to create TaskError for result ID: " + result.getTaskValidationResultID(), e);
-	    }
+			result = probe.join();
+		} catch (CompletionException | CancellationException e) {
+			error = e.getCause() != null ? e.getCause() : e;
+		}
+
+		if (error instanceof TaskTimeoutException) {
+			task.setTaskStatus(TaskStatus.TIMEOUT);
+			result = new TaskValidationResult(task, TaskStatus.TIMEOUT, LocalDateTime.now(),
+					error.getMessage() + " (cancelled after " + elapsedMillis + "ms)");
+			error = null;
+		}
+		if (result != null) {
+			result.setElapsedMillis(elapsedMillis);
+		}
+		onProbeCompleted(task, permit, probeStart, result, error);
+	}
 
+
+	private void onProbeCompleted(Task task, ProbeConcurrencyLimiter.Permit permit, long probeStart,
+			TaskValidationResult result, Throwable error) {
+		phaseMetrics.record(ExecutionPhase.PROBE, probeStart);
+		// the probe is over, the next one of this type can start while this result is saved
+		if (result != null && result.getStatus() == TaskStatus.TIMEOUT) {
+			permit.releaseTimedOut();
+		} else {
+			permit.release(error == null && result != null && result.getStatus() == TaskStatus.SUCCESS);
+		}
+		if (error != null) {
+			log.error("Something went wrong executing task {} in TaskExecutorService", task.getTaskID(), error);
+			return;
+		}
+
+		/**
+		 * the result is handed to the write-behind queue, the event is published
+		 * when the batch with it is written, this way, the event handling is separated
+		 * from the business logic, and the status updates are done
+		 * asynchronously and in the right order: task -> activity -> subprocess -> system/interface.
+		 */
+		try {
+			persistenceService.persistResult(task, result).whenComplete((resultId, e) -> {
+				if (e != null) {
+					log.error("Result of task {} was not saved: {}", task.getTaskID(), e.getMessage());
+				}
+			});
+		} catch (Exception e) {
+			log.error("Something went wrong saving TaskValidationResult in TaskExecutorService", e);
+		}
 	}
 
 }
@@ -0,0 +1,151 @@
+package com.bpmonitor.executors;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.bpmonitor.DTOs.response.TaskSingleFlightResponseDTO;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Makes sure a task never runs concurrently with itself.
+ *
+ * A run holds the flight of it's task from the moment it's dispatched until the probe is really over
+ * (a probe that outlived it's deadline included), a dispatch of the same task meanwhile is skipped and counted.
+ * A task that keeps being skipped is slower than it's recurrence.
+ *
+ * A flight held for longer than max-flight-ms is taken as abandoned (a hung thread nothing can interrupt)
+ * and the next dispatch takes it over, so a task can't be stuck forever.
+ * @author joao7
+ *
+ */
+@Slf4j
+@Component
+public class TaskSingleFlight {
+
+	private final long maxFlightNanos;
+
+	private final Map<Long, Flight> inFlight = new ConcurrentHashMap<>();
+	private final Map<Long, TaskStats> stats = new ConcurrentHashMap<>();
+
+	public TaskSingleFlight(@Value("${bpm.single-flight.max-flight-ms:600000}") long maxFlightMs) {
+		this.maxFlightNanos = maxFlightMs * 1_000_000L;
+	}
+
+
+	/**
+	 * claims the flight of a task for a new run.
+	 * @param taskId - id of the task.
+	 * @param taskName - it's name, for the metrics.
+	 * @return the flight, finish it when the run is over. null if a run of the task is still in flight and this one is skipped.
+	 */
+	public Flight tryStart(long taskId, String taskName) {
+		TaskStats taskStats = stats.computeIfAbsent(taskId, id -> new TaskStats());
+		taskStats.taskName = taskName;
+		long now = java.lang.System.nanoTime();
+		Flight flight = new Flight(this, taskId, now);
+
+		Flight current = inFlight.putIfAbsent(taskId, flight);
+		if (current != null) {
+			if (now - current.startedNanos <= maxFlightNanos || !inFlight.replace(taskId, current, flight)) {
+				taskStats.skipped.increment();
+				taskStats.consecutiveSkipped.incrementAndGet();
+				taskStats.lastSkippedAt = LocalDateTime.now();
+				log.debug("Task {} is still in flight, this run is skipped", taskId);
+				return null;
+			}
+			taskStats.abandoned.increment();
+			log.warn("Task {} was in flight for over {}ms, it's run is taken as abandoned", taskId, maxFlightNanos / 1_000_000L);
+		}
+		taskStats.runs.increment();
+		taskStats.consecutiveSkipped.set(0);
+		return flight;
+	}
+
+	/**
+	 * forgets the tasks that are no longer scheduled.
+	 * @param taskIds - ids of the tasks still scheduled.
+	 */
+	public void retainOnly(Collection<Long> taskIds) {
+		stats.keySet().retainAll(taskIds);
+	}
+
+	/**
+	 * @param limit - how many tasks to return at most.
+	 * @return the tasks skipped the most, and the ones in flight.
+	 */
+	public List<TaskSingleFlightResponseDTO> getMetrics(int limit) {
+		long now = java.lang.System.nanoTime();
+		List<TaskSingleFlightResponseDTO> response = new ArrayList<>();
+		for (Map.Entry<Long, TaskStats> entry : stats.entrySet()) {
+			TaskStats s = entry.getValue();
+			Flight flight = inFlight.get(entry.getKey());
+			long skipped = s.skipped.sum();
+			if (skipped == 0 && flight == null) {
+				continue;
+			}
+			response.add(new TaskSingleFlightResponseDTO(
+					entry.getKey(),
+					s.taskName,
+					flight != null,
+					flight == null ? 0 : (now - flight.startedNanos) / 1_000_000L,
+					s.runs.sum(),
+					skipped,
+					s.consecutiveSkipped.get(),
+					s.abandoned.sum(),
+					s.lastSkippedAt));
+		}
+		response.sort(Comparator.comparingLong(TaskSingleFlightResponseDTO::getSkipped).reversed());
+		return response.size() > limit ? new ArrayList<>(response.subList(0, limit)) : response;
+	}
+
+
+	/**
+	 * The right of one run to execute it's task, finish it exactly once when the run is over.
+	 */
+	public static final class Flight {
+		private final TaskSingleFlight owner;
+		private final long taskId;
+		private final long startedNanos;
+		private final AtomicBoolean finished = new AtomicBoolean();
+
+		private Flight(TaskSingleFlight owner, long taskId, long startedNanos) {
+			this.owner = owner;
+			this.taskId = taskId;
+			this.startedNanos = startedNanos;
+		}
+
+		/**
+		 * lets the next run of the task start, does nothing if this flight was taken over meanwhile.
+		 */
+		public void finish() {
+			if (finished.compareAndSet(false, true)) {
+				owner.inFlight.remove(taskId, this);
+			}
+		}
+
+		public long getTaskId() {
+			return taskId;
+		}
+	}
+
+	private static final class TaskStats {
+		private volatile String taskName;
+		private final LongAdder runs = new LongAdder();
+		private final LongAdder skipped = new LongAdder();
+		private final AtomicInteger consecutiveSkipped = new AtomicInteger(); // skips since the last run that started
+		private final LongAdder abandoned = new LongAdder();
+		private volatile LocalDateTime lastSkippedAt;
+	}
+}
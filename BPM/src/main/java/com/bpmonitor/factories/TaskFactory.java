@@ -46,7 +46,7 @@ public class TaskFactory {
 	        //taskClassMap.put(TaskType.CHECKPANCAKESTASK, PingServerTask.class);
 	        //taskClassMap.put(TaskType.CHECKTOMCATSERVICETASK, CheckTomcatServiceTask.class);
 	        taskClassMap.put(TaskType.QUERYDBTASK, QueryDBTask.class);
-	        //taskClassMap.put(TaskType.SFTPCONNECTIONTASK, SFTPConnectionTask.class);
+	        taskClassMap.put(TaskType.STFPCONNECTIONTASK, SFTPConnectionTask.class);
 	        //taskClassMap.put(TaskType.CHECKWEBCONNECTIONTASK, CheckWebConnectionTask.class);
 	    }
 
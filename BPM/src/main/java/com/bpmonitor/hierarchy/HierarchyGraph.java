@@ -0,0 +1,443 @@
+package com.bpmonitor.hierarchy;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataAccessException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.bpmonitor.DTOs.response.HierarchyGraphMetricsResponseDTO;
+import com.bpmonitor.enums.EDPRLocal;
+import com.bpmonitor.enums.HierarchyNodeType;
+import com.bpmonitor.enums.OperationalStatus;
+import com.bpmonitor.enums.TaskStatus;
+import com.bpmonitor.eventListeners.HierarchyStatusChangedEvent;
+import com.bpmonitor.eventListeners.StatusTransition;
+import com.bpmonitor.hierarchy.HierarchySnapshot.GroupNode;
+import com.bpmonitor.hierarchy.HierarchySnapshot.InterfaceNode;
+import com.bpmonitor.hierarchy.HierarchySnapshot.ResultNode;
+import com.bpmonitor.hierarchy.HierarchySnapshot.SystemNode;
+import com.bpmonitor.hierarchy.HierarchySnapshot.TaskNode;
+import com.bpmonitor.models.TaskValidationResult;
+import com.bpmonitor.repositories.ActivityRepository;
+import com.bpmonitor.repositories.InterfaceRepository;
+import com.bpmonitor.repositories.ProcessRepository;
+import com.bpmonitor.repositories.SubprocessRepository;
+import com.bpmonitor.repositories.SystemRepository;
+import com.bpmonitor.repositories.TaskRepository;
+import com.bpmonitor.repositories.TaskValidationResultRepository;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * The whole hierarchy in memory, so the tree endpoints read it instead of walking lazy collections.
+ *
+ * - built from the DB when the app is ready, with one projection query per level
+ *   and one for the latest results-per-task results of every task
+ * - task results are applied as they are written (TaskStatusListenerService), parent statuses
+ *   as StatusPropagationService publishes it's windows, neither touches the DB.
+ *   A result that changes the task's status is published right away, the others are held and published
+ *   together every refresh-ms, so a steady stream of results costs one snapshot per refresh, not one per result
+ * - the services record every create/update/delete of a process, subprocess, activity, system,
+ *   interface or task, the structure is read again on the next refresh once it's transaction commits,
+ *   a burst of writes costs one rebuild
+ * - a rebuild every rebuild-ms catches what changed in the DB without going through the services
+ *
+ * Every change publishes a new immutable HierarchySnapshot, readers never lock.
+ * What the events changed while a rebuild was reading the DB is newer than what it read and is kept.
+ * @author joao7
+ *
+ */
+@Slf4j
+@Component
+public class HierarchyGraph {
+
+	private final ProcessRepository processRepository;
+	private final SubprocessRepository subprocessRepository;
+	private final ActivityRepository activityRepository;
+	private final TaskRepository taskRepository;
+	private final SystemRepository systemRepository;
+	private final InterfaceRepository interfaceRepository;
+	private final TaskValidationResultRepository resultRepository;
+	private final int resultsPerTask;
+
+	private final Object rebuildLock = new Object(); // rebuilds never overlap
+
+	private volatile HierarchySnapshot snapshot = HierarchySnapshot.EMPTY;
+	private volatile boolean stale;
+
+	// guarded by this, the sequence of the last event applied to each node
+	private long sequence;
+	private final Map<Long, Long> tasksTouchedAt = new HashMap<>();
+	private final Map<Long, TaskNode> pendingTasks = new HashMap<>(); // results applied but not published yet
+	private final Map<HierarchyNodeType, Map<Long, Long>> nodesTouchedAt = new EnumMap<>(HierarchyNodeType.class);
+
+	private final LongAdder resultUpdates = new LongAdder();
+	private final LongAdder statusUpdates = new LongAdder();
+	private final LongAdder rebuilds = new LongAdder();
+	private final LongAdder rebuildFailures = new LongAdder();
+	private volatile long lastRebuildMillis;
+	private volatile LocalDateTime lastRebuildAt;
+
+	public HierarchyGraph(
+			ProcessRepository processRepository,
+			SubprocessRepository subprocessRepository,
+			ActivityRepository activityRepository,
+			TaskRepository taskRepository,
+			SystemRepository systemRepository,
+			InterfaceRepository interfaceRepository,
+			TaskValidationResultRepository resultRepository,
+			@Value("${bpm.hierarchy.results-per-task:10}") int resultsPerTask) {
+		this.processRepository = processRepository;
+		this.subprocessRepository = subprocessRepository;
+		this.activityRepository = activityRepository;
+		this.taskRepository = taskRepository;
+		this.systemRepository = systemRepository;
+		this.interfaceRepository = interfaceRepository;
+		this.resultRepository = resultRepository;
+		this.resultsPerTask = Math.max(3, resultsPerTask); // the task tree shows the last 3
+		for (HierarchyNodeType type : HierarchyNodeType.values()) {
+			nodesTouchedAt.put(type, new HashMap<>());
+		}
+	}
+
+
+	@EventListener(ApplicationReadyEvent.class)
+	public void load() {
+		rebuild();
+		HierarchySnapshot current = snapshot;
+		log.info("Hierarchy graph loaded {} processes, {} activities, {} tasks",
+				current.getProcesses().size(), current.getActivities().size(), current.getTasks().size());
+	}
+
+	/**
+	 * publishes the results held since the last refresh, and reads the structure again if a write changed it
+	 * since the last rebuild.
+	 */
+	@Scheduled(fixedDelayString = "${bpm.hierarchy.refresh-ms:1000}")
+	public void refreshIfStale() {
+		publishPendingResults();
+		if (stale) {
+			rebuild();
+		}
+	}
+
+	/**
+	 * reads the whole hierarchy from the DB and publishes it.
+	 */
+	@Scheduled(fixedDelayString = "${bpm.hierarchy.rebuild-ms:300000}", initialDelayString = "${bpm.hierarchy.rebuild-ms:300000}")
+	public void rebuild() {
+		synchronized (rebuildLock) {
+			long startNanos = java.lang.System.nanoTime();
+			long readFrom;
+			synchronized (this) {
+				readFrom = sequence;
+				stale = false; // a write committed from now on makes the next refresh read again
+			}
+			try {
+				publishRebuilt(readFrom,
+						processRepository.findAllTreeRows(),
+						subprocessRepository.findAllTreeRows(),
+						activityRepository.findAllTreeRows(),
+						taskRepository.findAllTreeRows(),
+						systemRepository.findAllTreeRows(),
+						interfaceRepository.findAllTreeRows(),
+						resultRepository.findLatestPerTask(resultsPerTask));
+			} catch (DataAccessException e) {
+				stale = true;
+				rebuildFailures.increment();
+				log.warn("Hierarchy graph couldn't be rebuilt, the last one is kept: {}", e.getMessage());
+				return;
+			}
+			lastRebuildMillis = (java.lang.System.nanoTime() - startNanos) / 1_000_000L;
+			lastRebuildAt = LocalDateTime.now();
+			rebuilds.increment();
+		}
+	}
+
+
+	/**
+	 * @return the current hierarchy, built right away if it never was.
+	 */
+	public HierarchySnapshot getSnapshot() {
+		HierarchySnapshot current = snapshot;
+		if (current.getBuiltAt() == null) {
+			rebuild(); // asked for before the app was ready
+			current = snapshot;
+		}
+		return current;
+	}
+
+	/**
+	 * records a change to the structure of the hierarchy, call it from inside the transaction that made it,
+	 * the graph only reads it again if that transaction commits.
+	 */
+	public void recordStructureChange() {
+		afterCommit(() -> stale = true);
+	}
+
+	/**
+	 * applies a result of a task that's already written. Published right away if it changes the task's status,
+	 * with the next refresh otherwise.
+	 * @param taskId - id of the task.
+	 * @param result - it's result, with it's errors.
+	 * @return the status the task had if this result changed it (UNRUN if it had none), null otherwise.
+	 */
+	public TaskStatus onTaskResult(Long taskId, TaskValidationResult result) {
+		if (taskId == null || result == null) {
+			return null;
+		}
+		ResultNode node = ResultNode.of(result);
+		synchronized (this) {
+			TaskNode task = pendingTasks.get(taskId);
+			if (task == null) {
+				task = snapshot.getTasks().get(taskId);
+			}
+			if (task == null) {
+				stale = true; // created after the last rebuild
+				return null;
+			}
+			TaskNode updated = task.withResult(node, resultsPerTask);
+			if (updated == task) {
+				return null;
+			}
+			pendingTasks.put(taskId, updated);
+			tasksTouchedAt.put(taskId, ++sequence);
+			resultUpdates.increment();
+			if (updated.getStatus() == task.getStatus()) {
+				return null; // nothing the trees' statuses show, it waits for the refresh
+			}
+			publishPendingResults();
+			return task.getStatus() == null ? TaskStatus.UNRUN : task.getStatus();
+		}
+	}
+
+	/**
+	 * publishes every result held since the last time, in one snapshot.
+	 */
+	private synchronized void publishPendingResults() {
+		if (pendingTasks.isEmpty()) {
+			return;
+		}
+		snapshot = snapshot.withTasks(pendingTasks);
+		pendingTasks.clear();
+	}
+
+	/**
+	 * applies the transitions of a propagation window, they're already written.
+	 * @param event - the window.
+	 */
+	@EventListener
+	public void onHierarchyStatusChanged(HierarchyStatusChangedEvent event) {
+		synchronized (this) {
+			HierarchySnapshot next = snapshot;
+			for (StatusTransition transition : event.getTransitions()) {
+				next = next.withStatus(transition.getNodeType(), transition.getNodeId(), transition.getNewStatus());
+				nodesTouchedAt.get(transition.getNodeType()).put(transition.getNodeId(), ++sequence);
+			}
+			snapshot = next;
+			statusUpdates.add(event.getTransitions().size());
+		}
+	}
+
+	/**
+	 * @return the size of the graph and how it's been kept up to date.
+	 */
+	public HierarchyGraphMetricsResponseDTO getMetrics() {
+		HierarchySnapshot current = snapshot;
+		return new HierarchyGraphMetricsResponseDTO(
+				current.getVersion(),
+				current.getProcesses().size(),
+				current.getSubprocesses().size(),
+				current.getActivities().size(),
+				current.getTasks().size(),
+				current.getSystems().size(),
+				current.getInterfaces().size(),
+				current.countResults(),
+				resultsPerTask,
+				resultUpdates.sum(),
+				statusUpdates.sum(),
+				rebuilds.sum(),
+				rebuildFailures.sum(),
+				lastRebuildMillis,
+				stale,
+				lastRebuildAt);
+	}
+
+
+	private void publishRebuilt(long readFrom, List<Object[]> processRows, List<Object[]> subprocessRows,
+			List<Object[]> activityRows, List<Object[]> taskRows, List<Object[]> systemRows,
+			List<Object[]> interfaceRows, List<Object[]> resultRows) {
+
+		// children first, the rows come ordered by id so every child list is too
+		Map<Long, List<Long>> subprocessesOf = new HashMap<>();
+		for (Object[] row : subprocessRows) {
+			addChild(subprocessesOf, (Long) row[3], (Long) row[0]);
+		}
+		Map<Long, List<Long>> activitiesOf = new HashMap<>();
+		for (Object[] row : activityRows) {
+			addChild(activitiesOf, (Long) row[3], (Long) row[0]);
+		}
+		Map<Long, List<Long>> tasksOfActivity = new HashMap<>();
+		Map<Long, List<Long>> tasksOfSystem = new HashMap<>();
+		Map<Long, List<Long>> tasksOfInterface = new HashMap<>();
+		for (Object[] row : taskRows) {
+			addChild(tasksOfActivity, (Long) row[3], (Long) row[0]);
+			addChild(tasksOfSystem, (Long) row[4], (Long) row[0]);
+			addChild(tasksOfInterface, (Long) row[5], (Long) row[0]);
+		}
+		Map<Long, List<ResultNode>> resultsOf = new HashMap<>();
+		for (Object[] row : resultRows) {
+			// native rows, newest first per task
+			resultsOf.computeIfAbsent(toLong(row[1]), id -> new ArrayList<>()).add(new ResultNode(
+					toLong(row[0]),
+					row[2] == null ? null : TaskStatus.valueOf(row[2].toString()),
+					toDateTime(row[3]),
+					toLong(row[4]),
+					toDateTime(row[5]),
+					row[6] == null ? null : row[6].toString()));
+		}
+
+		Map<Long, GroupNode> processes = new LinkedHashMap<>();
+		for (Object[] row : processRows) {
+			Long id = (Long) row[0];
+			processes.put(id, new GroupNode(id, (String) row[1], (OperationalStatus) row[2], null, ids(subprocessesOf.get(id))));
+		}
+		Map<Long, GroupNode> subprocesses = new LinkedHashMap<>();
+		for (Object[] row : subprocessRows) {
+			Long id = (Long) row[0];
+			subprocesses.put(id, new GroupNode(id, (String) row[1], (OperationalStatus) row[2], (Long) row[3], ids(activitiesOf.get(id))));
+		}
+		Map<Long, GroupNode> activities = new LinkedHashMap<>();
+		for (Object[] row : activityRows) {
+			Long id = (Long) row[0];
+			activities.put(id, new GroupNode(id, (String) row[1], (OperationalStatus) row[2], (Long) row[3], ids(tasksOfActivity.get(id))));
+		}
+		Map<Long, TaskNode> tasks = new LinkedHashMap<>();
+		for (Object[] row : taskRows) {
+			Long id = (Long) row[0];
+			List<ResultNode> results = resultsOf.get(id);
+			tasks.put(id, new TaskNode(id, (String) row[1], (TaskStatus) row[2], (Long) row[3], (Long) row[4], (Long) row[5],
+					results == null ? Collections.emptyList() : Collections.unmodifiableList(results)));
+		}
+		Map<Long, SystemNode> systems = new LinkedHashMap<>();
+		for (Object[] row : systemRows) {
+			Long id = (Long) row[0];
+			systems.put(id, new SystemNode(id, (EDPRLocal) row[1], (String) row[2], (String) row[3], (OperationalStatus) row[4],
+					ids(tasksOfSystem.get(id))));
+		}
+		Map<Long, InterfaceNode> interfaces = new LinkedHashMap<>();
+		for (Object[] row : interfaceRows) {
+			Long id = (Long) row[0];
+			interfaces.put(id, new InterfaceNode(id, (String) row[1], (Long) row[2], (Long) row[3], (OperationalStatus) row[4],
+					ids(tasksOfInterface.get(id))));
+		}
+
+		synchronized (this) {
+			publishPendingResults(); // so the results held are merged into what was read
+			HierarchySnapshot current = snapshot;
+			for (Map.Entry<Long, Long> touched : tasksTouchedAt.entrySet()) {
+				TaskNode newer = current.getTasks().get(touched.getKey());
+				TaskNode read = tasks.get(touched.getKey());
+				if (touched.getValue() > readFrom && newer != null && read != null) {
+					tasks.put(touched.getKey(), read.withStatusAndResults(newer));
+				}
+			}
+			keepNewer(readFrom, HierarchyNodeType.PROCESS, processes, current.getProcesses());
+			keepNewer(readFrom, HierarchyNodeType.SUBPROCESS, subprocesses, current.getSubprocesses());
+			keepNewer(readFrom, HierarchyNodeType.ACTIVITY, activities, current.getActivities());
+			for (Map.Entry<Long, Long> touched : nodesTouchedAt.get(HierarchyNodeType.SYSTEM).entrySet()) {
+				SystemNode newer = current.getSystems().get(touched.getKey());
+				SystemNode read = systems.get(touched.getKey());
+				if (touched.getValue() > readFrom && newer != null && read != null) {
+					systems.put(touched.getKey(), read.withStatus(newer.getStatus()));
+				}
+			}
+			for (Map.Entry<Long, Long> touched : nodesTouchedAt.get(HierarchyNodeType.INTERFACE).entrySet()) {
+				InterfaceNode newer = current.getInterfaces().get(touched.getKey());
+				InterfaceNode read = interfaces.get(touched.getKey());
+				if (touched.getValue() > readFrom && newer != null && read != null) {
+					interfaces.put(touched.getKey(), read.withStatus(newer.getStatus()));
+				}
+			}
+
+			snapshot = new HierarchySnapshot(current.getVersion() + 1, LocalDateTime.now(),
+					LongIndex.of(processes),
+					LongIndex.of(subprocesses),
+					LongIndex.of(activities),
+					LongIndex.of(tasks),
+					LongIndex.of(systems),
+					LongIndex.of(interfaces));
+
+			tasksTouchedAt.values().removeIf(touchedAt -> touchedAt <= readFrom);
+			for (Map<Long, Long> touched : nodesTouchedAt.values()) {
+				touched.values().removeIf(touchedAt -> touchedAt <= readFrom);
+			}
+		}
+	}
+
+	private void keepNewer(long readFrom, HierarchyNodeType type, Map<Long, GroupNode> read, LongIndex<GroupNode> current) {
+		for (Map.Entry<Long, Long> touched : nodesTouchedAt.get(type).entrySet()) {
+			GroupNode newer = current.get(touched.getKey());
+			GroupNode node = read.get(touched.getKey());
+			if (touched.getValue() > readFrom && newer != null && node != null) {
+				read.put(touched.getKey(), node.withStatus(newer.getStatus()));
+			}
+		}
+	}
+
+	private static void addChild(Map<Long, List<Long>> childrenOf, Long parentId, Long childId) {
+		if (parentId != null) {
+			childrenOf.computeIfAbsent(parentId, id -> new ArrayList<>()).add(childId);
+		}
+	}
+
+	private static long[] ids(List<Long> list) {
+		if (list == null) {
+			return new long[0];
+		}
+		long[] ids = new long[list.size()];
+		for (int i = 0; i < ids.length; i++) {
+			ids[i] = list.get(i);
+		}
+		return ids;
+	}
+
+	private static Long toLong(Object value) {
+		return value == null ? null : ((Number) value).longValue();
+	}
+
+	private static LocalDateTime toDateTime(Object value) {
+		if (value instanceof Timestamp) {
+			return ((Timestamp) value).toLocalDateTime();
+		}
+		return value instanceof LocalDateTime ? (LocalDateTime) value : null;
+	}
+
+	private static void afterCommit(Runnable change) {
+		if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+			change.run();
+			return;
+		}
+		TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+			@Override
+			public void afterCommit() {
+				change.run();
+			}
+		});
+	}
+}
@@ -0,0 +1,331 @@
+package com.bpmonitor.hierarchy;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import com.bpmonitor.enums.EDPRLocal;
+import com.bpmonitor.enums.HierarchyNodeType;
+import com.bpmonitor.enums.OperationalStatus;
+import com.bpmonitor.enums.TaskStatus;
+import com.bpmonitor.models.TaskError;
+import com.bpmonitor.models.TaskValidationResult;
+
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * One immutable version of the hierarchy: Process -> Subprocess -> Activity -> Task,
+ * plus the System and Interface every task checks.
+ *
+ * Nothing in it ever changes, a status change publishes a new snapshot that shares every node
+ * it didn't touch, so a reader can walk a whole tree without locks and never sees half of a change.
+ * Children are kept as ids ordered by id and looked up in the indexes of the same snapshot.
+ * @author joao7
+ *
+ */
+@Getter
+public final class HierarchySnapshot {
+
+	static final HierarchySnapshot EMPTY = new HierarchySnapshot(0, null,
+			LongIndex.empty(), LongIndex.empty(), LongIndex.empty(),
+			LongIndex.empty(), LongIndex.empty(), LongIndex.empty());
+
+	private final long version; // goes up with every snapshot published
+	private final LocalDateTime builtAt; // when the structure was last read from the DB, null before the first build
+	private final LongIndex<GroupNode> processes;
+	private final LongIndex<GroupNode> subprocesses;
+	private final LongIndex<GroupNode> activities;
+	private final LongIndex<TaskNode> tasks;
+	private final LongIndex<SystemNode> systems;
+	private final LongIndex<InterfaceNode> interfaces;
+
+	HierarchySnapshot(long version, LocalDateTime builtAt,
+			LongIndex<GroupNode> processes,
+			LongIndex<GroupNode> subprocesses,
+			LongIndex<GroupNode> activities,
+			LongIndex<TaskNode> tasks,
+			LongIndex<SystemNode> systems,
+			LongIndex<InterfaceNode> interfaces) {
+		this.version = version;
+		this.builtAt = builtAt;
+		this.processes = processes;
+		this.subprocesses = subprocesses;
+		this.activities = activities;
+		this.tasks = tasks;
+		this.systems = systems;
+		this.interfaces = interfaces;
+	}
+
+
+	/**
+	 * @param process - a process of this snapshot.
+	 * @return it's subprocesses ordered by id.
+	 */
+	public List<GroupNode> subprocessesOf(GroupNode process) {
+		return resolve(process.childIds, subprocesses);
+	}
+
+	/**
+	 * @param subprocess - a subprocess of this snapshot.
+	 * @return it's activities ordered by id.
+	 */
+	public List<GroupNode> activitiesOf(GroupNode subprocess) {
+		return resolve(subprocess.childIds, activities);
+	}
+
+	/**
+	 * @param activity - an activity of this snapshot.
+	 * @return it's tasks ordered by id.
+	 */
+	public List<TaskNode> tasksOf(GroupNode activity) {
+		return resolve(activity.childIds, tasks);
+	}
+
+	/**
+	 * @return how many results the tasks of this snapshot keep in total.
+	 */
+	public int countResults() {
+		int count = 0;
+		for (TaskNode task : tasks.values()) {
+			count += task.getResults().size();
+		}
+		return count;
+	}
+
+
+	/**
+	 * @param type - level of the node.
+	 * @param id - id of the node.
+	 * @param status - it's new status.
+	 * @return the next snapshot, this same one if the node doesn't exist or already has that status.
+	 */
+	HierarchySnapshot withStatus(HierarchyNodeType type, long id, OperationalStatus status) {
+		switch (type) {
+			case PROCESS: {
+				GroupNode node = processes.get(id);
+				return node == null || node.status == status ? this
+						: next(processes.with(id, node.withStatus(status)), subprocesses, activities, tasks, systems, interfaces);
+			}
+			case SUBPROCESS: {
+				GroupNode node = subprocesses.get(id);
+				return node == null || node.status == status ? this
+						: next(processes, subprocesses.with(id, node.withStatus(status)), activities, tasks, systems, interfaces);
+			}
+			case ACTIVITY: {
+				GroupNode node = activities.get(id);
+				return node == null || node.status == status ? this
+						: next(processes, subprocesses, activities.with(id, node.withStatus(status)), tasks, systems, interfaces);
+			}
+			case SYSTEM: {
+				SystemNode node = systems.get(id);
+				return node == null || node.status == status ? this
+						: next(processes, subprocesses, activities, tasks, systems.with(id, node.withStatus(status)), interfaces);
+			}
+			case INTERFACE: {
+				InterfaceNode node = interfaces.get(id);
+				return node == null || node.status == status ? this
+						: next(processes, subprocesses, activities, tasks, systems, interfaces.with(id, node.withStatus(status)));
+			}
+			default:
+				return this;
+		}
+	}
+
+	/**
+	 * @param tasks - new versions of tasks of this snapshot, by id.
+	 * @return the next snapshot, with all of them in one copy.
+	 */
+	HierarchySnapshot withTasks(Map<Long, TaskNode> tasks) {
+		return next(processes, subprocesses, activities, this.tasks.withAll(tasks), systems, interfaces);
+	}
+
+	private HierarchySnapshot next(LongIndex<GroupNode> processes, LongIndex<GroupNode> subprocesses,
+			LongIndex<GroupNode> activities, LongIndex<TaskNode> tasks,
+			LongIndex<SystemNode> systems, LongIndex<InterfaceNode> interfaces) {
+		return new HierarchySnapshot(version + 1, builtAt, processes, subprocesses, activities, tasks, systems, interfaces);
+	}
+
+	private static <T> List<T> resolve(long[] ids, LongIndex<T> index) {
+		List<T> nodes = new ArrayList<>(ids.length);
+		for (long id : ids) {
+			T node = index.get(id);
+			if (node != null) {
+				nodes.add(node);
+			}
+		}
+		return nodes;
+	}
+
+
+	/**
+	 * a process, subprocess or activity. The children are subprocesses, activities or tasks.
+	 */
+	@Getter
+	@AllArgsConstructor(access = AccessLevel.PACKAGE)
+	public static final class GroupNode {
+		private final long id;
+		private final String name;
+		private final OperationalStatus status;
+		private final Long parentId; // process of a subprocess, subprocess of an activity
+		private final long[] childIds;
+
+		/**
+		 * @return the ids of the children, a copy.
+		 */
+		public long[] getChildIds() {
+			return childIds.clone();
+		}
+
+		GroupNode withStatus(OperationalStatus newStatus) {
+			return new GroupNode(id, name, newStatus, parentId, childIds);
+		}
+	}
+
+	@Getter
+	@AllArgsConstructor(access = AccessLevel.PACKAGE)
+	public static final class SystemNode {
+		private final long id;
+		private final EDPRLocal local;
+		private final String name;
+		private final String component;
+		private final OperationalStatus status;
+		private final long[] taskIds; // tasks that check this system
+
+		/**
+		 * @return the ids of the tasks that check it, a copy.
+		 */
+		public long[] getTaskIds() {
+			return taskIds.clone();
+		}
+
+		SystemNode withStatus(OperationalStatus newStatus) {
+			return new SystemNode(id, local, name, component, newStatus, taskIds);
+		}
+	}
+
+	@Getter
+	@AllArgsConstructor(access = AccessLevel.PACKAGE)
+	public static final class InterfaceNode {
+		private final long id;
+		private final String name;
+		private final Long originId; // system the interface comes from
+		private final Long destinationId; // system it goes to
+		private final OperationalStatus status;
+		private final long[] taskIds; // tasks that check this interface
+
+		/**
+		 * @return the ids of the tasks that check it, a copy.
+		 */
+		public long[] getTaskIds() {
+			return taskIds.clone();
+		}
+
+		InterfaceNode withStatus(OperationalStatus newStatus) {
+			return new InterfaceNode(id, name, originId, destinationId, newStatus, taskIds);
+		}
+	}
+
+	/**
+	 * a task with it's latest results, newest first.
+	 */
+	@Getter
+	@AllArgsConstructor(access = AccessLevel.PACKAGE)
+	public static final class TaskNode {
+		private final long id;
+		private final String name;
+		private final TaskStatus status;
+		private final Long activityId;
+		private final Long systemId;
+		private final Long interfaceId;
+		private final List<ResultNode> results; // read only
+
+		/**
+		 * @param result - a new result of this task.
+		 * @param keep - how many results a task keeps.
+		 * @return the task with the result in it's place, this same task if it's already known
+		 * or older than every result kept. The status follows the newest result.
+		 */
+		TaskNode withResult(ResultNode result, int keep) {
+			List<ResultNode> merged = new ArrayList<>(results.size() + 1);
+			boolean placed = false;
+			for (ResultNode existing : results) {
+				if (Objects.equals(existing.id, result.id)) {
+					return this;
+				}
+				if (!placed && result.isNewerThan(existing)) {
+					merged.add(result);
+					placed = true;
+				}
+				merged.add(existing);
+			}
+			if (!placed) {
+				merged.add(result);
+			}
+			if (merged.size() > keep) {
+				merged = new ArrayList<>(merged.subList(0, keep));
+			}
+			if (!merged.contains(result)) {
+				return this;
+			}
+			TaskStatus newStatus = merged.get(0) == result ? result.status : status;
+			return new TaskNode(id, name, newStatus, activityId, systemId, interfaceId, Collections.unmodifiableList(merged));
+		}
+
+		TaskNode withStatusAndResults(TaskNode newer) {
+			return new TaskNode(id, name, newer.status, activityId, systemId, interfaceId, newer.results);
+		}
+	}
+
+	/**
+	 * a result of a task, with the first of it's errors if it has any.
+	 */
+	@Getter
+	@AllArgsConstructor(access = AccessLevel.PACKAGE)
+	public static final class ResultNode {
+		private final Long id;
+		private final TaskStatus status;
+		private final LocalDateTime timestamp;
+		private final Long errorId;
+		private final LocalDateTime errorTimestamp;
+		private final String errorDescription;
+
+		/**
+		 * @param result - a result already written, with it's errors.
+		 * @return what the graph keeps of it.
+		 */
+		static ResultNode of(TaskValidationResult result) {
+			TaskError error = result.getTaskErrors() == null || result.getTaskErrors().isEmpty()
+					? null : result.getTaskErrors().get(0);
+			return new ResultNode(
+					result.getTaskValidationResultID(),
+					result.getStatus(),
+					result.getTimestamp(),
+					error == null ? null : error.getTaskErrorID(),
+					error == null ? null : error.getTimestamp(),
+					error == null ? null : error.getErrorDescription());
+		}
+
+		/**
+		 * @return true if it has an error to show, only failed results do.
+		 */
+		public boolean hasError() {
+			return errorId != null && status != null && status.isFailure();
+		}
+
+		private boolean isNewerThan(ResultNode other) {
+			if (timestamp == null || other.timestamp == null) {
+				return other.timestamp == null && timestamp != null;
+			}
+			int byTime = timestamp.compareTo(other.timestamp);
+			if (byTime != 0) {
+				return byTime > 0;
+			}
+			return id != null && other.id != null && id > other.id;
+		}
+	}
+}
@@ -0,0 +1,124 @@
+package com.bpmonitor.hierarchy;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable map of nodes by a primitive long id: the ids sorted in a long[] and the nodes in an array
+ * in the same order, a lookup is a binary search with no boxing.
+ *
+ * Replacing nodes copies the node array (once for any number of them) and shares the ids, adding or removing nodes is
+ * a whole new index (that only happens when the graph is rebuilt).
+ * @author joao7
+ *
+ * @param <T> - type of the nodes.
+ */
+public final class LongIndex<T> {
+
+	private static final LongIndex<Object> EMPTY = new LongIndex<>(new long[0], new Object[0]);
+
+	private final long[] ids;
+	private final Object[] nodes;
+	private final List<T> values;
+
+	private LongIndex(long[] ids, Object[] nodes) {
+		this.ids = ids;
+		this.nodes = nodes;
+		this.values = new AbstractList<T>() {
+			@Override
+			@SuppressWarnings("unchecked")
+			public T get(int index) {
+				return (T) nodes[index];
+			}
+
+			@Override
+			public int size() {
+				return nodes.length;
+			}
+		};
+	}
+
+	@SuppressWarnings("unchecked")
+	static <T> LongIndex<T> empty() {
+		return (LongIndex<T>) EMPTY;
+	}
+
+	/**
+	 * @param byId - the nodes, null ids aren't allowed.
+	 * @return an index with the same nodes.
+	 */
+	static <T> LongIndex<T> of(Map<Long, T> byId) {
+		long[] ids = new long[byId.size()];
+		int i = 0;
+		for (Long id : byId.keySet()) {
+			ids[i++] = id;
+		}
+		Arrays.sort(ids);
+		Object[] nodes = new Object[ids.length];
+		for (i = 0; i < ids.length; i++) {
+			nodes[i] = byId.get(ids[i]);
+		}
+		return new LongIndex<>(ids, nodes);
+	}
+
+	/**
+	 * @param id - id of the node.
+	 * @return the node, null if there's none with that id.
+	 */
+	@SuppressWarnings("unchecked")
+	public T get(long id) {
+		int slot = Arrays.binarySearch(ids, id);
+		return slot < 0 ? null : (T) nodes[slot];
+	}
+
+	/**
+	 * @param id - id of the node, may be null.
+	 * @return the node, null if the id is null or there's no node with it.
+	 */
+	public T get(Long id) {
+		return id == null ? null : get(id.longValue());
+	}
+
+	/**
+	 * @return every node ordered by id, read only.
+	 */
+	public List<T> values() {
+		return values;
+	}
+
+	public int size() {
+		return ids.length;
+	}
+
+	/**
+	 * @param id - id of a node already in the index.
+	 * @param node - the node that replaces it.
+	 * @return a copy with the node replaced, this same index if there's no node with that id.
+	 */
+	LongIndex<T> with(long id, T node) {
+		int slot = Arrays.binarySearch(ids, id);
+		if (slot < 0) {
+			return this;
+		}
+		Object[] copy = nodes.clone();
+		copy[slot] = node;
+		return new LongIndex<>(ids, copy);
+	}
+
+	/**
+	 * @param byId - nodes already in the index, by id.
+	 * @return a copy with every one of them replaced, ids not in the index are ignored.
+	 */
+	LongIndex<T> withAll(Map<Long, T> byId) {
+		Object[] copy = nodes.clone();
+		for (Map.Entry<Long, T> entry : byId.entrySet()) {
+			int slot = Arrays.binarySearch(ids, entry.getKey());
+			if (slot >= 0) {
+				copy[slot] = entry.getValue();
+			}
+		}
+		return new LongIndex<>(ids, copy);
+	}
+}
@@ -0,0 +1,209 @@
+package com.bpmonitor.hierarchy;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import com.bpmonitor.DTOs.response.ProcessTreeNodeResponseDTO;
+import com.bpmonitor.DTOs.response.SubprocessTreeNodeResponseDTO;
+import com.bpmonitor.DTOs.response.TreeNodeChangeDTO;
+import com.bpmonitor.enums.TreeChangeType;
+
+/**
+ * Works out which nodes of a tree changed between two renderings of it, and merges the changes
+ * of consecutive versions into one list.
+ *
+ * A tree is flattened into it's nodes keyed by level and id, in tree order. The changes of a version
+ * remove children before their parents and add parents before their children, so a client can apply
+ * them in order.
+ * @author joao7
+ *
+ */
+public final class TreeDiff {
+
+	private static final String[] LEVELS = { "PROCESS", "SUBPROCESS", "ACTIVITY", "TASK", "RESULT" };
+
+	// removals deepest level first, then everything else shallowest level first, stable within a level
+	private static final Comparator<TreeNodeChangeDTO> TREE_ORDER = Comparator.comparingInt(change ->
+			change.getChange() == TreeChangeType.REMOVED ? -depth(change.getLevel()) - 1 : depth(change.getLevel()));
+
+	private TreeDiff() {
+	}
+
+
+	/**
+	 * @param tree - a process tree.
+	 * @return it's nodes keyed by level and id, in tree order.
+	 */
+	public static Map<String, FlatNode> flattenProcessTree(List<ProcessTreeNodeResponseDTO> tree) {
+		Map<String, FlatNode> flat = new LinkedHashMap<>();
+		addProcessNodes(flat, tree, 0, null);
+		return flat;
+	}
+
+	/**
+	 * @param tree - a subprocess tree.
+	 * @return it's nodes keyed by level and id, in tree order.
+	 */
+	public static Map<String, FlatNode> flattenSubprocessTree(List<SubprocessTreeNodeResponseDTO> tree) {
+		Map<String, FlatNode> flat = new LinkedHashMap<>();
+		addSubprocessNodes(flat, tree, 0, null);
+		return flat;
+	}
+
+	/**
+	 * @param before - the previous version, flattened.
+	 * @param after - the new one.
+	 * @return what changed, removals (children first) then additions and changes (parents first).
+	 */
+	public static List<TreeNodeChangeDTO> diff(Map<String, FlatNode> before, Map<String, FlatNode> after) {
+		List<TreeNodeChangeDTO> changes = new ArrayList<>();
+		List<FlatNode> removed = new ArrayList<>();
+		for (Map.Entry<String, FlatNode> entry : before.entrySet()) {
+			if (!after.containsKey(entry.getKey())) {
+				removed.add(entry.getValue());
+			}
+		}
+		Collections.reverse(removed);
+		for (FlatNode node : removed) {
+			changes.add(new TreeNodeChangeDTO(TreeChangeType.REMOVED, node.level, node.id, null, null, node.status, null));
+		}
+		for (Map.Entry<String, FlatNode> entry : after.entrySet()) {
+			FlatNode node = entry.getValue();
+			FlatNode old = before.get(entry.getKey());
+			if (old == null) {
+				changes.add(new TreeNodeChangeDTO(TreeChangeType.ADDED, node.level, node.id, node.parentId, node.name, null, node.status));
+			} else if (!Objects.equals(old.name, node.name) || !Objects.equals(old.parentId, node.parentId)) {
+				changes.add(new TreeNodeChangeDTO(TreeChangeType.UPDATED, node.level, node.id, node.parentId, node.name, old.status, node.status));
+			} else if (!Objects.equals(old.status, node.status)) {
+				changes.add(new TreeNodeChangeDTO(TreeChangeType.STATUS_CHANGED, node.level, node.id, node.parentId, node.name, old.status, node.status));
+			}
+		}
+		return changes;
+	}
+
+	/**
+	 * merges the changes of consecutive versions, so a node changed many times shows up once
+	 * (or not at all if it was added and removed again). A merged change keeps the place of the first
+	 * change it's made of, then the whole list is put back in tree order: a parent added in one version
+	 * and changed again in a later one still comes before the children added in between.
+	 * @param versions - the changes of each version, oldest first.
+	 * @return the changes from the first version's previous one to the last version,
+	 * removals (children first) then additions and changes (parents first).
+	 */
+	public static List<TreeNodeChangeDTO> merge(Collection<List<TreeNodeChangeDTO>> versions) {
+		Map<String, TreeNodeChangeDTO> merged = new LinkedHashMap<>();
+		for (List<TreeNodeChangeDTO> changes : versions) {
+			for (TreeNodeChangeDTO next : changes) {
+				String key = next.getLevel() + ":" + next.getId();
+				TreeNodeChangeDTO result = combine(merged.get(key), next);
+				if (result == null) {
+					merged.remove(key);
+				} else {
+					merged.put(key, result);
+				}
+			}
+		}
+		List<TreeNodeChangeDTO> ordered = new ArrayList<>(merged.values());
+		ordered.sort(TREE_ORDER);
+		return ordered;
+	}
+
+
+	/**
+	 * @return the change that has the effect of prev then next, null if they cancel out.
+	 */
+	private static TreeNodeChangeDTO combine(TreeNodeChangeDTO prev, TreeNodeChangeDTO next) {
+		if (prev == null) {
+			return next;
+		}
+		switch (prev.getChange()) {
+			case ADDED:
+				if (next.getChange() == TreeChangeType.REMOVED) {
+					return null; // the client never saw it
+				}
+				return new TreeNodeChangeDTO(TreeChangeType.ADDED, next.getLevel(), next.getId(),
+						next.getParentId(), next.getName(), null, next.getStatus());
+			case REMOVED:
+				// removed and added back, the client still has the old node
+				return new TreeNodeChangeDTO(TreeChangeType.UPDATED, next.getLevel(), next.getId(),
+						next.getParentId(), next.getName(), prev.getPreviousStatus(), next.getStatus());
+			default:
+				if (next.getChange() == TreeChangeType.REMOVED) {
+					return new TreeNodeChangeDTO(TreeChangeType.REMOVED, next.getLevel(), next.getId(),
+							null, null, prev.getPreviousStatus(), null);
+				}
+				TreeChangeType type = prev.getChange() == TreeChangeType.UPDATED || next.getChange() == TreeChangeType.UPDATED
+						? TreeChangeType.UPDATED : TreeChangeType.STATUS_CHANGED;
+				if (type == TreeChangeType.STATUS_CHANGED && Objects.equals(prev.getPreviousStatus(), next.getStatus())) {
+					return null; // flipped back
+				}
+				return new TreeNodeChangeDTO(type, next.getLevel(), next.getId(),
+						next.getParentId(), next.getName(), prev.getPreviousStatus(), next.getStatus());
+		}
+	}
+
+	private static int depth(String level) {
+		for (int i = 0; i < LEVELS.length; i++) {
+			if (LEVELS[i].equals(level)) {
+				return i;
+			}
+		}
+		return LEVELS.length;
+	}
+
+	private static void addProcessNodes(Map<String, FlatNode> flat, List<ProcessTreeNodeResponseDTO> nodes, int depth, Long parentId) {
+		if (nodes == null) {
+			return;
+		}
+		for (ProcessTreeNodeResponseDTO node : nodes) {
+			FlatNode flatNode = new FlatNode(LEVELS[depth], node.getId(), parentId, node.getName(),
+					node.getStatus() == null ? null : node.getStatus().name());
+			flat.put(flatNode.key(), flatNode);
+			addProcessNodes(flat, node.getChildren(), depth + 1, node.getId());
+		}
+	}
+
+	private static void addSubprocessNodes(Map<String, FlatNode> flat, List<SubprocessTreeNodeResponseDTO> nodes, int depth, Long parentId) {
+		if (nodes == null) {
+			return;
+		}
+		for (SubprocessTreeNodeResponseDTO node : nodes) {
+			// processes, subprocesses and activities have an operational status, tasks and results a task status
+			Enum<?> status = depth < 3 ? node.getOperationalStatus() : node.getTaskStatus();
+			FlatNode flatNode = new FlatNode(LEVELS[depth], node.getId(), parentId, node.getName(),
+					status == null ? null : status.name());
+			flat.put(flatNode.key(), flatNode);
+			addSubprocessNodes(flat, node.getChildren(), depth + 1, node.getId());
+		}
+	}
+
+
+	/**
+	 * a node of a tree without it's children.
+	 */
+	public static final class FlatNode {
+		private final String level;
+		private final Long id;
+		private final Long parentId;
+		private final String name;
+		private final String status;
+
+		private FlatNode(String level, Long id, Long parentId, String name, String status) {
+			this.level = level;
+			this.id = id;
+			this.parentId = parentId;
+			this.name = name;
+			this.status = status;
+		}
+
+		private String key() {
+			return level + ":" + id;
+		}
+	}
+}
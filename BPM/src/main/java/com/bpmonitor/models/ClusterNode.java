@@ -0,0 +1,41 @@
+package com.bpmonitor.models;
+
+import java.time.LocalDateTime;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import lombok.ToString;
+
+/**
+ * A running instance of the monitor, it's heartbeat tells the other nodes it's alive.
+ * @author joao7
+ *
+ */
+@Entity
+@Table(name = "CLUSTER_NODE")
+@Getter @Setter
+@NoArgsConstructor // for jpa
+@AllArgsConstructor
+@ToString
+public class ClusterNode {
+
+	@Id
+	@Column(name = "NODE_ID", length = 100)
+	private String nodeId;
+
+	@Column(name = "HOST_NAME", length = 255)
+	private String hostName;
+
+	@Column(name = "STARTED_AT")
+	private LocalDateTime startedAt;
+
+	@Column(name = "HEARTBEAT_AT")
+	private LocalDateTime heartbeatAt;
+}
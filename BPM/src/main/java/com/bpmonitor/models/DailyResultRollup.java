@@ -0,0 +1,18 @@
+package com.bpmonitor.models;
+
+import javax.persistence.Entity;
+import javax.persistence.Index;
+import javax.persistence.Table;
+
+import lombok.NoArgsConstructor;
+
+/**
+ * Task results rolled up per node and day.
+ * @author joao7
+ *
+ */
+@Entity
+@Table(name = "RESULT_ROLLUP_DAILY", indexes = @Index(name = "IX_ROLLUP_DAILY_BUCKET", columnList = "BUCKET_START")) // purged by bucket
+@NoArgsConstructor // for jpa
+public class DailyResultRollup extends ResultRollup {
+}
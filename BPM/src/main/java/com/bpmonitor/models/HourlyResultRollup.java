@@ -0,0 +1,18 @@
+package com.bpmonitor.models;
+
+import javax.persistence.Entity;
+import javax.persistence.Index;
+import javax.persistence.Table;
+
+import lombok.NoArgsConstructor;
+
+/**
+ * Task results rolled up per node and hour.
+ * @author joao7
+ *
+ */
+@Entity
+@Table(name = "RESULT_ROLLUP_HOURLY", indexes = @Index(name = "IX_ROLLUP_HOURLY_BUCKET", columnList = "BUCKET_START")) // purged by bucket
+@NoArgsConstructor // for jpa
+public class HourlyResultRollup extends ResultRollup {
+}
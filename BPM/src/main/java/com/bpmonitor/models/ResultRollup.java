@@ -0,0 +1,60 @@
+package com.bpmonitor.models;
+
+import java.time.LocalDateTime;
+
+import javax.persistence.Column;
+import javax.persistence.EmbeddedId;
+import javax.persistence.MappedSuperclass;
+
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import lombok.ToString;
+
+/**
+ * What the task results of one node in one time bucket add up to: how many there were per status,
+ * when the first and last failure were, and the latency of the probes.
+ * The rows are only ever written by ResultRollupService, which adds to them with MERGE,
+ * JPA only reads them.
+ * @author joao7
+ *
+ */
+@MappedSuperclass
+@Getter @Setter
+@NoArgsConstructor // for jpa
+@ToString
+public abstract class ResultRollup {
+
+	@EmbeddedId
+	private ResultRollupId id;
+
+	@Column(name = "SUCCESS_COUNT")
+	private long successCount;
+
+	@Column(name = "FAIL_COUNT")
+	private long failCount;
+
+	@Column(name = "TIMEOUT_COUNT")
+	private long timeoutCount;
+
+	@Column(name = "UNRUN_COUNT")
+	private long unrunCount;
+
+	@Column(name = "FIRST_FAILURE_AT")
+	private LocalDateTime firstFailureAt; // FAIL or TIMEOUT, null if there was none
+
+	@Column(name = "LAST_FAILURE_AT")
+	private LocalDateTime lastFailureAt;
+
+	@Column(name = "LATENCY_COUNT")
+	private long latencyCount; // results that had an elapsed time, the average is LATENCY_SUM_MS / LATENCY_COUNT
+
+	@Column(name = "LATENCY_SUM_MS")
+	private long latencySumMs;
+
+	@Column(name = "LATENCY_MIN_MS")
+	private Long latencyMinMs;
+
+	@Column(name = "LATENCY_MAX_MS")
+	private Long latencyMaxMs;
+}
@@ -0,0 +1,44 @@
+package com.bpmonitor.models;
+
+import java.io.Serializable;
+import java.time.LocalDateTime;
+
+import javax.persistence.Column;
+import javax.persistence.Embeddable;
+import javax.persistence.EnumType;
+import javax.persistence.Enumerated;
+
+import com.bpmonitor.enums.RollupLevel;
+
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import lombok.ToString;
+
+/**
+ * Key of a rollup row: which node and which bucket.
+ * @author joao7
+ *
+ */
+@Embeddable
+@Getter @Setter
+@NoArgsConstructor // for jpa
+@AllArgsConstructor
+@EqualsAndHashCode
+@ToString
+public class ResultRollupId implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	@Enumerated(EnumType.STRING)
+	@Column(name = "NODE_LEVEL", length = 20)
+	private RollupLevel level;
+
+	@Column(name = "NODE_ID")
+	private Long nodeId; // the task, activity, subprocess, process, system or interface id
+
+	@Column(name = "BUCKET_START")
+	private LocalDateTime bucketStart;
+}
@@ -0,0 +1,40 @@
+package com.bpmonitor.models;
+
+import java.time.LocalDateTime;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import lombok.ToString;
+
+/**
+ * How far the rollups of one running instance got: every result it wrote up to LAST_RESULT_ID is merged
+ * into the rollup tables, the ones after are still in it's memory. Written with every flush, in the same
+ * transaction as the MERGEs, so a row whose HEARTBEAT_AT stopped moving tells exactly which results of
+ * TASK_RESULT (WRITER_ID, TASK_RESULT_ID after the mark) a dead instance never merged.
+ * Only ever written with plain SQL by ResultRollupService, the entity is here so Hibernate creates the table.
+ * @author joao7
+ *
+ */
+@Entity
+@Table(name = "RESULT_ROLLUP_MARK")
+@Getter @Setter
+@NoArgsConstructor // for jpa
+@ToString
+public class ResultRollupMark {
+
+	@Id
+	@Column(name = "WRITER_ID")
+	private Long writerId; // taken from GLOBAL_ID_SEQ at startup, every id the instance writes after it is higher
+
+	@Column(name = "LAST_RESULT_ID", nullable = false)
+	private Long lastResultId;
+
+	@Column(name = "HEARTBEAT_AT", nullable = false)
+	private LocalDateTime heartbeatAt; // last flush, even one with nothing to merge
+}
@@ -0,0 +1,41 @@
+package com.bpmonitor.models;
+
+import java.time.LocalDateTime;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import lombok.ToString;
+
+/**
+ * Lease of one shard of the task id space, the node owning it runs the tasks of that shard until LEASE_UNTIL.
+ * A shard without an owner, or whose lease expired, can be taken by any node.
+ * @author joao7
+ *
+ */
+@Entity
+@Table(name = "SHARD_LEASE")
+@Getter @Setter
+@NoArgsConstructor // for jpa
+@ToString
+public class ShardLease {
+
+	@Id
+	@Column(name = "SHARD_ID")
+	private Integer shardId;
+
+	@Column(name = "OWNER_NODE_ID", length = 100)
+	private String ownerNodeId; // null when free
+
+	@Column(name = "LEASE_UNTIL")
+	private LocalDateTime leaseUntil;
+
+	public ShardLease(Integer shardId) {
+		this.shardId = shardId;
+	}
+}
@@ -3,6 +3,7 @@ package com.bpmonitor.models;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 import javax.persistence.CascadeType;
 import javax.persistence.Column;
@@ -21,16 +22,24 @@ import javax.persistence.InheritanceType;
 import javax.persistence.JoinColumn;
 import javax.persistence.ManyToOne;
 import javax.persistence.OneToMany;
+import javax.persistence.PostLoad;
+import javax.persistence.PrePersist;
+import javax.persistence.PreUpdate;
 import javax.persistence.SequenceGenerator;
+import javax.persistence.Transient;
 
+import com.bpmonitor.customExceptions.InvalidWorkloadException;
 import com.bpmonitor.enums.*;
 import com.bpmonitor.models.System;
+import com.bpmonitor.probes.ProbeDeadline;
+import com.bpmonitor.workloads.GenericWorkload;
+import com.bpmonitor.workloads.TaskWorkload;
+import com.bpmonitor.workloads.WorkloadCompiler;
 import com.fasterxml.jackson.annotation.JsonBackReference;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonManagedReference;
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.JsonMappingException;
 import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.AccessLevel;
 import lombok.Getter;
 import lombok.NoArgsConstructor;
 import lombok.Setter;
@@ -70,6 +79,17 @@ public class Task implements Runnable {
 	@Column(name = "WORKLOAD", length = 4000) // Stores JSON as a string
 	private String workload; // JSON as a string in the database
 
+	// the workload compiled by WorkloadCompiler, and the json it was compiled from
+	@Transient
+	@Getter(AccessLevel.NONE)
+	@Setter(AccessLevel.NONE)
+	private TaskWorkload compiledWorkload;
+
+	@Transient
+	@Getter(AccessLevel.NONE)
+	@Setter(AccessLevel.NONE)
+	private String compiledFrom;
+
 	@ManyToOne // Many tasks can belong to one activity
 	@JoinColumn(name = "ACTIVITY_ID")
 	@JsonBackReference
@@ -141,18 +161,102 @@ public class Task implements Runnable {
 		return taskR;
 	};
 
+	/**
+	 * execute() under a hard deadline, tasks that block on something override this,
+	 * cap their waits with deadline.remainingMillis and register how to cancel the blocking call.
+	 * @param deadline - deadline of this execution.
+	 * @return the result of the execution.
+	 */
+	public TaskValidationResult execute(ProbeDeadline deadline) {
+		return execute();
+	}
+
+	/**
+	 * code to be run by a task without blocking the calling thread.
+	 * @return completes with the result of the execution.
+	 */
+	public CompletableFuture<TaskValidationResult> executeAsync() {
+		return executeAsync(ProbeDeadline.none());
+	}
+
+	/**
+	 * code to be run by a task without blocking the calling thread, under a hard deadline.
+	 * Tasks that have a non-blocking probe override this, the others
+	 * just run execute(deadline) on the calling thread.
+	 * @param deadline - deadline of this execution.
+	 * @return completes with the result of the execution.
+	 */
+	public CompletableFuture<TaskValidationResult> executeAsync(ProbeDeadline deadline) {
+		return CompletableFuture.completedFuture(execute(deadline));
+	}
+
+	/**
+	 * changes the workload, it's compiled again the next time it's needed.
+	 * @param workload - JSON with necessary info for a task to run.
+	 */
+	public void setWorkload(String workload) {
+		this.workload = workload;
+		this.compiledWorkload = null;
+		this.compiledFrom = null;
+	}
+
+	/**
+	 * the typed workload of this task, compiled once per workload json (and shared through
+	 * the WorkloadCompiler cache), so executions don't parse json.
+	 * @return the compiled workload.
+	 * @throws InvalidWorkloadException if the workload isn't valid for this task type.
+	 */
+	@JsonIgnore
+	public TaskWorkload getCompiledWorkload() {
+		TaskWorkload compiled = this.compiledWorkload;
+		if (compiled == null || this.compiledFrom != this.workload) {
+			compiled = WorkloadCompiler.compile(workloadType(), this.workload);
+			this.compiledWorkload = compiled;
+			this.compiledFrom = this.workload;
+		}
+		return compiled;
+	}
+
+	/**
+	 * same as getCompiledWorkload but null for an invalid workload, for toString and logs.
+	 */
+	public TaskWorkload compiledWorkloadOrNull() {
+		try {
+			return getCompiledWorkload();
+		} catch (InvalidWorkloadException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * @return the workload class of this task type, tasks with a typed workload override this.
+	 */
+	protected Class<? extends TaskWorkload> workloadType() {
+		return GenericWorkload.class;
+	}
+
+	/**
+	 * compiles the workload when the task is loaded, created or changed, so it's ready before the first run.
+	 * an invalid workload is only reported when the task runs.
+	 */
+	@PostLoad
+	@PrePersist
+	@PreUpdate
+	protected void precompileWorkload() {
+		try {
+			getCompiledWorkload();
+		} catch (InvalidWorkloadException e) {
+			// the task fails with this message when it's executed
+		}
+	}
+
 	/**
 	 * parses the json of workload in the DB.
 	 * 
 	 * @return
 	 */
 	public JsonNode getParsedWorkload() {
-		try {
-			ObjectMapper mapper = new ObjectMapper();
-			return mapper.readTree(this.workload);
-		} catch (Exception e) {
-			throw new RuntimeException("Error parsing JSON workload", e);
-		}
+		return WorkloadCompiler.parse(this.workload);
 	}
 
 	@Override
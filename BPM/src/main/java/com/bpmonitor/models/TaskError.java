@@ -7,6 +7,7 @@ import javax.persistence.Entity;
 import javax.persistence.GeneratedValue;
 import javax.persistence.GenerationType;
 import javax.persistence.Id;
+import javax.persistence.Index;
 import javax.persistence.JoinColumn;
 import javax.persistence.ManyToOne;
 import javax.persistence.SequenceGenerator;
@@ -17,7 +18,9 @@ import lombok.Setter;
 import lombok.ToString;
 
 @Entity
-@Table(name = "TASK_ERROR")
+@Table(name = "TASK_ERROR", indexes = {
+		@Index(name = "IX_TASK_ERROR_RESULT", columnList = "TASK_RESULT_ID"), // Oracle doesn't index FKs by itself
+		@Index(name = "IX_TASK_ERROR_DATE_ID", columnList = "DATE_OF_EXECUTION, TASK_ERROR_ID") }) // the order /getAll pages in
 @Getter @Setter
 @NoArgsConstructor // for jpa
 @ToString
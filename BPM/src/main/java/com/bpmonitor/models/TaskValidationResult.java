@@ -11,6 +11,7 @@ import javax.persistence.Enumerated;
 import javax.persistence.GeneratedValue;
 import javax.persistence.GenerationType;
 import javax.persistence.Id;
+import javax.persistence.Index;
 import javax.persistence.JoinColumn;
 import javax.persistence.ManyToOne;
 import javax.persistence.OneToMany;
@@ -34,7 +35,9 @@ import lombok.ToString;
  */
 
 @Entity
-@Table(name = "TASK_RESULT")
+@Table(name = "TASK_RESULT", indexes = {
+		@Index(name = "IX_TASK_RESULT_DATE_ID", columnList = "DATE_OF_EXECUTION, TASK_RESULT_ID"), // the order /getAll pages in, and retention scans by it's date prefix
+		@Index(name = "IX_TASK_RESULT_TASK_DATE", columnList = "TASK_ID, DATE_OF_EXECUTION, TASK_RESULT_ID") }) // a task's results, latest first
 @Getter @Setter //lombok creates getters and setters for this class 
 @NoArgsConstructor //no args constructor for JPA, it instanciates objects then reads from DB into them lazy loading.
 @ToString
@@ -61,13 +64,19 @@ public class TaskValidationResult {
     // The status of the task, representing whether it was run or not, and the result of that execution.
 	@Enumerated(EnumType.STRING)
 	@Column(name = "RESULT")
-    private TaskStatus status; // represents UNRUN ( task hasn't been run yet ), SUCCESS, FAIL.
+    private TaskStatus status; // represents UNRUN ( task hasn't been run yet ), SUCCESS, FAIL, TIMEOUT.
 	
 	@Column(name = "DATE_OF_EXECUTION")
     private LocalDateTime timestamp;
 	
 	@Column(name = "TASK_RESULT_DESCRIPTION", length = 500)
     private String resultDescription; // for error details.
+
+	@Column(name = "ELAPSED_MS")
+    private Long elapsedMillis; // how long the probe took, up to it's deadline for a TIMEOUT
+
+	@Column(name = "WRITER_ID")
+    private Long writerId; // the instance that wrote it, see ResultRollupMark
 	
 	
 	@OneToMany(mappedBy = "taskValidationResult", cascade = CascadeType.ALL, orphanRemoval = true)
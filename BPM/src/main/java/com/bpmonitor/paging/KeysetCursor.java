@@ -0,0 +1,64 @@
+package com.bpmonitor.paging;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.Base64;
+
+/**
+ * Where a page ended: the id of it's last row, and it's timestamp when the rows are ordered by time.
+ * Handed to the client as an opaque url-safe token, the next page starts right after it.
+ * @author joao7
+ *
+ */
+public final class KeysetCursor {
+
+	private final LocalDateTime timestamp; // null when the rows are ordered by id only
+	private final long id;
+
+	KeysetCursor(LocalDateTime timestamp, long id) {
+		this.timestamp = timestamp;
+		this.id = id;
+	}
+
+	LocalDateTime getTimestamp() {
+		return timestamp;
+	}
+
+	long getId() {
+		return id;
+	}
+
+	/**
+	 * @return the token handed to the client.
+	 */
+	String encode() {
+		String raw = timestamp == null ? Long.toString(id) : timestamp + "|" + id;
+		return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * @param token - a token from encode, null for the first page.
+	 * @param timeOrdered - true if the rows are ordered by time, the token must then carry one.
+	 * @return the cursor, null for the first page.
+	 * @throws IllegalArgumentException if the token wasn't made by encode for this kind of list.
+	 */
+	static KeysetCursor decode(String token, boolean timeOrdered) {
+		if (token == null || token.isEmpty()) {
+			return null;
+		}
+		try {
+			String raw = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+			int separator = raw.indexOf('|');
+			if (timeOrdered != (separator >= 0)) {
+				throw new IllegalArgumentException("Cursor " + token + " isn't a cursor of this list");
+			}
+			if (separator < 0) {
+				return new KeysetCursor(null, Long.parseLong(raw));
+			}
+			return new KeysetCursor(LocalDateTime.parse(raw.substring(0, separator)), Long.parseLong(raw.substring(separator + 1)));
+		} catch (IllegalArgumentException | DateTimeParseException e) { // NumberFormatException is an IllegalArgumentException
+			throw new IllegalArgumentException("Invalid cursor " + token, e);
+		}
+	}
+}
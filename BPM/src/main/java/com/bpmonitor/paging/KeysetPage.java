@@ -0,0 +1,68 @@
+package com.bpmonitor.paging;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+
+/**
+ * One page of a list, and the cursor of the next one (null on the last page).
+ * @author joao7
+ *
+ * @param <T> - the rows.
+ */
+public final class KeysetPage<T> {
+
+	/**
+	 * the response header the cursor of the next page is sent in, the body stays a plain JSON array.
+	 */
+	public static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+
+	private final List<T> items;
+	private final String nextCursor;
+
+	KeysetPage(List<T> items, String nextCursor) {
+		this.items = items;
+		this.nextCursor = nextCursor;
+	}
+
+	/**
+	 * @return a page without rows, for a filter nothing can match.
+	 */
+	public static <T> KeysetPage<T> empty() {
+		return new KeysetPage<>(new ArrayList<>(), null);
+	}
+
+	public List<T> getItems() {
+		return items;
+	}
+
+	public String getNextCursor() {
+		return nextCursor;
+	}
+
+	/**
+	 * @param mapper - turns a row into what's sent.
+	 * @return the same page with it's rows mapped, the cursor doesn't change.
+	 */
+	public <R> KeysetPage<R> map(Function<? super T, ? extends R> mapper) {
+		List<R> mapped = new ArrayList<>(items.size());
+		for (T item : items) {
+			mapped.add(mapper.apply(item));
+		}
+		return new KeysetPage<>(mapped, nextCursor);
+	}
+
+	/**
+	 * @return a 200 with the rows as body and the next cursor in X-Next-Cursor, if there's a next page.
+	 */
+	public ResponseEntity<List<T>> toResponse() {
+		ResponseEntity.BodyBuilder response = ResponseEntity.status(HttpStatus.OK);
+		if (nextCursor != null) {
+			response.header(NEXT_CURSOR_HEADER, nextCursor);
+		}
+		return response.body(items);
+	}
+}
@@ -0,0 +1,87 @@
+package com.bpmonitor.paging;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import javax.persistence.DiscriminatorValue;
+import javax.persistence.EntityManager;
+import javax.persistence.TypedQuery;
+import javax.persistence.metamodel.EntityType;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * Runs keyset paged list queries with a bounded page size, so a list response costs the same
+ * on a table of a hundred rows or of millions.
+ * @author joao7
+ *
+ */
+@Component
+public class KeysetPager {
+
+	private final EntityManager entityManager;
+	private final int defaultLimit;
+	private final int maxLimit;
+
+	public KeysetPager(
+			EntityManager entityManager,
+			@Value("${bpm.paging.default-limit:200}") int defaultLimit,
+			@Value("${bpm.paging.max-limit:1000}") int maxLimit) {
+		this.entityManager = entityManager;
+		this.maxLimit = Math.max(1, maxLimit);
+		this.defaultLimit = Math.max(1, Math.min(this.maxLimit, defaultLimit));
+	}
+
+
+	/**
+	 * @param query - what to list.
+	 * @param cursor - X-Next-Cursor of the previous page, null for the first one.
+	 * @param limit - rows asked for, default-limit if null, never more than max-limit.
+	 * @return the page and the cursor of the next one.
+	 * @throws IllegalArgumentException if the cursor isn't one of this list.
+	 */
+	@Transactional(readOnly = true)
+	public <T> KeysetPage<T> fetch(KeysetQuery<T> query, String cursor, Integer limit) {
+		int size = limit == null ? defaultLimit : Math.max(1, Math.min(maxLimit, limit));
+		KeysetCursor after = KeysetCursor.decode(cursor, query.isTimeOrdered());
+		String entityName = entityManager.getMetamodel().entity(query.getEntity()).getName();
+
+		TypedQuery<T> page = entityManager.createQuery(query.toJpql(entityName, after), query.getEntity());
+		for (Map.Entry<String, Object> param : query.getParams().entrySet()) {
+			page.setParameter(param.getKey(), param.getValue());
+		}
+		if (after != null) {
+			if (query.isTimeOrdered()) {
+				page.setParameter("keysetTime", after.getTimestamp());
+			}
+			page.setParameter("keysetId", after.getId());
+		}
+		page.setMaxResults(size + 1); // one more tells if there's a next page
+
+		List<T> rows = page.getResultList();
+		if (rows.size() <= size) {
+			return new KeysetPage<>(new ArrayList<>(rows), null);
+		}
+		List<T> items = new ArrayList<>(rows.subList(0, size));
+		return new KeysetPage<>(items, query.cursorAfter(items.get(size - 1)).encode());
+	}
+
+	/**
+	 * @param root - an entity with single table inheritance.
+	 * @param discriminator - the discriminator value of one of it's subclasses.
+	 * @return that subclass, for a TYPE(alias) = :type filter, null if no mapped subclass has that value.
+	 */
+	public Class<?> subclassOf(Class<?> root, String discriminator) {
+		for (EntityType<?> type : entityManager.getMetamodel().getEntities()) {
+			Class<?> javaType = type.getJavaType();
+			DiscriminatorValue value = javaType.getAnnotation(DiscriminatorValue.class);
+			if (root.isAssignableFrom(javaType) && value != null && value.value().equals(discriminator)) {
+				return javaType;
+			}
+		}
+		return null;
+	}
+}
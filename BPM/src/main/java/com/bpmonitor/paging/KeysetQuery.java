@@ -0,0 +1,116 @@
+package com.bpmonitor.paging;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * A list query paged by keyset: the rows are ordered by id (or newest first by timestamp then id)
+ * and a page starts right after the last row of the previous one, so every page is an index range scan
+ * that reads as many rows as it returns, wherever it is in the table.
+ *
+ * Filters whose value is null are left out of the query, so the SQL only has the predicates asked for.
+ * @author joao7
+ *
+ * @param <T> - the entity listed.
+ */
+public final class KeysetQuery<T> {
+
+	private final Class<T> entity;
+	private final String alias;
+	private final String idPath;
+	private final Function<T, Long> idOf;
+	private String timePath;
+	private Function<T, LocalDateTime> timeOf;
+	private final List<String> predicates = new ArrayList<>();
+	private final Map<String, Object> params = new LinkedHashMap<>();
+
+	private KeysetQuery(Class<T> entity, String alias, String idField, Function<T, Long> idOf) {
+		this.entity = entity;
+		this.alias = alias;
+		this.idPath = alias + "." + idField;
+		this.idOf = idOf;
+	}
+
+	/**
+	 * @param entity - the entity listed.
+	 * @param alias - what it's called in the filters.
+	 * @param idField - it's id field.
+	 * @param idOf - reads the id of a row.
+	 * @return a query of every row, by id.
+	 */
+	public static <T> KeysetQuery<T> of(Class<T> entity, String alias, String idField, Function<T, Long> idOf) {
+		return new KeysetQuery<>(entity, alias, idField, idOf);
+	}
+
+	/**
+	 * orders the rows newest first, by timestamp then id. Rows without a timestamp aren't listed.
+	 * @param timeField - the timestamp field, it and the id should be indexed together.
+	 * @param timeOf - reads the timestamp of a row.
+	 * @return this query.
+	 */
+	public KeysetQuery<T> newestFirst(String timeField, Function<T, LocalDateTime> timeOf) {
+		this.timePath = alias + "." + timeField;
+		this.timeOf = timeOf;
+		predicates.add(timePath + " IS NOT NULL");
+		return this;
+	}
+
+	/**
+	 * @param predicate - a JPQL condition on the alias, with :param in it.
+	 * @param param - the name of the parameter.
+	 * @param value - it's value, null to leave the condition out.
+	 * @return this query.
+	 */
+	public KeysetQuery<T> where(String predicate, String param, Object value) {
+		if (value != null) {
+			predicates.add(predicate);
+			params.put(param, value);
+		}
+		return this;
+	}
+
+
+	Class<T> getEntity() {
+		return entity;
+	}
+
+	Map<String, Object> getParams() {
+		return params;
+	}
+
+	boolean isTimeOrdered() {
+		return timePath != null;
+	}
+
+	/**
+	 * @param entityName - the JPQL name of the entity.
+	 * @param after - where the previous page ended, null for the first one.
+	 * @return the JPQL of the page, the cursor parameters are keysetTime and keysetId.
+	 */
+	String toJpql(String entityName, KeysetCursor after) {
+		StringBuilder jpql = new StringBuilder("SELECT ").append(alias).append(" FROM ").append(entityName).append(' ').append(alias);
+		List<String> conditions = new ArrayList<>(predicates);
+		if (after != null) {
+			// the OR alone can't bound an index range, the redundant time <= makes the scan start at the cursor
+			conditions.add(isTimeOrdered()
+					? timePath + " <= :keysetTime AND (" + timePath + " < :keysetTime OR (" + timePath + " = :keysetTime AND " + idPath + " < :keysetId))"
+					: idPath + " > :keysetId");
+		}
+		for (int i = 0; i < conditions.size(); i++) {
+			jpql.append(i == 0 ? " WHERE " : " AND ").append(conditions.get(i));
+		}
+		jpql.append(" ORDER BY ").append(isTimeOrdered() ? timePath + " DESC, " + idPath + " DESC" : idPath + " ASC");
+		return jpql.toString();
+	}
+
+	/**
+	 * @return the cursor right after row.
+	 */
+	KeysetCursor cursorAfter(T row) {
+		return new KeysetCursor(isTimeOrdered() ? timeOf.apply(row) : null, idOf.apply(row));
+	}
+}
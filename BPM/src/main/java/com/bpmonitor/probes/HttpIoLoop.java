@@ -0,0 +1,252 @@
+package com.bpmonitor.probes;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import javax.net.ssl.SSLContext;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * One selector thread of the HttpProbeEngine. It owns it's connections,
+ * both the ones with a check in flight and the idle kept-alive ones, so
+ * nothing here needs locking, requests are handed over through a queue.
+ * @author joao7
+ *
+ */
+@Slf4j
+final class HttpIoLoop implements Runnable {
+
+	private static final long SCAN_INTERVAL_MS = 100;
+
+	private final HttpProbeEngine engine;
+	private final Selector selector;
+	private final SSLContext sslContext;
+	private final long keepAliveNanos;
+	private final int maxIdlePerHost;
+	private final long maxDrainBytes;
+
+	private final Queue<HttpProbeRequest> submitted = new ConcurrentLinkedQueue<>();
+	private final Set<HttpProbeConnection> busy = new HashSet<>();
+	private final Map<String, ArrayDeque<HttpProbeConnection>> idle = new HashMap<>();
+
+	private volatile boolean running = true;
+	private volatile int busyCount;
+	private volatile int idleCount;
+	private long lastScanNanos;
+
+	HttpIoLoop(HttpProbeEngine engine, SSLContext sslContext, long keepAliveMs, int maxIdlePerHost, long maxDrainBytes)
+			throws IOException {
+		this.engine = engine;
+		this.selector = Selector.open();
+		this.sslContext = sslContext;
+		this.keepAliveNanos = keepAliveMs * 1_000_000L;
+		this.maxIdlePerHost = maxIdlePerHost;
+		this.maxDrainBytes = maxDrainBytes;
+	}
+
+	void submit(HttpProbeRequest request) {
+		submitted.add(request);
+		selector.wakeup();
+	}
+
+	void shutdown() {
+		running = false;
+		selector.wakeup();
+	}
+
+	int getBusyCount() {
+		return busyCount;
+	}
+
+	int getIdleCount() {
+		return idleCount;
+	}
+
+	@Override
+	public void run() {
+		while (running) {
+			try {
+				selector.select(SCAN_INTERVAL_MS);
+
+				Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				while (keys.hasNext()) {
+					SelectionKey key = keys.next();
+					keys.remove();
+					if (key.isValid()) {
+						((HttpProbeConnection) key.attachment()).handle();
+					}
+				}
+
+				HttpProbeRequest request;
+				while ((request = submitted.poll()) != null) {
+					start(request);
+				}
+
+				long now = java.lang.System.nanoTime();
+				if (now - lastScanNanos >= SCAN_INTERVAL_MS * 1_000_000L) {
+					lastScanNanos = now;
+					expire(now);
+				}
+				busyCount = busy.size();
+			} catch (Exception e) {
+				log.error("HTTP probe loop failed an iteration", e);
+			}
+		}
+		closeAll();
+	}
+
+
+	void onNewConnection(boolean tls) {
+		engine.recordNewConnection(tls);
+	}
+
+	void onCompleted(HttpProbeConnection connection, HttpProbeRequest request, boolean keepConnection) {
+		busy.remove(connection);
+		if (keepConnection) {
+			ArrayDeque<HttpProbeConnection> pool = idle.computeIfAbsent(connection.poolKey, k -> new ArrayDeque<>());
+			if (pool.size() < maxIdlePerHost) {
+				pool.push(connection);
+				idleCount++;
+			} else {
+				connection.close();
+			}
+		}
+		request.future.complete(request.toResult(null));
+	}
+
+	void onFailed(HttpProbeConnection connection, HttpProbeRequest request, Exception e) {
+		busy.remove(connection);
+		if (request == null) {
+			discardIdle(connection);
+			return;
+		}
+		// a kept-alive connection the server already dropped, that's not the target failing
+		if (request.reusedConnection && request.firstByteNanos == 0 && !request.retried) {
+			dropIdle(request.poolKey); // the others kept for that host are most likely dead as well
+			request.resetForRetry();
+			start(request);
+			return;
+		}
+		engine.recordFailure();
+		String message = e.getMessage() == null ? e.getClass().getSimpleName() : e.getMessage();
+		request.future.complete(request.toResult(message));
+	}
+
+	void discardIdle(HttpProbeConnection connection) {
+		ArrayDeque<HttpProbeConnection> pool = idle.get(connection.poolKey);
+		if (pool != null && pool.remove(connection)) {
+			idleCount--;
+		}
+	}
+
+
+	private void dropIdle(String poolKey) {
+		ArrayDeque<HttpProbeConnection> pool = idle.remove(poolKey);
+		if (pool != null) {
+			for (HttpProbeConnection connection : pool) {
+				connection.close();
+			}
+			idleCount -= pool.size();
+		}
+	}
+
+	private void start(HttpProbeRequest request) {
+		ArrayDeque<HttpProbeConnection> pool = idle.get(request.poolKey);
+		if (pool != null && !pool.isEmpty()) {
+			HttpProbeConnection connection = pool.pop(); // most recently used first, the least likely to be dropped
+			idleCount--;
+			busy.add(connection);
+			engine.recordReuse();
+			connection.reuse(request);
+			return;
+		}
+		try {
+			HttpProbeConnection connection = HttpProbeConnection.open(this, selector, sslContext, request, maxDrainBytes);
+			if (connection.getRequest() != null) {
+				busy.add(connection);
+			}
+		} catch (IOException | RuntimeException e) {
+			engine.recordFailure();
+			request.future.complete(request.toResult("Could not connect: " + e.getMessage()));
+		}
+	}
+
+	/**
+	 * times out checks past their deadline and closes connections idle for too long.
+	 */
+	private void expire(long now) {
+		List<HttpProbeConnection> timedOut = new ArrayList<>();
+		for (HttpProbeConnection connection : busy) {
+			HttpProbeRequest request = connection.getRequest();
+			if (request == null || connection.getState() == HttpProbeConnection.State.CLOSED) {
+				timedOut.add(connection); // finished while not being tracked, just forget it
+			} else if (now - request.deadlineNanos >= 0) {
+				timedOut.add(connection);
+			}
+		}
+		for (HttpProbeConnection connection : timedOut) {
+			busy.remove(connection);
+			HttpProbeRequest request = connection.abort();
+			if (request != null) {
+				engine.recordTimeout();
+				long waited = (now - request.probeStartNanos) / 1_000_000L;
+				request.future.complete(request.toResult("Timed out after " + waited + "ms"));
+			}
+		}
+
+		Iterator<ArrayDeque<HttpProbeConnection>> pools = idle.values().iterator();
+		while (pools.hasNext()) {
+			ArrayDeque<HttpProbeConnection> pool = pools.next();
+			Iterator<HttpProbeConnection> connections = pool.iterator();
+			while (connections.hasNext()) {
+				HttpProbeConnection connection = connections.next();
+				if (connection.getState() == HttpProbeConnection.State.CLOSED
+						|| now - connection.idleSinceNanos > keepAliveNanos) {
+					connection.close();
+					connections.remove();
+					idleCount--;
+				}
+			}
+			if (pool.isEmpty()) {
+				pools.remove();
+			}
+		}
+	}
+
+	private void closeAll() {
+		for (HttpProbeConnection connection : busy) {
+			HttpProbeRequest request = connection.abort();
+			if (request != null) {
+				request.future.complete(request.toResult("HTTP probe engine stopped"));
+			}
+		}
+		busy.clear();
+		for (ArrayDeque<HttpProbeConnection> pool : idle.values()) {
+			for (HttpProbeConnection connection : pool) {
+				connection.close();
+			}
+		}
+		idle.clear();
+		HttpProbeRequest request;
+		while ((request = submitted.poll()) != null) {
+			request.future.complete(request.toResult("HTTP probe engine stopped"));
+		}
+		try {
+			selector.close();
+		} catch (IOException e) {
+			log.debug("Failed closing HTTP probe selector", e);
+		}
+	}
+}
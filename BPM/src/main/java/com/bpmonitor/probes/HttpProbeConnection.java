@@ -0,0 +1,606 @@
+package com.bpmonitor.probes;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLParameters;
+
+/**
+ * A non-blocking HTTP/1.1 connection, plain or TLS (through an SSLEngine), driven by one HttpIoLoop.
+ * It sends a GET, reads the status line and headers, and drains the body so the
+ * connection can be kept alive for the next check to the same host.
+ *
+ * Nothing here is thread safe, every method runs on the loop thread.
+ * @author joao7
+ *
+ */
+final class HttpProbeConnection {
+
+	enum State { CONNECTING, HANDSHAKING, WRITING, READING_HEADERS, READING_BODY, IDLE, CLOSED }
+
+	private enum BodyMode { NONE, LENGTH, CHUNKED, UNTIL_EOF }
+
+	private enum ChunkState { SIZE, DATA, DATA_CRLF, TRAILER }
+
+	private static final int MAX_HEADER_BYTES = 64 * 1024;
+	private static final int PLAIN_BUFFER_SIZE = 16 * 1024;
+	private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+	final String poolKey;
+	long idleSinceNanos;
+
+	private final HttpIoLoop loop;
+	private final SocketChannel channel;
+	private final SSLEngine ssl; // null for plain http
+	private final long maxDrainBytes;
+	private SelectionKey key;
+	private State state;
+
+	private ByteBuffer netIn;  // encrypted bytes read from the socket, write mode
+	private ByteBuffer netOut; // encrypted bytes waiting to be written, read mode
+	private ByteBuffer appIn;  // response bytes, write mode
+	private ByteBuffer appOut; // request bytes, read mode
+
+	private HttpProbeRequest request;
+
+	// response parsing
+	private final StringBuilder headers = new StringBuilder();
+	private final StringBuilder chunkLine = new StringBuilder();
+	private BodyMode bodyMode;
+	private ChunkState chunkState;
+	private long bodyRemaining;
+	private long drained;
+	private boolean keepAlive;
+	private boolean done;
+	private boolean reusable;
+
+	private HttpProbeConnection(HttpIoLoop loop, SocketChannel channel, SSLEngine ssl, String poolKey, long maxDrainBytes) {
+		this.loop = loop;
+		this.channel = channel;
+		this.ssl = ssl;
+		this.poolKey = poolKey;
+		this.maxDrainBytes = maxDrainBytes;
+
+		if (ssl != null) {
+			int packetSize = ssl.getSession().getPacketBufferSize();
+			int appSize = ssl.getSession().getApplicationBufferSize();
+			netIn = ByteBuffer.allocate(packetSize);
+			netOut = ByteBuffer.allocate(packetSize);
+			netOut.flip();
+			appIn = ByteBuffer.allocate(appSize + 64);
+		} else {
+			appIn = ByteBuffer.allocate(PLAIN_BUFFER_SIZE);
+		}
+	}
+
+
+	/**
+	 * opens a new connection for the request, TLS sessions are resumed by the
+	 * SSLContext's session cache whenever the same host:port was seen before.
+	 */
+	static HttpProbeConnection open(HttpIoLoop loop, Selector selector, SSLContext sslContext,
+			HttpProbeRequest request, long maxDrainBytes) throws IOException {
+		SocketChannel channel = SocketChannel.open();
+		try {
+			channel.configureBlocking(false);
+			channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+
+			SSLEngine ssl = null;
+			if (request.tls) {
+				ssl = sslContext.createSSLEngine(request.host, request.port);
+				ssl.setUseClientMode(true);
+				SSLParameters params = ssl.getSSLParameters();
+				params.setEndpointIdentificationAlgorithm("HTTPS"); // same hostname check as HttpsURLConnection
+				ssl.setSSLParameters(params);
+			}
+
+			HttpProbeConnection connection = new HttpProbeConnection(loop, channel, ssl, request.poolKey, maxDrainBytes);
+			connection.request = request;
+			connection.state = State.CONNECTING;
+			boolean connected = channel.connect(request.address);
+			connection.key = channel.register(selector, connected ? 0 : SelectionKey.OP_CONNECT, connection);
+			if (connected) {
+				connection.onConnected();
+			}
+			return connection;
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	State getState() {
+		return state;
+	}
+
+	HttpProbeRequest getRequest() {
+		return request;
+	}
+
+	/**
+	 * sends the request over this (idle, kept-alive) connection.
+	 */
+	void reuse(HttpProbeRequest request) {
+		this.request = request;
+		request.reusedConnection = true;
+		try {
+			startRequest();
+		} catch (IOException | RuntimeException e) {
+			fail(e);
+		}
+	}
+
+	/**
+	 * called by the loop whenever the key is ready.
+	 */
+	void handle() {
+		try {
+			switch (state) {
+			case CONNECTING:
+				if (channel.finishConnect()) {
+					onConnected();
+				}
+				break;
+			case HANDSHAKING:
+				handshake();
+				break;
+			case WRITING:
+				write();
+				break;
+			case READING_HEADERS:
+			case READING_BODY:
+				read();
+				break;
+			case IDLE:
+				checkIdle();
+				break;
+			default:
+				break;
+			}
+		} catch (IOException | RuntimeException e) {
+			fail(e);
+		}
+	}
+
+	/**
+	 * takes the request away from the connection and closes it, used on timeouts.
+	 */
+	HttpProbeRequest abort() {
+		HttpProbeRequest aborted = request;
+		request = null;
+		close();
+		return aborted;
+	}
+
+	void close() {
+		if (state == State.CLOSED) {
+			return;
+		}
+		state = State.CLOSED;
+		if (key != null) {
+			key.cancel();
+		}
+		try {
+			channel.close();
+		} catch (IOException e) {
+			// nothing to do, it's gone anyway
+		}
+	}
+
+
+	private void onConnected() throws IOException {
+		request.connectedNanos = java.lang.System.nanoTime();
+		loop.onNewConnection(ssl != null);
+		if (ssl != null) {
+			state = State.HANDSHAKING;
+			ssl.beginHandshake();
+			handshake();
+		} else {
+			startRequest();
+		}
+	}
+
+	private void startRequest() throws IOException {
+		headers.setLength(0);
+		chunkLine.setLength(0);
+		bodyMode = BodyMode.NONE;
+		drained = 0;
+		done = false;
+		reusable = false;
+		appOut = ByteBuffer.wrap(request.requestBytes());
+		state = State.WRITING;
+		write();
+	}
+
+	private void handshake() throws IOException {
+		while (true) {
+			if (netOut.hasRemaining()) {
+				channel.write(netOut);
+				if (netOut.hasRemaining()) {
+					interest(SelectionKey.OP_WRITE);
+					return;
+				}
+			}
+			switch (ssl.getHandshakeStatus()) {
+			case NEED_TASK:
+				runDelegatedTasks();
+				break;
+			case NEED_WRAP:
+				netOut.clear();
+				SSLEngineResult wrapped = ssl.wrap(EMPTY, netOut);
+				netOut.flip();
+				if (wrapped.getStatus() == SSLEngineResult.Status.CLOSED) {
+					throw new SSLException("TLS session closed during handshake");
+				}
+				break;
+			case NEED_UNWRAP:
+				if (!unwrapHandshake()) {
+					interest(SelectionKey.OP_READ);
+					return;
+				}
+				break;
+			default: // FINISHED or NOT_HANDSHAKING
+				request.tlsDoneNanos = java.lang.System.nanoTime();
+				startRequest();
+				return;
+			}
+		}
+	}
+
+	/**
+	 * @return false when more bytes from the server are needed to go on.
+	 */
+	private boolean unwrapHandshake() throws IOException {
+		netIn.flip();
+		SSLEngineResult result;
+		try {
+			result = ssl.unwrap(netIn, appIn);
+		} finally {
+			netIn.compact();
+		}
+		switch (result.getStatus()) {
+		case OK:
+			return true;
+		case BUFFER_OVERFLOW:
+			appIn = enlarge(appIn, ssl.getSession().getApplicationBufferSize());
+			return true;
+		case BUFFER_UNDERFLOW:
+			if (!netIn.hasRemaining()) {
+				netIn = enlarge(netIn, ssl.getSession().getPacketBufferSize());
+			}
+			int read = channel.read(netIn);
+			if (read < 0) {
+				throw new EOFException("Connection closed by server during TLS handshake");
+			}
+			return read > 0;
+		default:
+			throw new SSLException("TLS session closed during handshake");
+		}
+	}
+
+	private void write() throws IOException {
+		if (ssl == null) {
+			channel.write(appOut);
+			if (appOut.hasRemaining()) {
+				interest(SelectionKey.OP_WRITE);
+				return;
+			}
+		} else {
+			while (appOut.hasRemaining() || netOut.hasRemaining()) {
+				if (!netOut.hasRemaining()) {
+					netOut.clear();
+					SSLEngineResult wrapped = ssl.wrap(appOut, netOut);
+					netOut.flip();
+					if (wrapped.getStatus() == SSLEngineResult.Status.CLOSED) {
+						throw new SSLException("TLS session closed by server");
+					}
+				}
+				channel.write(netOut);
+				if (netOut.hasRemaining()) {
+					interest(SelectionKey.OP_WRITE);
+					return;
+				}
+			}
+		}
+		state = State.READING_HEADERS;
+		interest(SelectionKey.OP_READ);
+	}
+
+	private void read() throws IOException {
+		while (state == State.READING_HEADERS || state == State.READING_BODY) {
+			int read = ssl == null ? channel.read(appIn) : readTls();
+
+			if (appIn.position() > 0) {
+				appIn.flip();
+				parse(appIn);
+				boolean leftover = appIn.hasRemaining() || (netIn != null && netIn.position() > 0);
+				appIn.clear();
+				if (done) {
+					// anything sent past the response means I can't trust this connection anymore
+					complete(reusable && !leftover && read >= 0);
+					return;
+				}
+			}
+
+			if (read < 0) {
+				if (bodyMode == BodyMode.UNTIL_EOF) {
+					complete(false);
+				} else {
+					throw new EOFException("Connection closed by server");
+				}
+				return;
+			}
+			if (read == 0) {
+				return; // wait for more bytes
+			}
+		}
+	}
+
+	/**
+	 * reads and decrypts what's available.
+	 * @return -1 on end of stream, else how many plain bytes were produced.
+	 */
+	private int readTls() throws IOException {
+		int read = channel.read(netIn);
+		int produced = 0;
+		boolean closed = false;
+		netIn.flip();
+		try {
+			while (netIn.hasRemaining() && appIn.hasRemaining()) {
+				SSLEngineResult result = ssl.unwrap(netIn, appIn);
+				produced += result.bytesProduced();
+				if (result.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.NEED_TASK) {
+					runDelegatedTasks();
+				}
+				if (result.getStatus() == SSLEngineResult.Status.CLOSED) {
+					closed = true;
+					break;
+				}
+				if (result.getStatus() != SSLEngineResult.Status.OK) {
+					break; // underflow waits for more bytes, overflow for the parser to empty appIn
+				}
+			}
+		} finally {
+			netIn.compact();
+		}
+		if (produced > 0) {
+			return produced;
+		}
+		return read < 0 || closed ? -1 : 0;
+	}
+
+	/**
+	 * something arrived on an idle connection: either the server closed it, or a
+	 * TLS post-handshake message (session tickets), anything else is not expected.
+	 */
+	private void checkIdle() throws IOException {
+		int read = ssl == null ? channel.read(appIn) : readTls();
+		if (read != 0 || appIn.position() > 0) {
+			loop.discardIdle(this);
+			close();
+		}
+	}
+
+	private void parse(ByteBuffer buffer) throws IOException {
+		if (buffer.hasRemaining() && request.firstByteNanos == 0) {
+			request.firstByteNanos = java.lang.System.nanoTime();
+		}
+		while (buffer.hasRemaining() && !done) {
+			if (state == State.READING_HEADERS) {
+				headers.append((char) (buffer.get() & 0xff));
+				if (headers.length() > MAX_HEADER_BYTES) {
+					throw new IOException("Response headers are too large");
+				}
+				int length = headers.length();
+				if (length >= 4 && headers.charAt(length - 1) == '\n' && headers.charAt(length - 2) == '\r'
+						&& headers.charAt(length - 3) == '\n' && headers.charAt(length - 4) == '\r') {
+					onHeaders();
+				}
+			} else {
+				consumeBody(buffer);
+			}
+		}
+	}
+
+	private void onHeaders() throws IOException {
+		String[] lines = headers.toString().split("\r\n");
+		headers.setLength(0);
+
+		String[] statusLine = lines[0].split(" ", 3);
+		if (statusLine.length < 2 || !statusLine[0].startsWith("HTTP/")) {
+			throw new IOException("Not an HTTP response: " + lines[0]);
+		}
+		int status;
+		try {
+			status = Integer.parseInt(statusLine[1].trim());
+		} catch (NumberFormatException e) {
+			throw new IOException("Invalid HTTP status line: " + lines[0]);
+		}
+		if (status >= 100 && status < 200) {
+			return; // interim response (100 Continue...), the real one follows
+		}
+
+		keepAlive = !"HTTP/1.0".equals(statusLine[0]);
+		long contentLength = -1;
+		boolean chunked = false;
+		for (int i = 1; i < lines.length; i++) {
+			int colon = lines[i].indexOf(':');
+			if (colon <= 0) {
+				continue;
+			}
+			String name = lines[i].substring(0, colon).trim().toLowerCase();
+			if ("location".equals(name)) {
+				request.location = lines[i].substring(colon + 1).trim(); // a path, it's case matters
+				continue;
+			}
+			String value = lines[i].substring(colon + 1).trim().toLowerCase();
+			if ("content-length".equals(name)) {
+				try {
+					contentLength = Long.parseLong(value);
+				} catch (NumberFormatException e) {
+					keepAlive = false;
+				}
+			} else if ("transfer-encoding".equals(name) && value.contains("chunked")) {
+				chunked = true;
+			} else if ("connection".equals(name)) {
+				if (value.contains("close")) {
+					keepAlive = false;
+				} else if (value.contains("keep-alive")) {
+					keepAlive = true;
+				}
+			}
+		}
+
+		request.statusCode = status;
+		state = State.READING_BODY;
+		if (status == 204 || status == 304) {
+			finish(true);
+		} else if (chunked) {
+			bodyMode = BodyMode.CHUNKED;
+			chunkState = ChunkState.SIZE;
+		} else if (contentLength >= 0) {
+			bodyMode = BodyMode.LENGTH;
+			bodyRemaining = contentLength;
+			if (contentLength == 0) {
+				finish(true);
+			} else if (contentLength > maxDrainBytes) {
+				finish(false); // not worth downloading just to keep the connection
+			}
+		} else {
+			bodyMode = BodyMode.UNTIL_EOF;
+		}
+	}
+
+	private void consumeBody(ByteBuffer buffer) throws IOException {
+		switch (bodyMode) {
+		case LENGTH: {
+			int skip = (int) Math.min(buffer.remaining(), bodyRemaining);
+			buffer.position(buffer.position() + skip);
+			bodyRemaining -= skip;
+			if (bodyRemaining == 0) {
+				finish(true);
+			}
+			break;
+		}
+		case UNTIL_EOF:
+			drained += buffer.remaining();
+			buffer.position(buffer.limit());
+			if (drained > maxDrainBytes) {
+				finish(false);
+			}
+			break;
+		case CHUNKED:
+			consumeChunked(buffer);
+			break;
+		default:
+			buffer.position(buffer.limit());
+			break;
+		}
+	}
+
+	private void consumeChunked(ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining() && !done) {
+			switch (chunkState) {
+			case SIZE:
+			case TRAILER:
+			case DATA_CRLF: {
+				char c = (char) (buffer.get() & 0xff);
+				if (c != '\n') {
+					if (chunkLine.length() > 1024) {
+						throw new IOException("Invalid chunked response");
+					}
+					chunkLine.append(c);
+					break;
+				}
+				String line = chunkLine.toString().trim();
+				chunkLine.setLength(0);
+				if (chunkState == ChunkState.DATA_CRLF) {
+					chunkState = ChunkState.SIZE;
+				} else if (chunkState == ChunkState.TRAILER) {
+					if (line.isEmpty()) {
+						finish(true);
+					}
+				} else {
+					int extension = line.indexOf(';');
+					String size = extension >= 0 ? line.substring(0, extension).trim() : line;
+					try {
+						bodyRemaining = Long.parseLong(size, 16);
+					} catch (NumberFormatException e) {
+						throw new IOException("Invalid chunk size: " + line);
+					}
+					chunkState = bodyRemaining == 0 ? ChunkState.TRAILER : ChunkState.DATA;
+				}
+				break;
+			}
+			case DATA: {
+				int skip = (int) Math.min(buffer.remaining(), bodyRemaining);
+				buffer.position(buffer.position() + skip);
+				bodyRemaining -= skip;
+				drained += skip;
+				if (drained > maxDrainBytes) {
+					finish(false);
+				} else if (bodyRemaining == 0) {
+					chunkState = ChunkState.DATA_CRLF;
+				}
+				break;
+			}
+			default:
+				break;
+			}
+		}
+	}
+
+	private void finish(boolean bodyFullyRead) {
+		done = true;
+		reusable = bodyFullyRead && keepAlive;
+	}
+
+	private void complete(boolean keepConnection) {
+		HttpProbeRequest completed = request;
+		request = null;
+		if (keepConnection) {
+			state = State.IDLE;
+			idleSinceNanos = java.lang.System.nanoTime();
+			interest(SelectionKey.OP_READ); // so I notice when the server closes it
+		} else {
+			close();
+		}
+		loop.onCompleted(this, completed, keepConnection);
+	}
+
+	private void fail(Exception e) {
+		HttpProbeRequest failed = request;
+		request = null;
+		close();
+		loop.onFailed(this, failed, e);
+	}
+
+	private void runDelegatedTasks() {
+		Runnable task;
+		while ((task = ssl.getDelegatedTask()) != null) {
+			task.run();
+		}
+	}
+
+	private void interest(int ops) {
+		if (key.isValid()) {
+			key.interestOps(ops);
+		}
+	}
+
+	private static ByteBuffer enlarge(ByteBuffer buffer, int minCapacity) {
+		ByteBuffer larger = ByteBuffer.allocate(Math.max(minCapacity, buffer.capacity() * 2));
+		buffer.flip();
+		larger.put(buffer);
+		return larger;
+	}
+}
@@ -0,0 +1,238 @@
+package com.bpmonitor.probes;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.UnknownHostException;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.net.ssl.SSLContext;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.bpmonitor.DTOs.response.HttpProbeEngineMetricsResponseDTO;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Runs HTTP checks without blocking a thread per check.
+ *
+ * A few selector threads (HttpIoLoop) multiplex every connection, a check to a slow endpoint
+ * just sits in a selector until it answers or hits it's deadline.
+ * Checks to the same scheme://host:port always land on the same loop, so that loop can
+ * hand them a kept-alive connection, and new TLS connections resume the previous session
+ * through the SSLContext session cache.
+ * Hosts are resolved on the ProbeResolver, within the check's deadline, and redirects are followed
+ * like HttpURLConnection did, only to the same protocol (http to http, https to https).
+ * @author joao7
+ *
+ */
+@Slf4j
+@Component
+public class HttpProbeEngine {
+
+	private final int ioThreads;
+	private final long keepAliveMs;
+	private final int maxIdlePerHost;
+	private final long maxDrainBytes;
+	private final int maxRedirects;
+	private final ProbeResolver resolver;
+
+	private HttpIoLoop[] loops;
+
+	private final LongAdder probes = new LongAdder();
+	private final LongAdder newConnections = new LongAdder();
+	private final LongAdder reusedConnections = new LongAdder();
+	private final LongAdder tlsHandshakes = new LongAdder();
+	private final LongAdder failures = new LongAdder();
+	private final LongAdder timeouts = new LongAdder();
+
+	public HttpProbeEngine(
+			@Value("${bpm.probes.http.io-threads:2}") int ioThreads,
+			@Value("${bpm.probes.http.keep-alive-ms:30000}") long keepAliveMs,
+			@Value("${bpm.probes.http.max-idle-per-host:4}") int maxIdlePerHost,
+			@Value("${bpm.probes.http.max-drain-bytes:1048576}") long maxDrainBytes,
+			@Value("${bpm.probes.http.max-redirects:20}") int maxRedirects,
+			ProbeResolver resolver) {
+		this.ioThreads = Math.max(1, ioThreads);
+		this.keepAliveMs = keepAliveMs;
+		this.maxIdlePerHost = Math.max(0, maxIdlePerHost);
+		this.maxDrainBytes = maxDrainBytes;
+		this.maxRedirects = Math.max(0, maxRedirects);
+		this.resolver = resolver;
+	}
+
+
+	@PostConstruct
+	public void start() throws IOException, NoSuchAlgorithmException {
+		SSLContext sslContext = SSLContext.getDefault();
+		loops = new HttpIoLoop[ioThreads];
+		for (int i = 0; i < ioThreads; i++) {
+			loops[i] = new HttpIoLoop(this, sslContext, keepAliveMs, maxIdlePerHost, maxDrainBytes);
+			Thread thread = new Thread(loops[i], "HttpProbe-" + i);
+			thread.setDaemon(true);
+			thread.start();
+		}
+		ProbeEngines.register(this);
+		log.info("HTTP probe engine started with {} I/O threads", ioThreads);
+	}
+
+	@PreDestroy
+	public void stop() {
+		ProbeEngines.unregister(this);
+		for (HttpIoLoop loop : loops) {
+			loop.shutdown();
+		}
+	}
+
+
+	/**
+	 * starts a GET to the url, it never completes exceptionally,
+	 * failures and timeouts come back as a result with an error.
+	 * @param url - http or https url to check.
+	 * @param timeoutMs - deadline for the whole check, connect included.
+	 * @return completes on one of the I/O threads, keep the callbacks short.
+	 */
+	public CompletableFuture<HttpProbeResult> probe(String url, long timeoutMs) {
+		HttpTarget target;
+		try {
+			target = HttpTarget.parse(url);
+		} catch (IllegalArgumentException e) {
+			probes.increment();
+			return failed(url, e.getMessage());
+		}
+		return probe(target, timeoutMs);
+	}
+
+	/**
+	 * same as probe(url, timeoutMs) for a url that was already parsed, only the host is resolved here.
+	 * @param target - parsed url to check.
+	 * @param timeoutMs - deadline for the whole check, DNS, connect and redirects included.
+	 * @return completes on one of the I/O threads (or the resolver's), keep the callbacks short.
+	 */
+	public CompletableFuture<HttpProbeResult> probe(HttpTarget target, long timeoutMs) {
+		probes.increment();
+		long startNanos = java.lang.System.nanoTime();
+		return send(target, startNanos, startNanos + timeoutMs * 1_000_000L, 0);
+	}
+
+	/**
+	 * @return a snapshot of the engine's counters.
+	 */
+	public HttpProbeEngineMetricsResponseDTO getMetrics() {
+		int inFlight = 0;
+		int idle = 0;
+		for (HttpIoLoop loop : loops) {
+			inFlight += loop.getBusyCount();
+			idle += loop.getIdleCount();
+		}
+		return new HttpProbeEngineMetricsResponseDTO(
+				ioThreads,
+				inFlight,
+				idle,
+				probes.sum(),
+				newConnections.sum(),
+				reusedConnections.sum(),
+				tlsHandshakes.sum(),
+				failures.sum(),
+				timeouts.sum());
+	}
+
+
+	void recordNewConnection(boolean tls) {
+		newConnections.increment();
+		if (tls) {
+			tlsHandshakes.increment();
+		}
+	}
+
+	void recordReuse() {
+		reusedConnections.increment();
+	}
+
+	void recordFailure() {
+		failures.increment();
+	}
+
+	void recordTimeout() {
+		timeouts.increment();
+	}
+
+	/**
+	 * resolves the target's host and sends the GET, then follows the redirect it answered with, if any.
+	 */
+	private CompletableFuture<HttpProbeResult> send(HttpTarget target, long startNanos, long deadlineNanos, int redirects) {
+		long leftMs = (deadlineNanos - java.lang.System.nanoTime()) / 1_000_000L;
+		return resolver.resolve(target.getHost(), Math.max(1, leftMs))
+				.thenCompose(address -> {
+					HttpProbeRequest request = new HttpProbeRequest(target,
+							new InetSocketAddress(address, target.getPort()), startNanos, deadlineNanos);
+					loops[Math.floorMod(request.poolKey.hashCode(), loops.length)].submit(request);
+					return request.future;
+				})
+				.exceptionally(e -> unresolved(target, startNanos, e))
+				.thenCompose(result -> followRedirect(target, result, startNanos, deadlineNanos, redirects));
+	}
+
+	private CompletableFuture<HttpProbeResult> followRedirect(HttpTarget target, HttpProbeResult result,
+			long startNanos, long deadlineNanos, int redirects) {
+		if (maxRedirects == 0 || !result.isRedirect() || result.getLocation() == null) {
+			return CompletableFuture.completedFuture(result);
+		}
+
+		HttpTarget next;
+		try {
+			next = HttpTarget.parse(URI.create(target.getUrl().trim()).resolve(result.getLocation()).toString());
+		} catch (IllegalArgumentException e) {
+			return failed(target.getUrl(), startNanos, "Invalid redirect (HTTP " + result.getStatusCode() + ") to " + result.getLocation());
+		}
+		if (next.isTls() != target.isTls()) {
+			return CompletableFuture.completedFuture(result); // HttpURLConnection never switched protocols either
+		}
+		if (redirects >= maxRedirects) {
+			return failed(target.getUrl(), startNanos, "Server redirected too many times (" + maxRedirects + ")");
+		}
+		if (java.lang.System.nanoTime() - deadlineNanos >= 0) {
+			timeouts.increment();
+			return CompletableFuture.completedFuture(new HttpProbeResult(target.getUrl(), -1, 0, 0, 0,
+					millisSince(startNanos), false, null, "Timed out after " + millisSince(startNanos) + "ms following redirects"));
+		}
+		return send(next, startNanos, deadlineNanos, redirects + 1);
+	}
+
+	private HttpProbeResult unresolved(HttpTarget target, long startNanos, Throwable e) {
+		Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+		String error;
+		if (cause instanceof UnknownHostException) {
+			failures.increment();
+			error = "Unknown host: " + target.getHost();
+		} else if (cause instanceof TimeoutException) {
+			timeouts.increment();
+			error = cause.getMessage();
+		} else {
+			failures.increment();
+			error = cause.getMessage() == null ? cause.getClass().getSimpleName() : cause.getMessage();
+		}
+		return new HttpProbeResult(target.getUrl(), -1, 0, 0, 0, millisSince(startNanos), false, null, error);
+	}
+
+	private CompletableFuture<HttpProbeResult> failed(String url, String error) {
+		return failed(url, java.lang.System.nanoTime(), error);
+	}
+
+	private CompletableFuture<HttpProbeResult> failed(String url, long startNanos, String error) {
+		failures.increment();
+		return CompletableFuture.completedFuture(new HttpProbeResult(url, -1, 0, 0, 0, millisSince(startNanos), false, null, error));
+	}
+
+	private static long millisSince(long startNanos) {
+		return (java.lang.System.nanoTime() - startNanos) / 1_000_000L;
+	}
+}
@@ -0,0 +1,76 @@
+package com.bpmonitor.probes;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * one HTTP check in flight, with the timestamps collected along the way.
+ * Only touched by the I/O loop it was submitted to.
+ */
+final class HttpProbeRequest {
+
+	final String url;
+	final String host;
+	final int port;
+	final boolean tls;
+	final InetSocketAddress address;
+	final String poolKey;
+	final long startNanos;
+	final long probeStartNanos; // before the DNS lookup and any redirect, what the total counts from
+	final long deadlineNanos;
+	final CompletableFuture<HttpProbeResult> future = new CompletableFuture<>();
+
+	long connectedNanos;
+	long tlsDoneNanos;
+	long firstByteNanos;
+	int statusCode = -1;
+	String location;
+	boolean reusedConnection;
+	boolean retried;
+
+	private final byte[] requestBytes;
+
+	HttpProbeRequest(HttpTarget target, InetSocketAddress address, long probeStartNanos, long deadlineNanos) {
+		this.url = target.getUrl();
+		this.host = target.getHost();
+		this.port = target.getPort();
+		this.tls = target.isTls();
+		this.address = address;
+		this.poolKey = target.poolKey();
+		this.startNanos = java.lang.System.nanoTime();
+		this.probeStartNanos = probeStartNanos;
+		this.deadlineNanos = deadlineNanos;
+		this.requestBytes = target.requestBytes();
+	}
+
+	byte[] requestBytes() {
+		return requestBytes;
+	}
+
+	/**
+	 * the pooled connection turned out to be dead before answering,
+	 * the check starts over on a fresh connection (same start time, same deadline).
+	 */
+	void resetForRetry() {
+		retried = true;
+		reusedConnection = false;
+		connectedNanos = 0;
+		tlsDoneNanos = 0;
+		firstByteNanos = 0;
+		statusCode = -1;
+		location = null;
+	}
+
+	HttpProbeResult toResult(String error) {
+		long now = java.lang.System.nanoTime();
+		long connect = connectedNanos == 0 ? 0 : millis(connectedNanos - startNanos);
+		long tlsTime = tlsDoneNanos == 0 || connectedNanos == 0 ? 0 : millis(tlsDoneNanos - connectedNanos);
+		long ttfb = firstByteNanos == 0 ? 0 : millis(firstByteNanos - startNanos);
+		return new HttpProbeResult(url, error == null ? statusCode : -1, connect, tlsTime, ttfb,
+				millis(now - probeStartNanos), reusedConnection, error == null ? location : null, error);
+	}
+
+	private static long millis(long nanos) {
+		return nanos / 1_000_000L;
+	}
+}
@@ -0,0 +1,47 @@
+package com.bpmonitor.probes;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * Outcome of one HTTP check done by the HttpProbeEngine.
+ * Timings are in millis from the moment the check was started,
+ * connect and tls are 0 when a kept-alive connection was reused.
+ * After redirects the result is the last response's, with the total counting every hop.
+ * @author joao7
+ *
+ */
+@Getter
+@AllArgsConstructor
+public class HttpProbeResult {
+
+	private final String url;
+	private final int statusCode; // -1 when no response was received
+	private final long connectMillis;
+	private final long tlsMillis;
+	private final long ttfbMillis; // time to first byte of the response
+	private final long totalMillis;
+	private final boolean connectionReused;
+	private final String location; // the Location header, null when there was none
+	private final String error; // null when a response was received
+
+	/**
+	 * @return whether the server answered with a status line.
+	 */
+	public boolean isResponded() {
+		return error == null && statusCode > 0;
+	}
+
+	/**
+	 * @return whether the response was one HttpURLConnection followed.
+	 */
+	public boolean isRedirect() {
+		return error == null && (statusCode == 301 || statusCode == 302 || statusCode == 303
+				|| statusCode == 307 || statusCode == 308);
+	}
+
+	public String describeTimings() {
+		return "connect " + connectMillis + "ms, tls " + tlsMillis + "ms, ttfb " + ttfbMillis
+				+ "ms, total " + totalMillis + "ms" + (connectionReused ? ", reused connection" : "");
+	}
+}
@@ -0,0 +1,107 @@
+package com.bpmonitor.probes;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * An http(s) url already split into what the HttpProbeEngine needs, with the GET request
+ * bytes built once. Immutable, so a compiled workload can keep one and reuse it on every check.
+ * The host is resolved on every check, not here, so DNS changes are still picked up.
+ * @author joao7
+ *
+ */
+public final class HttpTarget {
+
+	private final String url;
+	private final String host;
+	private final int port;
+	private final boolean tls;
+	private final String poolKey;
+	private final String normalizedUrl;
+	private final byte[] requestBytes;
+
+	private HttpTarget(String url, String host, int port, boolean tls, String pathAndQuery) {
+		this.url = url;
+		this.host = host;
+		this.port = port;
+		this.tls = tls;
+		this.poolKey = (tls ? "https://" : "http://") + host + ":" + port;
+		this.normalizedUrl = (tls ? "https://" : "http://") + host.toLowerCase() + ":" + port + pathAndQuery;
+
+		boolean defaultPort = (tls && port == 443) || (!tls && port == 80);
+		String request = "GET " + pathAndQuery + " HTTP/1.1\r\n"
+				+ "Host: " + host + (defaultPort ? "" : ":" + port) + "\r\n"
+				+ "User-Agent: BPM-Probe\r\n"
+				+ "Accept: */*\r\n"
+				+ "Connection: keep-alive\r\n"
+				+ "\r\n";
+		this.requestBytes = request.getBytes(StandardCharsets.ISO_8859_1);
+	}
+
+	/**
+	 * @param url - http or https url to check.
+	 * @return the parsed target.
+	 * @throws IllegalArgumentException if the url can't be checked, the message says why.
+	 */
+	public static HttpTarget parse(String url) {
+		URI uri;
+		try {
+			uri = new URI(url == null ? "" : url.trim());
+		} catch (URISyntaxException e) {
+			throw new IllegalArgumentException("Invalid URL: " + e.getMessage());
+		}
+
+		String scheme = uri.getScheme() == null ? "" : uri.getScheme().toLowerCase();
+		if (!"http".equals(scheme) && !"https".equals(scheme)) {
+			throw new IllegalArgumentException("Unsupported URL, only http and https can be checked: " + url);
+		}
+		String host = uri.getHost();
+		if (host == null) {
+			throw new IllegalArgumentException("Invalid URL, no host: " + url);
+		}
+		boolean tls = "https".equals(scheme);
+		int port = uri.getPort() > 0 ? uri.getPort() : (tls ? 443 : 80);
+
+		String path = uri.getRawPath() == null || uri.getRawPath().isEmpty() ? "/" : uri.getRawPath();
+		if (uri.getRawQuery() != null) {
+			path += "?" + uri.getRawQuery();
+		}
+		return new HttpTarget(url, host, port, tls, path);
+	}
+
+	public String getUrl() {
+		return url;
+	}
+
+	public String getHost() {
+		return host;
+	}
+
+	public int getPort() {
+		return port;
+	}
+
+	public boolean isTls() {
+		return tls;
+	}
+
+	/**
+	 * @return the url with the host lower cased and the port spelled out,
+	 * two urls that send the very same request have the same one.
+	 */
+	public String getNormalizedUrl() {
+		return normalizedUrl;
+	}
+
+	String poolKey() {
+		return poolKey;
+	}
+
+	/**
+	 * shared by every check to this target, never written to.
+	 */
+	byte[] requestBytes() {
+		return requestBytes;
+	}
+}
@@ -0,0 +1,61 @@
+package com.bpmonitor.probes;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * A connection borrowed from one of the JdbcTargetPools, closing the lease gives it back.
+ * Don't close the connection itself.
+ * @author joao7
+ *
+ */
+@Slf4j
+public class JdbcLease implements AutoCloseable {
+
+	private final JdbcTargetPools pools;
+	private final JdbcTargetPools.TargetPool pool;
+	private final Connection connection;
+	private volatile boolean broken; // also set by the deadline's thread
+	private boolean returned;
+
+	JdbcLease(JdbcTargetPools pools, JdbcTargetPools.TargetPool pool, Connection connection) {
+		this.pools = pools;
+		this.pool = pool;
+		this.connection = connection;
+	}
+
+	public Connection getConnection() {
+		return connection;
+	}
+
+	/**
+	 * the connection can't be trusted anymore, it's closed instead of pooled.
+	 */
+	public void markBroken() {
+		this.broken = true;
+	}
+
+	/**
+	 * hard-closes the connection from another thread, whatever it's blocked on fails right away.
+	 * the connection is dropped when the lease is closed.
+	 */
+	public void abort() {
+		markBroken();
+		try {
+			connection.abort(Runnable::run);
+		} catch (SQLException | RuntimeException e) {
+			log.debug("Failed aborting a target connection: {}", e.getMessage());
+		}
+	}
+
+	@Override
+	public void close() {
+		if (returned) {
+			return;
+		}
+		returned = true;
+		pools.giveBack(pool, connection, broken);
+	}
+}
@@ -0,0 +1,393 @@
+package com.bpmonitor.probes;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import com.bpmonitor.DTOs.response.JdbcTargetPoolsMetricsResponseDTO;
+import com.bpmonitor.customExceptions.DBCheckException;
+import com.bpmonitor.enums.DBCheckStage;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Small connection pools to the databases checked by QUERYDBTASK's, one per (jdbcUrl, username),
+ * so a check doesn't pay a full login every time it runs.
+ *
+ * - each pool holds at most max-per-target connections, borrowers wait acquire-timeout-ms for one
+ * - a pooled connection is validated (isValid) before being handed out
+ * - connections idle for idle-timeout-ms are closed, and so are pools left with nothing in them
+ * - at most max-pools pools are kept, the least recently used one goes first, it's permits stay
+ *   with the (jdbcUrl, username) while connections it lent are still out, so the next pool can't go past max-per-target
+ * - a login gives up after login-timeout-ms, or whatever is left of the check's deadline if that's less
+ * @author joao7
+ *
+ */
+@Slf4j
+@Component
+public class JdbcTargetPools {
+
+	private final int maxPools;
+	private final int maxPerTarget;
+	private final long idleTimeoutMs;
+	private final long acquireTimeoutMs;
+	private final int validationTimeoutSeconds;
+	private final long loginTimeoutMs;
+
+	// access ordered, the eldest entry is the least recently used pool
+	private final LinkedHashMap<String, TargetPool> pools = new LinkedHashMap<>(16, 0.75f, true);
+	// permits of pools dropped while they still had connections lent out, guarded by pools
+	private final Map<String, Semaphore> leasedPermits = new HashMap<>();
+
+	private final LongAdder logins = new LongAdder();
+	private final LongAdder reuses = new LongAdder();
+	private final LongAdder evictedPools = new LongAdder();
+	private final LongAdder acquireFailures = new LongAdder();
+	private final LongAdder loginFailures = new LongAdder();
+	private final LongAdder queryFailures = new LongAdder();
+
+	public JdbcTargetPools(
+			@Value("${bpm.probes.jdbc.max-pools:50}") int maxPools,
+			@Value("${bpm.probes.jdbc.max-per-target:2}") int maxPerTarget,
+			@Value("${bpm.probes.jdbc.idle-timeout-ms:300000}") long idleTimeoutMs,
+			@Value("${bpm.probes.jdbc.acquire-timeout-ms:5000}") long acquireTimeoutMs,
+			@Value("${bpm.probes.jdbc.validation-timeout-s:2}") int validationTimeoutSeconds,
+			@Value("${bpm.probes.jdbc.login-timeout-ms:10000}") long loginTimeoutMs) {
+		this.maxPools = Math.max(1, maxPools);
+		this.maxPerTarget = Math.max(1, maxPerTarget);
+		this.idleTimeoutMs = idleTimeoutMs;
+		this.acquireTimeoutMs = acquireTimeoutMs;
+		this.validationTimeoutSeconds = validationTimeoutSeconds;
+		this.loginTimeoutMs = Math.max(1, loginTimeoutMs);
+	}
+
+	@PostConstruct
+	public void register() {
+		ProbeEngines.register(this);
+	}
+
+	@PreDestroy
+	public void closeAll() {
+		ProbeEngines.unregister(this);
+		List<TargetPool> closing;
+		synchronized (pools) {
+			closing = new ArrayList<>(pools.values());
+			pools.clear();
+		}
+		for (TargetPool pool : closing) {
+			pool.close();
+		}
+	}
+
+
+	/**
+	 * borrows a validated connection to the target, close the lease to give it back.
+	 * @param jdbcUrl - url of the database to check.
+	 * @param username - user to log in with.
+	 * @param password - it's password.
+	 * @param budgetMs - time left for the check, waiting for a connection and logging in can't take longer.
+	 * @return a lease on the connection.
+	 * @throws DBCheckException with stage ACQUIRE or LOGIN.
+	 */
+	public JdbcLease borrow(String jdbcUrl, String username, String password, long budgetMs) {
+		long startMillis = java.lang.System.currentTimeMillis();
+		TargetPool pool = poolFor(jdbcUrl, username, password);
+
+		long waitMs = Math.min(acquireTimeoutMs, budgetMs);
+		boolean acquired;
+		try {
+			acquired = pool.permits.tryAcquire(waitMs, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			acquired = false;
+		}
+		if (!acquired) {
+			acquireFailures.increment();
+			throw new DBCheckException(DBCheckStage.ACQUIRE,
+					"No connection to " + jdbcUrl + " became free within " + waitMs + "ms");
+		}
+
+		pool.borrowStarted();
+		try {
+			Connection pooled;
+			while ((pooled = pool.pollIdle()) != null) {
+				if (isValid(pooled)) {
+					reuses.increment();
+					return new JdbcLease(this, pool, pooled);
+				}
+				closeQuietly(pooled); // the server dropped it, try the next one
+			}
+
+			long leftMs = budgetMs - (java.lang.System.currentTimeMillis() - startMillis);
+			Connection fresh;
+			try {
+				fresh = DriverManager.getConnection(jdbcUrl,
+						loginProperties(jdbcUrl, username, password, Math.max(1, Math.min(loginTimeoutMs, leftMs))));
+			} catch (SQLException e) {
+				loginFailures.increment();
+				throw new DBCheckException(DBCheckStage.LOGIN, "Couldn't log in to " + jdbcUrl + ": " + e.getMessage());
+			}
+			logins.increment();
+			return new JdbcLease(this, pool, fresh);
+
+		} catch (RuntimeException e) {
+			pool.borrowAborted();
+			pool.permits.release();
+			throw e;
+		}
+	}
+
+	/**
+	 * counts a failed query, called by the tasks so every stage is counted here.
+	 */
+	public void recordQueryFailure() {
+		queryFailures.increment();
+	}
+
+	/**
+	 * closes connections idle for too long and drops pools left empty.
+	 */
+	@Scheduled(fixedDelayString = "${bpm.probes.jdbc.evict-interval-ms:60000}")
+	public void evictIdle() {
+		long now = java.lang.System.currentTimeMillis();
+		List<TargetPool> emptied = new ArrayList<>();
+		synchronized (pools) {
+			// every connection those dropped pools lent is back, a new pool can start from full permits again
+			leasedPermits.values().removeIf(permits -> permits.availablePermits() >= maxPerTarget);
+
+			Iterator<TargetPool> it = pools.values().iterator();
+			while (it.hasNext()) {
+				TargetPool pool = it.next();
+				pool.closeIdleOlderThan(now - idleTimeoutMs);
+				if (pool.isUnused() && now - pool.lastUsedMillis > idleTimeoutMs) {
+					it.remove();
+					emptied.add(pool);
+				}
+			}
+		}
+		for (TargetPool pool : emptied) {
+			pool.close();
+		}
+		if (!emptied.isEmpty()) {
+			log.debug("Dropped {} unused JDBC target pools", emptied.size());
+		}
+	}
+
+	/**
+	 * @return a snapshot of the pools.
+	 */
+	public JdbcTargetPoolsMetricsResponseDTO getMetrics() {
+		int poolCount;
+		int idle = 0;
+		int borrowed = 0;
+		synchronized (pools) {
+			poolCount = pools.size();
+			for (TargetPool pool : pools.values()) {
+				idle += pool.idleCount();
+				borrowed += pool.borrowedCount();
+			}
+		}
+		return new JdbcTargetPoolsMetricsResponseDTO(
+				poolCount,
+				maxPools,
+				idle,
+				borrowed,
+				logins.sum(),
+				reuses.sum(),
+				evictedPools.sum(),
+				acquireFailures.sum(),
+				loginFailures.sum(),
+				queryFailures.sum());
+	}
+
+
+	void giveBack(TargetPool pool, Connection connection, boolean broken) {
+		boolean kept = pool.giveBack(connection, broken);
+		pool.permits.release();
+		if (!kept) {
+			closeQuietly(connection);
+		}
+	}
+
+	private TargetPool poolFor(String jdbcUrl, String username, String password) {
+		String key = jdbcUrl + "|" + username;
+		TargetPool evicted = null;
+		TargetPool stale = null;
+		String secret = password == null ? "" : password;
+		TargetPool pool;
+		synchronized (pools) {
+			pool = pools.get(key);
+			if (pool != null && !pool.password.equals(secret)) {
+				// credentials changed, connections opened with the old ones must go
+				stale = pools.remove(key);
+				keepLeasedPermits(key, stale);
+				pool = null;
+			}
+			if (pool == null) {
+				if (pools.size() >= maxPools) {
+					Iterator<Map.Entry<String, TargetPool>> eldest = pools.entrySet().iterator();
+					Map.Entry<String, TargetPool> entry = eldest.next();
+					evicted = entry.getValue();
+					eldest.remove();
+					keepLeasedPermits(entry.getKey(), evicted);
+					evictedPools.increment();
+				}
+				// connections the dropped pool lent still count against the new one
+				Semaphore permits = leasedPermits.remove(key);
+				pool = new TargetPool(secret, permits != null ? permits : new Semaphore(maxPerTarget, true));
+				pools.put(key, pool);
+			}
+			pool.lastUsedMillis = java.lang.System.currentTimeMillis();
+		}
+		if (evicted != null) {
+			evicted.close();
+		}
+		if (stale != null) {
+			stale.close();
+		}
+		return pool;
+	}
+
+	/**
+	 * called with the pools lock held, for a pool being dropped.
+	 */
+	private void keepLeasedPermits(String key, TargetPool dropped) {
+		if (dropped.permits.availablePermits() < maxPerTarget) {
+			leasedPermits.put(key, dropped.permits);
+		}
+	}
+
+	/**
+	 * the driver's own connect timeout, the JDBC login timeout is a single global (that Hikari sets as well),
+	 * so it can't be set per check.
+	 */
+	static Properties loginProperties(String jdbcUrl, String username, String password, long timeoutMs) {
+		Properties properties = new Properties();
+		if (username != null) {
+			properties.setProperty("user", username);
+		}
+		if (password != null) {
+			properties.setProperty("password", password);
+		}
+		String timeout = String.valueOf(timeoutMs);
+		if (jdbcUrl.startsWith("jdbc:oracle:")) {
+			properties.setProperty("oracle.net.CONNECT_TIMEOUT", timeout);
+		} else if (jdbcUrl.startsWith("jdbc:mysql:")) {
+			properties.setProperty("connectTimeout", timeout);
+		}
+		return properties;
+	}
+
+	private boolean isValid(Connection connection) {
+		try {
+			return connection.isValid(validationTimeoutSeconds);
+		} catch (SQLException e) {
+			return false;
+		}
+	}
+
+	private static void closeQuietly(Connection connection) {
+		try {
+			connection.close();
+		} catch (SQLException e) {
+			log.debug("Failed closing a target connection: {}", e.getMessage());
+		}
+	}
+
+
+	/**
+	 * the connections kept to one (jdbcUrl, username).
+	 */
+	static final class TargetPool {
+		private final String password;
+		private final Semaphore permits;
+		private final ArrayDeque<IdleConnection> idle = new ArrayDeque<>();
+		private int borrowed;
+		private boolean closed;
+		private volatile long lastUsedMillis;
+
+		private TargetPool(String password, Semaphore permits) {
+			this.password = password;
+			this.permits = permits;
+		}
+
+		private synchronized void borrowStarted() {
+			borrowed++;
+		}
+
+		private synchronized void borrowAborted() {
+			borrowed--;
+		}
+
+		private synchronized Connection pollIdle() {
+			IdleConnection last = idle.pollLast(); // most recently used first
+			return last == null ? null : last.connection;
+		}
+
+		/**
+		 * @return false if the connection must be closed instead (broken, or the pool was closed meanwhile).
+		 */
+		private synchronized boolean giveBack(Connection connection, boolean broken) {
+			borrowed--;
+			lastUsedMillis = java.lang.System.currentTimeMillis();
+			if (closed || broken) {
+				return false;
+			}
+			idle.addLast(new IdleConnection(connection, lastUsedMillis));
+			return true;
+		}
+
+		private synchronized void closeIdleOlderThan(long cutoffMillis) {
+			while (!idle.isEmpty() && idle.peekFirst().idleSinceMillis < cutoffMillis) {
+				closeQuietly(idle.pollFirst().connection);
+			}
+		}
+
+		private synchronized boolean isUnused() {
+			return idle.isEmpty() && borrowed == 0;
+		}
+
+		private synchronized int idleCount() {
+			return idle.size();
+		}
+
+		private synchronized int borrowedCount() {
+			return borrowed;
+		}
+
+		private synchronized void close() {
+			closed = true;
+			while (!idle.isEmpty()) {
+				closeQuietly(idle.pollFirst().connection);
+			}
+		}
+	}
+
+	private static final class IdleConnection {
+		private final Connection connection;
+		private final long idleSinceMillis;
+
+		private IdleConnection(Connection connection, long idleSinceMillis) {
+			this.connection = connection;
+			this.idleSinceMillis = idleSinceMillis;
+		}
+	}
+}
@@ -0,0 +1,172 @@
+package com.bpmonitor.probes;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * The hard deadline of one probe execution.
+ *
+ * Probes use the remaining time as their own timeout, and register how to cancel whatever they're
+ * blocked on (a JDBC statement, an SFTP channel) for the time they're blocked on it.
+ * When the deadline expires those cancel actions run, and the thread running the probe,
+ * if it's still bound, is interrupted.
+ * @author joao7
+ *
+ */
+@Slf4j
+public final class ProbeDeadline {
+
+	private static final ProbeDeadline NONE = new ProbeDeadline(Long.MAX_VALUE, false);
+
+	private final long deadlineNanos;
+	private final boolean enforced;
+	private final List<Registration> registrations = new ArrayList<>();
+	private Thread boundThread;
+	private boolean expired;
+
+	private ProbeDeadline(long deadlineNanos, boolean enforced) {
+		this.deadlineNanos = deadlineNanos;
+		this.enforced = enforced;
+	}
+
+	/**
+	 * @param budgetMillis - time the probe has from now.
+	 * @return a deadline that's expired by whoever created it, see expire().
+	 */
+	public static ProbeDeadline in(long budgetMillis) {
+		return new ProbeDeadline(java.lang.System.nanoTime() + budgetMillis * 1_000_000L, true);
+	}
+
+	/**
+	 * @return a deadline that never expires, for probes run outside the executor.
+	 */
+	public static ProbeDeadline none() {
+		return NONE;
+	}
+
+
+	/**
+	 * @param fallbackMillis - what the probe would wait without a deadline.
+	 * @return the smaller of the time left and fallbackMillis, at least 1.
+	 */
+	public int remainingMillis(int fallbackMillis) {
+		if (!enforced) {
+			return fallbackMillis;
+		}
+		long left = (deadlineNanos - java.lang.System.nanoTime()) / 1_000_000L;
+		return (int) Math.max(1, Math.min(fallbackMillis, left));
+	}
+
+	/**
+	 * registers what cancels the blocking call the probe is about to make.
+	 * Close the registration once the call returns, so a late expiry doesn't touch a resource
+	 * that was already given back. If the deadline already expired the action runs right away.
+	 * @param cancelAction - unblocks the probe, must be safe to call from another thread.
+	 * @return the registration.
+	 */
+	public Registration onExpiry(Runnable cancelAction) {
+		Registration registration = new Registration(this, cancelAction);
+		if (!enforced) {
+			return registration;
+		}
+		boolean runNow;
+		synchronized (this) {
+			runNow = expired;
+			if (!runNow) {
+				registrations.add(registration);
+			}
+		}
+		if (runNow) {
+			registration.cancel();
+		}
+		return registration;
+	}
+
+	/**
+	 * @return false for none(), which never expires.
+	 */
+	public boolean isEnforced() {
+		return enforced;
+	}
+
+	public synchronized boolean isExpired() {
+		return expired;
+	}
+
+	/**
+	 * binds the thread that runs the blocking part of the probe, it's interrupted if the deadline expires.
+	 */
+	public synchronized void bind(Thread thread) {
+		if (enforced) {
+			this.boundThread = thread;
+		}
+	}
+
+	/**
+	 * unbinds the thread and clears an interrupt the expiry may have left on it,
+	 * so it doesn't leak into the next thing the pooled thread runs.
+	 */
+	public void unbind() {
+		synchronized (this) {
+			if (!enforced) {
+				return;
+			}
+			boundThread = null;
+		}
+		Thread.interrupted();
+	}
+
+	/**
+	 * expires the deadline: runs every registered cancel action and interrupts the bound thread.
+	 */
+	public void expire() {
+		List<Registration> cancelling;
+		synchronized (this) {
+			if (expired || !enforced) {
+				return;
+			}
+			expired = true;
+			cancelling = new ArrayList<>(registrations);
+			registrations.clear();
+			if (boundThread != null) {
+				boundThread.interrupt();
+			}
+		}
+		for (Registration registration : cancelling) {
+			registration.cancel();
+		}
+	}
+
+	private synchronized void remove(Registration registration) {
+		registrations.remove(registration);
+	}
+
+
+	/**
+	 * a cancel action registered on a deadline, closing it unregisters the action.
+	 */
+	public static final class Registration implements AutoCloseable {
+		private final ProbeDeadline deadline;
+		private final Runnable cancelAction;
+
+		private Registration(ProbeDeadline deadline, Runnable cancelAction) {
+			this.deadline = deadline;
+			this.cancelAction = cancelAction;
+		}
+
+		@Override
+		public void close() {
+			deadline.remove(this);
+		}
+
+		private void cancel() {
+			try {
+				cancelAction.run();
+			} catch (RuntimeException e) {
+				log.debug("Cancel action of an expired probe failed: {}", e.getMessage());
+			}
+		}
+	}
+}
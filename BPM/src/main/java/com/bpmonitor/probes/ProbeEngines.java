@@ -0,0 +1,106 @@
+package com.bpmonitor.probes;
+
+/**
+ * Tasks are JPA entities, Spring can't inject into them, so the probe engines
+ * register themselves here when they start and the tasks get them from here.
+ * @author joao7
+ *
+ */
+public final class ProbeEngines {
+
+	private static volatile HttpProbeEngine httpEngine;
+	private static volatile ReachabilityEngine reachabilityEngine;
+	private static volatile JdbcTargetPools jdbcPools;
+	private static volatile SftpSessionPool sftpPool;
+
+	private ProbeEngines() {
+	}
+
+	static void register(HttpProbeEngine engine) {
+		httpEngine = engine;
+	}
+
+	static void unregister(HttpProbeEngine engine) {
+		if (httpEngine == engine) {
+			httpEngine = null;
+		}
+	}
+
+	static void register(ReachabilityEngine engine) {
+		reachabilityEngine = engine;
+	}
+
+	static void unregister(ReachabilityEngine engine) {
+		if (reachabilityEngine == engine) {
+			reachabilityEngine = null;
+		}
+	}
+
+	static void register(JdbcTargetPools pools) {
+		jdbcPools = pools;
+	}
+
+	static void unregister(JdbcTargetPools pools) {
+		if (jdbcPools == pools) {
+			jdbcPools = null;
+		}
+	}
+
+	static void register(SftpSessionPool pool) {
+		sftpPool = pool;
+	}
+
+	static void unregister(SftpSessionPool pool) {
+		if (sftpPool == pool) {
+			sftpPool = null;
+		}
+	}
+
+	/**
+	 * @return the running HTTP probe engine.
+	 * @throws IllegalStateException if it isn't running.
+	 */
+	public static HttpProbeEngine http() {
+		HttpProbeEngine engine = httpEngine;
+		if (engine == null) {
+			throw new IllegalStateException("HTTP probe engine is not running");
+		}
+		return engine;
+	}
+
+	/**
+	 * @return the running reachability engine.
+	 * @throws IllegalStateException if it isn't running.
+	 */
+	public static ReachabilityEngine reachability() {
+		ReachabilityEngine engine = reachabilityEngine;
+		if (engine == null) {
+			throw new IllegalStateException("Reachability engine is not running");
+		}
+		return engine;
+	}
+
+	/**
+	 * @return the pools of connections to checked databases.
+	 * @throws IllegalStateException if they're not available.
+	 */
+	public static JdbcTargetPools jdbc() {
+		JdbcTargetPools pools = jdbcPools;
+		if (pools == null) {
+			throw new IllegalStateException("JDBC target pools are not available");
+		}
+		return pools;
+	}
+
+	/**
+	 * @return the pool of kept SFTP sessions.
+	 * @throws IllegalStateException if it's not available.
+	 */
+	public static SftpSessionPool sftp() {
+		SftpSessionPool pool = sftpPool;
+		if (pool == null) {
+			throw new IllegalStateException("SFTP session pool is not available");
+		}
+		return pool;
+	}
+}
@@ -0,0 +1,140 @@
+package com.bpmonitor.probes;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Resolves the hosts the probe engines connect to.
+ *
+ * InetAddress.getByName blocks for as long as the DNS server takes, so it runs on a small bounded
+ * pool and the caller only waits for the future, up to the probe's own timeout.
+ * A lookup that takes longer still holds it's resolver thread until it returns, but not the caller,
+ * and with the pool and it's queue bounded a dead DNS server can't pile up threads.
+ * @author joao7
+ *
+ */
+@Slf4j
+@Component
+public class ProbeResolver {
+
+	private final int threads;
+	private final int queueCapacity;
+
+	private ThreadPoolExecutor pool;
+	private ScheduledExecutorService timer;
+
+	public ProbeResolver(
+			@Value("${bpm.probes.dns.threads:4}") int threads,
+			@Value("${bpm.probes.dns.queue-capacity:1000}") int queueCapacity) {
+		this.threads = Math.max(1, threads);
+		this.queueCapacity = Math.max(1, queueCapacity);
+	}
+
+
+	@PostConstruct
+	public void start() {
+		AtomicInteger count = new AtomicInteger();
+		pool = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<>(queueCapacity), daemon(() -> "ProbeResolver-" + count.incrementAndGet()));
+		timer = Executors.newSingleThreadScheduledExecutor(daemon(() -> "ProbeResolver-Timer"));
+		log.info("Probe resolver started with {} threads", threads);
+	}
+
+	@PreDestroy
+	public void stop() {
+		pool.shutdownNow();
+		timer.shutdownNow();
+	}
+
+
+	/**
+	 * looks the host up without blocking the caller, ip literals are answered right away.
+	 * @param host - host name or ip.
+	 * @param timeoutMs - how long the lookup may take.
+	 * @return completes with the address, or exceptionally with an UnknownHostException,
+	 * a TimeoutException, or a RejectedExecutionException when too many lookups are already waiting.
+	 */
+	public CompletableFuture<InetAddress> resolve(String host, long timeoutMs) {
+		CompletableFuture<InetAddress> future = new CompletableFuture<>();
+		if (isLiteral(host)) {
+			try {
+				future.complete(InetAddress.getByName(host)); // no lookup for a literal, just parsing
+			} catch (UnknownHostException e) {
+				future.completeExceptionally(e);
+			}
+			return future;
+		}
+
+		try {
+			pool.execute(() -> {
+				if (future.isDone()) {
+					return; // timed out while queued, nobody's waiting for it anymore
+				}
+				try {
+					future.complete(InetAddress.getByName(host));
+				} catch (UnknownHostException | RuntimeException e) {
+					future.completeExceptionally(e);
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			future.completeExceptionally(new RejectedExecutionException("Too many DNS lookups waiting, couldn't resolve " + host));
+			return future;
+		}
+
+		ScheduledFuture<?> timeout = timer.schedule(
+				() -> future.completeExceptionally(new TimeoutException("DNS lookup of " + host + " timed out after " + timeoutMs + "ms")),
+				Math.max(1, timeoutMs), TimeUnit.MILLISECONDS);
+		future.whenComplete((address, error) -> timeout.cancel(false));
+		return future;
+	}
+
+	/**
+	 * @return whether the host is an ipv4 or ipv6 literal, which InetAddress parses without asking DNS.
+	 */
+	static boolean isLiteral(String host) {
+		if (host == null || host.isEmpty()) {
+			return false;
+		}
+		if (host.indexOf(':') >= 0) {
+			return true; // ipv6, with or without the brackets, names can't have a colon
+		}
+		int dots = 0;
+		for (int i = 0; i < host.length(); i++) {
+			char c = host.charAt(i);
+			if (c == '.') {
+				dots++;
+			} else if (c < '0' || c > '9') {
+				return false;
+			}
+		}
+		return dots == 3;
+	}
+
+	private static ThreadFactory daemon(Supplier<String> name) {
+		return runnable -> {
+			Thread thread = new Thread(runnable, name.get());
+			thread.setDaemon(true);
+			return thread;
+		};
+	}
+}
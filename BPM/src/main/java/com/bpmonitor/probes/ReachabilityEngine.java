@@ -0,0 +1,371 @@
+package com.bpmonitor.probes;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.bpmonitor.DTOs.response.ReachabilityEngineMetricsResponseDTO;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Checks whether hosts are up by opening TCP connections to them, without blocking a thread per host.
+ *
+ * Every port of a check is tried at the same time, and the first answer wins: a completed
+ * connect, or a reset (connection refused), since a reset means the host itself is up.
+ * Only silence (or an ICMP unreachable) until the deadline counts as down.
+ * The host is looked up on the ProbeResolver, the lookup counts against the same timeout.
+ * All connects go through a single selector thread, the number of sockets open at
+ * once is bounded by max-in-flight, the rest wait their turn.
+ * @author joao7
+ *
+ */
+@Slf4j
+@Component
+public class ReachabilityEngine {
+
+	private static final long SCAN_INTERVAL_MS = 50;
+
+	private final int[] defaultPorts;
+	private final int maxInFlight;
+	private final ProbeResolver resolver;
+
+	private final Queue<Probe> submitted = new ConcurrentLinkedQueue<>();
+	private Selector selector;
+	private Thread thread;
+	private volatile boolean running;
+	private volatile int inFlightCount;
+
+	private final LongAdder probes = new LongAdder();
+	private final LongAdder reachable = new LongAdder();
+	private final LongAdder unreachable = new LongAdder();
+	private final LongAdder timeouts = new LongAdder();
+
+	public ReachabilityEngine(
+			@Value("${bpm.probes.reachability.ports:80,443,22}") int[] defaultPorts,
+			@Value("${bpm.probes.reachability.max-in-flight:2000}") int maxInFlight,
+			ProbeResolver resolver) {
+		this.defaultPorts = defaultPorts;
+		this.maxInFlight = Math.max(1, maxInFlight);
+		this.resolver = resolver;
+	}
+
+
+	@PostConstruct
+	public void start() throws IOException {
+		selector = Selector.open();
+		running = true;
+		thread = new Thread(this::loop, "Reachability");
+		thread.setDaemon(true);
+		thread.start();
+		ProbeEngines.register(this);
+		log.info("Reachability engine started, default ports {}", java.util.Arrays.toString(defaultPorts));
+	}
+
+	@PreDestroy
+	public void stop() {
+		ProbeEngines.unregister(this);
+		running = false;
+		selector.wakeup();
+	}
+
+
+	/**
+	 * checks a host on the default ports.
+	 * @see #probe(String, int[], long)
+	 */
+	public CompletableFuture<ReachabilityResult> probe(String host, long timeoutMs) {
+		return probe(host, null, timeoutMs);
+	}
+
+	/**
+	 * starts a TCP-connect check, it never completes exceptionally.
+	 * @param host - host name or ip.
+	 * @param ports - ports to try, null or empty for the default ones.
+	 * @param timeoutMs - how long to wait for the host to be looked up and any port to answer.
+	 * @return completes on the engine thread (or the resolver's), keep the callbacks short.
+	 */
+	public CompletableFuture<ReachabilityResult> probe(String host, int[] ports, long timeoutMs) {
+		probes.increment();
+		long resolveStart = java.lang.System.nanoTime();
+		int[] tried = ports == null || ports.length == 0 ? defaultPorts : ports;
+		return resolver.resolve(host, timeoutMs)
+				.thenCompose(address -> {
+					long resolveMillis = (java.lang.System.nanoTime() - resolveStart) / 1_000_000L;
+					Probe probe = new Probe(host, address, tried, Math.max(1, timeoutMs - resolveMillis));
+					submitted.add(probe);
+					selector.wakeup();
+					return probe.future;
+				})
+				.exceptionally(e -> unresolved(host, e));
+	}
+
+	/**
+	 * @return a snapshot of the engine's counters.
+	 */
+	public ReachabilityEngineMetricsResponseDTO getMetrics() {
+		return new ReachabilityEngineMetricsResponseDTO(
+				inFlightCount,
+				submitted.size(),
+				probes.sum(),
+				reachable.sum(),
+				unreachable.sum(),
+				timeouts.sum());
+	}
+
+
+	private void loop() {
+		ArrayDeque<Probe> waiting = new ArrayDeque<>();
+		Set<Probe> inFlight = new LinkedHashSet<>();
+		int openSockets = 0;
+		long lastScan = 0;
+
+		while (running) {
+			try {
+				selector.select(SCAN_INTERVAL_MS);
+
+				Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				while (keys.hasNext()) {
+					SelectionKey key = keys.next();
+					keys.remove();
+					Attempt attempt = (Attempt) key.attachment();
+					if (!key.isValid() || attempt.probe.done) {
+						continue;
+					}
+					try {
+						attempt.channel.finishConnect();
+						attempt.probe.answered(attempt.port, false);
+					} catch (ConnectException e) {
+						attempt.probe.answered(attempt.port, true); // a reset, see answered()
+					} catch (IOException e) {
+						attempt.probe.attemptFailed(attempt, e);
+					}
+				}
+
+				Probe next;
+				while ((next = submitted.poll()) != null) {
+					waiting.add(next);
+				}
+
+				// forget the finished ones, then start waiting ones while there's room
+				long now = java.lang.System.nanoTime();
+				boolean scan = now - lastScan >= SCAN_INTERVAL_MS * 1_000_000L;
+				if (scan) {
+					lastScan = now;
+				}
+				Iterator<Probe> active = inFlight.iterator();
+				while (active.hasNext()) {
+					Probe probe = active.next();
+					if (!probe.done && scan && now - probe.deadlineNanos >= 0) {
+						probe.timedOut();
+					}
+					if (probe.done) {
+						openSockets -= probe.closeAll();
+						active.remove();
+					}
+				}
+				while (!waiting.isEmpty() && openSockets < maxInFlight) {
+					Probe probe = waiting.poll();
+					openSockets += probe.connect(selector);
+					if (probe.done) {
+						openSockets -= probe.closeAll();
+					} else {
+						inFlight.add(probe);
+					}
+				}
+				inFlightCount = inFlight.size();
+			} catch (Exception e) {
+				log.error("Reachability loop failed an iteration", e);
+			}
+		}
+
+		for (Probe probe : inFlight) {
+			probe.closeAll();
+			probe.finish(false, -1, false, "Reachability engine stopped");
+		}
+		waiting.addAll(submitted);
+		for (Probe probe : waiting) {
+			probe.finish(false, -1, false, "Reachability engine stopped");
+		}
+		try {
+			selector.close();
+		} catch (IOException e) {
+			log.debug("Failed closing reachability selector", e);
+		}
+	}
+
+	private ReachabilityResult unresolved(String host, Throwable e) {
+		Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+		unreachable.increment();
+		String error;
+		if (cause instanceof UnknownHostException) {
+			error = "I couldn't find the host " + host;
+		} else if (cause instanceof TimeoutException) {
+			timeouts.increment();
+			error = "couldn't reach host : " + host + " (" + cause.getMessage() + ")";
+		} else {
+			error = "couldn't reach host : " + host + " (" + cause.getMessage() + ")";
+		}
+		return new ReachabilityResult(host, false, -1, false, 0, error);
+	}
+
+
+	/**
+	 * one host being checked, on every one of it's ports.
+	 */
+	private final class Probe {
+		private final String host;
+		private final InetAddress address;
+		private final int[] ports;
+		private final long timeoutMs;
+		private final CompletableFuture<ReachabilityResult> future = new CompletableFuture<>();
+		private final List<Attempt> attempts = new ArrayList<>();
+		private long startNanos;
+		private long deadlineNanos;
+		private int pending;
+		private String lastError;
+		private boolean done;
+		private boolean connecting; // still opening the sockets, the last failure is decided by connect
+
+		private Probe(String host, InetAddress address, int[] ports, long timeoutMs) {
+			this.host = host;
+			this.address = address;
+			this.ports = ports;
+			this.timeoutMs = timeoutMs;
+		}
+
+		/**
+		 * @return how many sockets were opened.
+		 */
+		private int connect(Selector selector) {
+			// the clock starts when the connects go out, not while waiting for a free slot
+			startNanos = java.lang.System.nanoTime();
+			deadlineNanos = startNanos + timeoutMs * 1_000_000L;
+			connecting = true;
+			for (int port : ports) {
+				if (done) {
+					break;
+				}
+				SocketChannel channel;
+				try {
+					channel = SocketChannel.open();
+				} catch (IOException e) {
+					lastError = e.getMessage();
+					continue;
+				}
+				Attempt attempt = new Attempt(this, port, channel);
+				attempts.add(attempt);
+				pending++;
+				try {
+					channel.configureBlocking(false);
+					if (channel.connect(new InetSocketAddress(address, port))) {
+						answered(port, false);
+					} else {
+						channel.register(selector, SelectionKey.OP_CONNECT, attempt);
+					}
+				} catch (ConnectException e) {
+					answered(port, true);
+				} catch (IOException e) {
+					attemptFailed(attempt, e);
+				}
+			}
+			connecting = false;
+			if (!done && pending <= 0) {
+				finish(false, -1, false, "couldn't reach host : " + host + " (" + lastError + ")");
+			}
+			return attempts.size();
+		}
+
+		/**
+		 * @param refused - the connect failed with a ConnectException, which the socket channel only throws
+		 * for ECONNREFUSED (and ETIMEDOUT, which the kernel gives way after our deadline), an ICMP unreachable
+		 * comes as a NoRouteToHostException or another SocketException and counts as a failed attempt.
+		 */
+		private void answered(int port, boolean refused) {
+			finish(true, port, refused, null);
+		}
+
+		private void attemptFailed(Attempt attempt, IOException e) {
+			lastError = e.getMessage();
+			closeQuietly(attempt.channel);
+			if (--pending <= 0 && !connecting) {
+				finish(false, -1, false, "couldn't reach host : " + host + " (" + lastError + ")");
+			}
+		}
+
+		private void timedOut() {
+			timeouts.increment();
+			finish(false, -1, false, "couldn't reach host : " + host + " (no answer on ports "
+					+ java.util.Arrays.toString(ports) + ")");
+		}
+
+		private void finish(boolean up, int port, boolean refused, String error) {
+			if (done) {
+				return;
+			}
+			done = true;
+			if (up) {
+				reachable.increment();
+			} else {
+				unreachable.increment();
+			}
+			long rtt = startNanos == 0 ? 0 : (java.lang.System.nanoTime() - startNanos) / 1_000_000L;
+			future.complete(new ReachabilityResult(host, up, port, refused, rtt, error));
+		}
+
+		/**
+		 * @return how many sockets were closed.
+		 */
+		private int closeAll() {
+			int closed = attempts.size();
+			for (Attempt attempt : attempts) {
+				closeQuietly(attempt.channel);
+			}
+			attempts.clear();
+			return closed;
+		}
+	}
+
+	private static final class Attempt {
+		private final Probe probe;
+		private final int port;
+		private final SocketChannel channel;
+
+		private Attempt(Probe probe, int port, SocketChannel channel) {
+			this.probe = probe;
+			this.port = port;
+			this.channel = channel;
+		}
+	}
+
+	private static void closeQuietly(SocketChannel channel) {
+		try {
+			channel.close();
+		} catch (IOException e) {
+			// nothing to do, it's gone anyway
+		}
+	}
+}
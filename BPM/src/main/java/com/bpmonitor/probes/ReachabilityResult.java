@@ -0,0 +1,28 @@
+package com.bpmonitor.probes;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * Outcome of one TCP-connect reachability check done by the ReachabilityEngine.
+ * @author joao7
+ *
+ */
+@Getter
+@AllArgsConstructor
+public class ReachabilityResult {
+
+	private final String host;
+	private final boolean reachable;
+	private final int port; // port that answered first, -1 if none did
+	private final boolean refused; // the host answered with a reset, it's up but nothing listens on that port
+	private final long rttMillis; // time until the first answer, or until giving up
+	private final String error; // null when reachable
+
+	public String describe() {
+		if (!reachable) {
+			return error + " after " + rttMillis + "ms";
+		}
+		return "tcp/" + port + (refused ? " refused" : " open") + " in " + rttMillis + "ms";
+	}
+}
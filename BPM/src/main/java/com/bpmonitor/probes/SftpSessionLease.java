@@ -0,0 +1,84 @@
+package com.bpmonitor.probes;
+
+import com.jcraft.jsch.ChannelSftp;
+import com.jcraft.jsch.Session;
+
+/**
+ * An SFTP session borrowed from the SftpSessionPool, with it's sftp channel already open.
+ * Closing the lease closes the channel and gives the session back.
+ * @author joao7
+ *
+ */
+public class SftpSessionLease implements AutoCloseable {
+
+	private final SftpSessionPool pool;
+	private final String key;
+	private final String password;
+	private final Session session;
+	private final ChannelSftp channel;
+	private final long handshakeMillis;
+	private final boolean reused;
+	private final long channelStartNanos;
+	private volatile boolean broken; // also set by the deadline's thread
+	private boolean returned;
+
+	SftpSessionLease(SftpSessionPool pool, String key, String password, Session session, ChannelSftp channel,
+			long handshakeMillis, boolean reused, long channelStartNanos) {
+		this.pool = pool;
+		this.key = key;
+		this.password = password;
+		this.session = session;
+		this.channel = channel;
+		this.handshakeMillis = handshakeMillis;
+		this.reused = reused;
+		this.channelStartNanos = channelStartNanos;
+	}
+
+	public ChannelSftp getChannel() {
+		return channel;
+	}
+
+	/**
+	 * @return time spent on the SSH handshake and login, 0 when a kept session was reused.
+	 */
+	public long getHandshakeMillis() {
+		return handshakeMillis;
+	}
+
+	public boolean isReused() {
+		return reused;
+	}
+
+	/**
+	 * @return time since the sftp channel started opening, so channel open plus whatever was done on it.
+	 */
+	public long getMillisSinceChannelOpen() {
+		return (java.lang.System.nanoTime() - channelStartNanos) / 1_000_000L;
+	}
+
+	/**
+	 * the session can't be trusted anymore, it's disconnected instead of kept.
+	 */
+	public void markBroken() {
+		this.broken = true;
+	}
+
+	/**
+	 * tears the channel down from another thread, whatever is blocked on it fails right away.
+	 * the session is dropped when the lease is closed.
+	 */
+	public void abort() {
+		markBroken();
+		channel.disconnect();
+	}
+
+	@Override
+	public void close() {
+		if (returned) {
+			return;
+		}
+		returned = true;
+		channel.disconnect();
+		pool.giveBack(key, password, session, broken);
+	}
+}
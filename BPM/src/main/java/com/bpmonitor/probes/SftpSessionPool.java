@@ -0,0 +1,214 @@
+package com.bpmonitor.probes;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import com.bpmonitor.DTOs.response.SftpSessionPoolMetricsResponseDTO;
+import com.jcraft.jsch.ChannelSftp;
+import com.jcraft.jsch.JSch;
+import com.jcraft.jsch.JSchException;
+import com.jcraft.jsch.Session;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Keeps authenticated SFTP sessions alive between checks, keyed by username@host:port,
+ * so a check costs opening a channel and a listing instead of a full SSH handshake.
+ *
+ * A kept session is health-checked by opening the sftp channel the check is going to use,
+ * if that fails the session is dropped and the next one (or a new one) is tried.
+ * Sessions idle for longer than idle-timeout-ms are disconnected.
+ * @author joao7
+ *
+ */
+@Slf4j
+@Component
+public class SftpSessionPool {
+
+	private final JSch jsch = new JSch();
+	private final int maxIdlePerTarget;
+	private final long idleTimeoutMs;
+
+	private final Map<String, ArrayDeque<IdleSession>> idle = new HashMap<>();
+
+	private final LongAdder handshakes = new LongAdder();
+	private final LongAdder reuses = new LongAdder();
+	private final LongAdder failedHealthChecks = new LongAdder();
+	private final LongAdder evictedSessions = new LongAdder();
+
+	public SftpSessionPool(
+			@Value("${bpm.probes.sftp.max-idle-per-target:2}") int maxIdlePerTarget,
+			@Value("${bpm.probes.sftp.idle-timeout-ms:300000}") long idleTimeoutMs) {
+		this.maxIdlePerTarget = Math.max(0, maxIdlePerTarget);
+		this.idleTimeoutMs = idleTimeoutMs;
+	}
+
+	@PostConstruct
+	public void register() {
+		ProbeEngines.register(this);
+	}
+
+	@PreDestroy
+	public void closeAll() {
+		ProbeEngines.unregister(this);
+		List<IdleSession> closing = new ArrayList<>();
+		synchronized (idle) {
+			for (ArrayDeque<IdleSession> sessions : idle.values()) {
+				closing.addAll(sessions);
+			}
+			idle.clear();
+		}
+		for (IdleSession session : closing) {
+			session.session.disconnect();
+		}
+	}
+
+
+	/**
+	 * borrows a session to the target with an open sftp channel, close the lease to give it back.
+	 * @param host - SFTP server.
+	 * @param port - it's port.
+	 * @param username - user to log in with.
+	 * @param password - it's password.
+	 * @param timeoutMs - timeout of the handshake and of the channel open.
+	 * @return a lease on the session.
+	 * @throws JSchException if a new session can't be opened or logged in.
+	 */
+	public SftpSessionLease borrow(String host, int port, String username, String password, int timeoutMs)
+			throws JSchException {
+		String key = username + "@" + host + ":" + port;
+		String secret = password == null ? "" : password;
+
+		IdleSession kept;
+		while ((kept = pollIdle(key)) != null) {
+			if (!kept.password.equals(secret)) {
+				kept.session.disconnect(); // credentials changed
+				continue;
+			}
+			long channelStart = java.lang.System.nanoTime();
+			try {
+				ChannelSftp channel = openChannel(kept.session, timeoutMs);
+				reuses.increment();
+				return new SftpSessionLease(this, key, secret, kept.session, channel, 0, true, channelStart);
+			} catch (JSchException e) {
+				failedHealthChecks.increment();
+				log.debug("Kept SFTP session to {} is dead: {}", key, e.getMessage());
+				kept.session.disconnect();
+			}
+		}
+
+		long handshakeStart = java.lang.System.nanoTime();
+		Session session = jsch.getSession(username, host, port);
+		session.setPassword(password);
+		session.setConfig("StrictHostKeyChecking", "no"); // Avoid asking for key confirmation
+		session.setTimeout(timeoutMs);
+		try {
+			session.connect(timeoutMs);
+			handshakes.increment();
+			long handshakeMillis = (java.lang.System.nanoTime() - handshakeStart) / 1_000_000L;
+			long channelStart = java.lang.System.nanoTime();
+			ChannelSftp channel = openChannel(session, timeoutMs);
+			return new SftpSessionLease(this, key, secret, session, channel, handshakeMillis, false, channelStart);
+		} catch (JSchException e) {
+			session.disconnect();
+			throw e;
+		}
+	}
+
+	/**
+	 * disconnects sessions idle for too long.
+	 */
+	@Scheduled(fixedDelayString = "${bpm.probes.sftp.evict-interval-ms:60000}")
+	public void evictIdle() {
+		long cutoff = java.lang.System.currentTimeMillis() - idleTimeoutMs;
+		List<IdleSession> expired = new ArrayList<>();
+		synchronized (idle) {
+			Iterator<ArrayDeque<IdleSession>> targets = idle.values().iterator();
+			while (targets.hasNext()) {
+				ArrayDeque<IdleSession> sessions = targets.next();
+				while (!sessions.isEmpty() && sessions.peekFirst().idleSinceMillis < cutoff) {
+					expired.add(sessions.pollFirst());
+				}
+				if (sessions.isEmpty()) {
+					targets.remove();
+				}
+			}
+		}
+		for (IdleSession session : expired) {
+			session.session.disconnect();
+		}
+		evictedSessions.add(expired.size());
+	}
+
+	/**
+	 * @return a snapshot of the kept sessions.
+	 */
+	public SftpSessionPoolMetricsResponseDTO getMetrics() {
+		int targets;
+		int sessions = 0;
+		synchronized (idle) {
+			targets = idle.size();
+			for (ArrayDeque<IdleSession> kept : idle.values()) {
+				sessions += kept.size();
+			}
+		}
+		return new SftpSessionPoolMetricsResponseDTO(
+				targets,
+				sessions,
+				handshakes.sum(),
+				reuses.sum(),
+				failedHealthChecks.sum(),
+				evictedSessions.sum());
+	}
+
+
+	void giveBack(String key, String password, Session session, boolean broken) {
+		if (!broken && session.isConnected()) {
+			synchronized (idle) {
+				ArrayDeque<IdleSession> sessions = idle.computeIfAbsent(key, k -> new ArrayDeque<>());
+				if (sessions.size() < maxIdlePerTarget) {
+					sessions.addLast(new IdleSession(session, password, java.lang.System.currentTimeMillis()));
+					return;
+				}
+			}
+		}
+		session.disconnect();
+	}
+
+	private IdleSession pollIdle(String key) {
+		synchronized (idle) {
+			ArrayDeque<IdleSession> sessions = idle.get(key);
+			return sessions == null ? null : sessions.pollLast(); // most recently used first
+		}
+	}
+
+	private static ChannelSftp openChannel(Session session, int timeoutMs) throws JSchException {
+		ChannelSftp channel = (ChannelSftp) session.openChannel("sftp");
+		channel.connect(timeoutMs);
+		return channel;
+	}
+
+	private static final class IdleSession {
+		private final Session session;
+		private final String password;
+		private final long idleSinceMillis;
+
+		private IdleSession(Session session, String password, long idleSinceMillis) {
+			this.session = session;
+			this.password = password;
+			this.idleSinceMillis = idleSinceMillis;
+		}
+	}
+}
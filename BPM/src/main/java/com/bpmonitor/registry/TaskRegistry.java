@@ -0,0 +1,223 @@
+package com.bpmonitor.registry;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.bpmonitor.DTOs.response.TaskRegistryMetricsResponseDTO;
+import com.bpmonitor.models.Task;
+import com.bpmonitor.repositories.TaskRepository;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * In-memory copy of every task as a detached TaskSpec, so the scheduler decides what to run
+ * without going to CONTROL_TASKS.
+ *
+ * - loaded once when the app is ready
+ * - TaskService records every create/update/delete here, applied when it's transaction commits
+ * - every change bumps the version, the scheduler only reschedules when the version moved
+ * - a resync every resync-ms catches what changed in the DB without going through TaskService
+ *   (tasks deleted along with their activity, manual SQL), it's a safety net, not the normal path
+ * @author joao7
+ *
+ */
+@Slf4j
+@Component
+public class TaskRegistry {
+
+	private final TaskRepository taskRepo;
+	private final TransactionTemplate readOnlyTx;
+
+	private final ConcurrentHashMap<Long, TaskSpec> specs = new ConcurrentHashMap<>();
+	private final AtomicLong version = new AtomicLong();
+	private final Map<Long, Long> removedAtVersion = new HashMap<>(); // so a resync doesn't bring back a task deleted while it was reading
+
+	private final LongAdder incrementalUpdates = new LongAdder();
+	private final LongAdder resyncCorrections = new LongAdder();
+	private volatile LocalDateTime lastResync;
+
+	public TaskRegistry(TaskRepository taskRepo, PlatformTransactionManager transactionManager) {
+		this.taskRepo = taskRepo;
+		this.readOnlyTx = new TransactionTemplate(transactionManager);
+		this.readOnlyTx.setReadOnly(true);
+	}
+
+
+	@EventListener(ApplicationReadyEvent.class)
+	public void load() {
+		int changed = reload();
+		log.info("Task registry loaded {} tasks", specs.size());
+		if (changed == 0) {
+			version.incrementAndGet(); // an empty DB is still a load the scheduler has to see
+		}
+	}
+
+	/**
+	 * reloads every task and fixes whatever drifted from the DB.
+	 */
+	@Scheduled(initialDelayString = "${bpm.registry.resync-ms:300000}", fixedDelayString = "${bpm.registry.resync-ms:300000}")
+	public void resync() {
+		int changed = reload();
+		if (changed > 0) {
+			resyncCorrections.add(changed);
+			log.warn("Task registry resync corrected {} tasks changed outside TaskService", changed);
+		}
+	}
+
+
+	/**
+	 * records a saved task, call it from inside the transaction that saved it,
+	 * the registry only changes if that transaction commits.
+	 * @param task - task that was created or updated, still attached.
+	 */
+	public void recordSaved(Task task) {
+		if (task.getTaskID() == null) {
+			return;
+		}
+		TaskSpec spec = TaskSpec.from(task, 0); // read now, the entity won't be usable after the commit
+		afterCommit(() -> {
+			put(spec);
+			incrementalUpdates.increment();
+		});
+	}
+
+	/**
+	 * records a deleted task, same rules as recordSaved.
+	 * @param taskId - id of the deleted task.
+	 */
+	public void recordDeleted(Long taskId) {
+		afterCommit(() -> {
+			synchronized (specs) {
+				long removedAt = version.incrementAndGet();
+				removedAtVersion.put(taskId, removedAt);
+				if (specs.remove(taskId) != null) {
+					incrementalUpdates.increment();
+				}
+			}
+		});
+	}
+
+
+	/**
+	 * @param taskId - id of the task.
+	 * @return the spec of the task, null if it doesn't exist.
+	 */
+	public TaskSpec get(Long taskId) {
+		return taskId == null ? null : specs.get(taskId);
+	}
+
+	/**
+	 * @return every task, a view that reflects later changes.
+	 */
+	public Collection<TaskSpec> getAll() {
+		return specs.values();
+	}
+
+	/**
+	 * @return goes up on every change.
+	 */
+	public long getVersion() {
+		return version.get();
+	}
+
+	/**
+	 * @return a snapshot of the registry.
+	 */
+	public TaskRegistryMetricsResponseDTO getMetrics() {
+		return new TaskRegistryMetricsResponseDTO(
+				version.get(),
+				specs.size(),
+				incrementalUpdates.sum(),
+				resyncCorrections.sum(),
+				lastResync);
+	}
+
+
+	private void put(TaskSpec spec) {
+		synchronized (specs) {
+			TaskSpec current = specs.get(spec.getTaskId());
+			if (spec.sameConfig(current)) {
+				return;
+			}
+			// the spec was read before the version is known, written again with it
+			specs.put(spec.getTaskId(), spec.withVersion(version.incrementAndGet()));
+		}
+	}
+
+	/**
+	 * changes recorded by TaskService while the DB was being read are newer than what was read,
+	 * those tasks are left as they are.
+	 * @return how many specs were added, changed or removed.
+	 */
+	private int reload() {
+		long readFrom = version.get();
+		List<TaskSpec> loaded = readOnlyTx.execute(status -> {
+			List<Task> tasks = taskRepo.findAll();
+			List<TaskSpec> read = new ArrayList<>(tasks.size());
+			for (Task task : tasks) {
+				if (task.getTaskID() != null) {
+					read.add(TaskSpec.from(task, 0));
+				}
+			}
+			return read;
+		});
+
+		int changed = 0;
+		synchronized (specs) {
+			Map<Long, TaskSpec> byId = new HashMap<>(loaded.size() * 2);
+			for (TaskSpec spec : loaded) {
+				byId.put(spec.getTaskId(), spec);
+				TaskSpec current = specs.get(spec.getTaskId());
+				if (isNewerThan(spec.getTaskId(), current, readFrom) || spec.sameConfig(current)) {
+					continue;
+				}
+				specs.put(spec.getTaskId(), spec.withVersion(version.incrementAndGet()));
+				changed++;
+			}
+			for (TaskSpec current : new ArrayList<>(specs.values())) {
+				if (!byId.containsKey(current.getTaskId()) && current.getVersion() <= readFrom) {
+					specs.remove(current.getTaskId());
+					version.incrementAndGet();
+					changed++;
+				}
+			}
+			removedAtVersion.values().removeIf(removedAt -> removedAt <= readFrom);
+		}
+		lastResync = LocalDateTime.now();
+		return changed;
+	}
+
+	private boolean isNewerThan(Long taskId, TaskSpec current, long readFrom) {
+		Long removedAt = removedAtVersion.get(taskId);
+		return (current != null && current.getVersion() > readFrom) || (removedAt != null && removedAt > readFrom);
+	}
+
+	private static void afterCommit(Runnable change) {
+		if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+			change.run();
+			return;
+		}
+		TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+			@Override
+			public void afterCommit() {
+				change.run();
+			}
+		});
+	}
+}
@@ -0,0 +1,190 @@
+package com.bpmonitor.registry;
+
+import java.util.Objects;
+
+import javax.persistence.DiscriminatorValue;
+
+import org.hibernate.Hibernate;
+
+import com.bpmonitor.enums.TaskRecurrence;
+import com.bpmonitor.enums.TaskType;
+import com.bpmonitor.models.Task;
+import com.bpmonitor.workloads.TaskWorkload;
+
+/**
+ * What the scheduler and executor need to know about a task, detached from JPA.
+ *
+ * Holds IDs instead of the activity/system/interface entities, and a detached copy of the task
+ * (same class, no associations) that the executor runs, so nothing handed to the async threads
+ * can trigger lazy loading or be merged back into the DB by accident.
+ * Immutable, a change to the task replaces the whole spec.
+ * @author joao7
+ *
+ */
+public final class TaskSpec {
+
+	private final long taskId;
+	private final String taskName;
+	private final TaskType taskType;
+	private final TaskRecurrence recurrence;
+	private final String workload;
+	private final Long activityId;
+	private final Long systemId;
+	private final Long interfaceId;
+	private final long version;
+	private final Task executable;
+	private final String probeTarget;
+
+	private TaskSpec(Task task, long version) {
+		this.taskId = task.getTaskID();
+		this.taskName = task.getTaskName();
+		this.taskType = typeOf(task);
+		this.recurrence = task.getRecurrence();
+		this.workload = task.getWorkload();
+		this.activityId = task.getActivity() == null ? null : task.getActivity().getActivityID();
+		this.systemId = task.getSystem() == null ? null : task.getSystem().getSystemID();
+		this.interfaceId = task.getInterface() == null ? null : task.getInterface().getInterfaceID();
+		this.version = version;
+		this.executable = detach(task);
+		TaskWorkload compiled = executable.compiledWorkloadOrNull();
+		this.probeTarget = compiled == null ? null : compiled.getProbeTarget();
+	}
+
+	private TaskSpec(TaskSpec spec, long version) {
+		this.taskId = spec.taskId;
+		this.taskName = spec.taskName;
+		this.taskType = spec.taskType;
+		this.recurrence = spec.recurrence;
+		this.workload = spec.workload;
+		this.activityId = spec.activityId;
+		this.systemId = spec.systemId;
+		this.interfaceId = spec.interfaceId;
+		this.version = version;
+		this.executable = spec.executable;
+		this.probeTarget = spec.probeTarget;
+	}
+
+	/**
+	 * reads a spec from a task entity, call it while the entity is still attached.
+	 * @param task - a saved task.
+	 * @param version - registry version the spec is written at.
+	 * @return the spec.
+	 */
+	static TaskSpec from(Task task, long version) {
+		return new TaskSpec(task, version);
+	}
+
+	/**
+	 * @return the same spec at another registry version.
+	 */
+	TaskSpec withVersion(long version) {
+		return new TaskSpec(this, version);
+	}
+
+	/**
+	 * @return true if both specs would schedule and run the same way.
+	 */
+	boolean sameConfig(TaskSpec other) {
+		return other != null
+				&& taskId == other.taskId
+				&& taskType == other.taskType
+				&& recurrence == other.recurrence
+				&& Objects.equals(taskName, other.taskName)
+				&& Objects.equals(workload, other.workload)
+				&& Objects.equals(activityId, other.activityId)
+				&& Objects.equals(systemId, other.systemId)
+				&& Objects.equals(interfaceId, other.interfaceId);
+	}
+
+	public long getTaskId() {
+		return taskId;
+	}
+
+	public String getTaskName() {
+		return taskName;
+	}
+
+	/**
+	 * @return type of the task, null for task classes without a discriminator.
+	 */
+	public TaskType getTaskType() {
+		return taskType;
+	}
+
+	public TaskRecurrence getRecurrence() {
+		return recurrence;
+	}
+
+	public String getWorkload() {
+		return workload;
+	}
+
+	public Long getActivityId() {
+		return activityId;
+	}
+
+	public Long getSystemId() {
+		return systemId;
+	}
+
+	public Long getInterfaceId() {
+		return interfaceId;
+	}
+
+	/**
+	 * @return what the task's probe checks (see TaskWorkload.getProbeTarget), null if it can't be shared.
+	 */
+	public String getProbeTarget() {
+		return probeTarget;
+	}
+
+	/**
+	 * @return registry version this spec was written at.
+	 */
+	public long getVersion() {
+		return version;
+	}
+
+	/**
+	 * @return the detached task the executor runs, shared by every run of this spec.
+	 */
+	public Task getExecutable() {
+		return executable;
+	}
+
+
+	@SuppressWarnings("unchecked")
+	private static Class<? extends Task> entityClass(Task task) {
+		return (Class<? extends Task>) Hibernate.getClass(task); // the real class behind a proxy
+	}
+
+	private static TaskType typeOf(Task task) {
+		DiscriminatorValue discriminator = entityClass(task).getAnnotation(DiscriminatorValue.class);
+		if (discriminator == null) {
+			return null;
+		}
+		try {
+			return TaskType.valueOf(discriminator.value());
+		} catch (IllegalArgumentException e) {
+			return null;
+		}
+	}
+
+	private static Task detach(Task task) {
+		Task copy;
+		try {
+			copy = entityClass(task).getDeclaredConstructor().newInstance();
+		} catch (ReflectiveOperationException e) {
+			throw new IllegalStateException("Task class " + entityClass(task).getSimpleName()
+					+ " can't be instantiated without arguments", e);
+		}
+		copy.setTaskID(task.getTaskID());
+		copy.setTaskName(task.getTaskName());
+		copy.setTaskDescription(task.getTaskDescription());
+		copy.setTaskStatus(task.getTaskStatus());
+		copy.setRecurrence(task.getRecurrence());
+		copy.setWorkload(task.getWorkload());
+		copy.compiledWorkloadOrNull(); // compiled now, not on the first run
+		return copy;
+	}
+}
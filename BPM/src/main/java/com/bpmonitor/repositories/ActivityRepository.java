@@ -2,6 +2,7 @@ package com.bpmonitor.repositories;
 
 import java.util.List;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.stereotype.Repository;
 
 import com.bpmonitor.enums.OperationalStatus;
@@ -108,8 +109,18 @@ public interface ActivityRepository extends JpaRepository<Activity, Long>{
 	 * @return the count of activities matching the given status.
 	 */
 	int countActivityByActivityStatus(OperationalStatus status);
-	
-	
-	
-	
+
+	/**
+	 * Fetches the status of every activity and the subprocess it belongs to.
+	 * @return one row per activity: activityID, activityStatus, subprocessID (may be null).
+	 */
+	@Query("SELECT a.activityID, a.activityStatus, s.subprocessID FROM Activity a LEFT JOIN a.subprocess s")
+	List<Object[]> findAllStatusLinks();
+
+	/**
+	 * Fetches what the hierarchy graph needs of every activity.
+	 * @return one row per activity ordered by id: activityID, activityName, activityStatus, subprocessID (may be null).
+	 */
+	@Query("SELECT a.activityID, a.activityName, a.activityStatus, s.subprocessID FROM Activity a LEFT JOIN a.subprocess s ORDER BY a.activityID")
+	List<Object[]> findAllTreeRows();
 }
@@ -0,0 +1,37 @@
+package com.bpmonitor.repositories;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import com.bpmonitor.models.ClusterNode;
+
+/**
+ * 
+ */
+@Repository
+public interface ClusterNodeRepository extends JpaRepository<ClusterNode, String> {
+
+	/**
+	 * fetches the nodes that sent a heartbeat after the given time, the live ones.
+	 * @param since - oldest heartbeat still considered alive.
+	 * @return List<ClusterNode> of the live nodes.
+	 */
+	public List<ClusterNode> findByHeartbeatAtAfter(LocalDateTime since);
+
+	/**
+	 * deletes the nodes that stopped sending heartbeats.
+	 * @param before - heartbeats older than this are dead.
+	 * @return how many nodes were deleted.
+	 */
+	@Transactional
+	@Modifying
+	@Query("DELETE FROM ClusterNode n WHERE n.heartbeatAt < :before")
+	public int deleteDeadNodes(@Param("before") LocalDateTime before);
+}
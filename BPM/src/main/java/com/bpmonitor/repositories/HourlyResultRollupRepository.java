@@ -0,0 +1,44 @@
+package com.bpmonitor.repositories;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import com.bpmonitor.enums.RollupLevel;
+import com.bpmonitor.models.HourlyResultRollup;
+import com.bpmonitor.models.ResultRollupId;
+
+/**
+ * Reads the hourly rollups, they're written by ResultRollupService.
+ */
+@Repository
+public interface HourlyResultRollupRepository extends JpaRepository<HourlyResultRollup, ResultRollupId> {
+
+	/**
+	 * @param level - level of the node.
+	 * @param nodeId - id of the node.
+	 * @param from - first bucket, inclusive.
+	 * @param to - end, exclusive.
+	 * @return the buckets of the node between from and to, oldest first. Buckets without results have no row.
+	 */
+	@Query("SELECT r FROM HourlyResultRollup r WHERE r.id.level = :level AND r.id.nodeId = :nodeId "
+			+ "AND r.id.bucketStart >= :from AND r.id.bucketStart < :to ORDER BY r.id.bucketStart")
+	public List<HourlyResultRollup> findBuckets(@Param("level") RollupLevel level, @Param("nodeId") Long nodeId,
+			@Param("from") LocalDateTime from, @Param("to") LocalDateTime to);
+
+	/**
+	 * deletes the buckets that start before cutoff.
+	 * @param cutoff - oldest bucket kept.
+	 * @return how many were deleted.
+	 */
+	@Transactional
+	@Modifying
+	@Query("DELETE FROM HourlyResultRollup r WHERE r.id.bucketStart < :cutoff")
+	public int deleteOlderThan(@Param("cutoff") LocalDateTime cutoff);
+}
@@ -2,6 +2,7 @@ package com.bpmonitor.repositories;
 
 import java.util.List;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.stereotype.Repository;
 
 import com.bpmonitor.enums.OperationalStatus;
@@ -82,6 +83,19 @@ public interface InterfaceRepository extends JpaRepository<Interface, Long>{
      * @return
      */
 	public List<Interface> findByDestination(System system);
-	
-	
+
+	/**
+	 * Fetches the status of every interface.
+	 * @return one row per interface: InterfaceID, currentStatus.
+	 */
+	@Query("SELECT i.InterfaceID, i.currentStatus FROM Interface i")
+	public List<Object[]> findAllStatuses();
+
+	/**
+	 * Fetches what the hierarchy graph needs of every interface.
+	 * @return one row per interface ordered by id: InterfaceID, edprInterfaceName, origin SystemID, destination SystemID, currentStatus.
+	 */
+	@Query("SELECT i.InterfaceID, i.edprInterfaceName, o.SystemID, d.SystemID, i.currentStatus FROM Interface i "
+			+ "LEFT JOIN i.origin o LEFT JOIN i.destination d ORDER BY i.InterfaceID")
+	public List<Object[]> findAllTreeRows();
 }
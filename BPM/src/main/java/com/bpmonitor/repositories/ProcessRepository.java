@@ -2,6 +2,7 @@ package com.bpmonitor.repositories;
 
 import java.util.List;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.stereotype.Repository;
 
 import com.bpmonitor.enums.OperationalStatus;
@@ -49,4 +50,18 @@ public interface ProcessRepository extends JpaRepository<Process, Long>{
 	 * @return int value of the count.
 	 */
 	public int countProcessesByProcessStatus(OperationalStatus status);
+
+	/**
+	 * Fetches the status of every process.
+	 * @return one row per process: processID, processStatus.
+	 */
+	@Query("SELECT p.processID, p.processStatus FROM Process p")
+	public List<Object[]> findAllStatuses();
+
+	/**
+	 * Fetches what the hierarchy graph needs of every process.
+	 * @return one row per process ordered by id: processID, processName, processStatus.
+	 */
+	@Query("SELECT p.processID, p.processName, p.processStatus FROM Process p ORDER BY p.processID")
+	public List<Object[]> findAllTreeRows();
 }
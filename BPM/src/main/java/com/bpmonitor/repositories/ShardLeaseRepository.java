@@ -0,0 +1,61 @@
+package com.bpmonitor.repositories;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import com.bpmonitor.models.ShardLease;
+
+/**
+ * Every lease change is a single conditional UPDATE, so two nodes can never both own a shard.
+ */
+@Repository
+public interface ShardLeaseRepository extends JpaRepository<ShardLease, Integer> {
+
+	/**
+	 * takes a shard if it's free, it's lease expired or the node already owns it (then it's renewed).
+	 * @param shardId - shard to take.
+	 * @param nodeId - node taking it.
+	 * @param now - current time, leases ending before it are expired.
+	 * @param until - new end of the lease.
+	 * @return 1 if the node owns the shard now, 0 if another node does.
+	 */
+	@Transactional
+	@Modifying
+	@Query("UPDATE ShardLease l SET l.ownerNodeId = :nodeId, l.leaseUntil = :until "
+			+ "WHERE l.shardId = :shardId AND (l.ownerNodeId IS NULL OR l.ownerNodeId = :nodeId OR l.leaseUntil < :now)")
+	public int tryAcquire(@Param("shardId") Integer shardId, @Param("nodeId") String nodeId,
+			@Param("now") LocalDateTime now, @Param("until") LocalDateTime until);
+
+	/**
+	 * renews the leases a node still owns.
+	 * @param shardIds - shards to renew.
+	 * @param nodeId - node owning them.
+	 * @param until - new end of the leases.
+	 * @return how many were renewed, less than asked if some were lost meanwhile.
+	 */
+	@Transactional
+	@Modifying
+	@Query("UPDATE ShardLease l SET l.leaseUntil = :until WHERE l.ownerNodeId = :nodeId AND l.shardId IN :shardIds")
+	public int renew(@Param("shardIds") Collection<Integer> shardIds, @Param("nodeId") String nodeId,
+			@Param("until") LocalDateTime until);
+
+	/**
+	 * frees shards owned by a node so another node can take them right away.
+	 * @param shardIds - shards to free.
+	 * @param nodeId - node owning them.
+	 * @param now - when they were freed, a shard nobody takes for a whole lease after that is taken by any node.
+	 * @return how many were freed.
+	 */
+	@Transactional
+	@Modifying
+	@Query("UPDATE ShardLease l SET l.ownerNodeId = NULL, l.leaseUntil = :now WHERE l.ownerNodeId = :nodeId AND l.shardId IN :shardIds")
+	public int release(@Param("shardIds") Collection<Integer> shardIds, @Param("nodeId") String nodeId,
+			@Param("now") LocalDateTime now);
+}
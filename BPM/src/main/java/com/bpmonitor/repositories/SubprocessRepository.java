@@ -2,6 +2,7 @@ package com.bpmonitor.repositories;
 
 import java.util.List;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.stereotype.Repository;
 
 import com.bpmonitor.enums.OperationalStatus;
@@ -57,4 +58,18 @@ public interface SubprocessRepository extends JpaRepository<Subprocess, Long> {
 	 * whose OperationalStatus matches the passed status.
 	 */
 	public int countSubprocessBySubprocessStatus(OperationalStatus status);
+
+	/**
+	 * Fetches the status of every subprocess and the process it belongs to.
+	 * @return one row per subprocess: subprocessID, subprocessStatus, processID (may be null).
+	 */
+	@Query("SELECT s.subprocessID, s.subprocessStatus, p.processID FROM Subprocess s LEFT JOIN s.process p")
+	public List<Object[]> findAllStatusLinks();
+
+	/**
+	 * Fetches what the hierarchy graph needs of every subprocess.
+	 * @return one row per subprocess ordered by id: subprocessID, subprocessName, subprocessStatus, processID (may be null).
+	 */
+	@Query("SELECT s.subprocessID, s.subprocessName, s.subprocessStatus, p.processID FROM Subprocess s LEFT JOIN s.process p ORDER BY s.subprocessID")
+	public List<Object[]> findAllTreeRows();
 }
@@ -2,6 +2,7 @@ package com.bpmonitor.repositories;
 
 import java.util.List;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.stereotype.Repository;
 
 import com.bpmonitor.enums.OperationalStatus;
@@ -40,4 +41,18 @@ public interface SystemRepository extends JpaRepository<System, Long>{
 	 * @return a count of all Interfaces with the current status
 	 */
 	public int countEDPRSystemsByCurrentStatus(OperationalStatus status);
+
+	/**
+	 * Fetches the status of every system.
+	 * @return one row per system: SystemID, currentStatus.
+	 */
+	@Query("SELECT s.SystemID, s.currentStatus FROM System s")
+	public List<Object[]> findAllStatuses();
+
+	/**
+	 * Fetches what the hierarchy graph needs of every system.
+	 * @return one row per system ordered by id: SystemID, local, systemName, systemComponent, currentStatus.
+	 */
+	@Query("SELECT s.SystemID, s.local, s.systemName, s.systemComponent, s.currentStatus FROM System s ORDER BY s.SystemID")
+	public List<Object[]> findAllTreeRows();
 }
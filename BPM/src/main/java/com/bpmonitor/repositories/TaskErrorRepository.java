@@ -1,6 +1,7 @@
 package com.bpmonitor.repositories;
 
 import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 
 import org.springframework.data.jpa.repository.JpaRepository;
@@ -44,4 +45,11 @@ public interface TaskErrorRepository extends JpaRepository<TaskError, Long>{
 	 * @return
 	 */
 	public List<TaskError> findByTimestampBefore( LocalDateTime oneWeekAgo);
+
+	/**
+	 * fetches the errors of a page of results in one query.
+	 * @param resultIds - ids of the results.
+	 * @return their errors, in no particular order.
+	 */
+	public List<TaskError> findTaskErrorByTaskValidationResult_TaskValidationResultIDIn(Collection<Long> resultIds);
 }
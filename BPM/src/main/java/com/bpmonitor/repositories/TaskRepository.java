@@ -3,6 +3,10 @@ package com.bpmonitor.repositories;
 
 import java.util.List;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.data.repository.query.Param;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.stereotype.Repository;
 
 import com.bpmonitor.enums.TaskRecurrence;
@@ -118,7 +122,31 @@ public interface TaskRepository extends JpaRepository<Task, Long>{//extends JPAR
      */
 	public List<Task> findByEdprInterface_EdprInterfaceID(Long id);
 
-	
+	/**
+	 * Fetches the status of every task and the activity, system and interface it counts towards,
+	 * without loading the tasks themselves.
+	 * @return one row per task: taskID, taskStatus, activityID, systemID, interfaceID (the last 3 may be null).
+	 */
+	@Query("SELECT t.taskID, t.taskStatus, a.activityID, s.SystemID, i.InterfaceID FROM Task t "
+			+ "LEFT JOIN t.activity a LEFT JOIN t.system s LEFT JOIN t.Interface i")
+	public List<Object[]> findAllStatusLinks();
 
-    
+	/**
+	 * Fetches what the hierarchy graph needs of every task, without loading the tasks themselves.
+	 * @return one row per task ordered by id: taskID, taskName, taskStatus, activityID, systemID, interfaceID (the last 3 may be null).
+	 */
+	@Query("SELECT t.taskID, t.taskName, t.taskStatus, a.activityID, s.SystemID, i.InterfaceID FROM Task t "
+			+ "LEFT JOIN t.activity a LEFT JOIN t.system s LEFT JOIN t.Interface i ORDER BY t.taskID")
+	public List<Object[]> findAllTreeRows();
+
+	/**
+	 * updates only the status of a task, nothing is loaded.
+	 * @param taskID - ID of the task.
+	 * @param status - it's new status.
+	 * @return 1 if the task exists, 0 if not.
+	 */
+	@Transactional
+	@Modifying
+	@Query("UPDATE Task t SET t.taskStatus = :status WHERE t.taskID = :taskID")
+	public int updateTaskStatus(@Param("taskID") Long taskID, @Param("status") TaskStatus status);
 }
@@ -5,6 +5,8 @@ import java.util.List;
 import java.util.Optional;
 
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import com.bpmonitor.enums.TaskStatus;
@@ -38,7 +40,8 @@ public interface TaskValidationResultRepository extends JpaRepository<TaskValida
 	public List<TaskValidationResult> findTaskValidationResultByStatus(TaskStatus status);
 	
 	/**
-	 * This method fetches all TaskValidationResults that sit between timeStart and timeEnd
+	 * This method fetches all TaskValidationResults that sit between timeStart and timeEnd.
+	 * Only for the raw results still kept, history (counts, failures, latency) is read from the rollups by ResultRollupService.
 	 * @param timeStart - LocalDateTime we want to start at.
 	 * @param timeEnd - LocalDateTime we want to end at.
 	 * @return List<TaskValidationResult> of all the results in the given time period.
@@ -59,7 +62,8 @@ public interface TaskValidationResultRepository extends JpaRepository<TaskValida
 	 * @param status - status we wish to count for, can be 
 	 *  UNRUN,    
      *  SUCCESS,  
-     *  FAIL   
+     *  FAIL,
+     *  TIMEOUT   
 	 * @return - int value representing the number of taskResults with the result.
 	 */
 	public int countTaskValidationResultByStatus(TaskStatus status);
@@ -88,6 +92,19 @@ public interface TaskValidationResultRepository extends JpaRepository<TaskValida
 	 * @return
 	 */
 	public Optional<TaskValidationResult> findTopByTask_TaskIDOrderByTimestampDesc(Long taskId);
+
+	/**
+	 * Fetches the latest results of every task with the first error of each, in one go.
+	 * @param perTask - how many results per task, newest first.
+	 * @return one row per result ordered by task then newest first:
+	 * TASK_RESULT_ID, TASK_ID, RESULT, DATE_OF_EXECUTION, TASK_ERROR_ID, error DATE_OF_EXECUTION, DESCRIPTION (the last 3 may be null).
+	 */
+	@Query(value = "SELECT r.TASK_RESULT_ID, r.TASK_ID, r.RESULT, r.DATE_OF_EXECUTION, e.TASK_ERROR_ID, e.DATE_OF_EXECUTION, e.DESCRIPTION "
+			+ "FROM (SELECT TASK_RESULT_ID, TASK_ID, RESULT, DATE_OF_EXECUTION, "
+			+ "ROW_NUMBER() OVER (PARTITION BY TASK_ID ORDER BY DATE_OF_EXECUTION DESC, TASK_RESULT_ID DESC) RN FROM TASK_RESULT) r "
+			+ "LEFT JOIN TASK_ERROR e ON e.TASK_ERROR_ID = (SELECT MIN(x.TASK_ERROR_ID) FROM TASK_ERROR x WHERE x.TASK_RESULT_ID = r.TASK_RESULT_ID) "
+			+ "WHERE r.RN <= :perTask ORDER BY r.TASK_ID, r.RN", nativeQuery = true)
+	public List<Object[]> findLatestPerTask(@Param("perTask") int perTask);
 	
 	
 	
@@ -1,17 +1,25 @@
 package com.bpmonitor.schedulers;
 
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
-import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.scheduling.annotation.Scheduled;
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
 import org.springframework.stereotype.Component;
 
-import com.bpmonitor.enums.TaskRecurrence;
+import com.bpmonitor.cluster.ClusterShardManager;
+import com.bpmonitor.executors.ProbeConcurrencyLimiter;
 import com.bpmonitor.executors.TaskExecutorService;
-import com.bpmonitor.factories.TaskFactory;
-import com.bpmonitor.models.Task;
-import com.bpmonitor.repositories.TaskRepository;
-import com.bpmonitor.services.TaskService;
+import com.bpmonitor.executors.TaskSingleFlight;
+import com.bpmonitor.registry.TaskRegistry;
+import com.bpmonitor.registry.TaskSpec;
 
 import lombok.extern.slf4j.Slf4j;
 
@@ -19,74 +27,127 @@ import lombok.extern.slf4j.Slf4j;
 @Component // this is a component of my app, that is gonna schedule tasks.
 @Slf4j
 public class TaskRefractorScheduler {
-	
-	private final TaskRepository taskRepo; // vou ao repository de tasks
-	
-	private final TaskExecutorService taskExecutor; // responsible for executing the tasks themselves. 
-	
-	private final TaskFactory taskFactory; // responsible for injecting TaskValidationResultService's into tasks
-	
+
+	private final TaskRegistry taskRegistry; // in-memory copy of the tasks, no DB access to decide what runs
+
+	private final TaskExecutorService taskExecutor; // responsible for executing the tasks themselves.
+
+	private final TaskSchedulingEngine schedulingEngine; // decides when each task runs
+
+	private final ProbeConcurrencyLimiter concurrencyLimiter; // how many probes of each type run at once
+
+	private final TaskSingleFlight singleFlight; // a task never runs concurrently with itself
+
+	private final ClusterShardManager shardManager; // which tasks are this node's to run
+
+	private final long tickMs;
+
+	private final boolean coalescing; // tasks probing the same target are phased together to share the probe
+
+	private ScheduledExecutorService dispatchThread; // the tick has a thread of it's own, slow scheduled jobs don't delay dispatches
+
+	private volatile long scheduledVersion = -1; // registry version the engine was last synced with
+
 	public TaskRefractorScheduler(
-			final TaskRepository taskRepo, 
+			final TaskRegistry taskRegistry,
 			final TaskExecutorService taskExecutor,
-			final TaskFactory taskFactory) {
-		this.taskRepo = taskRepo;
+			final TaskSchedulingEngine schedulingEngine,
+			final ProbeConcurrencyLimiter concurrencyLimiter,
+			final TaskSingleFlight singleFlight,
+			final ClusterShardManager shardManager,
+			@Value("${bpm.scheduler.tick-ms:1000}") long tickMs,
+			@Value("${bpm.coalescing.enabled:true}") boolean coalescing) {
+		this.taskRegistry = taskRegistry;
 		this.taskExecutor = taskExecutor;
-		this.taskFactory = taskFactory;
+		this.schedulingEngine = schedulingEngine;
+		this.concurrencyLimiter = concurrencyLimiter;
+		this.singleFlight = singleFlight;
+		this.shardManager = shardManager;
+		this.tickMs = Math.max(10, tickMs);
+		this.coalescing = coalescing;
 	}
-	
-	
-	@Scheduled(fixedRate = 5 * 60 * 1000) // everyMinute
-	public void Run5MinutesTasks() {
-			log.info("I'm gonna run all minute tasks");
-	        List<Task> tasks = taskRepo.findTaskByRecurrence(TaskRecurrence.EVERY_5_MINUTES); // I get all 5 minute tasks
-
-	        for (Task task : tasks) {
-	            try {            
-	            	taskExecutor.executeControlTask(task);
-	            } catch (Exception e) {
-	                e.printStackTrace();
-	                // Optionally: Save TaskError
-	            }
-	        }
-	    }
+
+
+	/**
+	 * starts ticking every tick-ms on the dispatch thread.
+	 */
+	@EventListener(ApplicationReadyEvent.class)
+	public void start() {
+		dispatchThread = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "TaskDispatch");
+			thread.setDaemon(true);
+			return thread;
+		});
+		dispatchThread.scheduleAtFixedRate(() -> {
+			try {
+				tick();
+			} catch (RuntimeException e) {
+				// an exception would cancel the schedule, no task would run again
+				log.error("Scheduler tick failed", e);
+			}
+		}, tickMs, tickMs, TimeUnit.MILLISECONDS);
+	}
+
+	@PreDestroy
+	public void stop() {
+		if (dispatchThread != null) {
+			dispatchThread.shutdownNow();
+		}
 	}
 
-/**
-	
-
-
-	    @Scheduled(fixedRate = 60000) // Runs every minute
-	    public void runScheduledTasks() {
-	        List<Task> tasks = taskService.getTasksByRecurrence(TaskRecurrence.EVERYMINUTE);
-	        for (Task task : tasks) {
-	            taskExecutor.executeTask(task);
-	        }
-	    }
-	    
-	    
-	    @Scheduled(fixedRate = 30 * 60000) // 30 minutes * 60,000 ms
-	    public void runHalfHourlyTasks() {
-	        List<Task> tasks = taskService.getTasksByRecurrence(TaskRecurrence.THIRTYMINUTES);
-	        for (Task task : tasks) {
-	            taskExecutor.executeTask(task);
-	        }
-	    }
-	    
-	    @Scheduled(fixedRate = 60 * 60000) // 60 minutes * 60,000 ms
-	    public void runHourlyTasks() {
-	        List<Task> tasks = taskService.getTasksByRecurrence(TaskRecurrence.HOURLY);
-	        for (Task task : tasks) {
-	            taskExecutor.executeTask(task);
-	        }
-	    }
-	    
-	    
-	    @Scheduled(fixedRate = 24 * 60 * 60000) // 24 hours * 60 minutes * 60,000 ms
-	    public void runDailyTasks() {
-	        List<Task> tasks = taskService.getTasksByRecurrence(TaskRecurrence.DAILY);
-	        for (Task task : tasks) {
-	            taskExecutor.executeTask(task);
-	        }
-	    }*/
 
+	/**
+	 * (re)schedules every task of the registry, tasks that no longer exist are unscheduled.
+	 * scheduling a task that didn't change does nothing, so this only moves what changed.
+	 * With coalescing on, tasks are phased by their probe target so the ones sharing a target come due together.
+	 */
+	public void refreshSchedule() {
+		long version = taskRegistry.getVersion();
+		Set<Long> taskIds = new HashSet<>();
+
+		for (TaskSpec spec : taskRegistry.getAll()) {
+			if (spec.getRecurrence() == null) {
+				continue;
+			}
+			taskIds.add(spec.getTaskId());
+			schedulingEngine.schedule(spec.getTaskId(), spec.getRecurrence(), coalescing ? spec.getProbeTarget() : null);
+		}
+		schedulingEngine.retainOnly(taskIds);
+		singleFlight.retainOnly(taskIds);
+		scheduledVersion = version;
+		log.debug("Scheduler refreshed at registry version {}, {} tasks scheduled", version, taskIds.size());
+	}
+
+
+	/**
+	 * advances the scheduling engine and dispatches every task that's due,
+	 * catching up with the registry first if a task changed since the last tick.
+	 * Dispatches go through the ProbeConcurrencyLimiter, over the limit of their type they wait there.
+	 * A task whose previous run is still in flight (queued or probing) is skipped this time,
+	 * and so is a task of a shard another node of the cluster owns.
+	 */
+	public void tick() {
+		if (taskRegistry.getVersion() != scheduledVersion) {
+			refreshSchedule();
+		}
+
+		List<Long> due = schedulingEngine.advance(java.lang.System.currentTimeMillis());
+		if (due.isEmpty()) {
+			return;
+		}
+		log.debug("{} tasks due this tick", due.size());
+
+		for (Long taskId : due) {
+			TaskSpec spec = taskRegistry.get(taskId);
+			if (spec == null || !shardManager.owns(taskId)) {
+				continue;
+			}
+			TaskSingleFlight.Flight flight = singleFlight.tryStart(taskId, spec.getTaskName());
+			if (flight == null) {
+				continue;
+			}
+			concurrencyLimiter.submit(spec.getTaskType(), taskId, spec.getProbeTarget(),
+					permit -> taskExecutor.executeControlTask(spec, permit, flight), flight::finish);
+		}
+	}
+}
@@ -0,0 +1,217 @@
+package com.bpmonitor.schedulers;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.bpmonitor.DTOs.response.SchedulerSlotLoadResponseDTO;
+import com.bpmonitor.enums.TaskRecurrence;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Decides when each task runs.
+ *
+ * Every task gets a stable phase offset inside its recurrence period, derived from a hash
+ * of its ID, so a task always runs at the same point of its period (also across restarts)
+ * and the tasks of one recurrence are spread over the whole period instead of all firing at once.
+ * Tasks given a phase key (their probe target) are phased by it instead, so tasks probing the same target
+ * come due on the same tick and share one probe. Periods are multiples of each other, so that holds
+ * across recurrences too: a 5 minute task fires on a tick where a 1 minute task with the same target fires.
+ * The next run of every task sits in a hierarchical timing wheel, ticking once a second.
+ * @author joao7
+ *
+ */
+@Slf4j
+@Component
+public class TaskSchedulingEngine {
+
+	private static final int LOAD_SLOTS_PER_PERIOD = 60; // resolution of the slot load report
+
+	private final TimingWheel<ScheduledTask> wheel;
+	private final Map<Long, ScheduledTask> scheduled = new HashMap<>(); // taskID -> current schedule
+
+	public TaskSchedulingEngine(@Value("${bpm.scheduler.tick-ms:1000}") long tickMs) {
+		// seconds -> minutes -> hours -> days, which holds anything up to 8 days ahead
+		this.wheel = new TimingWheel<>(tickMs, java.lang.System.currentTimeMillis(), 60, 60, 24, 8);
+	}
+
+	/**
+	 * schedules a task, or moves it if it's recurrence or phase key changed.
+	 * scheduling an already scheduled task the same way does nothing.
+	 * @param taskId - id of the task.
+	 * @param recurrence - how often it runs.
+	 * @param phaseKey - tasks with the same key run on the same tick, null to phase the task by it's ID.
+	 */
+	public synchronized void schedule(long taskId, TaskRecurrence recurrence, String phaseKey) {
+		ScheduledTask existing = scheduled.get(taskId);
+		if (existing != null && existing.recurrence == recurrence && Objects.equals(existing.phaseKey, phaseKey)) {
+			return;
+		}
+
+		long key = phaseKey == null ? taskId : hash(phaseKey);
+		long phase = phaseOffset(key, recurrence.getPeriodMillis(), wheel.getTickMs());
+		ScheduledTask task = new ScheduledTask(taskId, recurrence, phaseKey, phase);
+		scheduled.put(taskId, task); // an older wheel entry for this task is now stale and gets ignored
+
+		long now = java.lang.System.currentTimeMillis();
+		task.nextFireTime = nextFireTime(now, recurrence.getPeriodMillis(), phase);
+		wheel.add(task.nextFireTime, task);
+		log.debug("Scheduled task {} ({}) with phase {} ms", taskId, recurrence, phase);
+	}
+
+	/**
+	 * stops scheduling a task.
+	 * @param taskId - id of the task.
+	 */
+	public synchronized void unschedule(long taskId) {
+		scheduled.remove(taskId);
+	}
+
+	/**
+	 * unschedules every task that isn't in the given set.
+	 * @param taskIds - IDs of the tasks that still exist.
+	 */
+	public synchronized void retainOnly(Set<Long> taskIds) {
+		Iterator<Long> it = scheduled.keySet().iterator();
+		while (it.hasNext()) {
+			if (!taskIds.contains(it.next())) {
+				it.remove();
+			}
+		}
+	}
+
+	/**
+	 * moves the wheel to nowMs and collects every task that's due,
+	 * each due task is rescheduled for it's next period.
+	 * @param nowMs - current time.
+	 * @return IDs of the tasks that should run now.
+	 */
+	public synchronized List<Long> advance(long nowMs) {
+		List<ScheduledTask> expired = new ArrayList<>();
+		wheel.advanceTo(nowMs, expired::add);
+
+		List<Long> due = new ArrayList<>(expired.size());
+		for (ScheduledTask task : expired) {
+			if (scheduled.get(task.taskId) != task) {
+				continue; // unscheduled or rescheduled since it was added
+			}
+			due.add(task.taskId);
+
+			long period = task.recurrence.getPeriodMillis();
+			task.nextFireTime += period;
+			if (task.nextFireTime <= nowMs) {
+				// we fell behind (clock jump, long pause), skip the missed runs
+				task.nextFireTime = nextFireTime(nowMs, period, task.phase);
+			}
+			wheel.add(task.nextFireTime, task);
+		}
+		return due;
+	}
+
+	/**
+	 * @return number of scheduled tasks.
+	 */
+	public synchronized int getScheduledCount() {
+		return scheduled.size();
+	}
+
+	/**
+	 * Splits each recurrence period into equal slots and counts how many tasks fall in each one,
+	 * so we can see how evenly the tasks are spread.
+	 * @return one entry per recurrence.
+	 */
+	public synchronized List<SchedulerSlotLoadResponseDTO> getSlotLoad() {
+		Map<TaskRecurrence, int[]> loads = new EnumMap<>(TaskRecurrence.class);
+		for (TaskRecurrence recurrence : TaskRecurrence.values()) {
+			loads.put(recurrence, new int[LOAD_SLOTS_PER_PERIOD]);
+		}
+
+		for (ScheduledTask task : scheduled.values()) {
+			long period = task.recurrence.getPeriodMillis();
+			int slot = (int) (task.phase * LOAD_SLOTS_PER_PERIOD / period);
+			loads.get(task.recurrence)[slot]++;
+		}
+
+		List<SchedulerSlotLoadResponseDTO> response = new ArrayList<>();
+		for (Map.Entry<TaskRecurrence, int[]> entry : loads.entrySet()) {
+			int[] slots = entry.getValue();
+			int total = 0;
+			int min = Integer.MAX_VALUE;
+			int max = 0;
+			for (int load : slots) {
+				total += load;
+				min = Math.min(min, load);
+				max = Math.max(max, load);
+			}
+			long periodSeconds = entry.getKey().getPeriodMillis() / 1000;
+			response.add(new SchedulerSlotLoadResponseDTO(
+					entry.getKey(),
+					periodSeconds,
+					periodSeconds / LOAD_SLOTS_PER_PERIOD,
+					total,
+					min,
+					max,
+					slots));
+		}
+		return response;
+	}
+
+	/**
+	 * stable offset of a task inside it's period, a multiple of the tick.
+	 * uses the splitmix64 finalizer so neighbouring IDs land far apart.
+	 * @param key - value to hash, usually the task ID.
+	 * @param periodMs - period of the task.
+	 * @param tickMs - resolution of the wheel.
+	 * @return offset in milliseconds, in [0, periodMs).
+	 */
+	static long phaseOffset(long key, long periodMs, long tickMs) {
+		long z = key + 0x9E3779B97F4A7C15L;
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		z = z ^ (z >>> 31);
+		return Math.floorMod(z, periodMs / tickMs) * tickMs;
+	}
+
+	/**
+	 * 64 bit polynomial hash of a phase key, phaseOffset spreads it's bits.
+	 */
+	static long hash(String phaseKey) {
+		long h = 1125899906842597L;
+		for (int i = 0; i < phaseKey.length(); i++) {
+			h = 31 * h + phaseKey.charAt(i);
+		}
+		return h;
+	}
+
+	/**
+	 * @return the first time after nowMs where (time - phase) is a multiple of the period.
+	 */
+	static long nextFireTime(long nowMs, long periodMs, long phaseMs) {
+		return Math.floorDiv(nowMs - phaseMs, periodMs) * periodMs + phaseMs + periodMs;
+	}
+
+
+	private static final class ScheduledTask {
+		private final long taskId;
+		private final TaskRecurrence recurrence;
+		private final String phaseKey;
+		private final long phase;
+		private long nextFireTime;
+
+		private ScheduledTask(long taskId, TaskRecurrence recurrence, String phaseKey, long phase) {
+			this.taskId = taskId;
+			this.recurrence = recurrence;
+			this.phaseKey = phaseKey;
+			this.phase = phase;
+		}
+	}
+}
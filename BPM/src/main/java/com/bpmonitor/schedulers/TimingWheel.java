@@ -0,0 +1,172 @@
+package com.bpmonitor.schedulers;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Hierarchical timing wheel.
+ *
+ * Level 0 has one bucket per tick, every level above it has buckets that span a full
+ * lap of the level below (e.g. seconds -> minutes -> hours -> days). An entry is kept
+ * in the lowest level that can still hold its deadline, and is cascaded down one level
+ * each time the clock reaches the bucket it sits in, until it expires from level 0.
+ *
+ * Adding an entry and expiring it are O(1), advancing the clock costs one bucket per
+ * level boundary crossed, no matter how many entries are pending.
+ *
+ * This class is not thread safe, callers must synchronize.
+ * @author joao7
+ *
+ * @param <T> - payload carried by each entry.
+ */
+public class TimingWheel<T> {
+
+	private final long tickMs; // resolution of the wheel
+	private final int[] wheelSizes; // number of buckets per level
+	private final long[] levelSpans; // ticks covered by one bucket of each level
+	private final List<List<List<Entry<T>>>> levels = new ArrayList<>();
+	private final List<Entry<T>> overflow = new ArrayList<>(); // deadlines beyond the top level
+
+	private long currentTick; // current time of the wheel, in ticks
+	private int size; // pending entries
+
+	/**
+	 * @param tickMs - resolution of the wheel in milliseconds.
+	 * @param startMs - time the wheel starts at.
+	 * @param wheelSizes - buckets per level, lowest level first.
+	 */
+	public TimingWheel(long tickMs, long startMs, int... wheelSizes) {
+		if (tickMs <= 0 || wheelSizes.length == 0) {
+			throw new IllegalArgumentException("A timing wheel needs a positive tick and at least one level");
+		}
+		this.tickMs = tickMs;
+		this.wheelSizes = wheelSizes.clone();
+		this.levelSpans = new long[wheelSizes.length];
+
+		long span = 1;
+		for (int level = 0; level < wheelSizes.length; level++) {
+			levelSpans[level] = span;
+			span *= wheelSizes[level];
+
+			List<List<Entry<T>>> buckets = new ArrayList<>(wheelSizes[level]);
+			for (int b = 0; b < wheelSizes[level]; b++) {
+				buckets.add(new ArrayList<>());
+			}
+			levels.add(buckets);
+		}
+		this.currentTick = startMs / tickMs;
+	}
+
+	/**
+	 * adds an entry to the wheel.
+	 * @param deadlineMs - when the entry should expire.
+	 * @param payload - what to hand back when it expires.
+	 * @return false if the deadline is already due, in which case nothing is stored.
+	 */
+	public boolean add(long deadlineMs, T payload) {
+		// rounded up so an entry never fires before its deadline
+		return add(new Entry<>((deadlineMs + tickMs - 1) / tickMs, payload));
+	}
+
+	/**
+	 * moves the clock forward to nowMs, handing every entry that expires on the way to the consumer.
+	 * @param nowMs - current time.
+	 * @param expired - receives the payload of each expired entry.
+	 */
+	public void advanceTo(long nowMs, Consumer<T> expired) {
+		long targetTick = nowMs / tickMs;
+		int top = wheelSizes.length - 1;
+
+		while (currentTick < targetTick) {
+			currentTick++;
+
+			// far deadlines get another chance once per lap of the top level
+			if (currentTick % (levelSpans[top] * wheelSizes[top]) == 0 && !overflow.isEmpty()) {
+				List<Entry<T>> pending = new ArrayList<>(overflow);
+				overflow.clear();
+				size -= pending.size();
+				reinsert(pending, expired);
+			}
+
+			// cascade from the top down, a bucket is only reached when its span starts
+			for (int level = top; level >= 1; level--) {
+				if (currentTick % levelSpans[level] == 0) {
+					List<Entry<T>> bucket = bucketAt(level, currentTick);
+					if (!bucket.isEmpty()) {
+						List<Entry<T>> pending = new ArrayList<>(bucket);
+						bucket.clear();
+						size -= pending.size();
+						reinsert(pending, expired);
+					}
+				}
+			}
+
+			// everything left in the level 0 bucket is due now
+			List<Entry<T>> due = bucketAt(0, currentTick);
+			if (!due.isEmpty()) {
+				List<Entry<T>> pending = new ArrayList<>(due);
+				due.clear();
+				size -= pending.size();
+				for (Entry<T> entry : pending) {
+					expired.accept(entry.payload);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return number of entries waiting in the wheel.
+	 */
+	public int size() {
+		return size;
+	}
+
+	public long getTickMs() {
+		return tickMs;
+	}
+
+	private boolean add(Entry<T> entry) {
+		if (entry.deadlineTick <= currentTick) {
+			return false;
+		}
+
+		for (int level = 0; level < wheelSizes.length; level++) {
+			long slotNow = currentTick / levelSpans[level];
+			long slotDue = entry.deadlineTick / levelSpans[level];
+			if (slotDue - slotNow < wheelSizes[level]) {
+				bucketAt(level, entry.deadlineTick).add(entry);
+				size++;
+				return true;
+			}
+		}
+
+		overflow.add(entry);
+		size++;
+		return true;
+	}
+
+	private void reinsert(List<Entry<T>> entries, Consumer<T> expired) {
+		for (Entry<T> entry : entries) {
+			if (!add(entry)) {
+				expired.accept(entry.payload);
+			}
+		}
+	}
+
+	private List<Entry<T>> bucketAt(int level, long tick) {
+		int index = (int) ((tick / levelSpans[level]) % wheelSizes[level]);
+		return levels.get(level).get(index);
+	}
+
+
+	private static final class Entry<T> {
+		private final long deadlineTick;
+		private final T payload;
+
+		private Entry(long deadlineTick, T payload) {
+			this.deadlineTick = deadlineTick;
+			this.payload = payload;
+		}
+	}
+}
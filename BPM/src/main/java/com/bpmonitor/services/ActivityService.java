@@ -2,10 +2,15 @@ package com.bpmonitor.services;
 
 
 import com.bpmonitor.DTOs.CreateActivityDTO;
+import com.bpmonitor.DTOs.response.ActivityResponseDTO;
 import com.bpmonitor.customExceptions.EntityNotFoundException;
 import com.bpmonitor.enums.OperationalStatus;
 import com.bpmonitor.enums.TaskStatus;
+import com.bpmonitor.hierarchy.HierarchyGraph;
 import com.bpmonitor.models.*;
+import com.bpmonitor.paging.KeysetPage;
+import com.bpmonitor.paging.KeysetPager;
+import com.bpmonitor.paging.KeysetQuery;
 import com.bpmonitor.repositories.ActivityRepository;
 import com.bpmonitor.repositories.InterfaceRepository;
 import com.bpmonitor.repositories.SubprocessRepository;
@@ -38,6 +43,8 @@ public class ActivityService {
     private final SubprocessRepository subprocessRepo;
     private final TaskRepository taskRepo;
     private final ActivityWriteService actWriteService;
+    private final HierarchyGraph hierarchyGraph;
+    private final KeysetPager pager;
     
     /** built in repo methods from springboot
 	 * 
@@ -60,11 +67,15 @@ public class ActivityService {
        public ActivityService(ActivityRepository activityRepository,                            
                            SubprocessRepository subprocessRepo,
                            TaskRepository taskRepo,
-                           ActivityWriteService actWriteService) {
+                           ActivityWriteService actWriteService,
+                           HierarchyGraph hierarchyGraph,
+                           KeysetPager pager) {
         this.activityRepository = activityRepository;   
         this.subprocessRepo = subprocessRepo;
         this.taskRepo = taskRepo;
         this.actWriteService = actWriteService;
+        this.hierarchyGraph = hierarchyGraph;
+        this.pager = pager;
     }
 
        
@@ -89,7 +100,7 @@ public class ActivityService {
 	    	    }
 	    	 
 	    	for( Task t : existingTasks) { // for each task of this activity
-	    		if(t.getTaskStatus().equals(TaskStatus.FAIL)) {
+	    		if(t.getTaskStatus() != null && t.getTaskStatus().isFailure()) {
 	    			counterOfFails++;
 	    		}
 	    	}
@@ -152,6 +163,7 @@ public class ActivityService {
           // existing.setRelationshipActivitySystems(newActivityData.getRelationshipActivitySystems());
            existing.setSubprocess(newActivityData.getSubprocess());
            
+           hierarchyGraph.recordStructureChange();
            return activityRepository.save(existing);
        }
        
@@ -170,6 +182,26 @@ public class ActivityService {
     		throw e;
     	}
     }
+
+    /**
+     * fetches one page of activities by id, without their tasks.
+     * @param status - only activities with this status, null for all.
+     * @param subprocessId - only the activities of this subprocess, null for all.
+     * @param cursor - X-Next-Cursor of the previous page, null for the first one.
+     * @param limit - activities asked for, bounded by bpm.paging.max-limit.
+     * @return the page and the cursor of the next one.
+     */
+    @Transactional(readOnly = true)
+    public KeysetPage<ActivityResponseDTO> findActivitiesPage(OperationalStatus status, Long subprocessId, String cursor, Integer limit) {
+    	KeysetQuery<Activity> query = KeysetQuery.of(Activity.class, "a", "activityID", Activity::getActivityID)
+    			.where("a.activityStatus = :status", "status", status)
+    			.where("a.subprocess.subprocessID = :subprocessId", "subprocessId", subprocessId);
+    	return pager.fetch(query, cursor, limit).map(activity -> new ActivityResponseDTO(
+    			activity.getActivityID(),
+    			activity.getActivityName(),
+    			activity.getActivityDescription(),
+    			activity.getActivityStatus()));
+    }
     
     /**
      * deletes all activities tied to a subprocess.
@@ -186,6 +218,7 @@ public class ActivityService {
     	 
     	try {
     	this.activityRepository.deleteActivityBySubprocess(subprocess);
+    	hierarchyGraph.recordStructureChange();
     	return true;
     	}catch(RuntimeException e) {
     		log.error("something went wrong with deleteBySubprocess {}: {}", subprocess, e.getMessage(), e);
@@ -285,6 +318,7 @@ public class ActivityService {
     	 Optional<Subprocess> fetchSubprocess = subprocessRepo.findById(subprocessID);
     	    if (fetchSubprocess.isPresent()) {
     	        activityRepository.deleteActivityBySubprocess(fetchSubprocess.get());
+    	        hierarchyGraph.recordStructureChange();
     	        return true;
     	    } else {
     	        log.warn("Subprocess not found: {}", subprocessID);
@@ -316,6 +350,7 @@ public class ActivityService {
      */
     @Transactional
     public Activity saveActivity(Activity act) {
+        hierarchyGraph.recordStructureChange();
         return activityRepository.save(act);
     }
     
@@ -328,6 +363,7 @@ public class ActivityService {
     	if(id <= 0) { throw new IllegalArgumentException("Invalid ID: ID must be positive.");}
     	
     	activityRepository.deleteById(id); // it's ignored if it's not found so i just return true anyway.
+    	hierarchyGraph.recordStructureChange();
     	return true;
     }
     
@@ -400,6 +436,7 @@ public class ActivityService {
 		    activity.setActivityDescription(dto.getDescription());
 		    activity.setActivityStatus(OperationalStatus.UNRUN);
 		    Activity saved = activityRepository.save(activity); // save first to get ID
+		    hierarchyGraph.recordStructureChange();
 		
 		    return saved;
 	}
@@ -0,0 +1,75 @@
+package com.bpmonitor.services;
+
+import java.util.ArrayDeque;
+import java.util.List;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Hands out ids from GLOBAL_ID_SEQ in blocks, so rows written in batches don't cost
+ * a sequence round trip each.
+ *
+ * The sequence itself is left as is (INCREMENT BY 1, it's shared with every JPA entity),
+ * a whole block is fetched in a single query instead.
+ * Ids fetched and not used before shutdown are simply lost, sequences have gaps anyway.
+ * @author joao7
+ *
+ */
+@Slf4j
+@Component
+public class GlobalIdAllocator {
+
+	private static final String NEXT_IDS_SQL =
+			"SELECT GLOBAL_ID_SEQ.NEXTVAL FROM DUAL CONNECT BY LEVEL <= ?";
+
+	private final JdbcTemplate jdbcTemplate;
+	private final int blockSize;
+	private final ArrayDeque<Long> pool = new ArrayDeque<>();
+
+	public GlobalIdAllocator(
+			JdbcTemplate jdbcTemplate,
+			@Value("${bpm.persistence.id-block-size:500}") int blockSize) {
+		this.jdbcTemplate = jdbcTemplate;
+		this.blockSize = Math.max(1, blockSize);
+	}
+
+
+	/**
+	 * takes the next id from the pool, refilling it from the sequence when empty.
+	 * @return a fresh id.
+	 */
+	public synchronized long nextId() {
+		if (pool.isEmpty()) {
+			refill(blockSize);
+		}
+		return pool.poll();
+	}
+
+	/**
+	 * makes sure at least count ids are pooled, so a whole batch costs at most one refill.
+	 * @param count - how many ids are about to be taken.
+	 */
+	public synchronized void reserve(int count) {
+		if (pool.size() < count) {
+			refill(Math.max(blockSize, count - pool.size()));
+		}
+	}
+
+	/**
+	 * @return how many ids are pooled right now.
+	 */
+	public synchronized int getPooledCount() {
+		return pool.size();
+	}
+
+
+	private void refill(int count) {
+		List<Long> ids = jdbcTemplate.queryForList(NEXT_IDS_SQL, Long.class, count);
+		pool.addAll(ids);
+		log.debug("Fetched {} ids from GLOBAL_ID_SEQ, {} pooled", ids.size(), pool.size());
+	}
+}
@@ -17,9 +17,14 @@ import com.bpmonitor.DTOs.response.TaskResponseDTO;
 import com.bpmonitor.customExceptions.EntityNotFoundException;
 import com.bpmonitor.enums.OperationalStatus;
 import com.bpmonitor.enums.TaskStatus;
+import com.bpmonitor.hierarchy.HierarchyGraph;
+import com.bpmonitor.hierarchy.HierarchySnapshot;
 import com.bpmonitor.models.Interface;
 import com.bpmonitor.models.System;
 import com.bpmonitor.models.Task;
+import com.bpmonitor.paging.KeysetPage;
+import com.bpmonitor.paging.KeysetPager;
+import com.bpmonitor.paging.KeysetQuery;
 import com.bpmonitor.repositories.ActivityRepository;
 import com.bpmonitor.repositories.InterfaceRepository;
 import com.bpmonitor.repositories.SystemRepository;
@@ -60,17 +65,23 @@ public class InterfaceService {
     private final SystemRepository sysRepo;
     private final ActivityRepository actRepo;
     private final TaskRepository taskRepo;
+    private final HierarchyGraph hierarchyGraph; // what the tree endpoints read
+    private final KeysetPager pager;
     
     public InterfaceService(
     		InterfaceRepository intRepo,
     		SystemRepository sysRepo,
     		ActivityRepository actRepo,
-    		TaskRepository taskRepo) {
+    		TaskRepository taskRepo,
+    		HierarchyGraph hierarchyGraph,
+    		KeysetPager pager) {
     
     	this.interfaceRepository = intRepo;
     	this.sysRepo = sysRepo;
     	this.actRepo = actRepo;
     	this.taskRepo = taskRepo;
+    	this.hierarchyGraph = hierarchyGraph;
+    	this.pager = pager;
     	
     }
     
@@ -114,7 +125,7 @@ public class InterfaceService {
         existing.setEdprInterfaceName(newInterfaceData.getInterfaceName());
         
     
-        
+        hierarchyGraph.recordStructureChange();
         return interfaceRepository.save(existing);
     }
     
@@ -148,6 +159,7 @@ public class InterfaceService {
         // Check if there are any interfaces to delete
         if (!interfacesToDelete.isEmpty()) {
             interfaceRepository.deleteAll(interfacesToDelete); // Deletes the interfaces from the database
+            hierarchyGraph.recordStructureChange();
             log.info("Deleted {} interfaces related to system with ID: {}", interfacesToDelete.size(), system.getSystemID());
         } else {
             log.info("No interfaces found related to system with ID: {}", system.getSystemID());
@@ -183,7 +195,9 @@ public class InterfaceService {
             edprInterface.setDestination(destination);
             
 
-            return this.interfaceRepository.save(edprInterface);
+            Interface saved = this.interfaceRepository.save(edprInterface);
+            hierarchyGraph.recordStructureChange();
+            return saved;
     	
     	}catch(RuntimeException e){
     		log.error("something went wrong with saveInterface method {}", e.getMessage());
@@ -248,6 +262,7 @@ public class InterfaceService {
     	if(id <= 0) {  throw new IllegalArgumentException("Invalid ID: ID must be positive.");}
     	try{
     	 this.interfaceRepository.deleteById(id);
+    	 hierarchyGraph.recordStructureChange();
     	 return true;
     	}catch(RuntimeException e) {
     		log.error("something went wrong with"
@@ -263,6 +278,30 @@ public class InterfaceService {
 		return interfaces;
 		}
 
+     /**
+      * Fetches one page of EDPRInterfaces by id, without their tasks.
+      * @param status - only interfaces with this status, null for all.
+      * @param systemId - only the interfaces coming from or going to this system, null for all.
+      * @param cursor - X-Next-Cursor of the previous page, null for the first one.
+      * @param limit - interfaces asked for, bounded by bpm.paging.max-limit.
+      * @return the page and the cursor of the next one.
+      */
+     @Transactional(readOnly = true)
+     public KeysetPage<InterfaceResponseDTO> findInterfacesPage(OperationalStatus status, Long systemId, String cursor, Integer limit) {
+    	 KeysetQuery<Interface> query = KeysetQuery.of(Interface.class, "i", "InterfaceID", Interface::getInterfaceID)
+    			 .where("i.currentStatus = :status", "status", status)
+    			 .where("(i.origin.SystemID = :systemId OR i.destination.SystemID = :systemId)", "systemId", systemId);
+    	 return pager.fetch(query, cursor, limit).map(edprInterface -> new InterfaceResponseDTO(
+    			 edprInterface.getInterfaceID(),
+    			 edprInterface.getEdprInterfaceName(),
+    			 edprInterface.getEdprInterfaceGoal(),
+    			 edprInterface.getEdprInterfaceTechnicalData(),
+    			 edprInterface.getOrigin() != null ? edprInterface.getOrigin().getSystemID() : null,
+    			 edprInterface.getDestination() != null ? edprInterface.getDestination().getSystemID() : null,
+    			 edprInterface.getCurrentStatus(),
+    			 null)); // the tasks come from the trees
+     }
+
      
      /**
 	     * Fetches an EDPRInterface by it's id.
@@ -312,31 +351,30 @@ public class InterfaceService {
 	    
 	    
      	/**
-	     * Fetches all EDPRInterfaces from the DB, in the form 
+	     * Fetches all EDPRInterfaces from the hierarchy graph, in the form 
 	     * of a list of EDPRInterfaceTreeNodeDTO's. 
 	     * @return List of ProcessTreeNodeResponseDTO for each process in the DB.
 	     */
-	    @Transactional(readOnly = true)
 	    public List<InterfaceTreeNodeDTO> GetEDPRInterfaceTreeNodes(){
 	    	
 	    
 	    	try {
-	    		 List<Interface> interfaces = this.interfaceRepository.findAll();
+	    		 HierarchySnapshot hierarchy = this.hierarchyGraph.getSnapshot();
 	    	        
 	    	     
-	    		 List<InterfaceTreeNodeDTO> EDPRInterfaceTreeNodes = interfaces.stream()
+	    		 List<InterfaceTreeNodeDTO> EDPRInterfaceTreeNodes = hierarchy.getInterfaces().values().stream()
 	    		            .map(EDPRinterface -> new InterfaceTreeNodeDTO(
-	    		            		EDPRinterface.getInterfaceID(),
-	    		            		EDPRinterface.getEdprInterfaceName(),
-	    		            		EDPRinterface.getOrigin().getSystemID(),
-	    		            		EDPRinterface.getDestination().getSystemID(),
-	    		            		EDPRinterface.getCurrentStatus()
+	    		            		EDPRinterface.getId(),
+	    		            		EDPRinterface.getName(),
+	    		            		EDPRinterface.getOriginId(),
+	    		            		EDPRinterface.getDestinationId(),
+	    		            		EDPRinterface.getStatus()
 	    		            ))
 	    		            .collect(Collectors.toList());
 	    	        
 	    	        return EDPRInterfaceTreeNodes;
 	    	}catch(RuntimeException e) {
-	    		log.error("something went wrong at GetSystemTreeNodes method : {}", e.getMessage());
+	    		log.error("something went wrong at GetEDPRInterfaceTreeNodes method : {}", e.getMessage());
 	    		throw e;
 	    	}
 	   
@@ -357,7 +395,7 @@ public class InterfaceService {
         }
 
         long failCount = existingTasks.stream()
-                .filter(task -> TaskStatus.FAIL.equals(task.getTaskStatus()))
+                .filter(task -> task.getTaskStatus() != null && task.getTaskStatus().isFailure())
                 .count();
 
         OperationalStatus newStatus;
@@ -369,14 +407,19 @@ public class InterfaceService {
             newStatus = OperationalStatus.DOWN;
         }
 
-        updateSystemStatus(id, newStatus);		    
+        updateInterfaceStatus(id, newStatus);		    
     		
     }
 
 
 
+    /**
+     * updates only an interface's status.
+     * @param id - id of the interface.
+     * @param currentStatus - can be UP, DOWN, COMPROMISED.
+     */
     @Transactional
-    private void updateSystemStatus(Long id, OperationalStatus currentStatus) {
+    public void updateInterfaceStatus(Long id, OperationalStatus currentStatus) {
     	 Optional<Interface> optSystem = interfaceRepository.findById(id);
 
     	    if (optSystem.isPresent()) {
@@ -1,6 +1,8 @@
 package com.bpmonitor.services;
 
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
 import java.util.stream.Collectors;
@@ -14,8 +16,14 @@ import com.bpmonitor.DTOs.response.SubprocessResponseDTO;
 import com.bpmonitor.DTOs.response.SubprocessTreeNodeResponseDTO;
 import com.bpmonitor.customExceptions.EntityNotFoundException;
 import com.bpmonitor.enums.OperationalStatus;
+import com.bpmonitor.hierarchy.HierarchyGraph;
+import com.bpmonitor.hierarchy.HierarchySnapshot;
+import com.bpmonitor.hierarchy.HierarchySnapshot.ResultNode;
 import com.bpmonitor.models.Process;
 import com.bpmonitor.models.Subprocess;
+import com.bpmonitor.paging.KeysetPage;
+import com.bpmonitor.paging.KeysetPager;
+import com.bpmonitor.paging.KeysetQuery;
 import com.bpmonitor.repositories.ProcessRepository;
 import com.bpmonitor.repositories.SubprocessRepository;
 
@@ -28,12 +36,18 @@ public class ProcessService {
 	
 	private final ProcessRepository processRepository; // repo for  - process table
 	private final SubprocessRepository subprocessRepo; // repo for - subprocess table
+	private final HierarchyGraph hierarchyGraph; // what the tree endpoints read
+	private final KeysetPager pager;
     
     public ProcessService(
     		ProcessRepository ProcessRepo,
-    		SubprocessRepository subprocessRepo) {
+    		SubprocessRepository subprocessRepo,
+    		HierarchyGraph hierarchyGraph,
+    		KeysetPager pager) {
     	this.processRepository = ProcessRepo;
     	this.subprocessRepo = subprocessRepo;  	
+    	this.hierarchyGraph = hierarchyGraph;
+    	this.pager = pager;
     }
     
     
@@ -65,6 +79,7 @@ public class ProcessService {
     	
     	
     	processRepository.save(process);
+    	hierarchyGraph.recordStructureChange();
     	return true;
     }
     
@@ -110,6 +125,23 @@ public class ProcessService {
     	
  
     
+    /**
+     * updates only a process' status.
+     * @param id - id of the process.
+     * @param newStatus - can be UP, DOWN, COMPROMISED.
+     */
+    @Transactional
+    public void updateProcessStatus(Long id, OperationalStatus newStatus) {
+    	Optional<Process> optProcess = processRepository.findById(id);
+    	if (!optProcess.isPresent()) {
+    		throw new EntityNotFoundException("Process not found with ID: " + id);
+    	}
+    	Process process = optProcess.get();
+    	process.setProcessStatus(newStatus);
+    	processRepository.save(process);
+    }
+
+
     /**
      * Saves a given process into the Database.
      * @param process - object to save.
@@ -124,6 +156,7 @@ public class ProcessService {
     				);
     		
     		this.processRepository.save(process);
+    		hierarchyGraph.recordStructureChange();
     		
     		ProcessResponseDTO response = new ProcessResponseDTO(
     				process.getProcessID(),
@@ -141,37 +174,42 @@ public class ProcessService {
     }
     
     /**
-     * Fetches all Processes from the DB, with their subprocesses, and activities. 
+     * Fetches all Processes from the hierarchy graph, with their subprocesses, and activities. 
      * Does not return tasks for the acitivies, and returns all the 3 mentioned objects,
      * in the form of a ProcessTreeNodeResponseDTO. 
      * @return List of ProcessTreeNodeResponseDTO for each process in the DB.
      */
-    @Transactional(readOnly = true)
     public List<ProcessTreeNodeResponseDTO> GetProcessTreeNodes(){
+    	return GetProcessTreeNodes(this.hierarchyGraph.getSnapshot());
+    }
+
+    /**
+     * Same as GetProcessTreeNodes(), from a given version of the hierarchy.
+     * @param hierarchy - snapshot of the hierarchy graph to map.
+     * @return List of ProcessTreeNodeResponseDTO for each process in the snapshot.
+     */
+    public List<ProcessTreeNodeResponseDTO> GetProcessTreeNodes(HierarchySnapshot hierarchy){
     	
     	/**
-    	 * Encontro todos os processos na DB, mapeio os mesmos e os seus subprocess e activities
-    	 * para nodes dentro de cada process tree e envio.
+    	 * Leio todos os processos do grafo em memoria, mapeio os mesmos e os seus subprocess e activities
+    	 * para nodes dentro de cada process tree e envio. Nada vai a DB.
 		 */
     	try {
-    		 List<Process> processes = this.processRepository.findAll();
-    	        
-    	     
-    		 List<ProcessTreeNodeResponseDTO> processTreeNodes = processes.stream()
+    		 List<ProcessTreeNodeResponseDTO> processTreeNodes = hierarchy.getProcesses().values().stream()
     		            .map(process -> new ProcessTreeNodeResponseDTO(
-    		                process.getProcessID(),
-    		                process.getProcessName(),
-    		                process.getProcessStatus(),
-    		                process.getSubprocesses().stream()
+    		                process.getId(),
+    		                process.getName(),
+    		                process.getStatus(),
+    		                hierarchy.subprocessesOf(process).stream()
     		                    .map(subprocess -> new ProcessTreeNodeResponseDTO(
-    		                        subprocess.getSubprocessID(),
-    		                        subprocess.getSubprocessName(),
-    		                        subprocess.getSubprocessStatus(),
-    		                        subprocess.getActivities().stream()
+    		                        subprocess.getId(),
+    		                        subprocess.getName(),
+    		                        subprocess.getStatus(),
+    		                        hierarchy.activitiesOf(subprocess).stream()
     		                            .map(activity -> new ProcessTreeNodeResponseDTO(
-    		                                activity.getActivityID(),
-    		                                activity.getActivityName(),
-    		                                activity.getActivityStatus(),
+    		                                activity.getId(),
+    		                                activity.getName(),
+    		                                activity.getStatus(),
     		                                null  // I don't show tasks on the main table.
     		                            ))
     		                            .collect(Collectors.toList())
@@ -182,53 +220,59 @@ public class ProcessService {
     	        
     	        return processTreeNodes;
     	}catch(RuntimeException e) {
-    		log.error("something went wrong at findAllProcesses method : {}", e.getMessage());
+    		log.error("something went wrong at GetProcessTreeNodes method : {}", e.getMessage());
     		throw e;
     	}
    
     }
   
     /**
-     * Fetches all Processes from the DB, with their subprocesses, and activities. 
+     * Fetches all Processes from the hierarchy graph, with their subprocesses, and activities. 
      * Now returns tasks for the acitivies, and returns all the 3 mentioned objects,
      * in the form of a SubprocessTreeNodeResponseDTO. 
+     * Each task brings it's latest results (bpm.hierarchy.results-per-task), oldest first.
      * @return List of ProcessTreeNodeResponseDTO for each process in the DB.
      */
-    @Transactional(readOnly = true)
     public List<SubprocessTreeNodeResponseDTO> GetSubprocessTreeNodes(){
+    	return GetSubprocessTreeNodes(this.hierarchyGraph.getSnapshot());
+    }
+
+    /**
+     * Same as GetSubprocessTreeNodes(), from a given version of the hierarchy.
+     * @param hierarchy - snapshot of the hierarchy graph to map.
+     * @return List of SubprocessTreeNodeResponseDTO for each process in the snapshot.
+     */
+    public List<SubprocessTreeNodeResponseDTO> GetSubprocessTreeNodes(HierarchySnapshot hierarchy){
     	
     	/**
-    	 * Encontro todos os processos na DB, mapeio os mesmos e os seus subprocess e activities
-    	 * para nodes dentro de cada process tree e envio.
+    	 * Leio todos os processos do grafo em memoria, mapeio os mesmos e os seus subprocess e activities
+    	 * para nodes dentro de cada process tree e envio. Nada vai a DB.
 		 */
     	try {
-    		 List<Process> processes = this.processRepository.findAll();
-    	        
-    	     
-    		 List<SubprocessTreeNodeResponseDTO> processTreeNodes = processes.stream()
+    		 List<SubprocessTreeNodeResponseDTO> processTreeNodes = hierarchy.getProcesses().values().stream()
     		            .map(process -> new SubprocessTreeNodeResponseDTO(
-    		                process.getProcessID(),
-    		                process.getProcessName(),
-    		                process.getProcessStatus(), // dosn't care for task Status
-    		                process.getSubprocesses().stream()
+    		                process.getId(),
+    		                process.getName(),
+    		                process.getStatus(), // dosn't care for task Status
+    		                hierarchy.subprocessesOf(process).stream()
     		                    .map(subprocess -> new SubprocessTreeNodeResponseDTO(
-    		                        subprocess.getSubprocessID(),
-    		                        subprocess.getSubprocessName(),
-    		                        subprocess.getSubprocessStatus(),// dosn't care for task Status
-    		                        subprocess.getActivities().stream()
+    		                        subprocess.getId(),
+    		                        subprocess.getName(),
+    		                        subprocess.getStatus(),// dosn't care for task Status
+    		                        hierarchy.activitiesOf(subprocess).stream()
     		                            .map(activity -> new SubprocessTreeNodeResponseDTO(
-    		                                activity.getActivityID(),
-    		                                activity.getActivityName(),
-    		                                activity.getActivityStatus(),// dosn't care for task Status
-    		                                activity.getTasks().stream()
+    		                                activity.getId(),
+    		                                activity.getName(),
+    		                                activity.getStatus(),// dosn't care for task Status
+    		                                hierarchy.tasksOf(activity).stream()
     		                                .map(task -> new SubprocessTreeNodeResponseDTO(
-    		                                    task.getTaskID(),
-    		                                    task.getTaskName(),
-    		                                    task.getTaskStatus(),// dosn't care for operational Status
-    		                                    task.getResults().stream()
+    		                                    task.getId(),
+    		                                    task.getName(),
+    		                                    task.getStatus(),// dosn't care for operational Status
+    		                                    oldestFirst(task.getResults()).stream()
     		                                        .map(result -> new SubprocessTreeNodeResponseDTO(
-    		                                            result.getTaskValidationResultID(),
-    		                                            result.getTask().getTaskName(), // or date/time/whatever makes sense
+    		                                            result.getId(),
+    		                                            task.getName(), // or date/time/whatever makes sense
     		                                            result.getStatus(), // dosn't care for task Status
     		                                            null
     		                                        ))
@@ -244,12 +288,21 @@ public class ProcessService {
     	        
     	        return processTreeNodes;
     	}catch(RuntimeException e) {
-    		log.error("something went wrong at findAllProcesses method : {}", e.getMessage());
+    		log.error("something went wrong at GetSubprocessTreeNodes method : {}", e.getMessage());
     		throw e;
     	}
    
     }
 
+    /**
+     * the graph keeps a task's results newest first, the tree always showed them in the order they ran.
+     */
+    private static List<ResultNode> oldestFirst(List<ResultNode> results) {
+    	List<ResultNode> ordered = new ArrayList<>(results);
+    	Collections.reverse(ordered);
+    	return ordered;
+    }
+
     /**
      * Fetches all Processes from the DB. 
      * @return List of Processes with all records in the DB.
@@ -264,6 +317,24 @@ public class ProcessService {
     	}
     }
 
+    /**
+     * Fetches one page of Processes by id, without their subprocesses.
+     * @param status - only processes with this status, null for all.
+     * @param cursor - X-Next-Cursor of the previous page, null for the first one.
+     * @param limit - processes asked for, bounded by bpm.paging.max-limit.
+     * @return the page and the cursor of the next one.
+     */
+    @Transactional(readOnly = true)
+    public KeysetPage<ProcessResponseDTO> findProcessesPage(OperationalStatus status, String cursor, Integer limit) {
+    	KeysetQuery<Process> query = KeysetQuery.of(Process.class, "p", "processID", Process::getProcessID)
+    			.where("p.processStatus = :status", "status", status);
+    	return pager.fetch(query, cursor, limit).map(process -> new ProcessResponseDTO(
+    			process.getProcessID(),
+    			process.getProcessName(),
+    			process.getProcessStatus(),
+    			null)); // the subprocesses come from the trees
+    }
+
     	
     /**
      * Fetches a Process by it's id.
@@ -345,6 +416,7 @@ public class ProcessService {
     	if(id <= 0) {  throw new IllegalArgumentException("Invalid ID: ID must be positive.");}
     	try{
     	 this.processRepository.deleteById(id);
+    	 hierarchyGraph.recordStructureChange();
     	 return true;
     	}catch(RuntimeException e) {
     		log.error("something went wrong with"
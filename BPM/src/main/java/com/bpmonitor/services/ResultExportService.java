@@ -0,0 +1,451 @@
+package com.bpmonitor.services;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import com.bpmonitor.DTOs.response.ResultExportMetricsResponseDTO;
+import com.bpmonitor.enums.ExportFormat;
+import com.bpmonitor.enums.RollupLevel;
+import com.bpmonitor.enums.TaskStatus;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.util.MinimalPrettyPrinter;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.zaxxer.hikari.HikariDataSource;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Streams task results and errors out as NDJSON or CSV, straight from a forward-only JDBC cursor.
+ *
+ * Rows are written as the driver hands them over, fetch-size at a time, and the response is flushed every
+ * flush-rows rows, so memory stays the same for a thousand rows or for millions and the client starts
+ * receiving right away. No entity is built, no lazy association is touched.
+ * Rows are read in DATE_OF_EXECUTION order through it's index, optionally narrowed to a status and to
+ * the tasks under one node (task, activity, subprocess, process, system or interface).
+ *
+ * Each export holds a connection for as long as it runs, so exports get a pool of their own (max-concurrent
+ * connections, opened on demand) and never take one from the result writer, the heartbeat or the API.
+ * Only max-concurrent run at once, the rest are refused. The permit is taken when the export is asked for,
+ * so a refusal is still a 503, and given back when the body ends, or by the controller if the request completes
+ * without the body ever running (async timeout, client gone, no thread for it).
+ * Workloads aren't exported, they can carry credentials. CSV cells that a spreadsheet would take for a formula
+ * are prefixed with a quote.
+ * @author joao7
+ *
+ */
+@Slf4j
+@Service
+public class ResultExportService {
+
+	private static final String RESULTS_SELECT =
+			"SELECT r.TASK_RESULT_ID, r.TASK_ID, t.TASK_NAME, t.TASK_TYPE, r.RESULT, r.DATE_OF_EXECUTION, r.ELAPSED_MS, "
+			+ "r.TASK_RESULT_DESCRIPTION "
+			+ "FROM TASK_RESULT r JOIN CONTROL_TASKS t ON t.TASK_ID = r.TASK_ID";
+
+	private static final String ERRORS_SELECT =
+			"SELECT e.TASK_ERROR_ID, e.TASK_RESULT_ID, r.TASK_ID, t.TASK_NAME, t.TASK_TYPE, r.RESULT, e.DATE_OF_EXECUTION, "
+			+ "e.DESCRIPTION "
+			+ "FROM TASK_ERROR e JOIN TASK_RESULT r ON r.TASK_RESULT_ID = e.TASK_RESULT_ID "
+			+ "JOIN CONTROL_TASKS t ON t.TASK_ID = r.TASK_ID";
+
+	// every column is read by position, a Long, a String or a timestamp
+	private static final Column[] RESULT_COLUMNS = {
+			Column.number("resultId"), Column.number("taskId"), Column.text("taskName"), Column.text("taskType"),
+			Column.text("status"), Column.time("timestamp"), Column.number("elapsedMs"), Column.text("description") };
+
+	private static final Column[] ERROR_COLUMNS = {
+			Column.number("errorId"), Column.number("resultId"), Column.number("taskId"), Column.text("taskName"),
+			Column.text("taskType"), Column.text("status"), Column.time("timestamp"), Column.text("description") };
+
+	private final HikariDataSource exportPool;
+	private final JdbcTemplate exportTemplate; // a template of it's own, for the fetch size
+	private final ObjectMapper objectMapper;
+	private final int fetchSize;
+	private final int flushRows;
+	private final int maxConcurrent;
+	private final Semaphore permits;
+
+	private final LongAdder exports = new LongAdder();
+	private final LongAdder rowsExported = new LongAdder();
+	private final LongAdder refused = new LongAdder();
+	private final LongAdder aborted = new LongAdder();
+	private final LongAdder failed = new LongAdder();
+	private volatile long lastExportRows;
+	private volatile long lastExportMillis;
+	private volatile LocalDateTime lastExportAt;
+
+	public ResultExportService(
+			DataSourceProperties dataSourceProperties,
+			ObjectMapper objectMapper,
+			@Value("${bpm.export.fetch-size:1000}") int fetchSize,
+			@Value("${bpm.export.flush-rows:1000}") int flushRows,
+			@Value("${bpm.export.max-concurrent:2}") int maxConcurrent) {
+		this.fetchSize = Math.max(10, fetchSize);
+		this.flushRows = Math.max(1, flushRows);
+		this.maxConcurrent = Math.max(1, maxConcurrent);
+		this.permits = new Semaphore(this.maxConcurrent);
+		this.objectMapper = objectMapper;
+		this.exportPool = dataSourceProperties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+		this.exportPool.setPoolName("BPM-Export");
+		this.exportPool.setMaximumPoolSize(this.maxConcurrent);
+		this.exportPool.setMinimumIdle(0); // no connection is kept while nothing is exported
+		this.exportPool.setIdleTimeout(60_000);
+		this.exportPool.setLeakDetectionThreshold(0); // an export holds it's connection for as long as it streams
+		this.exportTemplate = new JdbcTemplate(exportPool);
+		this.exportTemplate.setFetchSize(this.fetchSize);
+	}
+
+	@PreDestroy
+	public void stop() {
+		exportPool.close();
+	}
+
+
+	/**
+	 * @param format - NDJSON or CSV.
+	 * @param from - first DATE_OF_EXECUTION, inclusive.
+	 * @param to - end, exclusive.
+	 * @param level - level of the node to narrow the export to, null for every task.
+	 * @param id - id of that node.
+	 * @param status - only results with this status, null for all.
+	 * @return the body that streams the results oldest first, null if max-concurrent exports are running.
+	 */
+	public ExportBody exportResults(ExportFormat format, LocalDateTime from, LocalDateTime to,
+			RollupLevel level, Long id, TaskStatus status) {
+		return export(RESULTS_SELECT, RESULT_COLUMNS, "r.DATE_OF_EXECUTION", "r.TASK_RESULT_ID", format, from, to, level, id, status);
+	}
+
+	/**
+	 * @param format - NDJSON or CSV.
+	 * @param from - first DATE_OF_EXECUTION of the errors, inclusive.
+	 * @param to - end, exclusive.
+	 * @param level - level of the node to narrow the export to, null for every task.
+	 * @param id - id of that node.
+	 * @param status - only errors of results with this status, null for all.
+	 * @return the body that streams the errors oldest first, null if max-concurrent exports are running.
+	 */
+	public ExportBody exportErrors(ExportFormat format, LocalDateTime from, LocalDateTime to,
+			RollupLevel level, Long id, TaskStatus status) {
+		return export(ERRORS_SELECT, ERROR_COLUMNS, "e.DATE_OF_EXECUTION", "e.TASK_ERROR_ID", format, from, to, level, id, status);
+	}
+
+	/**
+	 * @return how many exports run and how fast the last one went.
+	 */
+	public ResultExportMetricsResponseDTO getMetrics() {
+		long millis = lastExportMillis;
+		return new ResultExportMetricsResponseDTO(
+				maxConcurrent - permits.availablePermits(),
+				maxConcurrent,
+				fetchSize,
+				exports.sum(),
+				rowsExported.sum(),
+				refused.sum(),
+				aborted.sum(),
+				failed.sum(),
+				lastExportRows,
+				millis,
+				millis == 0 ? 0 : lastExportRows * 1000.0 / millis,
+				lastExportAt);
+	}
+
+
+	private ExportBody export(String select, Column[] columns, String timeColumn, String idColumn, ExportFormat format,
+			LocalDateTime from, LocalDateTime to, RollupLevel level, Long id, TaskStatus status) {
+		if (!permits.tryAcquire()) {
+			refused.increment();
+			return null;
+		}
+		List<Object> params = new ArrayList<>();
+		StringBuilder sql = new StringBuilder(select);
+		if (level == RollupLevel.SUBPROCESS || level == RollupLevel.PROCESS) {
+			sql.append(" JOIN ACTIVITY a ON a.ACTIVITY_ID = t.ACTIVITY_ID");
+			if (level == RollupLevel.PROCESS) {
+				sql.append(" JOIN SUBPROCESS s ON s.SUBPROCESS_ID = a.SUBPROCESS_ID");
+			}
+		}
+		sql.append(" WHERE ").append(timeColumn).append(" >= ? AND ").append(timeColumn).append(" < ?");
+		params.add(Timestamp.valueOf(from));
+		params.add(Timestamp.valueOf(to));
+		if (status != null) {
+			sql.append(" AND r.RESULT = ?");
+			params.add(status.name());
+		}
+		if (level != null) {
+			sql.append(" AND ").append(subtreeColumn(level)).append(" = ?");
+			params.add(id);
+		}
+		sql.append(" ORDER BY ").append(timeColumn).append(", ").append(idColumn);
+		String query = sql.toString();
+
+		return new ExportBody(permits, out -> {
+			long start = java.lang.System.nanoTime();
+			long[] rows = { 0 };
+			try {
+				RowWriter writer = format == ExportFormat.CSV ? new CsvWriter(out, columns) : new NdjsonWriter(objectMapper, out, columns);
+				Object[] values = new Object[columns.length];
+				exportTemplate.query(query, (ResultSet rs) -> {
+					for (int i = 0; i < columns.length; i++) {
+						values[i] = columns[i].read(rs, i + 1);
+					}
+					try {
+						writer.write(values);
+						if (++rows[0] % flushRows == 0) {
+							writer.flush(); // the client sees progress, nothing piles up server side
+						}
+					} catch (IOException e) {
+						throw new UncheckedIOException(e); // stops reading, the cursor and connection are released
+					}
+				}, params.toArray());
+				writer.finish();
+				exports.increment();
+				lastExportRows = rows[0];
+				lastExportMillis = (java.lang.System.nanoTime() - start) / 1_000_000;
+				lastExportAt = LocalDateTime.now();
+				log.info("Exported {} rows as {} in {} ms", rows[0], format, lastExportMillis);
+			} catch (UncheckedIOException e) {
+				aborted.increment();
+				log.info("Export aborted by the client after {} rows : {}", rows[0], e.getCause().getMessage());
+			} catch (DataAccessException e) {
+				failed.increment();
+				log.error("Export failed after {} rows", rows[0], e);
+				throw e;
+			} finally {
+				rowsExported.add(rows[0]);
+			}
+		});
+	}
+
+	/**
+	 * @return the column a node's id is matched against to keep only the rows under it.
+	 */
+	private static String subtreeColumn(RollupLevel level) {
+		switch (level) {
+			case TASK:
+				return "t.TASK_ID";
+			case ACTIVITY:
+				return "t.ACTIVITY_ID";
+			case SUBPROCESS:
+				return "a.SUBPROCESS_ID";
+			case PROCESS:
+				return "s.PROCESS_ID";
+			case SYSTEM:
+				return "t.SYSTEM_ID";
+			case INTERFACE:
+				return "t.INTERFACE_ID";
+			default:
+				throw new IllegalArgumentException("Can't export the subtree of " + level);
+		}
+	}
+
+
+	/**
+	 * the body of an export holding it's permit. The permit goes back exactly once: when the body ends,
+	 * or through abandon() if the request completed before the body started, in which case it never will.
+	 */
+	public static final class ExportBody implements StreamingResponseBody {
+		private static final int WAITING = 0;
+		private static final int RUNNING = 1;
+		private static final int DONE = 2;
+
+		private final Semaphore permits;
+		private final StreamingResponseBody stream;
+		private final AtomicInteger state = new AtomicInteger(WAITING);
+
+		private ExportBody(Semaphore permits, StreamingResponseBody stream) {
+			this.permits = permits;
+			this.stream = stream;
+		}
+
+		@Override
+		public void writeTo(OutputStream out) throws IOException {
+			if (!state.compareAndSet(WAITING, RUNNING)) {
+				return; // abandoned, the response is already gone
+			}
+			try {
+				stream.writeTo(out);
+			} finally {
+				state.set(DONE);
+				permits.release();
+			}
+		}
+
+		/**
+		 * gives the permit back if the body hasn't started, a running body gives it back itself when it ends.
+		 */
+		public void abandon() {
+			if (state.compareAndSet(WAITING, DONE)) {
+				permits.release();
+			}
+		}
+	}
+
+	/**
+	 * a column of the export, it's name in the header or the JSON and how it's read.
+	 */
+	private static final class Column {
+		private static final int NUMBER = 0;
+		private static final int TEXT = 1;
+		private static final int TIME = 2;
+
+		private final String name;
+		private final int kind;
+
+		private Column(String name, int kind) {
+			this.name = name;
+			this.kind = kind;
+		}
+
+		private static Column number(String name) {
+			return new Column(name, NUMBER);
+		}
+
+		private static Column text(String name) {
+			return new Column(name, TEXT);
+		}
+
+		private static Column time(String name) {
+			return new Column(name, TIME);
+		}
+
+		private Object read(ResultSet rs, int index) throws SQLException {
+			switch (kind) {
+				case NUMBER:
+					long value = rs.getLong(index);
+					return rs.wasNull() ? null : value;
+				case TIME:
+					Timestamp timestamp = rs.getTimestamp(index);
+					return timestamp == null ? null : timestamp.toLocalDateTime().toString();
+				default:
+					return rs.getString(index);
+			}
+		}
+	}
+
+	private interface RowWriter {
+		void write(Object[] values) throws IOException;
+
+		void flush() throws IOException;
+
+		void finish() throws IOException;
+	}
+
+	/**
+	 * one JSON object per line.
+	 */
+	private static final class NdjsonWriter implements RowWriter {
+		private final JsonGenerator generator;
+		private final Column[] columns;
+
+		private NdjsonWriter(ObjectMapper objectMapper, OutputStream out, Column[] columns) throws IOException {
+			this.generator = objectMapper.getFactory().createGenerator(out);
+			this.generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET); // the container closes the response
+			this.generator.setPrettyPrinter(new MinimalPrettyPrinter("")); // lines are separated by hand
+			this.columns = columns;
+		}
+
+		@Override
+		public void write(Object[] values) throws IOException {
+			generator.writeStartObject();
+			for (int i = 0; i < columns.length; i++) {
+				Object value = values[i];
+				if (value == null) {
+					generator.writeNullField(columns[i].name);
+				} else if (value instanceof Long) {
+					generator.writeNumberField(columns[i].name, (Long) value);
+				} else {
+					generator.writeStringField(columns[i].name, value.toString());
+				}
+			}
+			generator.writeEndObject();
+			generator.writeRaw('\n');
+		}
+
+		@Override
+		public void flush() throws IOException {
+			generator.flush();
+		}
+
+		@Override
+		public void finish() throws IOException {
+			generator.close();
+		}
+	}
+
+	/**
+	 * a header line, then one line per row. Fields with a comma, a quote or a line break are quoted,
+	 * text that would start a formula (=, +, -, @, a tab or a CR) gets a ' in front so spreadsheets show it as text.
+	 */
+	static final class CsvWriter implements RowWriter {
+		private final Writer writer;
+
+		private CsvWriter(OutputStream out, Column[] columns) throws IOException {
+			this.writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+			for (int i = 0; i < columns.length; i++) {
+				if (i > 0) {
+					writer.write(',');
+				}
+				writer.write(columns[i].name);
+			}
+			writer.write("\r\n");
+		}
+
+		@Override
+		public void write(Object[] values) throws IOException {
+			for (int i = 0; i < values.length; i++) {
+				if (i > 0) {
+					writer.write(',');
+				}
+				if (values[i] instanceof Long) {
+					writer.write(values[i].toString()); // a negative number is a number, not a formula
+				} else if (values[i] != null) {
+					writer.write(escape(values[i].toString()));
+				}
+			}
+			writer.write("\r\n");
+		}
+
+		@Override
+		public void flush() throws IOException {
+			writer.flush();
+		}
+
+		@Override
+		public void finish() throws IOException {
+			writer.flush(); // not closed, the container closes the response
+		}
+
+		static String escape(String value) {
+			if (!value.isEmpty() && "=+-@\t\r".indexOf(value.charAt(0)) >= 0) {
+				value = "'" + value;
+			}
+			if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+				return value;
+			}
+			return '"' + value.replace("\"", "\"\"") + '"';
+		}
+	}
+}
@@ -0,0 +1,289 @@
+package com.bpmonitor.services;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import com.bpmonitor.DTOs.response.ResultPartitionMetricsResponseDTO;
+import com.bpmonitor.cluster.ClusterShardManager;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Keeps the daily partitions of TASK_RESULT and TASK_ERROR, once db/partition_task_results.sql was run.
+ *
+ * TASK_RESULT is interval partitioned by day on DATE_OF_EXECUTION and each day is list subpartitioned
+ * on RESULT (SUCCESS and everything else), TASK_ERROR is partitioned by reference to it, so every
+ * error sits in the partition of it's result and goes with it.
+ *
+ * Every maintenance-ms:
+ * - the partitions of the next days-ahead days are created, so midnight doesn't pay for them on the insert path
+ * - the SUCCESS subpartition of every day older than success-retention-days is dropped
+ * - every day older than retention-days is dropped whole
+ * A drop is a dictionary change, no rows are read or deleted one by one, the global indexes are kept usable.
+ *
+ * Until the tables are partitioned it does nothing, and the services keep deleting old rows themselves.
+ * In a cluster only the node that owns shard 0 does the maintenance.
+ * @author joao7
+ *
+ */
+@Slf4j
+@Component
+public class ResultPartitionManager {
+
+	private static final String PARTITIONING_SQL =
+			"SELECT TABLE_NAME, PARTITIONING_TYPE FROM USER_PART_TABLES WHERE TABLE_NAME IN ('TASK_RESULT', 'TASK_ERROR')";
+
+	// the interval partitions only, the first one holds nothing and can't be dropped anyway
+	private static final String PARTITIONS_SQL =
+			"SELECT PARTITION_NAME, HIGH_VALUE FROM USER_TAB_PARTITIONS WHERE TABLE_NAME = 'TASK_RESULT' AND INTERVAL = 'YES'";
+
+	private static final String SUBPARTITIONS_SQL =
+			"SELECT PARTITION_NAME, SUBPARTITION_NAME, HIGH_VALUE FROM USER_TAB_SUBPARTITIONS WHERE TABLE_NAME = 'TASK_RESULT'";
+
+	private static final Pattern DAY = Pattern.compile("(\\d{4}-\\d{2}-\\d{2})");
+	private static final Pattern NAME = Pattern.compile("[A-Z0-9_$#]+"); // dictionary names go into the DDL as they are
+	private static final DateTimeFormatter LITERAL = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+	private final JdbcTemplate jdbcTemplate;
+	private final ClusterShardManager shardManager;
+	private final int daysAhead;
+	private final int successRetentionDays;
+	private final int retentionDays;
+
+	private volatile boolean partitioned;
+	private volatile int partitions;
+	private volatile LocalDate oldestDay;
+	private volatile LocalDate newestDay;
+	private volatile LocalDateTime lastRunAt;
+	private volatile long lastRunMillis;
+
+	private final LongAdder created = new LongAdder();
+	private final LongAdder dropped = new LongAdder();
+	private final LongAdder successDropped = new LongAdder();
+	private final LongAdder failures = new LongAdder();
+
+	public ResultPartitionManager(
+			JdbcTemplate jdbcTemplate,
+			ClusterShardManager shardManager,
+			@Value("${bpm.partitions.days-ahead:7}") int daysAhead,
+			@Value("${bpm.partitions.success-retention-days:1}") int successRetentionDays,
+			@Value("${bpm.partitions.retention-days:7}") int retentionDays) {
+		this.jdbcTemplate = jdbcTemplate;
+		this.shardManager = shardManager;
+		this.daysAhead = Math.max(1, daysAhead);
+		this.retentionDays = Math.max(1, retentionDays);
+		this.successRetentionDays = Math.min(this.retentionDays, Math.max(1, successRetentionDays));
+	}
+
+
+	@EventListener(ApplicationReadyEvent.class)
+	public void start() {
+		detect();
+		if (!partitioned) {
+			log.info("TASK_RESULT and TASK_ERROR aren't partitioned, old results are deleted row by row until db/partition_task_results.sql is run");
+			return;
+		}
+		maintain();
+	}
+
+	/**
+	 * creates the coming days and drops the expired ones.
+	 */
+	@Scheduled(fixedDelayString = "${bpm.partitions.maintenance-ms:3600000}", initialDelayString = "${bpm.partitions.maintenance-ms:3600000}")
+	public synchronized void maintain() {
+		if (!shardManager.owns(0)) {
+			return; // the owner of shard 0 does it
+		}
+		detect();
+		if (!partitioned) {
+			return;
+		}
+		long start = java.lang.System.nanoTime();
+		createAhead();
+		dropExpired();
+		lastRunMillis = (java.lang.System.nanoTime() - start) / 1_000_000;
+		lastRunAt = LocalDateTime.now();
+	}
+
+	/**
+	 * @return true if both tables are partitioned the way this class expects.
+	 */
+	public boolean isPartitioned() {
+		return partitioned;
+	}
+
+	/**
+	 * drops the SUCCESS subpartitions older than success-retention-days and the days older than retention-days.
+	 * @return how many partitions and subpartitions were dropped.
+	 */
+	public synchronized int dropExpired() {
+		if (!partitioned) {
+			return 0;
+		}
+		LocalDateTime now = LocalDateTime.now();
+		LocalDateTime successCutoff = now.minusDays(successRetentionDays);
+		LocalDateTime cutoff = now.minusDays(retentionDays);
+		Map<String, String> successSubpartitions = successSubpartitions();
+		int count = 0;
+		for (Map.Entry<LocalDate, String> partition : readPartitions().entrySet()) {
+			LocalDateTime end = partition.getKey().plusDays(1).atStartOfDay(); // every row of the day is older than this
+			String name = partition.getValue();
+			if (!end.isAfter(cutoff)) {
+				if (execute("ALTER TABLE TASK_RESULT DROP PARTITION " + name + " UPDATE INDEXES")) {
+					dropped.increment();
+					count++;
+					log.info("Dropped the TASK_RESULT and TASK_ERROR partition of {}", partition.getKey());
+				}
+			} else if (!end.isAfter(successCutoff) && successSubpartitions.containsKey(name)) {
+				if (execute("ALTER TABLE TASK_RESULT DROP SUBPARTITION " + successSubpartitions.get(name) + " UPDATE INDEXES")) {
+					successDropped.increment();
+					count++;
+					log.info("Dropped the successful results of {}", partition.getKey());
+				}
+			}
+		}
+		readPartitions();
+		return count;
+	}
+
+	/**
+	 * @return the partitions kept and what the maintenance did.
+	 */
+	public ResultPartitionMetricsResponseDTO getMetrics() {
+		return new ResultPartitionMetricsResponseDTO(
+				partitioned,
+				partitions,
+				oldestDay,
+				newestDay,
+				daysAhead,
+				successRetentionDays,
+				retentionDays,
+				created.sum(),
+				dropped.sum(),
+				successDropped.sum(),
+				failures.sum(),
+				lastRunMillis,
+				lastRunAt);
+	}
+
+
+	private void detect() {
+		try {
+			Map<String, String> types = new HashMap<>();
+			jdbcTemplate.query(PARTITIONING_SQL, rs -> {
+				types.put(rs.getString(1), rs.getString(2));
+			});
+			boolean now = "RANGE".equals(types.get("TASK_RESULT")) && "REFERENCE".equals(types.get("TASK_ERROR"));
+			if (now != partitioned) {
+				partitioned = now;
+				if (now) {
+					log.info("TASK_RESULT and TASK_ERROR are partitioned by day, retention drops partitions");
+				}
+			}
+			if (!now && types.containsKey("TASK_RESULT")) {
+				log.warn("TASK_RESULT is partitioned but TASK_ERROR isn't by reference, partitions can't be dropped");
+			}
+		} catch (DataAccessException e) {
+			// not an Oracle schema we can read the dictionary of
+			partitioned = false;
+			log.debug("Couldn't read the partitioning of TASK_RESULT : {}", e.getMessage());
+		}
+	}
+
+	/**
+	 * an interval partition is created by the first insert into it, locking it creates it ahead of time
+	 * (with the TASK_ERROR one).
+	 */
+	private void createAhead() {
+		TreeMap<LocalDate, String> existing = readPartitions();
+		LocalDate today = LocalDate.now();
+		for (int i = 0; i <= daysAhead; i++) {
+			LocalDate day = today.plusDays(i);
+			if (existing.containsKey(day)) {
+				continue;
+			}
+			if (execute("LOCK TABLE TASK_RESULT PARTITION FOR (TIMESTAMP '" + day.atStartOfDay().format(LITERAL) + "') IN SHARE MODE")) {
+				created.increment();
+				log.debug("Created the TASK_RESULT partition of {}", day);
+			}
+		}
+		readPartitions();
+	}
+
+	/**
+	 * @return the interval partitions by the day they hold, and refreshes the counts.
+	 */
+	private TreeMap<LocalDate, String> readPartitions() {
+		TreeMap<LocalDate, String> byDay = new TreeMap<>();
+		try {
+			List<String[]> rows = jdbcTemplate.query(PARTITIONS_SQL,
+					(rs, rowNum) -> new String[] { rs.getString(1), rs.getString(2) }); // HIGH_VALUE is a LONG, read in order
+			for (String[] row : rows) {
+				Matcher matcher = DAY.matcher(row[1] == null ? "" : row[1]);
+				if (matcher.find() && NAME.matcher(row[0]).matches()) {
+					// the bound is the start of the next day
+					byDay.put(LocalDate.parse(matcher.group(1)).minusDays(1), row[0]);
+				}
+			}
+		} catch (DataAccessException e) {
+			failures.increment();
+			log.warn("Couldn't read the partitions of TASK_RESULT : {}", e.getMessage());
+			return byDay;
+		}
+		partitions = byDay.size();
+		oldestDay = byDay.isEmpty() ? null : byDay.firstKey();
+		newestDay = byDay.isEmpty() ? null : byDay.lastKey();
+		return byDay;
+	}
+
+	/**
+	 * @return the SUCCESS subpartition of every partition that still has one, by partition name.
+	 */
+	private Map<String, String> successSubpartitions() {
+		Map<String, String> byPartition = new HashMap<>();
+		try {
+			jdbcTemplate.query(SUBPARTITIONS_SQL, rs -> {
+				String partition = rs.getString(1);
+				String subpartition = rs.getString(2);
+				String values = rs.getString(3);
+				if (values != null && values.contains("'SUCCESS'") && NAME.matcher(subpartition).matches()) {
+					byPartition.put(partition, subpartition);
+				}
+			});
+		} catch (DataAccessException e) {
+			failures.increment();
+			log.warn("Couldn't read the subpartitions of TASK_RESULT : {}", e.getMessage());
+		}
+		return byPartition;
+	}
+
+	/**
+	 * runs a DDL statement, a failure (another node or a DBA got there first) is logged and the rest goes on.
+	 */
+	private boolean execute(String ddl) {
+		try {
+			jdbcTemplate.execute(ddl);
+			return true;
+		} catch (DataAccessException e) {
+			failures.increment();
+			log.warn("Partition maintenance statement failed [{}] : {}", ddl, e.getMessage());
+			return false;
+		}
+	}
+}
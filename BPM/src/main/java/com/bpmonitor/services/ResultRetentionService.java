@@ -0,0 +1,401 @@
+package com.bpmonitor.services;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import com.bpmonitor.DTOs.response.ResultRetentionMetricsResponseDTO;
+import com.bpmonitor.cluster.ClusterShardManager;
+import com.bpmonitor.enums.TaskStatus;
+import com.bpmonitor.enums.TaskType;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Deletes expired task results and their errors, in small set-based chunks, inside a quiet window.
+ *
+ * How long a result is kept comes from the most specific policy that matches it:
+ * process, then task type, then status, then default-hours. Policies are written as
+ * {@code key=value[,key=value...]:hours} separated by ';', the keys being process (an id), type (a TaskType)
+ * and status (a TaskStatus), e.g. {@code status=SUCCESS:24;type=PINGSERVERTASK,status=SUCCESS:6;process=12:720}.
+ * Each policy is one DELETE that leaves out the rows of the more specific ones, so every row is judged by one policy only.
+ *
+ * Rows are deleted chunk-rows at a time with {@code ROWNUM <= n}, each chunk committed on it's own so the undo
+ * and the locks stay small, with chunk-pause-ms between chunks so the result writer always gets through.
+ * Errors go first (TASK_ERROR references TASK_RESULT), then the results left without errors.
+ *
+ * It runs on a low priority thread, only between window-start and window-end, and stops mid policy when the window closes.
+ * When TASK_RESULT is partitioned the expired partitions are dropped first, the policies then only
+ * delete what's expired sooner than the partitions are. In a cluster only the node that owns shard 0 purges.
+ * @author joao7
+ *
+ */
+@Slf4j
+@Service
+public class ResultRetentionService {
+
+	private static final String HAS_ERRORS = "EXISTS (SELECT 1 FROM TASK_ERROR e WHERE e.TASK_RESULT_ID = r.TASK_RESULT_ID)";
+
+	private final JdbcTemplate jdbcTemplate;
+	private final ClusterShardManager shardManager;
+	private final ResultPartitionManager partitionManager;
+	private final List<RetentionPolicy> policies; // most specific first
+	private final int chunkRows;
+	private final long chunkPauseMs;
+	private final long checkMs;
+	private final LocalTime windowStart;
+	private final LocalTime windowEnd;
+
+	private final AtomicBoolean purging = new AtomicBoolean();
+	private volatile boolean running;
+	private Thread purger;
+
+	private final LongAdder passes = new LongAdder();
+	private final LongAdder resultsPurged = new LongAdder();
+	private final LongAdder errorsPurged = new LongAdder();
+	private final LongAdder chunks = new LongAdder();
+	private final LongAdder windowCutoffs = new LongAdder();
+	private final LongAdder failures = new LongAdder();
+	private volatile long lastPassRows;
+	private volatile long lastPassMillis;
+	private volatile LocalDateTime lastPassAt;
+
+	public ResultRetentionService(
+			JdbcTemplate jdbcTemplate,
+			ClusterShardManager shardManager,
+			ResultPartitionManager partitionManager,
+			@Value("${bpm.retention.policies:status=SUCCESS:24;status=FAIL:168;status=TIMEOUT:168}") String policies,
+			@Value("${bpm.retention.default-hours:168}") long defaultHours,
+			@Value("${bpm.retention.chunk-rows:5000}") int chunkRows,
+			@Value("${bpm.retention.chunk-pause-ms:200}") long chunkPauseMs,
+			@Value("${bpm.retention.check-ms:60000}") long checkMs,
+			@Value("${bpm.retention.window-start:01:00}") String windowStart,
+			@Value("${bpm.retention.window-end:05:00}") String windowEnd) {
+		this.jdbcTemplate = jdbcTemplate;
+		this.shardManager = shardManager;
+		this.partitionManager = partitionManager;
+		this.policies = parsePolicies(policies, defaultHours);
+		this.chunkRows = Math.max(1, chunkRows);
+		this.chunkPauseMs = Math.max(0, chunkPauseMs);
+		this.checkMs = Math.max(1000, checkMs);
+		this.windowStart = LocalTime.parse(windowStart);
+		this.windowEnd = LocalTime.parse(windowEnd);
+	}
+
+
+	@PostConstruct
+	public void start() {
+		long partitionHours = partitionManager.getMetrics().getRetentionDays() * 24L;
+		for (RetentionPolicy policy : policies) {
+			log.info("Retention policy {} keeps results {} hours", policy, policy.hours);
+			if (policy.hours > partitionHours) {
+				log.warn("Retention policy {} keeps results longer than the partitions of TASK_RESULT, once partitioned they're dropped after {} hours", policy, partitionHours);
+			}
+		}
+		running = true;
+		purger = new Thread(this::purgeLoop, "ResultRetention");
+		purger.setDaemon(true);
+		purger.setPriority(Thread.MIN_PRIORITY);
+		purger.start();
+	}
+
+	@PreDestroy
+	public void stop() {
+		running = false;
+		purger.interrupt();
+	}
+
+
+	/**
+	 * runs a whole pass now, window or not. Does nothing if a pass is already running.
+	 * @return how many results and errors were deleted.
+	 */
+	public long purge() {
+		return pass(false);
+	}
+
+	/**
+	 * @return the policies, how much was purged and how fast.
+	 */
+	public ResultRetentionMetricsResponseDTO getMetrics() {
+		List<String> described = new ArrayList<>(policies.size());
+		for (RetentionPolicy policy : policies) {
+			described.add(policy + ":" + policy.hours);
+		}
+		long millis = lastPassMillis;
+		return new ResultRetentionMetricsResponseDTO(
+				described,
+				windowStart + "-" + windowEnd,
+				inWindow(LocalTime.now()),
+				purging.get(),
+				passes.sum(),
+				resultsPurged.sum(),
+				errorsPurged.sum(),
+				chunks.sum(),
+				windowCutoffs.sum(),
+				failures.sum(),
+				lastPassRows,
+				millis,
+				millis == 0 ? 0 : lastPassRows * 1000.0 / millis,
+				lastPassAt);
+	}
+
+
+	private void purgeLoop() {
+		while (running) {
+			try {
+				Thread.sleep(checkMs);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+			if (inWindow(LocalTime.now()) && shardManager.owns(0)) {
+				pass(true);
+			}
+		}
+	}
+
+	/**
+	 * every policy, chunk after chunk, until nothing's left or the window closes.
+	 */
+	private long pass(boolean windowed) {
+		if (!purging.compareAndSet(false, true)) {
+			return 0;
+		}
+		long start = java.lang.System.nanoTime();
+		long rows = 0;
+		try {
+			if (partitionManager.isPartitioned()) {
+				partitionManager.dropExpired(); // whole days for free, before deleting anything
+			}
+			for (RetentionPolicy policy : policies) {
+				LocalDateTime cutoff = LocalDateTime.now().minusHours(policy.hours);
+				while (running) {
+					if (windowed && !inWindow(LocalTime.now())) {
+						windowCutoffs.increment();
+						log.info("Retention window closed, the rest is purged in the next one");
+						return rows;
+					}
+					int errors = jdbcTemplate.update(policy.deleteErrorsSql, policy.params(cutoff, chunkRows));
+					int results = jdbcTemplate.update(policy.deleteResultsSql, policy.params(cutoff, chunkRows));
+					chunks.increment();
+					errorsPurged.add(errors);
+					resultsPurged.add(results);
+					rows += errors + results;
+					if (errors == 0 && results == 0) {
+						break;
+					}
+					if (chunkPauseMs > 0) {
+						Thread.sleep(chunkPauseMs);
+					}
+				}
+			}
+			return rows;
+		} catch (DataAccessException e) {
+			failures.increment();
+			log.error("something went wrong purging old task results : {}", e.getMessage());
+			return rows;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return rows;
+		} finally {
+			long millis = Math.max(1, (java.lang.System.nanoTime() - start) / 1_000_000);
+			passes.increment();
+			lastPassRows = rows;
+			lastPassMillis = millis;
+			lastPassAt = LocalDateTime.now();
+			purging.set(false);
+			if (rows > 0) {
+				log.info("Purged {} task results and errors in {} ms ({} rows/s)", rows, millis, rows * 1000 / millis);
+			}
+		}
+	}
+
+	private boolean inWindow(LocalTime now) {
+		if (windowStart.equals(windowEnd)) {
+			return true; // the whole day
+		}
+		if (windowStart.isBefore(windowEnd)) {
+			return !now.isBefore(windowStart) && now.isBefore(windowEnd);
+		}
+		return !now.isBefore(windowStart) || now.isBefore(windowEnd); // goes past midnight
+	}
+
+	/**
+	 * parses the policies, adds the default one and gives each the rows of the more specific ones to leave out.
+	 */
+	static List<RetentionPolicy> parsePolicies(String text, long defaultHours) {
+		List<RetentionPolicy> parsed = new ArrayList<>();
+		parsed.add(new RetentionPolicy(null, null, null, Math.max(1, defaultHours)));
+		for (String entry : text.split(";")) {
+			if (entry.trim().isEmpty()) {
+				continue;
+			}
+			int colon = entry.lastIndexOf(':');
+			if (colon < 0) {
+				throw new IllegalArgumentException("Retention policy '" + entry + "' has no hours");
+			}
+			Long processId = null;
+			TaskType type = null;
+			TaskStatus status = null;
+			for (String condition : entry.substring(0, colon).split(",")) {
+				String[] pair = condition.trim().split("=");
+				if (pair.length != 2) {
+					throw new IllegalArgumentException("Retention policy '" + entry + "' has a bad condition '" + condition + "'");
+				}
+				String value = pair[1].trim();
+				switch (pair[0].trim().toLowerCase()) {
+					case "process": processId = Long.valueOf(value); break;
+					case "type": type = TaskType.valueOf(value.toUpperCase()); break;
+					case "status": status = TaskStatus.valueOf(value.toUpperCase()); break;
+					default: throw new IllegalArgumentException("Retention policy '" + entry + "' has an unknown key '" + pair[0] + "'");
+				}
+			}
+			RetentionPolicy policy = new RetentionPolicy(processId, type, status, Long.parseLong(entry.substring(colon + 1).trim()));
+			if (policy.hours < 1) {
+				throw new IllegalArgumentException("Retention policy '" + entry + "' must keep results at least an hour");
+			}
+			for (RetentionPolicy other : parsed) {
+				if (other.sameConditions(policy)) {
+					throw new IllegalArgumentException("Retention policy '" + entry + "' is there twice");
+				}
+			}
+			parsed.add(policy);
+		}
+		parsed.sort(Comparator.comparingInt(RetentionPolicy::weight).reversed());
+		for (RetentionPolicy policy : parsed) {
+			List<RetentionPolicy> moreSpecific = new ArrayList<>();
+			for (RetentionPolicy other : parsed) {
+				if (other.weight() > policy.weight() && other.overlaps(policy)) {
+					moreSpecific.add(other);
+				}
+			}
+			policy.prepare(moreSpecific);
+		}
+		return Collections.unmodifiableList(parsed);
+	}
+
+
+	/**
+	 * how long the results matching some conditions are kept, null conditions match everything.
+	 */
+	static final class RetentionPolicy {
+		private final Long processId;
+		private final TaskType type;
+		private final TaskStatus status;
+		final long hours;
+
+		String deleteErrorsSql;
+		String deleteResultsSql;
+		private List<Object> whereParams;
+
+		private RetentionPolicy(Long processId, TaskType type, TaskStatus status, long hours) {
+			this.processId = processId;
+			this.type = type;
+			this.status = status;
+			this.hours = hours;
+		}
+
+		/**
+		 * process beats type beats status, and any of them beats the default.
+		 */
+		private int weight() {
+			return (processId == null ? 0 : 4) + (type == null ? 0 : 2) + (status == null ? 0 : 1);
+		}
+
+		private boolean overlaps(RetentionPolicy other) {
+			return (processId == null || other.processId == null || processId.equals(other.processId))
+					&& (type == null || other.type == null || type == other.type)
+					&& (status == null || other.status == null || status == other.status);
+		}
+
+		private boolean sameConditions(RetentionPolicy other) {
+			return Objects.equals(processId, other.processId) && type == other.type && status == other.status;
+		}
+
+		private void prepare(List<RetentionPolicy> moreSpecific) {
+			StringBuilder where = new StringBuilder();
+			List<Object> params = new ArrayList<>();
+			String own = condition(params);
+			if (own != null) {
+				where.append(" AND ").append(own);
+			}
+			for (RetentionPolicy other : moreSpecific) {
+				where.append(" AND NOT (").append(other.condition(params)).append(")");
+			}
+			this.whereParams = params;
+			this.deleteErrorsSql = "DELETE FROM TASK_ERROR WHERE TASK_RESULT_ID IN (SELECT r.TASK_RESULT_ID FROM TASK_RESULT r "
+					+ "WHERE r.DATE_OF_EXECUTION < ?" + where + " AND " + HAS_ERRORS + " AND ROWNUM <= ?)";
+			this.deleteResultsSql = "DELETE FROM TASK_RESULT r WHERE r.DATE_OF_EXECUTION < ?" + where
+					+ " AND NOT " + HAS_ERRORS + " AND ROWNUM <= ?";
+		}
+
+		/**
+		 * @return the conditions of this policy on a TASK_RESULT r, null for the default one.
+		 */
+		private String condition(List<Object> params) {
+			List<String> parts = new ArrayList<>();
+			if (status != null) {
+				parts.add("NVL(r.RESULT, '-') = ?");
+				params.add(status.name());
+			}
+			if (type != null || processId != null) {
+				StringBuilder task = new StringBuilder("EXISTS (SELECT 1 FROM CONTROL_TASKS t ");
+				if (processId != null) {
+					task.append("JOIN ACTIVITY a ON a.ACTIVITY_ID = t.ACTIVITY_ID JOIN SUBPROCESS s ON s.SUBPROCESS_ID = a.SUBPROCESS_ID ");
+				}
+				task.append("WHERE t.TASK_ID = r.TASK_ID");
+				if (type != null) {
+					task.append(" AND t.TASK_TYPE = ?");
+					params.add(type.name());
+				}
+				if (processId != null) {
+					task.append(" AND s.PROCESS_ID = ?");
+					params.add(processId);
+				}
+				parts.add(task.append(")").toString());
+			}
+			return parts.isEmpty() ? null : String.join(" AND ", parts);
+		}
+
+		Object[] params(LocalDateTime cutoff, int rows) {
+			Object[] params = new Object[whereParams.size() + 2];
+			params[0] = Timestamp.valueOf(cutoff);
+			for (int i = 0; i < whereParams.size(); i++) {
+				params[i + 1] = whereParams.get(i);
+			}
+			params[params.length - 1] = rows;
+			return params;
+		}
+
+		@Override
+		public String toString() {
+			List<String> parts = new ArrayList<>();
+			if (processId != null) {
+				parts.add("process=" + processId);
+			}
+			if (type != null) {
+				parts.add("type=" + type);
+			}
+			if (status != null) {
+				parts.add("status=" + status);
+			}
+			return parts.isEmpty() ? "default" : String.join(",", parts);
+		}
+	}
+}
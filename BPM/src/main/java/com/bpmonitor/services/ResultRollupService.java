@@ -0,0 +1,728 @@
+package com.bpmonitor.services;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.bpmonitor.DTOs.response.ResultHistorySummaryResponseDTO;
+import com.bpmonitor.DTOs.response.ResultRollupBucketResponseDTO;
+import com.bpmonitor.DTOs.response.ResultRollupMetricsResponseDTO;
+import com.bpmonitor.cluster.ClusterShardManager;
+import com.bpmonitor.enums.RollupGrain;
+import com.bpmonitor.enums.RollupLevel;
+import com.bpmonitor.enums.TaskStatus;
+import com.bpmonitor.hierarchy.HierarchyGraph;
+import com.bpmonitor.hierarchy.HierarchySnapshot;
+import com.bpmonitor.models.ResultRollup;
+import com.bpmonitor.models.TaskValidationResult;
+import com.bpmonitor.registry.TaskRegistry;
+import com.bpmonitor.registry.TaskSpec;
+import com.bpmonitor.repositories.DailyResultRollupRepository;
+import com.bpmonitor.repositories.HourlyResultRollupRepository;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Folds every task result into hourly and daily rollup rows, so history is read from a few rows per node
+ * instead of every raw result, and the raw results can be purged as soon as nobody needs their details.
+ *
+ * A result is added to the rows of it's task and of every node above it: the activity, subprocess and process
+ * (taken from the hierarchy graph), the system and the interface. The rows are changed in memory and every
+ * flush-ms the changed ones are added to RESULT_ROLLUP_HOURLY and RESULT_ROLLUP_DAILY with one batched MERGE each,
+ * so the DB sees one statement per changed row and flush, not one per result. Rows are merged in key order so
+ * two nodes of a cluster flushing the same parents wait on each other instead of deadlocking.
+ * A flush that fails (or loses the race to insert a new row to another node) keeps it's rows for the next one.
+ *
+ * Results are recorded by the result writer as their batch commits, so they come in the order of their ids.
+ * Each instance writes it's results with a WRITER_ID and keeps a RESULT_ROLLUP_MARK row, updated in the
+ * transaction of every flush with the last result id merged. An instance that dies loses what it didn't flush,
+ * but it's mark stops moving: after dead-after-ms the owner of shard 0 reads that instance's results past the mark
+ * back from TASK_RESULT, merges them and deletes the mark, all in one transaction. A clean shutdown flushes
+ * and deletes it's own mark. An instance that finds it's mark gone (it couldn't flush for dead-after-ms and was
+ * recovered meanwhile) drops what it had instead of merging it twice, and registers again.
+ *
+ * Hourly rows are kept hourly-retention-days and daily rows daily-retention-days, in a cluster the node that owns
+ * shard 0 purges them.
+ * @author joao7
+ *
+ */
+@Slf4j
+@Service
+public class ResultRollupService {
+
+	private static final String MERGE_SQL =
+			"MERGE INTO %s r USING (SELECT ? NODE_LEVEL, ? NODE_ID, ? BUCKET_START, ? SUCCESS_COUNT, ? FAIL_COUNT, "
+			+ "? TIMEOUT_COUNT, ? UNRUN_COUNT, ? FIRST_FAILURE_AT, ? LAST_FAILURE_AT, ? LATENCY_COUNT, ? LATENCY_SUM_MS, "
+			+ "? LATENCY_MIN_MS, ? LATENCY_MAX_MS FROM DUAL) d "
+			+ "ON (r.NODE_LEVEL = d.NODE_LEVEL AND r.NODE_ID = d.NODE_ID AND r.BUCKET_START = d.BUCKET_START) "
+			+ "WHEN MATCHED THEN UPDATE SET "
+			+ "r.SUCCESS_COUNT = r.SUCCESS_COUNT + d.SUCCESS_COUNT, "
+			+ "r.FAIL_COUNT = r.FAIL_COUNT + d.FAIL_COUNT, "
+			+ "r.TIMEOUT_COUNT = r.TIMEOUT_COUNT + d.TIMEOUT_COUNT, "
+			+ "r.UNRUN_COUNT = r.UNRUN_COUNT + d.UNRUN_COUNT, "
+			// a null on either side keeps the other one
+			+ "r.FIRST_FAILURE_AT = CASE WHEN r.FIRST_FAILURE_AT IS NULL OR d.FIRST_FAILURE_AT < r.FIRST_FAILURE_AT THEN d.FIRST_FAILURE_AT ELSE r.FIRST_FAILURE_AT END, "
+			+ "r.LAST_FAILURE_AT = CASE WHEN r.LAST_FAILURE_AT IS NULL OR d.LAST_FAILURE_AT > r.LAST_FAILURE_AT THEN d.LAST_FAILURE_AT ELSE r.LAST_FAILURE_AT END, "
+			+ "r.LATENCY_COUNT = r.LATENCY_COUNT + d.LATENCY_COUNT, "
+			+ "r.LATENCY_SUM_MS = r.LATENCY_SUM_MS + d.LATENCY_SUM_MS, "
+			+ "r.LATENCY_MIN_MS = CASE WHEN r.LATENCY_MIN_MS IS NULL OR d.LATENCY_MIN_MS < r.LATENCY_MIN_MS THEN d.LATENCY_MIN_MS ELSE r.LATENCY_MIN_MS END, "
+			+ "r.LATENCY_MAX_MS = CASE WHEN r.LATENCY_MAX_MS IS NULL OR d.LATENCY_MAX_MS > r.LATENCY_MAX_MS THEN d.LATENCY_MAX_MS ELSE r.LATENCY_MAX_MS END "
+			+ "WHEN NOT MATCHED THEN INSERT (NODE_LEVEL, NODE_ID, BUCKET_START, SUCCESS_COUNT, FAIL_COUNT, TIMEOUT_COUNT, UNRUN_COUNT, "
+			+ "FIRST_FAILURE_AT, LAST_FAILURE_AT, LATENCY_COUNT, LATENCY_SUM_MS, LATENCY_MIN_MS, LATENCY_MAX_MS) "
+			+ "VALUES (d.NODE_LEVEL, d.NODE_ID, d.BUCKET_START, d.SUCCESS_COUNT, d.FAIL_COUNT, d.TIMEOUT_COUNT, d.UNRUN_COUNT, "
+			+ "d.FIRST_FAILURE_AT, d.LAST_FAILURE_AT, d.LATENCY_COUNT, d.LATENCY_SUM_MS, d.LATENCY_MIN_MS, d.LATENCY_MAX_MS)";
+
+	private static final String MERGE_HOURLY_SQL = String.format(MERGE_SQL, "RESULT_ROLLUP_HOURLY");
+	private static final String MERGE_DAILY_SQL = String.format(MERGE_SQL, "RESULT_ROLLUP_DAILY");
+
+	private static final String REGISTER_SQL =
+			"INSERT INTO RESULT_ROLLUP_MARK (WRITER_ID, LAST_RESULT_ID, HEARTBEAT_AT) VALUES (?, ?, ?)";
+	private static final String MARK_SQL =
+			"UPDATE RESULT_ROLLUP_MARK SET LAST_RESULT_ID = GREATEST(LAST_RESULT_ID, ?), HEARTBEAT_AT = ? WHERE WRITER_ID = ?";
+	private static final String DEAD_WRITERS_SQL =
+			"SELECT WRITER_ID FROM RESULT_ROLLUP_MARK WHERE HEARTBEAT_AT < ? AND WRITER_ID <> ?";
+	// checked again under the lock, it may have been recovered by another node or come back meanwhile
+	private static final String LOCK_DEAD_MARK_SQL =
+			"SELECT LAST_RESULT_ID FROM RESULT_ROLLUP_MARK WHERE WRITER_ID = ? AND HEARTBEAT_AT < ? FOR UPDATE";
+	private static final String UNMERGED_RESULTS_SQL =
+			"SELECT TASK_ID, RESULT, DATE_OF_EXECUTION, ELAPSED_MS FROM TASK_RESULT WHERE TASK_RESULT_ID > ? AND WRITER_ID = ?";
+	private static final String DELETE_MARK_SQL = "DELETE FROM RESULT_ROLLUP_MARK WHERE WRITER_ID = ?";
+
+	private static final Comparator<RollupKey> KEY_ORDER = Comparator
+			.comparing((RollupKey key) -> key.level)
+			.thenComparingLong(key -> key.nodeId)
+			.thenComparing(key -> key.bucketStart);
+
+	private final JdbcTemplate jdbcTemplate;
+	private final TransactionTemplate transactionTemplate;
+	private final HierarchyGraph hierarchyGraph;
+	private final TaskRegistry taskRegistry;
+	private final GlobalIdAllocator idAllocator;
+	private final ClusterShardManager shardManager;
+	private final HourlyResultRollupRepository hourlyRepository;
+	private final DailyResultRollupRepository dailyRepository;
+	private final int hourlyRetentionDays;
+	private final int dailyRetentionDays;
+	private final long deadAfterMs;
+
+	private volatile Long writerId; // null until the mark is registered
+	private Map<RollupKey, Accumulator> pending = new HashMap<>(); // guarded by this
+	private long pendingLastResultId; // guarded by this, the highest result id in pending
+
+	private final LongAdder resultsRecorded = new LongAdder();
+	private final LongAdder flushes = new LongAdder();
+	private final LongAdder rowsMerged = new LongAdder();
+	private final LongAdder failedFlushes = new LongAdder();
+	private final LongAdder hourlyRowsPurged = new LongAdder();
+	private final LongAdder dailyRowsPurged = new LongAdder();
+	private final LongAdder recoveredWriters = new LongAdder();
+	private final LongAdder recoveredResults = new LongAdder();
+	private volatile long lastFlushRows;
+	private volatile long lastFlushMillis;
+	private volatile LocalDateTime lastFlushAt;
+
+	public ResultRollupService(
+			JdbcTemplate jdbcTemplate,
+			TransactionTemplate transactionTemplate,
+			HierarchyGraph hierarchyGraph,
+			TaskRegistry taskRegistry,
+			GlobalIdAllocator idAllocator,
+			ClusterShardManager shardManager,
+			HourlyResultRollupRepository hourlyRepository,
+			DailyResultRollupRepository dailyRepository,
+			@Value("${bpm.rollups.hourly-retention-days:35}") int hourlyRetentionDays,
+			@Value("${bpm.rollups.daily-retention-days:400}") int dailyRetentionDays,
+			@Value("${bpm.rollups.dead-after-ms:600000}") long deadAfterMs) {
+		this.jdbcTemplate = jdbcTemplate;
+		this.transactionTemplate = transactionTemplate;
+		this.hierarchyGraph = hierarchyGraph;
+		this.taskRegistry = taskRegistry;
+		this.idAllocator = idAllocator;
+		this.shardManager = shardManager;
+		this.hourlyRepository = hourlyRepository;
+		this.dailyRepository = dailyRepository;
+		this.hourlyRetentionDays = Math.max(1, hourlyRetentionDays);
+		this.dailyRetentionDays = Math.max(this.hourlyRetentionDays, dailyRetentionDays);
+		this.deadAfterMs = Math.max(1000, deadAfterMs);
+	}
+
+
+	/**
+	 * registers this instance's mark before the result writer starts, so every result it writes can be recovered.
+	 */
+	@PostConstruct
+	public void start() {
+		try {
+			register();
+		} catch (DataAccessException e) {
+			log.warn("Couldn't register the rollup mark, retrying with the next flush. Results written until then "
+					+ "are lost to the rollups if this instance dies before flushing them : {}", e.getMessage());
+		}
+	}
+
+	/**
+	 * @return the WRITER_ID this instance writes it's results with, null while it's mark isn't registered.
+	 */
+	public Long getWriterId() {
+		return writerId;
+	}
+
+	/**
+	 * adds a result to the hourly and daily rows of it's task and every node above it.
+	 * Called by the result writer once the result is committed, in the order of the result ids.
+	 * @param taskId - id of the task that ran.
+	 * @param result - what it returned.
+	 */
+	public void record(Long taskId, TaskValidationResult result) {
+		TaskSpec spec = taskRegistry.get(taskId);
+		if (result.getStatus() == null || spec == null) {
+			return; // a task deleted since it ran has no rows left to add to
+		}
+		LocalDateTime at = result.getTimestamp() == null ? LocalDateTime.now() : result.getTimestamp();
+		List<RollupKey> nodes = nodesOf(spec);
+		synchronized (this) {
+			add(pending, nodes, result.getStatus(), at, result.getElapsedMillis());
+			if (result.getTaskValidationResultID() != null) {
+				pendingLastResultId = Math.max(pendingLastResultId, result.getTaskValidationResultID());
+			}
+		}
+		resultsRecorded.increment();
+	}
+
+	/**
+	 * adds the rows changed since the last flush to the rollup tables and moves this instance's mark past them.
+	 * The mark is updated even with nothing to merge, it's what tells the other nodes this instance is alive.
+	 */
+	@Scheduled(fixedDelayString = "${bpm.rollups.flush-ms:60000}")
+	public void flush() {
+		if (writerId == null) {
+			start();
+		}
+		Map<RollupKey, Accumulator> batch;
+		long lastResultId;
+		synchronized (this) {
+			batch = pending;
+			lastResultId = pendingLastResultId;
+			pending = new HashMap<>();
+		}
+		long start = java.lang.System.nanoTime();
+		Long writer = writerId;
+		try {
+			transactionTemplate.executeWithoutResult(status -> {
+				merge(batch);
+				if (writer != null && jdbcTemplate.update(MARK_SQL, lastResultId, Timestamp.valueOf(LocalDateTime.now()), writer) == 0) {
+					throw new MarkLostException();
+				}
+			});
+			if (batch.isEmpty()) {
+				return;
+			}
+			flushes.increment();
+			rowsMerged.add(batch.size());
+			lastFlushRows = batch.size();
+			lastFlushMillis = (java.lang.System.nanoTime() - start) / 1_000_000;
+			lastFlushAt = LocalDateTime.now();
+			log.debug("Merged {} rollup rows in {} ms", batch.size(), lastFlushMillis);
+		} catch (MarkLostException e) {
+			// another node took this instance for dead and merged it's results from TASK_RESULT already
+			failedFlushes.increment();
+			log.warn("The rollup mark of writer {} was recovered by another node, dropping {} rollup rows instead of merging them twice",
+					writer, batch.size());
+			writerId = null;
+			start();
+		} catch (DataAccessException e) {
+			// nothing was committed, the rows go back and are merged with the next flush
+			failedFlushes.increment();
+			log.warn("Couldn't merge {} rollup rows, retrying with the next flush : {}", batch.size(), e.getMessage());
+			synchronized (this) {
+				for (Map.Entry<RollupKey, Accumulator> entry : batch.entrySet()) {
+					pending.merge(entry.getKey(), entry.getValue(), Accumulator::merge);
+				}
+				pendingLastResultId = Math.max(pendingLastResultId, lastResultId);
+			}
+		}
+	}
+
+	/**
+	 * flushes what's left, and once it's all merged deletes this instance's mark, nothing of it is left to recover.
+	 * The result writer has stopped by then, it drains on ContextClosedEvent.
+	 */
+	@PreDestroy
+	public void stop() {
+		flush();
+		Long writer = writerId;
+		boolean merged;
+		synchronized (this) {
+			merged = pending.isEmpty();
+		}
+		if (writer == null || !merged) {
+			return; // another node recovers it once it's mark is dead-after-ms old
+		}
+		try {
+			jdbcTemplate.update(DELETE_MARK_SQL, writer);
+		} catch (DataAccessException e) {
+			log.warn("Couldn't delete the rollup mark of writer {}, another node will find nothing to recover : {}", writer, e.getMessage());
+		}
+	}
+
+	/**
+	 * merges the results that instances which died left unflushed, read back from TASK_RESULT past their marks.
+	 */
+	@Scheduled(fixedDelayString = "${bpm.rollups.recover-ms:300000}")
+	public void recoverDeadWriters() {
+		if (!shardManager.owns(0)) {
+			return; // the owner of shard 0 does it
+		}
+		Timestamp deadBefore = Timestamp.valueOf(LocalDateTime.now().minusNanos(deadAfterMs * 1_000_000L));
+		Long own = writerId;
+		List<Long> dead;
+		try {
+			dead = jdbcTemplate.queryForList(DEAD_WRITERS_SQL, Long.class, deadBefore, own == null ? -1L : own);
+		} catch (DataAccessException e) {
+			log.warn("Couldn't look for dead rollup writers : {}", e.getMessage());
+			return;
+		}
+		for (Long writer : dead) {
+			try {
+				Integer results = transactionTemplate.execute(status -> recover(writer, deadBefore));
+				if (results != null && results >= 0) {
+					recoveredWriters.increment();
+					recoveredResults.add(results);
+					log.info("Merged {} results writer {} left unflushed when it died", results, writer);
+				}
+			} catch (DataAccessException e) {
+				log.warn("Couldn't recover the rollups of writer {}, retrying later : {}", writer, e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * deletes the hourly and daily rows past their retention.
+	 */
+	@Scheduled(fixedDelayString = "${bpm.rollups.purge-ms:3600000}", initialDelayString = "${bpm.rollups.purge-ms:3600000}")
+	public void purge() {
+		if (!shardManager.owns(0)) {
+			return; // the owner of shard 0 does it
+		}
+		LocalDateTime now = LocalDateTime.now();
+		try {
+			hourlyRowsPurged.add(hourlyRepository.deleteOlderThan(RollupGrain.HOUR.bucketOf(now.minusDays(hourlyRetentionDays))));
+			dailyRowsPurged.add(dailyRepository.deleteOlderThan(RollupGrain.DAY.bucketOf(now.minusDays(dailyRetentionDays))));
+		} catch (DataAccessException e) {
+			log.warn("Couldn't purge the old rollup rows : {}", e.getMessage());
+		}
+	}
+
+	/**
+	 * @param level - level of the node.
+	 * @param id - id of the node.
+	 * @param grain - hourly or daily buckets.
+	 * @param from - start of the period, rounded down to the bucket.
+	 * @param to - end of the period, exclusive.
+	 * @return the buckets of the node that had results, oldest first, including what wasn't flushed yet.
+	 */
+	public List<ResultRollupBucketResponseDTO> getBuckets(RollupLevel level, Long id, RollupGrain grain, LocalDateTime from, LocalDateTime to) {
+		LocalDateTime start = grain.bucketOf(from);
+		TreeMap<LocalDateTime, Accumulator> buckets = read(level, id, grain, start, to);
+		List<ResultRollupBucketResponseDTO> dtos = new ArrayList<>(buckets.size());
+		for (Map.Entry<LocalDateTime, Accumulator> bucket : buckets.entrySet()) {
+			Accumulator acc = bucket.getValue();
+			dtos.add(new ResultRollupBucketResponseDTO(grain, bucket.getKey(),
+					acc.counts[TaskStatus.SUCCESS.ordinal()],
+					acc.counts[TaskStatus.FAIL.ordinal()],
+					acc.counts[TaskStatus.TIMEOUT.ordinal()],
+					acc.counts[TaskStatus.UNRUN.ordinal()],
+					acc.firstFailureAt,
+					acc.lastFailureAt,
+					acc.latencyMinMs,
+					acc.latencyAvgMs(),
+					acc.latencyMaxMs));
+		}
+		return dtos;
+	}
+
+	/**
+	 * adds up a period from the daily rows of the whole days in it and the hourly rows of the partial days
+	 * at it's edges, so a year is a few hundred rows. Partial days older than hourly-retention-days aren't counted.
+	 * @param level - level of the node.
+	 * @param id - id of the node.
+	 * @param from - start of the period, rounded down to the hour.
+	 * @param to - end of the period, rounded up to the hour.
+	 * @return the counts, availability, failures and latency of the period. Availability is null if nothing ran
+	 * in it (a node that never ran, or a period past the retention of the rollups).
+	 */
+	public ResultHistorySummaryResponseDTO getSummary(RollupLevel level, Long id, LocalDateTime from, LocalDateTime to) {
+		LocalDateTime start = RollupGrain.HOUR.bucketOf(from);
+		LocalDateTime end = RollupGrain.HOUR.bucketOf(to).equals(to) ? to : RollupGrain.HOUR.bucketOf(to).plusHours(1);
+		LocalDateTime firstDay = RollupGrain.DAY.bucketOf(start).equals(start) ? start : RollupGrain.DAY.bucketOf(start).plusDays(1);
+		LocalDateTime lastDay = RollupGrain.DAY.bucketOf(end);
+
+		Accumulator total = new Accumulator();
+		int hourlyRows = 0;
+		int dailyRows = 0;
+		if (firstDay.isBefore(lastDay)) {
+			for (Accumulator acc : read(level, id, RollupGrain.DAY, firstDay, lastDay).values()) {
+				total.merge(acc);
+				dailyRows++;
+			}
+			for (Accumulator acc : read(level, id, RollupGrain.HOUR, start, firstDay).values()) {
+				total.merge(acc);
+				hourlyRows++;
+			}
+			for (Accumulator acc : read(level, id, RollupGrain.HOUR, lastDay, end).values()) {
+				total.merge(acc);
+				hourlyRows++;
+			}
+		} else {
+			for (Accumulator acc : read(level, id, RollupGrain.HOUR, start, end).values()) {
+				total.merge(acc);
+				hourlyRows++;
+			}
+		}
+
+		long success = total.counts[TaskStatus.SUCCESS.ordinal()];
+		long fail = total.counts[TaskStatus.FAIL.ordinal()];
+		long timeout = total.counts[TaskStatus.TIMEOUT.ordinal()];
+		long unrun = total.counts[TaskStatus.UNRUN.ordinal()];
+		long ran = success + fail + timeout;
+		return new ResultHistorySummaryResponseDTO(level, id, start, end,
+				ran + unrun,
+				success,
+				fail,
+				timeout,
+				unrun,
+				ran == 0 ? null : (double) success / ran,
+				total.firstFailureAt,
+				total.lastFailureAt,
+				total.latencyMinMs,
+				total.latencyAvgMs(),
+				total.latencyMaxMs,
+				hourlyRows,
+				dailyRows);
+	}
+
+	/**
+	 * @return how many results were rolled up and how the flushes and purges went.
+	 */
+	public ResultRollupMetricsResponseDTO getMetrics() {
+		int pendingRows;
+		synchronized (this) {
+			pendingRows = pending.size();
+		}
+		return new ResultRollupMetricsResponseDTO(
+				resultsRecorded.sum(),
+				pendingRows,
+				flushes.sum(),
+				rowsMerged.sum(),
+				failedFlushes.sum(),
+				lastFlushRows,
+				lastFlushMillis,
+				lastFlushAt,
+				hourlyRetentionDays,
+				dailyRetentionDays,
+				hourlyRowsPurged.sum(),
+				dailyRowsPurged.sum(),
+				recoveredWriters.sum(),
+				recoveredResults.sum());
+	}
+
+
+	/**
+	 * merges a dead writer's results past it's mark and deletes the mark, in the caller's transaction.
+	 * @return how many results were merged, -1 if the mark was gone or alive again once locked.
+	 */
+	private int recover(long writer, Timestamp deadBefore) {
+		List<Long> marks = jdbcTemplate.queryForList(LOCK_DEAD_MARK_SQL, Long.class, writer, deadBefore);
+		if (marks.isEmpty()) {
+			return -1;
+		}
+		Map<RollupKey, Accumulator> rows = new HashMap<>();
+		int[] results = { 0 };
+		jdbcTemplate.query(UNMERGED_RESULTS_SQL, rs -> {
+			TaskSpec spec = taskRegistry.get(rs.getLong(1));
+			String status = rs.getString(2);
+			if (spec == null || status == null) {
+				return;
+			}
+			Timestamp at = rs.getTimestamp(3);
+			long elapsed = rs.getLong(4);
+			add(rows, nodesOf(spec), TaskStatus.valueOf(status), at == null ? LocalDateTime.now() : at.toLocalDateTime(),
+					rs.wasNull() ? null : elapsed);
+			results[0]++;
+		}, marks.get(0), writer);
+		merge(rows);
+		jdbcTemplate.update(DELETE_MARK_SQL, writer);
+		return results[0];
+	}
+
+	/**
+	 * takes a fresh WRITER_ID and inserts it's mark, every result id handed out after it is higher.
+	 */
+	private void register() {
+		long id = idAllocator.nextId();
+		jdbcTemplate.update(REGISTER_SQL, id, id, Timestamp.valueOf(LocalDateTime.now()));
+		writerId = id;
+		log.info("Results of this instance are written and rolled up as writer {}", id);
+	}
+
+	/**
+	 * MERGEs rows into the hourly and daily tables, in key order, in the caller's transaction.
+	 */
+	private void merge(Map<RollupKey, Accumulator> rows) {
+		if (rows.isEmpty()) {
+			return;
+		}
+		List<Map.Entry<RollupKey, Accumulator>> hourly = new ArrayList<>();
+		List<Map.Entry<RollupKey, Accumulator>> daily = new ArrayList<>();
+		for (Map.Entry<RollupKey, Accumulator> entry : rows.entrySet()) {
+			(entry.getKey().grain == RollupGrain.HOUR ? hourly : daily).add(entry);
+		}
+		hourly.sort(Map.Entry.comparingByKey(KEY_ORDER));
+		daily.sort(Map.Entry.comparingByKey(KEY_ORDER));
+		jdbcTemplate.batchUpdate(MERGE_HOURLY_SQL, hourly, hourly.size(), this::bindRow);
+		jdbcTemplate.batchUpdate(MERGE_DAILY_SQL, daily, daily.size(), this::bindRow);
+	}
+
+	/**
+	 * adds a result to the rows of every node in both grains.
+	 */
+	private static void add(Map<RollupKey, Accumulator> rows, List<RollupKey> nodes, TaskStatus status, LocalDateTime at, Long elapsedMillis) {
+		for (RollupGrain grain : RollupGrain.values()) {
+			LocalDateTime bucketStart = grain.bucketOf(at);
+			for (RollupKey node : nodes) {
+				rows.computeIfAbsent(node.in(grain, bucketStart), key -> new Accumulator()).add(status, at, elapsedMillis);
+			}
+		}
+	}
+
+
+	/**
+	 * @return the rows of a node from start (a bucket) to end, by bucket, with the changes not flushed yet added in.
+	 */
+	private TreeMap<LocalDateTime, Accumulator> read(RollupLevel level, Long id, RollupGrain grain, LocalDateTime start, LocalDateTime end) {
+		TreeMap<LocalDateTime, Accumulator> buckets = new TreeMap<>();
+		if (!start.isBefore(end)) {
+			return buckets;
+		}
+		List<? extends ResultRollup> rows = grain == RollupGrain.HOUR
+				? hourlyRepository.findBuckets(level, id, start, end)
+				: dailyRepository.findBuckets(level, id, start, end);
+		for (ResultRollup row : rows) {
+			buckets.put(row.getId().getBucketStart(), Accumulator.of(row));
+		}
+		synchronized (this) {
+			for (Map.Entry<RollupKey, Accumulator> entry : pending.entrySet()) {
+				RollupKey key = entry.getKey();
+				if (key.grain == grain && key.level == level && key.nodeId == id
+						&& !key.bucketStart.isBefore(start) && key.bucketStart.isBefore(end)) {
+					buckets.computeIfAbsent(key.bucketStart, bucketStart -> new Accumulator()).merge(entry.getValue());
+				}
+			}
+		}
+		return buckets;
+	}
+
+	/**
+	 * @return the task and every node above it, without a bucket yet.
+	 */
+	private List<RollupKey> nodesOf(TaskSpec spec) {
+		List<RollupKey> nodes = new ArrayList<>(6);
+		nodes.add(new RollupKey(null, RollupLevel.TASK, spec.getTaskId(), null));
+		if (spec.getActivityId() != null) {
+			nodes.add(new RollupKey(null, RollupLevel.ACTIVITY, spec.getActivityId(), null));
+			HierarchySnapshot snapshot = hierarchyGraph.getSnapshot();
+			HierarchySnapshot.GroupNode activity = snapshot.getActivities().get(spec.getActivityId());
+			Long subprocessId = activity == null ? null : activity.getParentId();
+			if (subprocessId != null) {
+				nodes.add(new RollupKey(null, RollupLevel.SUBPROCESS, subprocessId, null));
+				HierarchySnapshot.GroupNode subprocess = snapshot.getSubprocesses().get(subprocessId);
+				if (subprocess != null && subprocess.getParentId() != null) {
+					nodes.add(new RollupKey(null, RollupLevel.PROCESS, subprocess.getParentId(), null));
+				}
+			}
+		}
+		if (spec.getSystemId() != null) {
+			nodes.add(new RollupKey(null, RollupLevel.SYSTEM, spec.getSystemId(), null));
+		}
+		if (spec.getInterfaceId() != null) {
+			nodes.add(new RollupKey(null, RollupLevel.INTERFACE, spec.getInterfaceId(), null));
+		}
+		return nodes;
+	}
+
+	private void bindRow(PreparedStatement ps, Map.Entry<RollupKey, Accumulator> row) throws SQLException {
+		RollupKey key = row.getKey();
+		Accumulator acc = row.getValue();
+		ps.setString(1, key.level.name());
+		ps.setLong(2, key.nodeId);
+		ps.setTimestamp(3, Timestamp.valueOf(key.bucketStart));
+		ps.setLong(4, acc.counts[TaskStatus.SUCCESS.ordinal()]);
+		ps.setLong(5, acc.counts[TaskStatus.FAIL.ordinal()]);
+		ps.setLong(6, acc.counts[TaskStatus.TIMEOUT.ordinal()]);
+		ps.setLong(7, acc.counts[TaskStatus.UNRUN.ordinal()]);
+		setTimestamp(ps, 8, acc.firstFailureAt);
+		setTimestamp(ps, 9, acc.lastFailureAt);
+		ps.setLong(10, acc.latencyCount);
+		ps.setLong(11, acc.latencySumMs);
+		setLong(ps, 12, acc.latencyMinMs);
+		setLong(ps, 13, acc.latencyMaxMs);
+	}
+
+	private static void setTimestamp(PreparedStatement ps, int index, LocalDateTime value) throws SQLException {
+		if (value == null) {
+			ps.setNull(index, Types.TIMESTAMP);
+		} else {
+			ps.setTimestamp(index, Timestamp.valueOf(value));
+		}
+	}
+
+	private static void setLong(PreparedStatement ps, int index, Long value) throws SQLException {
+		if (value == null) {
+			ps.setNull(index, Types.NUMERIC);
+		} else {
+			ps.setLong(index, value);
+		}
+	}
+
+
+	/**
+	 * a rollup row: a node in a bucket of a grain.
+	 */
+	private static final class RollupKey {
+		private final RollupGrain grain;
+		private final RollupLevel level;
+		private final long nodeId;
+		private final LocalDateTime bucketStart;
+
+		private RollupKey(RollupGrain grain, RollupLevel level, long nodeId, LocalDateTime bucketStart) {
+			this.grain = grain;
+			this.level = level;
+			this.nodeId = nodeId;
+			this.bucketStart = bucketStart;
+		}
+
+		private RollupKey in(RollupGrain bucketGrain, LocalDateTime start) {
+			return new RollupKey(bucketGrain, level, nodeId, start);
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (this == o) {
+				return true;
+			}
+			if (!(o instanceof RollupKey)) {
+				return false;
+			}
+			RollupKey other = (RollupKey) o;
+			return nodeId == other.nodeId && grain == other.grain && level == other.level
+					&& Objects.equals(bucketStart, other.bucketStart);
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(grain, level, nodeId, bucketStart);
+		}
+	}
+
+	/**
+	 * thrown inside the flush transaction to roll it back when this instance's mark is gone.
+	 */
+	private static final class MarkLostException extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+	}
+
+	/**
+	 * the counts, failures and latency of a row, or of the changes to it not flushed yet.
+	 */
+	private static final class Accumulator {
+		private final long[] counts = new long[TaskStatus.values().length]; // by TaskStatus ordinal
+		private LocalDateTime firstFailureAt;
+		private LocalDateTime lastFailureAt;
+		private long latencyCount;
+		private long latencySumMs;
+		private Long latencyMinMs;
+		private Long latencyMaxMs;
+
+		private static Accumulator of(ResultRollup row) {
+			Accumulator acc = new Accumulator();
+			acc.counts[TaskStatus.SUCCESS.ordinal()] = row.getSuccessCount();
+			acc.counts[TaskStatus.FAIL.ordinal()] = row.getFailCount();
+			acc.counts[TaskStatus.TIMEOUT.ordinal()] = row.getTimeoutCount();
+			acc.counts[TaskStatus.UNRUN.ordinal()] = row.getUnrunCount();
+			acc.firstFailureAt = row.getFirstFailureAt();
+			acc.lastFailureAt = row.getLastFailureAt();
+			acc.latencyCount = row.getLatencyCount();
+			acc.latencySumMs = row.getLatencySumMs();
+			acc.latencyMinMs = row.getLatencyMinMs();
+			acc.latencyMaxMs = row.getLatencyMaxMs();
+			return acc;
+		}
+
+		private void add(TaskStatus status, LocalDateTime at, Long elapsedMillis) {
+			counts[status.ordinal()]++;
+			if (status.isFailure()) {
+				failureAt(at, at);
+			}
+			if (elapsedMillis != null) {
+				latency(1, elapsedMillis, elapsedMillis, elapsedMillis);
+			}
+		}
+
+		private Accumulator merge(Accumulator other) {
+			for (int i = 0; i < counts.length; i++) {
+				counts[i] += other.counts[i];
+			}
+			if (other.firstFailureAt != null) {
+				failureAt(other.firstFailureAt, other.lastFailureAt);
+			}
+			if (other.latencyCount > 0) {
+				latency(other.latencyCount, other.latencySumMs, other.latencyMinMs, other.latencyMaxMs);
+			}
+			return this;
+		}
+
+		private void failureAt(LocalDateTime first, LocalDateTime last) {
+			if (firstFailureAt == null || first.isBefore(firstFailureAt)) {
+				firstFailureAt = first;
+			}
+			if (last != null && (lastFailureAt == null || last.isAfter(lastFailureAt))) {
+				lastFailureAt = last;
+			}
+		}
+
+		private void latency(long count, long sumMs, Long minMs, Long maxMs) {
+			latencyCount += count;
+			latencySumMs += sumMs;
+			if (minMs != null && (latencyMinMs == null || minMs < latencyMinMs)) {
+				latencyMinMs = minMs;
+			}
+			if (maxMs != null && (latencyMaxMs == null || maxMs > latencyMaxMs)) {
+				latencyMaxMs = maxMs;
+			}
+		}
+
+		private Double latencyAvgMs() {
+			return latencyCount == 0 ? null : (double) latencySumMs / latencyCount;
+		}
+	}
+}
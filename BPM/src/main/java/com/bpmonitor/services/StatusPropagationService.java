@@ -0,0 +1,606 @@
+package com.bpmonitor.services;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import com.bpmonitor.DTOs.response.StatusPropagationMetricsResponseDTO;
+import com.bpmonitor.enums.HierarchyNodeType;
+import com.bpmonitor.enums.OperationalStatus;
+import com.bpmonitor.enums.TaskStatus;
+import com.bpmonitor.eventListeners.HierarchyStatusChangedEvent;
+import com.bpmonitor.eventListeners.StatusTransition;
+import com.bpmonitor.registry.TaskSpec;
+import com.bpmonitor.repositories.ActivityRepository;
+import com.bpmonitor.repositories.InterfaceRepository;
+import com.bpmonitor.repositories.ProcessRepository;
+import com.bpmonitor.repositories.SubprocessRepository;
+import com.bpmonitor.repositories.SystemRepository;
+import com.bpmonitor.repositories.TaskRepository;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Propagates task results up the hierarchy by delta instead of rescanning every level.
+ *
+ * Every parent keeps counters of it's children per status:
+ * activities, systems and interfaces count their tasks and how many are failing,
+ * subprocesses count their activities per status and processes their subprocesses.
+ *
+ * A result only moves the counters of it's task's parents and marks them dirty, a result that doesn't
+ * change it's task's status costs nothing. Every debounce-ms the dirty nodes are recomputed once, bottom-up
+ * (activities, then the subprocesses of the ones that flipped, then their processes, then systems and interfaces),
+ * only the nodes whose status flips are written, and the window's transitions are published
+ * as one HierarchyStatusChangedEvent. A sweep of hundreds of results under the same parents costs
+ * one recompute per distinct dirty node instead of one per result.
+ *
+ * The rules are the same ones the rescans used:
+ * - activity, system, interface: no failing task UP, one COMPROMISED, more DOWN
+ * - subprocess, process: any child DOWN is DOWN, else any COMPROMISED is COMPROMISED, else UP
+ * - a parent without children keeps it's status
+ *
+ * The counters are built from the DB on start and rebuilt every rebuild-ms, which also catches
+ * tasks and activities added, moved or deleted around them. After a rebuild every node is recomputed once.
+ * The subprocess of an activity created since the last rebuild is looked up before taking the lock,
+ * so a slow DB never holds every other result up.
+ * A failed write makes the next window rebuild them.
+ * @author joao7
+ *
+ */
+@Slf4j
+@Service
+public class StatusPropagationService {
+
+	private final TaskRepository taskRepository;
+	private final ActivityRepository activityRepository;
+	private final SubprocessRepository subprocessRepository;
+	private final ProcessRepository processRepository;
+	private final SystemRepository systemRepository;
+	private final InterfaceRepository interfaceRepository;
+	private final ActivityWriteService activityWriteService;
+	private final SubprocessService subprocessService;
+	private final ProcessService processService;
+	private final SystemService systemService;
+	private final InterfaceService interfaceService;
+	private final ApplicationEventPublisher eventPublisher;
+
+	private static final Long NO_SUBPROCESS = -1L;
+
+	// windows and rebuilds never overlap, so what a window writes is never half read by a rebuild
+	private final Object windowLock = new Object();
+
+	// subprocess of every activity seen, NO_SUBPROCESS for the ones without, read and filled outside the lock
+	private final Map<Long, Long> subprocessOfActivity = new ConcurrentHashMap<>();
+
+	// everything below is guarded by this
+	private final Map<Long, TaskNode> tasks = new HashMap<>();
+	private final Map<Long, TaskParent> activities = new HashMap<>();
+	private final Map<Long, TaskParent> systems = new HashMap<>();
+	private final Map<Long, TaskParent> interfaces = new HashMap<>();
+	private final Map<Long, GroupNode> subprocesses = new HashMap<>();
+	private final Map<Long, GroupNode> processes = new HashMap<>();
+	private Map<Long, TaskStatus> pendingTaskStatuses = new LinkedHashMap<>(); // last status of each task this window
+	private Set<Long> dirtyActivities = new LinkedHashSet<>();
+	private Set<Long> dirtySubprocesses = new LinkedHashSet<>();
+	private Set<Long> dirtyProcesses = new LinkedHashSet<>();
+	private Set<Long> dirtySystems = new LinkedHashSet<>();
+	private Set<Long> dirtyInterfaces = new LinkedHashSet<>();
+	private boolean built;
+	private LocalDateTime lastRebuildAt;
+
+	private final LongAdder results = new LongAdder();
+	private final LongAdder unchanged = new LongAdder(); // results that didn't change their task's status
+	private final LongAdder windows = new LongAdder();
+	private final LongAdder recomputed = new LongAdder(); // dirty nodes recomputed, once per window each
+	private final LongAccumulator maxDirtyPerWindow = new LongAccumulator(Math::max, 0);
+	private final LongAdder taskTransitions = new LongAdder();
+	private final Map<HierarchyNodeType, LongAdder> transitions = new HashMap<>();
+	private final LongAdder rebuilds = new LongAdder();
+	private final LongAdder writeFailures = new LongAdder();
+
+	public StatusPropagationService(
+			TaskRepository taskRepository,
+			ActivityRepository activityRepository,
+			SubprocessRepository subprocessRepository,
+			ProcessRepository processRepository,
+			SystemRepository systemRepository,
+			InterfaceRepository interfaceRepository,
+			ActivityWriteService activityWriteService,
+			SubprocessService subprocessService,
+			ProcessService processService,
+			SystemService systemService,
+			InterfaceService interfaceService,
+			ApplicationEventPublisher eventPublisher) {
+		this.taskRepository = taskRepository;
+		this.activityRepository = activityRepository;
+		this.subprocessRepository = subprocessRepository;
+		this.processRepository = processRepository;
+		this.systemRepository = systemRepository;
+		this.interfaceRepository = interfaceRepository;
+		this.activityWriteService = activityWriteService;
+		this.subprocessService = subprocessService;
+		this.processService = processService;
+		this.systemService = systemService;
+		this.interfaceService = interfaceService;
+		this.eventPublisher = eventPublisher;
+		for (HierarchyNodeType type : HierarchyNodeType.values()) {
+			transitions.put(type, new LongAdder());
+		}
+	}
+
+
+	@EventListener(ApplicationReadyEvent.class)
+	public void load() {
+		rebuild();
+	}
+
+	/**
+	 * rebuilds the counters from the DB, catches whatever changed in the hierarchy meanwhile.
+	 * every node is marked dirty so the next window recomputes it once.
+	 */
+	@Scheduled(fixedDelayString = "${bpm.propagation.rebuild-ms:600000}", initialDelayString = "${bpm.propagation.rebuild-ms:600000}")
+	public void rebuild() {
+		synchronized (windowLock) {
+			List<Object[]> processRows = processRepository.findAllStatuses();
+			List<Object[]> subprocessRows = subprocessRepository.findAllStatusLinks();
+			List<Object[]> activityRows = activityRepository.findAllStatusLinks();
+			List<Object[]> systemRows = systemRepository.findAllStatuses();
+			List<Object[]> interfaceRows = interfaceRepository.findAllStatuses();
+			List<Object[]> taskRows = taskRepository.findAllStatusLinks();
+
+			synchronized (this) {
+				tasks.clear();
+				activities.clear();
+				systems.clear();
+				interfaces.clear();
+				subprocesses.clear();
+				processes.clear();
+
+				for (Object[] row : processRows) {
+					processes.put((Long) row[0], new GroupNode((OperationalStatus) row[1], null));
+				}
+				for (Object[] row : subprocessRows) {
+					GroupNode subprocess = new GroupNode((OperationalStatus) row[1], (Long) row[2]);
+					subprocesses.put((Long) row[0], subprocess);
+					count(processes.get(subprocess.parentId), subprocess.status, 1);
+				}
+				for (Object[] row : activityRows) {
+					TaskParent activity = new TaskParent((OperationalStatus) row[1], (Long) row[2]);
+					activities.put((Long) row[0], activity);
+					subprocessOfActivity.put((Long) row[0], row[2] == null ? NO_SUBPROCESS : (Long) row[2]);
+					count(subprocesses.get(activity.parentId), activity.status, 1);
+				}
+				for (Object[] row : systemRows) {
+					systems.put((Long) row[0], new TaskParent((OperationalStatus) row[1], null));
+				}
+				for (Object[] row : interfaceRows) {
+					interfaces.put((Long) row[0], new TaskParent((OperationalStatus) row[1], null));
+				}
+				for (Object[] row : taskRows) {
+					Long taskId = (Long) row[0];
+					// a result not written yet is newer than the row
+					TaskStatus pending = pendingTaskStatuses.get(taskId);
+					TaskNode task = new TaskNode(pending != null ? pending : (TaskStatus) row[1],
+							(Long) row[2], (Long) row[3], (Long) row[4]);
+					tasks.put(taskId, task);
+					contribute(task, 1);
+				}
+
+				dirtyActivities.addAll(activities.keySet());
+				dirtySubprocesses.addAll(subprocesses.keySet());
+				dirtyProcesses.addAll(processes.keySet());
+				dirtySystems.addAll(systems.keySet());
+				dirtyInterfaces.addAll(interfaces.keySet());
+
+				built = true;
+				lastRebuildAt = LocalDateTime.now();
+				rebuilds.increment();
+				log.debug("Status counters rebuilt: {} tasks, {} activities, {} subprocesses, {} processes",
+						tasks.size(), activities.size(), subprocesses.size(), processes.size());
+			}
+		}
+	}
+
+
+	/**
+	 * applies the result of a task to the counters of it's parents and marks them dirty,
+	 * nothing is written until the window closes.
+	 * @param spec - the task, where it sits in the hierarchy comes from it.
+	 * @param newStatus - status of it's result.
+	 */
+	public void onTaskResult(TaskSpec spec, TaskStatus newStatus) {
+		Long activityId = spec.getActivityId();
+		if (activityId != null && !subprocessOfActivity.containsKey(activityId)) {
+			Long subprocessId = activityRepository.findById(activityId)
+					.map(a -> a.getSubprocess() == null ? null : a.getSubprocess().getSubprocessID())
+					.orElse(null);
+			subprocessOfActivity.put(activityId, subprocessId == null ? NO_SUBPROCESS : subprocessId);
+		}
+		apply(spec, newStatus);
+	}
+
+	private synchronized void apply(TaskSpec spec, TaskStatus newStatus) {
+		results.increment();
+		Long taskId = spec.getTaskId();
+
+		TaskNode task = tasks.get(taskId);
+		boolean moved = task == null
+				|| !Objects.equals(task.activityId, spec.getActivityId())
+				|| !Objects.equals(task.systemId, spec.getSystemId())
+				|| !Objects.equals(task.interfaceId, spec.getInterfaceId());
+		if (built && !moved && task.status == newStatus) {
+			unchanged.increment();
+			return;
+		}
+		if (task == null || task.status != newStatus) {
+			pendingTaskStatuses.put(taskId, newStatus);
+		}
+		if (!built) {
+			return; // the rebuild picks the pending status up
+		}
+
+		if (task != null) {
+			contribute(task, -1);
+			markParentsDirty(task);
+		}
+		task = new TaskNode(newStatus, spec.getActivityId(), spec.getSystemId(), spec.getInterfaceId());
+		tasks.put(taskId, task);
+		contribute(task, 1);
+		markParentsDirty(task);
+	}
+
+	/**
+	 * closes the window: writes the task statuses that changed, recomputes every dirty node once bottom-up,
+	 * writes the ones that flipped and publishes the transitions.
+	 */
+	@Scheduled(fixedDelayString = "${bpm.propagation.debounce-ms:500}")
+	public void flushWindow() {
+		synchronized (windowLock) {
+			Map<Long, TaskStatus> taskStatuses;
+			boolean rebuild;
+			synchronized (this) {
+				taskStatuses = pendingTaskStatuses;
+				pendingTaskStatuses = new LinkedHashMap<>();
+				rebuild = !built;
+			}
+
+			try {
+				for (Map.Entry<Long, TaskStatus> entry : taskStatuses.entrySet()) {
+					// the task that ran is a detached copy, only the status column is touched
+					taskRepository.updateTaskStatus(entry.getKey(), entry.getValue());
+				}
+				taskTransitions.add(taskStatuses.size());
+			} catch (RuntimeException e) {
+				synchronized (this) {
+					// retried next window, unless a newer result of the task came in meanwhile
+					for (Map.Entry<Long, TaskStatus> entry : taskStatuses.entrySet()) {
+						pendingTaskStatuses.putIfAbsent(entry.getKey(), entry.getValue());
+					}
+				}
+				writeFailed(e);
+				return;
+			}
+			if (rebuild) {
+				rebuild();
+			}
+
+			List<StatusTransition> window;
+			synchronized (this) {
+				window = recomputeDirty();
+			}
+			if (window.isEmpty()) {
+				return;
+			}
+
+			try {
+				for (StatusTransition transition : window) {
+					write(transition);
+					transitions.get(transition.getNodeType()).increment();
+				}
+			} catch (RuntimeException e) {
+				writeFailed(e);
+				return;
+			}
+			eventPublisher.publishEvent(new HierarchyStatusChangedEvent(window));
+		}
+	}
+
+	/**
+	 * @return how much propagation work the results caused.
+	 */
+	public StatusPropagationMetricsResponseDTO getMetrics() {
+		int taskCount;
+		int parents;
+		int dirty;
+		LocalDateTime rebuiltAt;
+		synchronized (this) {
+			taskCount = tasks.size();
+			parents = activities.size() + subprocesses.size() + processes.size() + systems.size() + interfaces.size();
+			dirty = dirtyCount();
+			rebuiltAt = lastRebuildAt;
+		}
+		return new StatusPropagationMetricsResponseDTO(
+				taskCount,
+				parents,
+				results.sum(),
+				unchanged.sum(),
+				windows.sum(),
+				dirty,
+				recomputed.sum(),
+				maxDirtyPerWindow.get(),
+				taskTransitions.sum(),
+				transitions.get(HierarchyNodeType.ACTIVITY).sum(),
+				transitions.get(HierarchyNodeType.SUBPROCESS).sum(),
+				transitions.get(HierarchyNodeType.PROCESS).sum(),
+				transitions.get(HierarchyNodeType.SYSTEM).sum(),
+				transitions.get(HierarchyNodeType.INTERFACE).sum(),
+				rebuilds.sum(),
+				writeFailures.sum(),
+				rebuiltAt);
+	}
+
+
+	/**
+	 * recomputes every dirty node once, a level's transitions mark the next level dirty before it's recomputed.
+	 * the counters and statuses in memory move right away, the DB is written by the caller.
+	 */
+	private List<StatusTransition> recomputeDirty() {
+		int dirty = dirtyCount();
+		if (dirty == 0) {
+			return new ArrayList<>(0);
+		}
+		windows.increment();
+		maxDirtyPerWindow.accumulate(dirty);
+		LocalDateTime now = LocalDateTime.now();
+		List<StatusTransition> window = new ArrayList<>();
+
+		for (Long activityId : takeAll(dirtyActivities)) {
+			TaskParent activity = activities.get(activityId);
+			if (activity == null) {
+				continue;
+			}
+			recomputed.increment();
+			OperationalStatus status = activity.derive();
+			if (status != activity.status) {
+				window.add(new StatusTransition(HierarchyNodeType.ACTIVITY, activityId, activity.status, status, now));
+				moveChild(subprocesses.get(activity.parentId), activity.status, status);
+				activity.status = status;
+				if (activity.parentId != null) {
+					dirtySubprocesses.add(activity.parentId);
+				}
+			}
+		}
+
+		for (Long subprocessId : takeAll(dirtySubprocesses)) {
+			GroupNode subprocess = subprocesses.get(subprocessId);
+			if (subprocess == null) {
+				continue;
+			}
+			recomputed.increment();
+			OperationalStatus status = subprocess.derive();
+			if (status != subprocess.status) {
+				window.add(new StatusTransition(HierarchyNodeType.SUBPROCESS, subprocessId, subprocess.status, status, now));
+				moveChild(processes.get(subprocess.parentId), subprocess.status, status);
+				subprocess.status = status;
+				if (subprocess.parentId != null) {
+					dirtyProcesses.add(subprocess.parentId);
+				}
+			}
+		}
+
+		for (Long processId : takeAll(dirtyProcesses)) {
+			GroupNode process = processes.get(processId);
+			if (process == null) {
+				continue;
+			}
+			recomputed.increment();
+			OperationalStatus status = process.derive();
+			if (status != process.status) {
+				window.add(new StatusTransition(HierarchyNodeType.PROCESS, processId, process.status, status, now));
+				process.status = status;
+			}
+		}
+
+		recomputeTaskParents(HierarchyNodeType.SYSTEM, systems, takeAll(dirtySystems), now, window);
+		recomputeTaskParents(HierarchyNodeType.INTERFACE, interfaces, takeAll(dirtyInterfaces), now, window);
+		return window;
+	}
+
+	private void recomputeTaskParents(HierarchyNodeType type, Map<Long, TaskParent> nodes, Set<Long> dirty,
+			LocalDateTime now, List<StatusTransition> window) {
+		for (Long id : dirty) {
+			TaskParent node = nodes.get(id);
+			if (node == null) {
+				continue;
+			}
+			recomputed.increment();
+			OperationalStatus status = node.derive();
+			if (status != node.status) {
+				window.add(new StatusTransition(type, id, node.status, status, now));
+				node.status = status;
+			}
+		}
+	}
+
+	private void write(StatusTransition transition) {
+		Long id = transition.getNodeId();
+		OperationalStatus status = transition.getNewStatus();
+		switch (transition.getNodeType()) {
+			case ACTIVITY:
+				activityWriteService.updateActivityStatus(id, status);
+				break;
+			case SUBPROCESS:
+				subprocessService.updateSubprocessStatus(id, status);
+				break;
+			case PROCESS:
+				processService.updateProcessStatus(id, status);
+				break;
+			case SYSTEM:
+				systemService.updateSystemStatus(id, status);
+				break;
+			case INTERFACE:
+				interfaceService.updateInterfaceStatus(id, status);
+				break;
+		}
+	}
+
+	/**
+	 * a parent was deleted or the DB hiccuped, the counters can't be trusted anymore.
+	 */
+	private void writeFailed(RuntimeException e) {
+		writeFailures.increment();
+		synchronized (this) {
+			built = false;
+		}
+		log.warn("Status propagation failed writing a window, counters will be rebuilt: {}", e.getMessage());
+	}
+
+	/**
+	 * adds (delta 1) or removes (delta -1) a task from the counters of it's parents,
+	 * parents not known yet (created after the last rebuild) are added.
+	 */
+	private void contribute(TaskNode task, int delta) {
+		boolean failing = task.status != null && task.status.isFailure();
+		if (task.activityId != null) {
+			activityNode(task.activityId).count(failing, delta);
+		}
+		if (task.systemId != null) {
+			systems.computeIfAbsent(task.systemId, id -> new TaskParent(null, null)).count(failing, delta);
+		}
+		if (task.interfaceId != null) {
+			interfaces.computeIfAbsent(task.interfaceId, id -> new TaskParent(null, null)).count(failing, delta);
+		}
+	}
+
+	private TaskParent activityNode(Long activityId) {
+		TaskParent activity = activities.get(activityId);
+		if (activity == null) {
+			// looked up by onTaskResult, or an activity newer than the rebuild's read that the next rebuild places
+			Long subprocessId = subprocessOfActivity.get(activityId);
+			activity = new TaskParent(null, subprocessId == null || NO_SUBPROCESS.equals(subprocessId) ? null : subprocessId);
+			activities.put(activityId, activity);
+		}
+		return activity;
+	}
+
+	private void markParentsDirty(TaskNode task) {
+		if (task.activityId != null) {
+			dirtyActivities.add(task.activityId);
+		}
+		if (task.systemId != null) {
+			dirtySystems.add(task.systemId);
+		}
+		if (task.interfaceId != null) {
+			dirtyInterfaces.add(task.interfaceId);
+		}
+	}
+
+	private int dirtyCount() {
+		return dirtyActivities.size() + dirtySubprocesses.size() + dirtyProcesses.size()
+				+ dirtySystems.size() + dirtyInterfaces.size();
+	}
+
+	private static Set<Long> takeAll(Set<Long> dirty) {
+		Set<Long> taken = new LinkedHashSet<>(dirty);
+		dirty.clear();
+		return taken;
+	}
+
+	private static void count(GroupNode group, OperationalStatus status, int delta) {
+		if (group != null && status != null) {
+			group.children[status.ordinal()] += delta;
+		}
+	}
+
+	private static void moveChild(GroupNode group, OperationalStatus from, OperationalStatus to) {
+		count(group, from, -1);
+		count(group, to, 1);
+	}
+
+
+	private static final class TaskNode {
+		private final TaskStatus status;
+		private final Long activityId;
+		private final Long systemId;
+		private final Long interfaceId;
+
+		private TaskNode(TaskStatus status, Long activityId, Long systemId, Long interfaceId) {
+			this.status = status;
+			this.activityId = activityId;
+			this.systemId = systemId;
+			this.interfaceId = interfaceId;
+		}
+	}
+
+	/**
+	 * an activity, system or interface, counts it's tasks and how many of them are failing.
+	 */
+	private static final class TaskParent {
+		private OperationalStatus status;
+		private final Long parentId; // subprocess of an activity
+		private int tasks;
+		private int failing;
+
+		private TaskParent(OperationalStatus status, Long parentId) {
+			this.status = status;
+			this.parentId = parentId;
+		}
+
+		private void count(boolean failingTask, int delta) {
+			tasks += delta;
+			if (failingTask) {
+				failing += delta;
+			}
+		}
+
+		private OperationalStatus derive() {
+			if (tasks <= 0) {
+				return status;
+			}
+			return failing == 0 ? OperationalStatus.UP : failing == 1 ? OperationalStatus.COMPROMISED : OperationalStatus.DOWN;
+		}
+	}
+
+	/**
+	 * a subprocess or process, counts it's children per status.
+	 */
+	private static final class GroupNode {
+		private OperationalStatus status;
+		private final Long parentId; // process of a subprocess
+		private final int[] children = new int[OperationalStatus.values().length];
+
+		private GroupNode(OperationalStatus status, Long parentId) {
+			this.status = status;
+			this.parentId = parentId;
+		}
+
+		private OperationalStatus derive() {
+			int total = 0;
+			for (int count : children) {
+				total += count;
+			}
+			if (total <= 0) {
+				return status;
+			}
+			if (children[OperationalStatus.DOWN.ordinal()] > 0) {
+				return OperationalStatus.DOWN;
+			}
+			return children[OperationalStatus.COMPROMISED.ordinal()] > 0 ? OperationalStatus.COMPROMISED : OperationalStatus.UP;
+		}
+	}
+}
@@ -0,0 +1,543 @@
+package com.bpmonitor.services;
+
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import com.bpmonitor.DTOs.response.StatusStreamMetricsResponseDTO;
+import com.bpmonitor.DTOs.response.StatusTransitionEventDTO;
+import com.bpmonitor.enums.TaskStatus;
+import com.bpmonitor.eventListeners.HierarchyStatusChangedEvent;
+import com.bpmonitor.eventListeners.StatusTransition;
+import com.bpmonitor.hierarchy.HierarchyGraph;
+import com.bpmonitor.hierarchy.HierarchySnapshot;
+import com.bpmonitor.hierarchy.HierarchySnapshot.GroupNode;
+import com.bpmonitor.hierarchy.HierarchySnapshot.InterfaceNode;
+import com.bpmonitor.hierarchy.HierarchySnapshot.SystemNode;
+import com.bpmonitor.hierarchy.HierarchySnapshot.TaskNode;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Pushes status transitions to the dashboards as Server-Sent Events, so they don't have to poll the trees to see them.
+ *
+ * Task transitions come from TaskStatusListenerService as the results are handled, the ones of activities,
+ * subprocesses, processes, systems and interfaces from the windows StatusPropagationService publishes.
+ * Each transition is serialized once into a shared ring buffer of buffer-events, with the keys of every
+ * node it sits under. A single dispatcher thread hands every subscriber with something to write to a small pool
+ * of writer threads, which walk the buffer from where it stopped and write what's in it's subtree,
+ * so a hundred dashboards cost one serialization per transition, not a hundred tree polls.
+ *
+ * A write blocks while the client's TCP window is full, so a stalled dashboard only holds one writer thread,
+ * and is never handed another write while it's last one is pending. One still pending after write-timeout-ms
+ * is dropped and it's writer thread interrupted, which fails the blocked write (Undertow's blocking writes
+ * wait in a selector that gives up with an InterruptedIOException), so the thread goes back to the others.
+ * Completing the emitter instead can't work, it waits for the very send that's stuck.
+ *
+ * A subscriber that falls a whole buffer behind (or resumes with a Last-Event-ID that's gone) gets a reset event
+ * and should reload the trees, with since if it has a version. Event ids carry this instance's boot id,
+ * an id from before a restart is never resumed from.
+ * @author joao7
+ *
+ */
+@Slf4j
+@Service
+public class StatusStreamService {
+
+	/**
+	 * the levels a subscriber can narrow the stream to.
+	 */
+	public static final Set<String> SCOPE_LEVELS = Collections.unmodifiableSet(new LinkedHashSet<>(
+			Arrays.asList("PROCESS", "SUBPROCESS", "ACTIVITY", "TASK", "SYSTEM", "INTERFACE")));
+
+	private static final String TRANSITION_EVENT = "transition";
+	private static final String RESET_EVENT = "reset";
+
+	private final HierarchyGraph hierarchyGraph;
+	private final ObjectMapper objectMapper;
+	private final String bootId = Long.toString(java.lang.System.currentTimeMillis(), 36);
+
+	private final int bufferEvents;
+	private final int maxSubscribers;
+	private final long timeoutMs;
+	private final long heartbeatMs;
+	private final int writerThreads;
+	private final long writeTimeoutNanos;
+
+	// written under the lock, read by the dispatcher up to head, a slot it reads may already hold a newer event
+	private final BufferedEvent[] buffer;
+	private volatile long head; // sequence of the next event
+	private final Object signal = new Object();
+	private boolean pending; // guarded by signal
+
+	private final List<Subscriber> subscribers = new CopyOnWriteArrayList<>();
+	private volatile boolean running;
+	private Thread dispatcher;
+	private ThreadPoolExecutor writers;
+
+	private final LongAdder published = new LongAdder();
+	private final LongAdder sent = new LongAdder();
+	private final LongAdder filtered = new LongAdder();
+	private final LongAdder resets = new LongAdder();
+	private final LongAdder rejected = new LongAdder();
+	private final LongAdder disconnects = new LongAdder();
+	private final LongAdder stalled = new LongAdder();
+
+	public StatusStreamService(
+			HierarchyGraph hierarchyGraph,
+			ObjectMapper objectMapper,
+			@Value("${bpm.stream.buffer-events:4096}") int bufferEvents,
+			@Value("${bpm.stream.max-subscribers:500}") int maxSubscribers,
+			@Value("${bpm.stream.timeout-ms:1800000}") long timeoutMs,
+			@Value("${bpm.stream.heartbeat-ms:15000}") long heartbeatMs,
+			@Value("${bpm.stream.writer-threads:8}") int writerThreads,
+			@Value("${bpm.stream.write-timeout-ms:10000}") long writeTimeoutMs) {
+		this.hierarchyGraph = hierarchyGraph;
+		this.objectMapper = objectMapper;
+		this.bufferEvents = Math.max(16, bufferEvents);
+		this.maxSubscribers = Math.max(1, maxSubscribers);
+		this.timeoutMs = timeoutMs;
+		this.heartbeatMs = Math.max(1000, heartbeatMs);
+		this.writerThreads = Math.max(1, writerThreads);
+		this.writeTimeoutNanos = Math.max(1000, writeTimeoutMs) * 1_000_000L;
+		this.buffer = new BufferedEvent[this.bufferEvents];
+	}
+
+
+	@PostConstruct
+	public void start() {
+		running = true;
+		AtomicInteger threadCount = new AtomicInteger();
+		// a subscriber is queued once at most, so the queue never holds more than max-subscribers
+		writers = new ThreadPoolExecutor(writerThreads, writerThreads, 0L, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<>(maxSubscribers), runnable -> {
+					Thread thread = new Thread(runnable, "StatusStreamWriter-" + threadCount.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				});
+		dispatcher = new Thread(this::dispatchLoop, "StatusStream");
+		dispatcher.setDaemon(true);
+		dispatcher.start();
+	}
+
+	@PreDestroy
+	public void stop() {
+		running = false;
+		dispatcher.interrupt();
+		writers.shutdownNow();
+		for (Subscriber subscriber : subscribers) {
+			subscriber.emitter.complete();
+		}
+		subscribers.clear();
+	}
+
+
+	/**
+	 * connects a dashboard to the stream.
+	 * @param level - level of the node to narrow the stream to, null for every transition.
+	 * @param id - id of that node.
+	 * @param lastEventId - id of the last event the client got before reconnecting, may be null.
+	 * @return the emitter to hand back to MVC, null if max-subscribers is reached.
+	 * @throws IllegalArgumentException if the level isn't one of SCOPE_LEVELS or it comes without an id.
+	 */
+	public SseEmitter subscribe(String level, Long id, String lastEventId) {
+		String scope = null;
+		if (level != null) {
+			String upper = level.toUpperCase();
+			if (!SCOPE_LEVELS.contains(upper) || id == null) {
+				throw new IllegalArgumentException("level must be one of " + SCOPE_LEVELS + " and come with an id");
+			}
+			scope = upper + ":" + id;
+		}
+		if (subscribers.size() >= maxSubscribers) {
+			rejected.increment();
+			return null;
+		}
+
+		SseEmitter emitter = new SseEmitter(timeoutMs);
+		long current = head;
+		Subscriber subscriber = new Subscriber(emitter, scope, current);
+		if (lastEventId != null) {
+			long resumeFrom = parseSequence(lastEventId) + 1;
+			if (resumeFrom > 0 && resumeFrom <= current && current - resumeFrom < bufferEvents) {
+				subscriber.cursor = resumeFrom; // replays what it missed
+			} else {
+				subscriber.needsReset = true;
+			}
+		}
+		emitter.onCompletion(() -> subscribers.remove(subscriber));
+		emitter.onTimeout(() -> subscribers.remove(subscriber));
+		emitter.onError(e -> subscribers.remove(subscriber));
+		subscribers.add(subscriber);
+		wakeUp();
+		log.debug("Status stream subscriber connected, scope {}, {} connected", scope == null ? "all" : scope, subscribers.size());
+		return emitter;
+	}
+
+	/**
+	 * a task changed status, called once it's result was written.
+	 * @param taskId - id of the task.
+	 * @param previousStatus - the status it had.
+	 * @param newStatus - it's new status.
+	 * @param at - when the result that changed it was taken.
+	 */
+	public void onTaskTransition(Long taskId, TaskStatus previousStatus, TaskStatus newStatus, LocalDateTime at) {
+		HierarchySnapshot hierarchy = hierarchyGraph.getSnapshot();
+		TaskNode task = hierarchy.getTasks().get(taskId);
+		if (task == null) {
+			return;
+		}
+		GroupNode activity = task.getActivityId() == null ? null : hierarchy.getActivities().get(task.getActivityId());
+		Long subprocessId = activity == null ? null : activity.getParentId();
+		GroupNode subprocess = subprocessId == null ? null : hierarchy.getSubprocesses().get(subprocessId);
+		Long processId = subprocess == null ? null : subprocess.getParentId();
+		publish(new StatusTransitionEventDTO("TASK", taskId, task.getName(),
+				previousStatus == null ? null : previousStatus.name(), newStatus == null ? null : newStatus.name(), at,
+				processId, subprocessId, task.getActivityId(), task.getSystemId(), task.getInterfaceId()),
+				key("TASK", taskId), key("ACTIVITY", task.getActivityId()), key("SUBPROCESS", subprocessId),
+				key("PROCESS", processId), key("SYSTEM", task.getSystemId()), key("INTERFACE", task.getInterfaceId()));
+	}
+
+	/**
+	 * the transitions of a propagation window, bottom-up as they were published.
+	 * @param event - the window.
+	 */
+	@EventListener
+	public void onHierarchyStatusChanged(HierarchyStatusChangedEvent event) {
+		HierarchySnapshot hierarchy = hierarchyGraph.getSnapshot();
+		for (StatusTransition transition : event.getTransitions()) {
+			publish(hierarchy, transition);
+		}
+	}
+
+	/**
+	 * @return subscribers and what was pushed to them.
+	 */
+	public StatusStreamMetricsResponseDTO getMetrics() {
+		return new StatusStreamMetricsResponseDTO(
+				subscribers.size(),
+				maxSubscribers,
+				bufferEvents,
+				published.sum(),
+				sent.sum(),
+				filtered.sum(),
+				resets.sum(),
+				rejected.sum(),
+				disconnects.sum(),
+				stalled.sum(),
+				writerThreads);
+	}
+
+
+	private void publish(HierarchySnapshot hierarchy, StatusTransition transition) {
+		Long id = transition.getNodeId();
+		String previous = transition.getPreviousStatus() == null ? null : transition.getPreviousStatus().name();
+		String status = transition.getNewStatus() == null ? null : transition.getNewStatus().name();
+		switch (transition.getNodeType()) {
+			case PROCESS: {
+				GroupNode process = hierarchy.getProcesses().get(id);
+				publish(new StatusTransitionEventDTO("PROCESS", id, process == null ? null : process.getName(), previous, status,
+						transition.getAt(), id, null, null, null, null),
+						key("PROCESS", id));
+				break;
+			}
+			case SUBPROCESS: {
+				GroupNode subprocess = hierarchy.getSubprocesses().get(id);
+				Long processId = subprocess == null ? null : subprocess.getParentId();
+				publish(new StatusTransitionEventDTO("SUBPROCESS", id, subprocess == null ? null : subprocess.getName(), previous, status,
+						transition.getAt(), processId, id, null, null, null),
+						key("SUBPROCESS", id), key("PROCESS", processId));
+				break;
+			}
+			case ACTIVITY: {
+				GroupNode activity = hierarchy.getActivities().get(id);
+				Long subprocessId = activity == null ? null : activity.getParentId();
+				GroupNode subprocess = subprocessId == null ? null : hierarchy.getSubprocesses().get(subprocessId);
+				Long processId = subprocess == null ? null : subprocess.getParentId();
+				publish(new StatusTransitionEventDTO("ACTIVITY", id, activity == null ? null : activity.getName(), previous, status,
+						transition.getAt(), processId, subprocessId, id, null, null),
+						key("ACTIVITY", id), key("SUBPROCESS", subprocessId), key("PROCESS", processId));
+				break;
+			}
+			case SYSTEM: {
+				SystemNode system = hierarchy.getSystems().get(id);
+				publish(new StatusTransitionEventDTO("SYSTEM", id, system == null ? null : system.getName(), previous, status,
+						transition.getAt(), null, null, null, id, null),
+						key("SYSTEM", id));
+				break;
+			}
+			case INTERFACE: {
+				// an interface also shows up under the systems it connects
+				InterfaceNode edprInterface = hierarchy.getInterfaces().get(id);
+				publish(new StatusTransitionEventDTO("INTERFACE", id, edprInterface == null ? null : edprInterface.getName(), previous, status,
+						transition.getAt(), null, null, null, null, id),
+						key("INTERFACE", id),
+						key("SYSTEM", edprInterface == null ? null : edprInterface.getOriginId()),
+						key("SYSTEM", edprInterface == null ? null : edprInterface.getDestinationId()));
+				break;
+			}
+			default:
+				break;
+		}
+	}
+
+	/**
+	 * serializes the transition, the only time it is, and puts it in the buffer.
+	 */
+	private void publish(StatusTransitionEventDTO transition, String... scope) {
+		String json;
+		try {
+			json = objectMapper.writeValueAsString(transition);
+		} catch (JsonProcessingException e) {
+			log.error("something went wrong serializing a {} transition : {}", transition.getLevel(), e.getMessage());
+			return;
+		}
+		synchronized (buffer) {
+			long sequence = head;
+			buffer[(int) (sequence % bufferEvents)] = new BufferedEvent(sequence, bootId + "-" + sequence, scope, json);
+			head = sequence + 1;
+		}
+		published.increment();
+		wakeUp();
+	}
+
+	private void wakeUp() {
+		synchronized (signal) {
+			pending = true;
+			signal.notifyAll();
+		}
+	}
+
+	private void dispatchLoop() {
+		while (running) {
+			try {
+				synchronized (signal) {
+					if (!pending) {
+						signal.wait(heartbeatMs);
+					}
+					pending = false;
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+			try {
+				dispatch();
+			} catch (RuntimeException e) {
+				log.error("something went wrong pushing status transitions : {}", e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * hands every subscriber that has something to write (events or a heartbeat) to a writer thread,
+	 * and drops the ones whose last write has been pending longer than write-timeout-ms.
+	 */
+	private void dispatch() {
+		long current = head;
+		long now = java.lang.System.currentTimeMillis();
+		long nowNanos = java.lang.System.nanoTime();
+		for (Subscriber subscriber : subscribers) {
+			if (subscriber.writing) {
+				if (nowNanos - subscriber.writingSince > writeTimeoutNanos) {
+					subscribers.remove(subscriber);
+					subscriber.drop();
+					stalled.increment();
+					log.warn("Dropped a status stream subscriber, a write to it has been pending for over {} ms", writeTimeoutNanos / 1_000_000L);
+				}
+				continue;
+			}
+			if (!subscriber.needsReset && subscriber.cursor >= current && now - subscriber.lastSentAt < heartbeatMs) {
+				continue;
+			}
+			subscriber.writingSince = nowNanos;
+			subscriber.writing = true;
+			try {
+				writers.execute(() -> write(subscriber));
+			} catch (RejectedExecutionException e) {
+				subscriber.writing = false; // shutting down
+			}
+		}
+	}
+
+	/**
+	 * writes a subscriber what it hasn't seen yet, or a heartbeat if it got nothing for heartbeat-ms.
+	 * Runs on a writer thread, never on two at once for the same subscriber.
+	 */
+	private void write(Subscriber subscriber) {
+		if (!subscriber.startWriting(Thread.currentThread())) {
+			subscriber.writing = false; // dropped while it waited for a writer thread
+			return;
+		}
+		try {
+			long current = head;
+			if (subscriber.needsReset || current - subscriber.cursor > bufferEvents) {
+				reset(subscriber, current);
+			}
+			while (subscriber.cursor < (current = head)) {
+				BufferedEvent event = buffer[(int) (subscriber.cursor % bufferEvents)];
+				if (event == null || event.sequence != subscriber.cursor) {
+					reset(subscriber, current); // overwritten while it was behind
+					break;
+				}
+				subscriber.cursor++;
+				if (!event.isIn(subscriber.scope)) {
+					filtered.increment();
+					continue;
+				}
+				subscriber.emitter.send(SseEmitter.event()
+						.id(event.id)
+						.name(TRANSITION_EVENT)
+						.data(event.json, MediaType.APPLICATION_JSON));
+				subscriber.lastSentAt = java.lang.System.currentTimeMillis();
+				subscriber.writingSince = java.lang.System.nanoTime(); // it's moving, only a write that doesn't return counts as stalled
+				sent.increment();
+			}
+			long now = java.lang.System.currentTimeMillis();
+			if (now - subscriber.lastSentAt >= heartbeatMs) {
+				subscriber.emitter.send(SseEmitter.event().comment("keep-alive"));
+				subscriber.lastSentAt = now;
+			}
+		} catch (IOException | IllegalStateException e) {
+			// the client went away (or it stalled and the write was interrupted), the emitter callbacks may not run for a broken connection
+			if (subscribers.remove(subscriber)) {
+				disconnects.increment();
+			}
+			log.debug("Dropped a status stream subscriber : {}", e.getMessage());
+		} finally {
+			subscriber.stopWriting();
+			Thread.interrupted(); // a drop that came as the write returned mustn't fail this thread's next write
+			subscriber.writing = false;
+			if (subscriber.cursor < head) {
+				wakeUp(); // published after it's last look, the dispatcher skipped it while it was writing
+			}
+		}
+	}
+
+	private void reset(Subscriber subscriber, long current) throws IOException {
+		subscriber.emitter.send(SseEmitter.event()
+				.id(bootId + "-" + (current - 1))
+				.name(RESET_EVENT)
+				.data("reload the trees"));
+		subscriber.cursor = current;
+		subscriber.needsReset = false;
+		resets.increment();
+	}
+
+	/**
+	 * @return the sequence of an event id of this instance, -2 if it's from another boot or not an id at all.
+	 */
+	private long parseSequence(String eventId) {
+		int dash = eventId.lastIndexOf('-');
+		if (dash < 0 || !eventId.substring(0, dash).equals(bootId)) {
+			return -2;
+		}
+		try {
+			return Long.parseLong(eventId.substring(dash + 1));
+		} catch (NumberFormatException e) {
+			return -2;
+		}
+	}
+
+	private static String key(String level, Long id) {
+		return id == null ? null : level + ":" + id;
+	}
+
+
+	/**
+	 * a transition already serialized, with the keys of the nodes it sits under, immutable.
+	 */
+	private static final class BufferedEvent {
+		private final long sequence;
+		private final String id;
+		private final String[] scope;
+		private final String json;
+
+		private BufferedEvent(long sequence, String id, String[] scope, String json) {
+			this.sequence = sequence;
+			this.id = id;
+			this.scope = scope;
+			this.json = json;
+		}
+
+		private boolean isIn(String subtree) {
+			if (subtree == null) {
+				return true;
+			}
+			for (String key : scope) {
+				if (subtree.equals(key)) {
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+
+	/**
+	 * a connected dashboard, once it's subscribed only the writer thread it's handed to moves it's cursor.
+	 */
+	private static final class Subscriber {
+		private final SseEmitter emitter;
+		private final String scope; // LEVEL:id of the subtree it follows, null for everything
+		private volatile long cursor; // sequence of the next event it gets
+		private volatile boolean needsReset;
+		private volatile long lastSentAt; // 0 so the first dispatch flushes the headers with a heartbeat
+		private volatile boolean writing; // handed to a writer thread and not done yet
+		private volatile long writingSince; // when it was handed over, or last got an event
+		private Thread writer; // the writer thread in write() for it, guarded by the subscriber
+		private boolean dropped; // guarded by the subscriber
+
+		private Subscriber(SseEmitter emitter, String scope, long cursor) {
+			this.emitter = emitter;
+			this.scope = scope;
+			this.cursor = cursor;
+		}
+
+		/**
+		 * @return false if it was dropped already, nothing to write then.
+		 */
+		private synchronized boolean startWriting(Thread thread) {
+			if (dropped) {
+				return false;
+			}
+			writer = thread;
+			return true;
+		}
+
+		private synchronized void stopWriting() {
+			writer = null;
+		}
+
+		/**
+		 * stalled, interrupts the write it's stuck in, if it's in one.
+		 */
+		private synchronized void drop() {
+			dropped = true;
+			if (writer != null) {
+				writer.interrupt();
+			}
+		}
+	}
+}
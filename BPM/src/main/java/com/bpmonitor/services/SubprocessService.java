@@ -6,11 +6,16 @@ import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import com.bpmonitor.DTOs.CreateSubprocessDTO;
+import com.bpmonitor.DTOs.response.SubprocessResponseDTO;
 import com.bpmonitor.customExceptions.EntityNotFoundException;
 import com.bpmonitor.enums.OperationalStatus;
+import com.bpmonitor.hierarchy.HierarchyGraph;
 import com.bpmonitor.models.Activity;
 import com.bpmonitor.models.Process;
 import com.bpmonitor.models.Subprocess;
+import com.bpmonitor.paging.KeysetPage;
+import com.bpmonitor.paging.KeysetPager;
+import com.bpmonitor.paging.KeysetQuery;
 import com.bpmonitor.repositories.ActivityRepository;
 import com.bpmonitor.repositories.ProcessRepository;
 import com.bpmonitor.repositories.SubprocessRepository;
@@ -33,15 +38,21 @@ public class SubprocessService {
 private final SubprocessRepository subprocessRepo; // repo for  - interface table
 private final ProcessRepository processRepo;
 private final ActivityRepository actRepo;
+private final HierarchyGraph hierarchyGraph;
+private final KeysetPager pager;
     
     public SubprocessService(
     		SubprocessRepository SubprocessRepository,
     		 ProcessRepository processRepo,
-    		 ActivityRepository actRepo) {
+    		 ActivityRepository actRepo,
+    		 HierarchyGraph hierarchyGraph,
+    		 KeysetPager pager) {
     
     	this.subprocessRepo = SubprocessRepository;
     	this.processRepo = processRepo;
     	this.actRepo = actRepo;
+    	this.hierarchyGraph = hierarchyGraph;
+    	this.pager = pager;
     	
     }
     
@@ -139,6 +150,7 @@ private final ActivityRepository actRepo;
     	
     	
     	subprocessRepo.save(subprocess);
+    	hierarchyGraph.recordStructureChange();
     	
     	return true;
     	
@@ -162,7 +174,9 @@ private final ActivityRepository actRepo;
         	sub.setProcess(process);
         	sub.setSubprocessName(dto.getSubprocessName());
         	sub.setSubprocessStatus(dto.getSubprocessStatus());
-    	 return this.subprocessRepo.save(sub);
+    	 Subprocess saved = this.subprocessRepo.save(sub);
+    	 hierarchyGraph.recordStructureChange();
+    	 return saved;
     	}catch(RuntimeException e){
     		log.error("something went wrong with saveSubprocess method {}", e.getMessage());
     		throw e;
@@ -182,6 +196,26 @@ private final ActivityRepository actRepo;
     		throw e;
     	}
     }
+
+    /**
+     * Fetches one page of Subprocesses by id, without their activities.
+     * @param status - only subprocesses with this status, null for all.
+     * @param processId - only the subprocesses of this process, null for all.
+     * @param cursor - X-Next-Cursor of the previous page, null for the first one.
+     * @param limit - subprocesses asked for, bounded by bpm.paging.max-limit.
+     * @return the page and the cursor of the next one.
+     */
+    @Transactional(readOnly = true)
+    public KeysetPage<SubprocessResponseDTO> findSubprocessesPage(OperationalStatus status, Long processId, String cursor, Integer limit) {
+    	KeysetQuery<Subprocess> query = KeysetQuery.of(Subprocess.class, "s", "subprocessID", Subprocess::getSubprocessID)
+    			.where("s.subprocessStatus = :status", "status", status)
+    			.where("s.process.processID = :processId", "processId", processId);
+    	return pager.fetch(query, cursor, limit).map(subprocess -> new SubprocessResponseDTO(
+    			subprocess.getSubprocessID(),
+    			subprocess.getSubprocessName(),
+    			subprocess.getSubprocessStatus(),
+    			null)); // the activities come from the trees
+    }
     	
     /**
      * Fetches an Subprocess by it's id.
@@ -258,6 +292,7 @@ private final ActivityRepository actRepo;
     	if(id <= 0) {  throw new IllegalArgumentException("Invalid ID: ID must be positive.");}
     	try{
     	 this.subprocessRepo.deleteById(id);
+    	 hierarchyGraph.recordStructureChange();
     	 return true;
     	}catch(RuntimeException e) {
     		log.error("something went wrong with"
@@ -14,11 +14,17 @@ import com.bpmonitor.DTOs.response.SystemResponseDTO;
 import com.bpmonitor.DTOs.response.SystemTreeNodeDTO;
 import com.bpmonitor.DTOs.response.TaskResponseDTO;
 import com.bpmonitor.customExceptions.EntityNotFoundException;
+import com.bpmonitor.enums.EDPRLocal;
 import com.bpmonitor.enums.OperationalStatus;
 import com.bpmonitor.enums.TaskStatus;
+import com.bpmonitor.hierarchy.HierarchyGraph;
+import com.bpmonitor.hierarchy.HierarchySnapshot;
 import com.bpmonitor.models.Process;
 import com.bpmonitor.models.System;
 import com.bpmonitor.models.Task;
+import com.bpmonitor.paging.KeysetPage;
+import com.bpmonitor.paging.KeysetPager;
+import com.bpmonitor.paging.KeysetQuery;
 import com.bpmonitor.repositories.InterfaceRepository;
 import com.bpmonitor.repositories.SystemRepository;
 import com.bpmonitor.repositories.TaskRepository;
@@ -33,15 +39,21 @@ public class SystemService {
 	 private final SystemRepository sysRepository; // repo for  - system 
 	 private final InterfaceRepository interfaceRepository; //repo for - interface
 	 private final TaskRepository taskRepo;
+	 private final HierarchyGraph hierarchyGraph; // what the tree endpoints read
+	 private final KeysetPager pager;
 	    
 	    public SystemService(
 	    		SystemRepository sysRepo,
 	    		InterfaceRepository interfaceRepository,
-	    		TaskRepository taskRepo) {
+	    		TaskRepository taskRepo,
+	    		HierarchyGraph hierarchyGraph,
+	    		KeysetPager pager) {
 	    
 	    	this.sysRepository = sysRepo;
 	    	this.interfaceRepository = interfaceRepository;
 	    	this.taskRepo = taskRepo;
+	    	this.hierarchyGraph = hierarchyGraph;
+	    	this.pager = pager;
 	    	
 	    }
 	    
@@ -72,7 +84,9 @@ public class SystemService {
 	    	system.setLocal(systemEDPR.getLocal());
 
 	    	try {
-	    	 return this.sysRepository.save(system);
+	    	 System saved = this.sysRepository.save(system);
+	    	 hierarchyGraph.recordStructureChange();
+	    	 return saved;
 	    	}catch(RuntimeException e){
 	    		log.error("something went wrong with saveEDPRSystem method {}", e.getMessage());
 	    		throw e;
@@ -101,7 +115,7 @@ public class SystemService {
 	       
 	        
 	    
-	        
+	        hierarchyGraph.recordStructureChange();
 	        return sysRepository.save(existing);
 	    }
 	    
@@ -119,6 +133,29 @@ public class SystemService {
 	    		throw e;
 	    	}
 	    }
+
+	    /**
+	     * Fetches one page of EDPRSystems by id, without their tasks.
+	     * @param status - only systems with this status, null for all.
+	     * @param local - only systems at this local, null for all.
+	     * @param cursor - X-Next-Cursor of the previous page, null for the first one.
+	     * @param limit - systems asked for, bounded by bpm.paging.max-limit.
+	     * @return the page and the cursor of the next one.
+	     */
+	    @Transactional(readOnly = true)
+	    public KeysetPage<SystemResponseDTO> findEDPRSystemsPage(OperationalStatus status, EDPRLocal local, String cursor, Integer limit) {
+	    	KeysetQuery<System> query = KeysetQuery.of(System.class, "s", "SystemID", System::getSystemID)
+	    			.where("s.currentStatus = :status", "status", status)
+	    			.where("s.local = :local", "local", local);
+	    	return pager.fetch(query, cursor, limit).map(system -> new SystemResponseDTO(
+	    			system.getSystemID(),
+	    			system.getLocal(),
+	    			system.getSystemName(),
+	    			system.getSystemComponent(),
+	    			system.getSystemDescription(),
+	    			system.getCurrentStatus(),
+	    			null)); // the tasks come from the trees
+	    }
 	    	
 	    /**
 	     * Fetches an EDPRSystem by it's id.
@@ -211,6 +248,7 @@ public class SystemService {
 		    		        // Deleting associated interfaces
 		    		    	interfaceRepository.deleteByOriginOrDestination(system.get(), system.get());  // Delete interfaces associated with the system
 		    		    	sysRepository.delete(system.get());  // Then delete the system
+		    		    	hierarchyGraph.recordStructureChange();
 		    		    	return true;
 		    		    } else {
 		    		        throw new EntityNotFoundException("System not found");
@@ -227,24 +265,23 @@ public class SystemService {
 
 
 	    /**
-	     * Fetches all System from the DB, in the form of SystemTreeNodeDTOs.  
+	     * Fetches all System from the hierarchy graph, in the form of SystemTreeNodeDTOs.  
 	     * @return List of ProcessTreeNodeResponseDTO for each process in the DB.
 	     */
-	    @Transactional(readOnly = true)
 	    public List<SystemTreeNodeDTO> GetSystemTreeNodes(){
 	    	
 	    
 	    	try {
-	    		 List<System> systems = this.sysRepository.findAll();
+	    		 HierarchySnapshot hierarchy = this.hierarchyGraph.getSnapshot();
 	    	        
 	    	     
-	    		 List<SystemTreeNodeDTO> EDPRSystemTreeNodes = systems.stream()
+	    		 List<SystemTreeNodeDTO> EDPRSystemTreeNodes = hierarchy.getSystems().values().stream()
 	    		            .map(system -> new SystemTreeNodeDTO(
-	    		               system.getSystemID(),
+	    		               system.getId(),
 	    		               system.getLocal(),
-	    		               system.getSystemName(),
-	    		               system.getSystemComponent(),
-	    		               system.getCurrentStatus()
+	    		               system.getName(),
+	    		               system.getComponent(),
+	    		               system.getStatus()
 	    		            ))
 	    		            .collect(Collectors.toList());
 	    	        
@@ -273,7 +310,7 @@ public class SystemService {
 	        }
 
 	        long failCount = existingTasks.stream()
-	                .filter(task -> TaskStatus.FAIL.equals(task.getTaskStatus()))
+	                .filter(task -> task.getTaskStatus() != null && task.getTaskStatus().isFailure())
 	                .count();
 
 	        OperationalStatus newStatus;
@@ -291,8 +328,13 @@ public class SystemService {
 
 
 
+	    /**
+	     * updates only a system's status.
+	     * @param id - id of the system.
+	     * @param currentStatus - can be UP, DOWN, COMPROMISED.
+	     */
 	    @Transactional
-	    private void updateSystemStatus(Long id, OperationalStatus currentStatus) {
+	    public void updateSystemStatus(Long id, OperationalStatus currentStatus) {
 	    	 Optional<System> optSystem = sysRepository.findById(id);
 
 	    	    if (optSystem.isPresent()) {
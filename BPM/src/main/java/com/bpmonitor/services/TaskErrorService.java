@@ -1,19 +1,23 @@
 package com.bpmonitor.services;
 
 import java.time.LocalDateTime;
-import java.time.temporal.ChronoUnit;
 import java.util.List;
 import java.util.Optional;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
-import com.bpmonitor.customExceptions.DeletionOfResultsException;
+import com.bpmonitor.DTOs.response.TaskErrorResponseDTO;
 import com.bpmonitor.customExceptions.EntityNotFoundException;
+import com.bpmonitor.enums.TaskStatus;
+import com.bpmonitor.enums.TaskType;
 import com.bpmonitor.models.Activity;
+import com.bpmonitor.models.Task;
 import com.bpmonitor.models.TaskError;
+import com.bpmonitor.paging.KeysetPage;
+import com.bpmonitor.paging.KeysetPager;
+import com.bpmonitor.paging.KeysetQuery;
 import com.bpmonitor.repositories.TaskErrorRepository;
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.bpmonitor.workloads.WorkloadCompiler;
 
 import lombok.extern.slf4j.Slf4j;
 
@@ -33,26 +37,26 @@ public class TaskErrorService {
 	
 	private final EmailNotificationService EmailNotificationService;
 	
+	private final ResultRetentionService retentionService;
+	
+	private final KeysetPager pager;
+	
 
 	public TaskErrorService(
 			TaskErrorRepository taskErrorRepo,
-			EmailNotificationService EmailNotificationService
+			EmailNotificationService EmailNotificationService,
+			ResultRetentionService retentionService,
+			KeysetPager pager
 			) {
     	this.taskErrorRepo = taskErrorRepo;    	    	
     	this.EmailNotificationService = EmailNotificationService;
+    	this.retentionService = retentionService;
+    	this.pager = pager;
     }
 	
 	 private String extractResponsibleParty(String workloadJson) {
-		 try {
-	            ObjectMapper mapper = new ObjectMapper();
-	            JsonNode node = mapper.readTree(workloadJson);
-	            String s =  node.get("RESPONSIBLEPARTY").asText();
-	            return s;
-	        } catch (Exception e) {
-	        	log.debug("something went wrong extractingResponsibleParty" + workloadJson);
-	        	return "unknown@email.com";
-	        }
-		 
+		 // compiled once per workload and cached, errors of the same task don't re-parse it
+		 return WorkloadCompiler.responsiblePartyOf(workloadJson, "unknown@email.com");
 	    }
 	 
 	public void execute(TaskError error) {
@@ -77,26 +81,12 @@ public class TaskErrorService {
 	}
 	
 	 /**
-	  * this method deletes all task errors that are
-	  * older than one week.
+	  * this method deletes the task errors of the results older than their retention policy,
+	  * errors are kept as long as their results and purged with them by the ResultRetentionService.
 	  */
-  @Transactional
   public void deleteOldTaskErrors() {
-      try {
-          LocalDateTime now = LocalDateTime.now(); // I check for the current time
-    
-          
-     
-          LocalDateTime oneWeekAgo = now.minus(1, ChronoUnit.WEEKS); // I get 1 week ago.
-          List<TaskError> Errors = 
-        		  taskErrorRepo.findByTimestampBefore(oneWeekAgo);
-          taskErrorRepo.deleteAll(Errors); // and delete them
-          log.info("Deleted {} failed task errors older than 1 week.", Errors.size());
-
-      } catch (RuntimeException e) {
-          log.error("Something went wrong with deleting old task errors: {}", e.getMessage());
-          throw new DeletionOfResultsException("Failed to delete task errors");
-      }
+      long purged = retentionService.purge();
+      log.info("Deleted {} old task results and errors.", purged);
   }
 	
     /**
@@ -126,6 +116,35 @@ public class TaskErrorService {
     		throw e;
     	}
     }
+
+    /**
+     * Fetches one page of TaskErrors, newest first.
+     * @param status - only errors of results with this status (FAIL or TIMEOUT), null for all.
+     * @param type - only errors of tasks of this type, null for all.
+     * @param taskId - only the errors of this task, null for all.
+     * @param from - only errors at or after this, null for no bound.
+     * @param to - only errors before this, null for no bound.
+     * @param cursor - X-Next-Cursor of the previous page, null for the first one.
+     * @param limit - errors asked for, bounded by bpm.paging.max-limit.
+     * @return the page and the cursor of the next one.
+     */
+    @Transactional(readOnly = true)
+    public KeysetPage<TaskErrorResponseDTO> findTaskErrorsPage(TaskStatus status, TaskType type, Long taskId,
+    		LocalDateTime from, LocalDateTime to, String cursor, Integer limit) {
+    	Class<?> taskClass = type == null ? null : pager.subclassOf(Task.class, type.name());
+    	if (type != null && taskClass == null) {
+    		return KeysetPage.empty(); // no task of that type is mapped
+    	}
+    	KeysetQuery<TaskError> query = KeysetQuery.of(TaskError.class, "e", "taskErrorID", TaskError::getTaskErrorID)
+    			.newestFirst("timestamp", TaskError::getTimestamp)
+    			.where("e.taskValidationResult.status = :status", "status", status)
+    			.where("e.taskValidationResult.task.taskID = :taskId", "taskId", taskId)
+    			.where("e.taskValidationResult.task.taskID IN (SELECT t.taskID FROM Task t WHERE TYPE(t) = :type)", "type", taskClass)
+    			.where("e.timestamp >= :from", "from", from)
+    			.where("e.timestamp < :to", "to", to);
+    	return pager.fetch(query, cursor, limit)
+    			.map(error -> new TaskErrorResponseDTO(error.getTaskErrorID(), error.getTimestamp(), error.getErrorDescription()));
+    }
     	
     /**
      * Fetches an TaskError by it's id.
@@ -0,0 +1,421 @@
+package com.bpmonitor.services;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.ContextClosedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.bpmonitor.DTOs.response.WriteBehindMetricsResponseDTO;
+import com.bpmonitor.customExceptions.ResultBacklogFullException;
+import com.bpmonitor.enums.TaskStatus;
+import com.bpmonitor.eventListeners.TaskStatusChangedEvent;
+import com.bpmonitor.executors.ExecutionPhase;
+import com.bpmonitor.executors.ExecutionPhaseMetrics;
+import com.bpmonitor.models.Task;
+import com.bpmonitor.models.TaskError;
+import com.bpmonitor.models.TaskValidationResult;
+import com.bpmonitor.workloads.TaskWorkload;
+
+import lombok.extern.slf4j.Slf4j;
+
+
+/**
+ * Second phase of a task execution: writes the TaskValidationResult and it's TaskError.
+ *
+ * Results are not written by the thread that ran the task, they go into a bounded queue
+ * and a single writer thread drains it, writing a whole batch of results and errors with
+ * JDBC batch inserts in one transaction. A batch is flushed when it's full or when the
+ * oldest result in it has waited max-delay-ms, whichever comes first.
+ * Ids come from the GlobalIdAllocator so a batch costs one sequence round trip at most.
+ *
+ * A batch rejected for it's data (a result of a task deleted since it ran, a value the column refuses)
+ * is split in halves and each half written on it's own, down to the row at fault, so one bad row
+ * only costs it's own result and not the whole batch.
+ *
+ * The caller gets a future that completes with the result id once the batch is committed,
+ * or exceptionally if it could not be written. Committed results are recorded in the rollups right away,
+ * by this thread, so they reach the ResultRollupService in the order of their ids.
+ * @author joao7
+ */
+@Slf4j
+@Service
+public class TaskResultPersistenceService {
+
+	private static final String INSERT_RESULT_SQL =
+			"INSERT INTO TASK_RESULT (TASK_RESULT_ID, TASK_ID, RESULT, DATE_OF_EXECUTION, TASK_RESULT_DESCRIPTION, ELAPSED_MS, WRITER_ID) "
+			+ "VALUES (?, ?, ?, ?, ?, ?, ?)";
+
+	private static final String INSERT_ERROR_SQL =
+			"INSERT INTO TASK_ERROR (TASK_ERROR_ID, TASK_RESULT_ID, DATE_OF_EXECUTION, DESCRIPTION, WORKLOAD_JSON) "
+			+ "VALUES (?, ?, ?, ?, ?)";
+
+	// column lengths, anything longer would fail the whole batch instead of just one row
+	private static final int RESULT_DESCRIPTION_LENGTH = 500;
+	private static final int ERROR_DESCRIPTION_LENGTH = 1000;
+	private static final int WORKLOAD_LENGTH = 4000;
+
+	private final JdbcTemplate jdbcTemplate;
+	private final TransactionTemplate transactionTemplate;
+	private final GlobalIdAllocator idAllocator;
+	private final ApplicationEventPublisher eventPublisher;
+	private final ExecutionPhaseMetrics phaseMetrics;
+	private final ResultRollupService rollups;
+
+	private final int batchSize;
+	private final long maxDelayMs;
+	private final long enqueueTimeoutMs;
+	private final int queueCapacity;
+	private final BlockingQueue<PendingResult> queue;
+
+	private volatile boolean running;
+	private Thread writer;
+
+	private final LongAdder enqueued = new LongAdder();
+	private final LongAdder rejected = new LongAdder();
+	private final LongAdder resultsWritten = new LongAdder();
+	private final LongAdder errorsWritten = new LongAdder();
+	private final LongAdder batches = new LongAdder();
+	private final LongAdder failedBatches = new LongAdder();
+	private final AtomicLong lastFlushMillis = new AtomicLong();
+
+	public TaskResultPersistenceService(
+			JdbcTemplate jdbcTemplate,
+			TransactionTemplate transactionTemplate,
+			GlobalIdAllocator idAllocator,
+			ApplicationEventPublisher eventPublisher,
+			ExecutionPhaseMetrics phaseMetrics,
+			ResultRollupService rollups,
+			@Value("${bpm.persistence.batch-size:200}") int batchSize,
+			@Value("${bpm.persistence.max-delay-ms:500}") long maxDelayMs,
+			@Value("${bpm.persistence.queue-capacity:10000}") int queueCapacity,
+			@Value("${bpm.persistence.enqueue-timeout-ms:1000}") long enqueueTimeoutMs) {
+		this.jdbcTemplate = jdbcTemplate;
+		this.transactionTemplate = transactionTemplate;
+		this.idAllocator = idAllocator;
+		this.eventPublisher = eventPublisher;
+		this.phaseMetrics = phaseMetrics;
+		this.rollups = rollups;
+		this.batchSize = Math.max(1, batchSize);
+		this.maxDelayMs = Math.max(1, maxDelayMs);
+		this.queueCapacity = Math.max(this.batchSize, queueCapacity);
+		this.enqueueTimeoutMs = enqueueTimeoutMs;
+		this.queue = new ArrayBlockingQueue<>(this.queueCapacity);
+	}
+
+
+	@PostConstruct
+	public void start() {
+		running = true;
+		writer = new Thread(this::drainLoop, "ResultWriter");
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	/**
+	 * stops taking results and writes whatever is still queued.
+	 * Runs on ContextClosedEvent ahead of the other listeners, since
+	 * DatabaseConnectionManager closes the pool on that same event.
+	 */
+	@EventListener(ContextClosedEvent.class)
+	@Order(Ordered.HIGHEST_PRECEDENCE)
+	@PreDestroy
+	public void stop() {
+		if (!running) {
+			return;
+		}
+		running = false;
+		try {
+			writer.join(30_000);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		if (!queue.isEmpty()) {
+			log.warn("{} task results were still queued at shutdown and were not written", queue.size());
+		}
+	}
+
+
+	/**
+	 * queues a result to be written, with it's TaskError if it failed.
+	 * Once the batch with it is committed the TaskStatusChangedEvent is handled.
+	 * @param task - task that was executed.
+	 * @param result - result of the execution.
+	 * @return completes with the TASK_RESULT_ID once the result is durable.
+	 */
+	public CompletableFuture<Long> persistResult(Task task, TaskValidationResult result) {
+		PendingResult pending = new PendingResult(task, result);
+
+		if (result.getStatus() != null && result.getStatus().isFailure()) {
+			pending.error = createTaskError(result);
+		}
+
+		boolean accepted = false;
+		if (running) {
+			try {
+				accepted = queue.offer(pending, enqueueTimeoutMs, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		if (!accepted) {
+			rejected.increment();
+			pending.durable.completeExceptionally(new ResultBacklogFullException(
+					"Result of task " + task.getTaskID() + " was not queued, write-behind queue is full or stopped"));
+			return pending.durable;
+		}
+		enqueued.increment();
+		return pending.durable;
+	}
+
+	/**
+	 * @return the current state of the write-behind queue.
+	 */
+	public WriteBehindMetricsResponseDTO getMetrics() {
+		long batchCount = batches.sum();
+		long written = resultsWritten.sum();
+		return new WriteBehindMetricsResponseDTO(
+				queueCapacity,
+				queue.size(),
+				enqueued.sum(),
+				rejected.sum(),
+				written,
+				errorsWritten.sum(),
+				batchCount,
+				failedBatches.sum(),
+				batchCount == 0 ? 0 : (double) written / batchCount,
+				lastFlushMillis.get(),
+				idAllocator.getPooledCount());
+	}
+
+
+	private void drainLoop() {
+		List<PendingResult> batch = new ArrayList<>(batchSize);
+		boolean interrupted = false;
+		while (running || !queue.isEmpty()) {
+			try {
+				// once stopping, what's left is drained without blocking
+				PendingResult first = running ? queue.poll(maxDelayMs, TimeUnit.MILLISECONDS) : queue.poll();
+				if (first == null) {
+					continue;
+				}
+				batch.add(first);
+
+				// the first result starts the clock, flush when the batch is full or the clock runs out
+				long deadline = java.lang.System.currentTimeMillis() + maxDelayMs;
+				while (batch.size() < batchSize) {
+					if (queue.drainTo(batch, batchSize - batch.size()) > 0) {
+						continue;
+					}
+					long wait = deadline - java.lang.System.currentTimeMillis();
+					if (wait <= 0 || !running) {
+						break;
+					}
+					PendingResult next = queue.poll(wait, TimeUnit.MILLISECONDS);
+					if (next == null) {
+						break;
+					}
+					batch.add(next);
+				}
+				flush(batch);
+			} catch (InterruptedException e) {
+				// the flag is only restored on the way out, set now every poll would throw and the queue would never drain
+				interrupted = true;
+				running = false;
+			} catch (Exception e) {
+				log.error("Result writer failed flushing a batch of {} results", batch.size(), e);
+			} finally {
+				batch.clear();
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void flush(List<PendingResult> batch) {
+		long start = phaseMetrics.enter(ExecutionPhase.PERSIST);
+		try {
+			int errors = 0;
+			for (PendingResult pending : batch) {
+				if (pending.error != null) {
+					errors++;
+				}
+			}
+			// read before taking the ids, a writer registered meanwhile only vouches for the ids after it's own
+			Long writerId = rollups.getWriterId();
+			idAllocator.reserve(batch.size() + errors);
+			for (PendingResult pending : batch) {
+				pending.result.setTaskValidationResultID(idAllocator.nextId());
+				pending.result.setWriterId(writerId);
+				if (pending.error != null) {
+					pending.error.setTaskErrorID(idAllocator.nextId());
+				}
+			}
+			write(batch);
+
+		} catch (Exception e) {
+			// the DB is unreachable or the statement itself is wrong, no row of the batch would get through
+			failedBatches.increment();
+			log.error("Failed to write a batch of {} task results", batch.size(), e);
+			for (PendingResult pending : batch) {
+				pending.durable.completeExceptionally(e); // the ones already written stay completed
+			}
+		} finally {
+			phaseMetrics.exit(ExecutionPhase.PERSIST, start);
+			lastFlushMillis.set(java.lang.System.currentTimeMillis());
+		}
+	}
+
+	/**
+	 * writes a batch in one transaction, halving it while it's data is refused until the bad row is found.
+	 * The ids are kept, a rolled back insert left nothing behind.
+	 */
+	private void write(List<PendingResult> batch) {
+		try {
+			insert(batch);
+		} catch (DataIntegrityViolationException e) {
+			if (batch.size() == 1) {
+				PendingResult pending = batch.get(0);
+				failedBatches.increment();
+				log.error("Dropped the result of task {}, it was refused: {}", pending.task.getTaskID(), e.getMostSpecificCause().getMessage());
+				pending.durable.completeExceptionally(e);
+				return;
+			}
+			log.warn("A batch of {} task results was refused, writing it in halves: {}", batch.size(), e.getMostSpecificCause().getMessage());
+			int half = batch.size() / 2;
+			write(batch.subList(0, half));
+			write(batch.subList(half, batch.size()));
+		}
+	}
+
+	private void insert(List<PendingResult> batch) {
+		List<PendingResult> withErrors = new ArrayList<>();
+		for (PendingResult pending : batch) {
+			if (pending.error != null) {
+				withErrors.add(pending);
+			}
+		}
+		transactionTemplate.executeWithoutResult(status -> {
+			jdbcTemplate.batchUpdate(INSERT_RESULT_SQL, batch, batch.size(), this::bindResult);
+			if (!withErrors.isEmpty()) {
+				jdbcTemplate.batchUpdate(INSERT_ERROR_SQL, withErrors, withErrors.size(), this::bindError);
+			}
+			// I publish my taskStatusChangedEvent's!
+			// the listener runs AFTER_COMMIT, so the status updates always see the saved results.
+			// a rolled back half publishes nothing, it's rows are published by the transaction that writes them.
+			for (PendingResult pending : batch) {
+				eventPublisher.publishEvent(new TaskStatusChangedEvent(pending.task, pending.result));
+			}
+		});
+
+		for (PendingResult pending : batch) {
+			// history is read from the hourly and daily rollups, this thread commits in id order so the rollup mark holds
+			rollups.record(pending.task.getTaskID(), pending.result);
+			pending.durable.complete(pending.result.getTaskValidationResultID());
+		}
+		batches.increment();
+		resultsWritten.add(batch.size());
+		errorsWritten.add(withErrors.size());
+		log.debug("Wrote a batch of {} results and {} errors", batch.size(), withErrors.size());
+	}
+
+	private void bindResult(PreparedStatement ps, PendingResult pending) throws SQLException {
+		TaskValidationResult result = pending.result;
+		ps.setLong(1, result.getTaskValidationResultID());
+		ps.setLong(2, pending.task.getTaskID());
+		ps.setString(3, result.getStatus() == null ? null : result.getStatus().name());
+		ps.setTimestamp(4, toTimestamp(result.getTimestamp()));
+		ps.setString(5, truncate(result.getResultDescription(), RESULT_DESCRIPTION_LENGTH));
+		if (result.getElapsedMillis() == null) {
+			ps.setNull(6, Types.NUMERIC);
+		} else {
+			ps.setLong(6, result.getElapsedMillis());
+		}
+		if (result.getWriterId() == null) {
+			ps.setNull(7, Types.NUMERIC);
+		} else {
+			ps.setLong(7, result.getWriterId());
+		}
+	}
+
+	private void bindError(PreparedStatement ps, PendingResult pending) throws SQLException {
+		TaskError error = pending.error;
+		ps.setLong(1, error.getTaskErrorID());
+		ps.setLong(2, pending.result.getTaskValidationResultID());
+		ps.setTimestamp(3, toTimestamp(error.getTimestamp()));
+		ps.setString(4, truncate(error.getErrorDescription(), ERROR_DESCRIPTION_LENGTH));
+		ps.setString(5, truncate(error.getWorkload(), WORKLOAD_LENGTH));
+	}
+
+	private TaskError createTaskError(TaskValidationResult result) {
+		String workload = result.getTask().getWorkload();
+		String description = result.getResultDescription();
+
+		// both columns are NOT NULL, a missing value must not fail the whole batch
+		TaskError error = new TaskError(
+				result,
+				LocalDateTime.now(),
+				description == null || description.isEmpty() ? "Task failed without a description" : description,
+				workload == null || workload.isEmpty() ? "{}" : workload
+		);
+
+		// the task's workload is already compiled, no json parsing per error
+		TaskWorkload compiled = result.getTask().compiledWorkloadOrNull();
+		String responsibleParty = compiled == null || compiled.getResponsibleParty() == null
+				? "default@domain.com" : compiled.getResponsibleParty();
+		log.debug("Task error for task {} belongs to {}", result.getTask().getTaskID(), responsibleParty);
+
+		// emailService.notifyResponsibleParty(responsibleParty,
+		// 		result.getResultDescription());
+
+		result.getTaskErrors().add(error); // associate error with result
+		return error;
+	}
+
+	private static Timestamp toTimestamp(LocalDateTime time) {
+		return time == null ? null : Timestamp.valueOf(time);
+	}
+
+	private static String truncate(String value, int length) {
+		return value == null || value.length() <= length ? value : value.substring(0, length);
+	}
+
+
+	/**
+	 * a result waiting in the queue, with it's error (if any) and the future to complete.
+	 */
+	private static final class PendingResult {
+		private final Task task;
+		private final TaskValidationResult result;
+		private TaskError error;
+		private final CompletableFuture<Long> durable = new CompletableFuture<>();
+
+		private PendingResult(Task task, TaskValidationResult result) {
+			this.task = task;
+			this.result = result;
+		}
+	}
+}
@@ -17,6 +17,7 @@ import org.springframework.transaction.support.TransactionSynchronizationManager
 import com.bpmonitor.DTOs.CreateTaskDTO;
 import com.bpmonitor.DTOs.response.SubprocessTreeNodeResponseDTO;
 import com.bpmonitor.DTOs.response.TaskErrorResponseDTO;
+import com.bpmonitor.DTOs.response.TaskResponseDTO;
 import com.bpmonitor.DTOs.response.TaskResultResponseDTO;
 import com.bpmonitor.DTOs.response.TaskTreeResponseDTO;
 import com.bpmonitor.customExceptions.EntityNotFoundException;
@@ -25,6 +26,8 @@ import com.bpmonitor.enums.TaskRecurrence;
 import com.bpmonitor.enums.TaskStatus;
 import com.bpmonitor.enums.TaskType;
 import com.bpmonitor.factories.TaskFactory;
+import com.bpmonitor.hierarchy.HierarchyGraph;
+import com.bpmonitor.hierarchy.HierarchySnapshot;
 import com.bpmonitor.models.Activity;
 import com.bpmonitor.models.Interface;
 import com.bpmonitor.models.Process;
@@ -32,6 +35,10 @@ import com.bpmonitor.models.System;
 import com.bpmonitor.models.Task;
 import com.bpmonitor.models.TaskError;
 import com.bpmonitor.models.TaskValidationResult;
+import com.bpmonitor.paging.KeysetPage;
+import com.bpmonitor.paging.KeysetPager;
+import com.bpmonitor.paging.KeysetQuery;
+import com.bpmonitor.registry.TaskRegistry;
 import com.bpmonitor.repositories.ActivityRepository;
 import com.bpmonitor.repositories.InterfaceRepository;
 import com.bpmonitor.repositories.SystemRepository;
@@ -60,6 +67,9 @@ public class TaskService {
 	  	private final SystemRepository sysRepo;
 	    private final InterfaceRepository interfaceRepo;
 	    private final TaskFactory taskFactory;
+	    private final TaskRegistry taskRegistry;
+	    private final HierarchyGraph hierarchyGraph;
+	    private final KeysetPager pager;
 
 	 
 	    public TaskService(TaskRepository taskRepository,
@@ -68,7 +78,10 @@ public class TaskService {
 	    		 TaskErrorRepository taskErrorRepo,
 	    		 SystemRepository sysRepo,
 	    		 InterfaceRepository interfaceRepo,
-	    		 TaskFactory taskFactory) {
+	    		 TaskFactory taskFactory,
+	    		 TaskRegistry taskRegistry,
+	    		 HierarchyGraph hierarchyGraph,
+	    		 KeysetPager pager) {
 	    	
 	        this.taskRepository = taskRepository;
 	        this.actitivityRepository = actitivityRepository;
@@ -77,6 +90,9 @@ public class TaskService {
 	        this.sysRepo = sysRepo;
 	        this.interfaceRepo = interfaceRepo;
 	        this.taskFactory = taskFactory;
+	        this.taskRegistry = taskRegistry;
+	        this.hierarchyGraph = hierarchyGraph;
+	        this.pager = pager;
 	    }
 	  
 	   
@@ -93,6 +109,44 @@ public class TaskService {
 	        return taskRepository.findAll();
 	    }
 
+	    /**
+	     * fetches one page of tasks by id, without their results.
+	     * @param type - only tasks of this type, null for all.
+	     * @param recurrence - only tasks with this recurrence, null for all.
+	     * @param status - only tasks with this status, null for all.
+	     * @param activityId - only the tasks of this activity, null for all.
+	     * @param systemId - only the tasks of this system, null for all.
+	     * @param interfaceId - only the tasks of this interface, null for all.
+	     * @param cursor - X-Next-Cursor of the previous page, null for the first one.
+	     * @param limit - tasks asked for, bounded by bpm.paging.max-limit.
+	     * @return the page and the cursor of the next one.
+	     */
+	    @Transactional(readOnly = true)
+	    public KeysetPage<TaskResponseDTO> findTasksPage(TaskType type, TaskRecurrence recurrence, TaskStatus status,
+	    		Long activityId, Long systemId, Long interfaceId, String cursor, Integer limit) {
+	    	Class<?> taskClass = type == null ? null : pager.subclassOf(Task.class, type.name());
+	    	if (type != null && taskClass == null) {
+	    		return KeysetPage.empty(); // no task of that type is mapped
+	    	}
+	    	KeysetQuery<Task> query = KeysetQuery.of(Task.class, "t", "taskID", Task::getTaskID)
+	    			.where("TYPE(t) = :type", "type", taskClass)
+	    			.where("t.recurrence = :recurrence", "recurrence", recurrence)
+	    			.where("t.taskStatus = :status", "status", status)
+	    			.where("t.activity.activityID = :activityId", "activityId", activityId)
+	    			.where("t.system.SystemID = :systemId", "systemId", systemId)
+	    			.where("t.Interface.InterfaceID = :interfaceId", "interfaceId", interfaceId);
+	    	return pager.fetch(query, cursor, limit).map(task -> new TaskResponseDTO(
+	    			task.getTaskID(),
+	    			task.getTaskName(),
+	    			task.getTaskDescription(),
+	    			task.getWorkload(),
+	    			task.getActivity() != null ? task.getActivity().getActivityID() : null,
+	    			task.getRecurrence(),
+	    			task.getTaskStatus(),
+	    			task.getSystem() != null ? task.getSystem().getSystemID() : null,
+	    			task.getInterface() != null ? task.getInterface().getInterfaceID() : null));
+	    }
+
 	    /**
 	     * fetches a task from DB by it's ID.
 	     * @param id
@@ -124,6 +178,10 @@ public class TaskService {
 	            task = pingTask;
 	            break;
 
+	        case STFPCONNECTIONTASK:
+	            task = new SFTPConnectionTask();
+	            break;
+
 	        // Add more case statements for other task types here
 
 	        default:
@@ -168,6 +226,8 @@ public class TaskService {
 	            saved = taskRepository.save(task);
 	            taskRepository.flush();
 	            log.info("Saved task with ID {}", saved.getTaskID());
+	            taskRegistry.recordSaved(saved); // scheduled once this commits
+	            hierarchyGraph.recordStructureChange();
 	        } catch (Exception e) {
 	            log.error("Error saving task", e);
 	            throw e; // rethrow or handle accordingly
@@ -199,6 +259,8 @@ public class TaskService {
              //task.setTaskType(updatedTaskData.getTaskType());
              task.setRecurrence(updatedTaskData.getRecurrence());
 	    	 task.setActivity(activity);
+	    	 taskRegistry.recordSaved(task);
+	    	 hierarchyGraph.recordStructureChange();
 	    }
 
 	    @Transactional
@@ -211,6 +273,7 @@ public class TaskService {
 	    	Task task = taskRepository.findById(id)
 	    	        .orElseThrow(() -> new RuntimeException("Task not found"));
 	    	    task.setWorkload(newWorkload);
+	    	    taskRegistry.recordSaved(task);
 	    }
 	    
 	    @Transactional(propagation = Propagation.REQUIRES_NEW)
@@ -224,8 +287,10 @@ public class TaskService {
 			  //if my task and taskValidationResult statuses don't match I change them!
 			   log.debug("previous {} and new {}", previousStatus, newStatus);
 			  if(previousStatus != newStatus) {
-			        task.setTaskStatus(newStatus);
-			        taskRepository.save(task); 
+			        // the task that ran is a detached copy without it's activity/system/interface, 
+			        // saving it would wipe them, so the status goes on the one from the DB
+			        taskInDB.setTaskStatus(newStatus);
+			        taskRepository.save(taskInDB);
 	    	}
 			    
 		}
@@ -246,6 +311,8 @@ public class TaskService {
 	        taskValidationResultRepo.deleteTaskValidationResultByTask_TaskID(id);
 	        taskErrorRepo.deleteTaskErrorByTaskValidationResult_Task_TaskID(id);
 	        taskRepository.deleteById(id);
+	        taskRegistry.recordDeleted(id);
+	        hierarchyGraph.recordStructureChange();
 	    }
 	    
 	    /**
@@ -284,46 +351,43 @@ public class TaskService {
 	    
 	    
 	    /**
-	     * Fetches all tasks from the DB, with their validationresults, and errors 
+	     * Fetches all tasks from the hierarchy graph, with their validationresults, and errors 
 	     * in the form of TaskTreeResponseDTOs.
 	     * @return List of ProcessTreeNodeResponseDTO for each process in the DB.
 	     */
-	    @Transactional(readOnly = true)
 	    public List<TaskTreeResponseDTO> GetTaskTreeNodes(){
 	    	try {
 	    		
-	    		// 1. Busca todas as tasks da base de dados
-	    		 List<Task> tasks = this.taskRepository.findAll();
+	    		// 1. Busca todas as tasks do grafo em memoria, nada vai a DB
+	    		 HierarchySnapshot hierarchy = this.hierarchyGraph.getSnapshot();
 	    	        
 	    		 
 	    		// 2. Mapeia cada task para o seu DTO correspondente
-	    	        return tasks.stream().map(task -> {
+	    	        return hierarchy.getTasks().values().stream().map(task -> {
 	    	        	
-	    	        	// 3. Para cada task, processamos os seus TaskValidationResults:
-	    	            // - Ordenamos por timestamp decrescente (mais recente primeiro)
+	    	        	// 3. Para cada task, processamos os seus resultados:
+	    	            // - o grafo ja os tem por timestamp decrescente (mais recente primeiro)
 	    	            // - Limitamos a 3 (últimos 3 resultados)
 	    	        	
 	    	            List<TaskResultResponseDTO> results = task.getResults().stream() 
-	    	                .sorted(Comparator.comparing(TaskValidationResult::getTimestamp).reversed())  
 	    	                .limit(3)
 	    	                .map(result -> {
 	    	                	
 	    	                	 // 4. Se o resultado falhou (status == FAIL) e tiver erros associados,
 	    	                    // criamos o DTO do erro.
 	    	                    TaskErrorResponseDTO errorDTO = null;
-	    	                    if (result.getStatus() == TaskStatus.FAIL && result.getTaskErrors() != null && !result.getTaskErrors().isEmpty()) {
-	    	                        TaskError error = result.getTaskErrors().get(0); // pegar o primeiro erro
+	    	                    if (result.hasError()) {
 	    	                        errorDTO = new TaskErrorResponseDTO(
-	    	                            error.getTaskErrorID(),
-	    	                            error.getTimestamp(),
-	    	                            error.getErrorDescription()
+	    	                            result.getErrorId(),
+	    	                            result.getErrorTimestamp(),
+	    	                            result.getErrorDescription()
 	    	                        );
 	    	                    }
 
 	    	                 // 5. Criamos o DTO do resultado da task, com os dados relevantes
 	    	                    return new TaskResultResponseDTO(
-	    	                        result.getTaskValidationResultID(),  // ID do resultado
-	    	                        task.getTaskName(),                  // Nome da task (repetido em todos os resultados, para contexto)
+	    	                        result.getId(),                      // ID do resultado
+	    	                        task.getName(),                      // Nome da task (repetido em todos os resultados, para contexto)
 	    	                        result.getStatus(),                  // Status do resultado
 	    	                        result.getTimestamp(),               // Timestamp do resultado
 	    	                        errorDTO                             // DTO do erro (pode ser null)
@@ -333,9 +397,9 @@ public class TaskService {
 
 	    	            // 6. Finalmente, criamos o DTO principal da Task com os 3 resultados
 	    	            return new TaskTreeResponseDTO(
-	    	                task.getTaskID(),      // ID da task
-	    	                task.getTaskName(),    // Nome da task
-	    	                task.getTaskStatus(),  // Status da task (podes mudar isto para usar o status mais recente dos resultados, se quiseres)
+	    	                task.getId(),          // ID da task
+	    	                task.getName(),        // Nome da task
+	    	                task.getStatus(),      // Status da task, segue o resultado mais recente
 	    	                results                // Lista dos 3 últimos resultados
 	    	            );
 
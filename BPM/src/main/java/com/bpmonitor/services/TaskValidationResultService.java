@@ -1,18 +1,27 @@
 package com.bpmonitor.services;
 
 import java.time.LocalDateTime;
-import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
-import com.bpmonitor.customExceptions.DeletionOfResultsException;
+import com.bpmonitor.DTOs.response.TaskErrorResponseDTO;
+import com.bpmonitor.DTOs.response.TaskValidationResponseDTO;
 import com.bpmonitor.customExceptions.EntityNotFoundException;
 import com.bpmonitor.enums.TaskStatus;
+import com.bpmonitor.enums.TaskType;
 import com.bpmonitor.models.Task;
+import com.bpmonitor.models.TaskError;
 import com.bpmonitor.models.TaskValidationResult;
+import com.bpmonitor.paging.KeysetPage;
+import com.bpmonitor.paging.KeysetPager;
+import com.bpmonitor.paging.KeysetQuery;
+import com.bpmonitor.repositories.TaskErrorRepository;
 import com.bpmonitor.repositories.TaskRepository;
 import com.bpmonitor.repositories.TaskValidationResultRepository;
 
@@ -25,16 +34,25 @@ public class TaskValidationResultService {
 	
 private final TaskValidationResultRepository taskValResultRepo;
 private final TaskRepository taskRepo;
+private final ResultRetentionService retentionService;
+private final TaskErrorRepository taskErrorRepo;
+private final KeysetPager pager;
 	
 
 
 	public TaskValidationResultService(
 			TaskValidationResultRepository TaskValResultRepo,
-			TaskRepository taskRepo
+			TaskRepository taskRepo,
+			ResultRetentionService retentionService,
+			TaskErrorRepository taskErrorRepo,
+			KeysetPager pager
 			) {
     
     	this.taskValResultRepo = TaskValResultRepo;
     	this.taskRepo = taskRepo;
+    	this.retentionService = retentionService;
+    	this.taskErrorRepo = taskErrorRepo;
+    	this.pager = pager;
     	
     }
 	
@@ -78,31 +96,14 @@ private final TaskRepository taskRepo;
 	}
 	
 	 /**
-	  * This method deletes all succesful TaskValidationResults that are
-	  * older than one day or longer, and it also deletes all failed TaskValidationResults 
-	  * that are 3 days old or longer.
+	  * This method deletes the TaskValidationResults (and their errors) older than their retention policy,
+	  * 1 day for succesful ones and 1 week for failed ones unless bpm.retention.policies says otherwise.
+	  * The ResultRetentionService already does it every night, this runs a pass right away.
+	  * Not transactional, every chunk is committed on it's own.
 	  */
-   @Transactional
    public void deleteOldTaskValidationResults() {
-       try {
-           LocalDateTime now = LocalDateTime.now(); // I check for the current time
-     
-           LocalDateTime oneDayAgo = now.minus(1, ChronoUnit.DAYS); // I get 1 day ago.
-           List<TaskValidationResult> successResults = 
-           		taskValResultRepo.findByStatusAndTimestampBefore(TaskStatus.SUCCESS, oneDayAgo); // I go get all succesful results.
-           taskValResultRepo.deleteAll(successResults); // and delete them
-           log.info("Deleted {} successful task validation results older than 1 day.", successResults.size());
-      
-           LocalDateTime oneWeekAgo = now.minus(1, ChronoUnit.WEEKS); // I get 1 week ago.
-           List<TaskValidationResult> failedResults = 
-           		taskValResultRepo.findByStatusAndTimestampBefore(TaskStatus.FAIL, oneWeekAgo);
-           taskValResultRepo.deleteAll(failedResults); // and delete them
-           log.info("Deleted {} failed task validation results older than 1 week.", failedResults.size());
-
-       } catch (RuntimeException e) {
-           log.error("Something went wrong with deleting old task validation results: {}", e.getMessage());
-           throw new DeletionOfResultsException("Failed to delete task validation results");
-       }
+       long purged = retentionService.purge();
+       log.info("Deleted {} old task validation results and errors.", purged);
    }
 	
 	
@@ -156,6 +157,54 @@ private final TaskRepository taskRepo;
     		throw e;
     	}
     }
+
+    /**
+     * Fetches one page of TaskValidationResults, newest first, with their errors.
+     * @param status - only results with this status, null for all.
+     * @param type - only results of tasks of this type, null for all.
+     * @param taskId - only the results of this task, null for all.
+     * @param from - only results taken at or after this, null for no bound.
+     * @param to - only results taken before this, null for no bound.
+     * @param cursor - X-Next-Cursor of the previous page, null for the first one.
+     * @param limit - results asked for, bounded by bpm.paging.max-limit.
+     * @return the page and the cursor of the next one.
+     */
+    @Transactional(readOnly = true)
+    public KeysetPage<TaskValidationResponseDTO> findTaskValidationResultsPage(TaskStatus status, TaskType type, Long taskId,
+    		LocalDateTime from, LocalDateTime to, String cursor, Integer limit) {
+    	Class<?> taskClass = type == null ? null : pager.subclassOf(Task.class, type.name());
+    	if (type != null && taskClass == null) {
+    		return KeysetPage.empty(); // no task of that type is mapped
+    	}
+    	KeysetQuery<TaskValidationResult> query = KeysetQuery
+    			.of(TaskValidationResult.class, "r", "taskValidationResultID", TaskValidationResult::getTaskValidationResultID)
+    			.newestFirst("timestamp", TaskValidationResult::getTimestamp)
+    			.where("r.status = :status", "status", status)
+    			.where("r.task.taskID = :taskId", "taskId", taskId)
+    			.where("r.task.taskID IN (SELECT t.taskID FROM Task t WHERE TYPE(t) = :type)", "type", taskClass)
+    			.where("r.timestamp >= :from", "from", from)
+    			.where("r.timestamp < :to", "to", to);
+    	KeysetPage<TaskValidationResult> page = pager.fetch(query, cursor, limit);
+
+    	// the errors of the whole page in one query, not one per result
+    	List<Long> resultIds = new ArrayList<>(page.getItems().size());
+    	for (TaskValidationResult result : page.getItems()) {
+    		resultIds.add(result.getTaskValidationResultID());
+    	}
+    	Map<Long, List<TaskErrorResponseDTO>> errorsByResult = new HashMap<>();
+    	if (!resultIds.isEmpty()) {
+    		for (TaskError error : taskErrorRepo.findTaskErrorByTaskValidationResult_TaskValidationResultIDIn(resultIds)) {
+    			errorsByResult.computeIfAbsent(error.getTaskValidationResult().getTaskValidationResultID(), id -> new ArrayList<>())
+    					.add(new TaskErrorResponseDTO(error.getTaskErrorID(), error.getTimestamp(), error.getErrorDescription()));
+    		}
+    	}
+    	return page.map(result -> new TaskValidationResponseDTO(
+    			result.getTaskValidationResultID(),
+    			result.getStatus(),
+    			result.getTimestamp(),
+    			result.getResultDescription(),
+    			errorsByResult.getOrDefault(result.getTaskValidationResultID(), new ArrayList<>())));
+    }
     	
     /**
      * Fetches an TaskValidationResult by it's id.
@@ -0,0 +1,371 @@
+package com.bpmonitor.services;
+
+import java.time.LocalDateTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import com.bpmonitor.DTOs.response.ProcessTreeNodeResponseDTO;
+import com.bpmonitor.DTOs.response.SubprocessTreeNodeResponseDTO;
+import com.bpmonitor.DTOs.response.TreeDeltaResponseDTO;
+import com.bpmonitor.DTOs.response.TreeNodeChangeDTO;
+import com.bpmonitor.DTOs.response.TreeSnapshotMetricsResponseDTO;
+import com.bpmonitor.hierarchy.HierarchyGraph;
+import com.bpmonitor.hierarchy.HierarchySnapshot;
+import com.bpmonitor.hierarchy.TreeDiff;
+import com.bpmonitor.hierarchy.TreeDiff.FlatNode;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Keeps the process and subprocess trees the dashboards poll already mapped and serialized.
+ *
+ * Each tree depends on some levels of the hierarchy graph (the process tree on processes, subprocesses
+ * and activities, the subprocess tree on the tasks and their results too). The graph replaces a level
+ * only when something in it changes, so while the levels of a tree are the same objects the tree is
+ * the same and it's bytes are served as they are. Otherwise it's mapped and serialized once, under a new version.
+ *
+ * Every version has an ETag, a poll that sends it back in If-None-Match gets a 304 with no mapping,
+ * no serialization and no DB. The ETags carry this instance's boot id, so they never match across restarts.
+ *
+ * Every new version also logs which nodes it added, removed or changed, so a client that already has a version
+ * can ask for only what changed since. The log keeps at most change-log-changes changes per tree, dropping the
+ * oldest versions first, a client further behind than that (or from before a restart) gets the whole tree.
+ * @author joao7
+ *
+ */
+@Slf4j
+@Service
+public class TreeSnapshotService {
+
+	private final HierarchyGraph hierarchyGraph;
+	private final ObjectMapper objectMapper;
+	private final String bootId = Long.toString(java.lang.System.currentTimeMillis(), 36);
+
+	private final int changeLogChanges; // most changes each tree's log keeps
+
+	private final TreeView processTree;
+	private final TreeView subprocessTree;
+
+	@SuppressWarnings("unchecked")
+	public TreeSnapshotService(
+			HierarchyGraph hierarchyGraph,
+			ProcessService processService,
+			ObjectMapper objectMapper,
+			@Value("${bpm.trees.change-log-changes:10000}") int changeLogChanges) {
+		this.hierarchyGraph = hierarchyGraph;
+		this.objectMapper = objectMapper;
+		this.changeLogChanges = Math.max(1, changeLogChanges);
+		this.processTree = new TreeView("process",
+				hierarchy -> new Object[] { hierarchy.getProcesses(), hierarchy.getSubprocesses(), hierarchy.getActivities() },
+				processService::GetProcessTreeNodes,
+				nodes -> TreeDiff.flattenProcessTree((List<ProcessTreeNodeResponseDTO>) nodes));
+		this.subprocessTree = new TreeView("subprocess",
+				hierarchy -> new Object[] { hierarchy.getProcesses(), hierarchy.getSubprocesses(), hierarchy.getActivities(), hierarchy.getTasks() },
+				processService::GetSubprocessTreeNodes,
+				nodes -> TreeDiff.flattenSubprocessTree((List<SubprocessTreeNodeResponseDTO>) nodes));
+	}
+
+
+	/**
+	 * @return the current process tree (processes, subprocesses, activities).
+	 */
+	public TreeSnapshot getProcessTree() {
+		return current(processTree);
+	}
+
+	/**
+	 * @return the current subprocess tree (down to the tasks and their results).
+	 */
+	public TreeSnapshot getSubprocessTree() {
+		return current(subprocessTree);
+	}
+
+	/**
+	 * @param since - version token of the process tree the client has.
+	 * @return the serialized TreeDeltaResponseDTO that takes the client to the current version.
+	 */
+	public byte[] getProcessTreeSince(String since) {
+		return since(processTree, since);
+	}
+
+	/**
+	 * @param since - version token of the subprocess tree the client has.
+	 * @return the serialized TreeDeltaResponseDTO that takes the client to the current version.
+	 */
+	public byte[] getSubprocessTreeSince(String since) {
+		return since(subprocessTree, since);
+	}
+
+	/**
+	 * @param tree - the tree about to be served.
+	 * @param ifNoneMatch - the If-None-Match header of the request, may be null.
+	 * @return true if the client already has this version and gets a 304.
+	 */
+	public boolean isNotModified(TreeSnapshot tree, String ifNoneMatch) {
+		TreeView view = tree.view;
+		if (ifNoneMatch == null || !matches(ifNoneMatch, tree.etag)) {
+			view.served.increment();
+			return false;
+		}
+		view.notModified.increment();
+		return true;
+	}
+
+	/**
+	 * @return versions, renders and how many polls were answered without a body.
+	 */
+	public TreeSnapshotMetricsResponseDTO getMetrics() {
+		TreeSnapshot process = processTree.rendered;
+		TreeSnapshot subprocess = subprocessTree.rendered;
+		return new TreeSnapshotMetricsResponseDTO(
+				process == null ? 0 : process.version,
+				process == null ? 0 : process.json.length,
+				processTree.renders.sum(),
+				processTree.served.sum(),
+				processTree.notModified.sum(),
+				processTree.deltas.sum(),
+				processTree.deltaFallbacks.sum(),
+				subprocess == null ? 0 : subprocess.version,
+				subprocess == null ? 0 : subprocess.json.length,
+				subprocessTree.renders.sum(),
+				subprocessTree.served.sum(),
+				subprocessTree.notModified.sum(),
+				subprocessTree.deltas.sum(),
+				subprocessTree.deltaFallbacks.sum());
+	}
+
+
+	private TreeSnapshot current(TreeView view) {
+		HierarchySnapshot hierarchy = hierarchyGraph.getSnapshot();
+		Object[] levels = view.dependsOn.apply(hierarchy);
+		TreeSnapshot rendered = view.rendered;
+		if (rendered != null && rendered.isOf(levels)) {
+			return rendered;
+		}
+		synchronized (view) {
+			rendered = view.rendered;
+			if (rendered != null && rendered.isOf(levels)) {
+				return rendered; // another poll rendered it meanwhile
+			}
+			List<?> nodes = view.render.apply(hierarchy);
+			byte[] json;
+			try {
+				json = objectMapper.writeValueAsBytes(nodes);
+			} catch (JsonProcessingException e) {
+				log.error("something went wrong serializing the {} tree : {}", view.name, e.getMessage());
+				throw new IllegalStateException("Couldn't serialize the " + view.name + " tree", e);
+			}
+			view.renders.increment();
+			if (rendered != null && Arrays.equals(json, rendered.json)) {
+				// a rebuild of the graph that changed nothing in this tree, the clients keep their version
+				rendered = new TreeSnapshot(view, rendered.version, rendered.versionToken, rendered.etag, rendered.json,
+						rendered.nodes, rendered.flat, levels, hierarchy.getVersion(), rendered.renderedAt);
+				view.rendered = rendered;
+				return rendered;
+			}
+			long version = rendered == null ? 1 : rendered.version + 1;
+			String versionToken = bootId + "-" + version;
+			Map<String, FlatNode> flat = view.flatten.apply(nodes);
+			if (rendered != null) {
+				log(view, version, TreeDiff.diff(rendered.flat, flat));
+			}
+			rendered = new TreeSnapshot(view, version, versionToken, "\"" + view.name + "-" + versionToken + "\"",
+					json, nodes, flat, levels, hierarchy.getVersion(), LocalDateTime.now());
+			view.rendered = rendered;
+			log.debug("Rendered version {} of the {} tree, {} bytes", version, view.name, json.length);
+			return rendered;
+		}
+	}
+
+	/**
+	 * adds the changes of a new version to the log of the tree, dropping the oldest versions past the limit.
+	 * Called holding the view's lock.
+	 */
+	private void log(TreeView view, long version, List<TreeNodeChangeDTO> changes) {
+		view.changeLog.addLast(new LoggedVersion(version, changes));
+		view.loggedChanges += changes.size();
+		while (view.loggedChanges > changeLogChanges && !view.changeLog.isEmpty()) {
+			view.loggedChanges -= view.changeLog.removeFirst().changes.size();
+		}
+	}
+
+	private byte[] since(TreeView view, String since) {
+		TreeSnapshot tree = current(view);
+		long sinceVersion = parseVersion(since);
+		List<TreeNodeChangeDTO> changes = null;
+		if (sinceVersion == tree.version) {
+			changes = Collections.emptyList();
+		} else if (sinceVersion > 0 && sinceVersion < tree.version) {
+			List<List<TreeNodeChangeDTO>> versions = new ArrayList<>();
+			long expected = sinceVersion + 1;
+			synchronized (view) {
+				for (LoggedVersion logged : view.changeLog) {
+					if (logged.version > tree.version) {
+						break; // rendered after this tree was picked up, the next poll gets it
+					}
+					if (logged.version < expected) {
+						continue;
+					}
+					if (logged.version != expected) {
+						break; // the versions right after since were dropped already
+					}
+					versions.add(logged.changes);
+					expected++;
+				}
+			}
+			if (expected == tree.version + 1) {
+				changes = TreeDiff.merge(versions);
+			}
+		}
+		TreeDeltaResponseDTO delta;
+		if (changes == null) {
+			// a version from before a restart, too old for the log or just wrong, the client starts over
+			view.deltaFallbacks.increment();
+			delta = new TreeDeltaResponseDTO(since, tree.versionToken, true, Collections.emptyList(), tree.nodes);
+		} else {
+			view.deltas.increment();
+			delta = new TreeDeltaResponseDTO(since, tree.versionToken, false, changes, null);
+		}
+		try {
+			return objectMapper.writeValueAsBytes(delta);
+		} catch (JsonProcessingException e) {
+			log.error("something went wrong serializing the {} tree delta : {}", view.name, e.getMessage());
+			throw new IllegalStateException("Couldn't serialize the " + view.name + " tree delta", e);
+		}
+	}
+
+	/**
+	 * @return the version of a token of this instance, -1 if it's from another boot or not a token at all.
+	 */
+	private long parseVersion(String token) {
+		int dash = token == null ? -1 : token.lastIndexOf('-');
+		if (dash < 0 || !token.substring(0, dash).equals(bootId)) {
+			return -1;
+		}
+		try {
+			return Long.parseLong(token.substring(dash + 1));
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * If-None-Match may list several ETags, weak ones too, or be *.
+	 */
+	private static boolean matches(String ifNoneMatch, String etag) {
+		for (String candidate : ifNoneMatch.split(",")) {
+			String tag = candidate.trim();
+			if (tag.startsWith("W/")) {
+				tag = tag.substring(2);
+			}
+			if (tag.equals("*") || tag.equals(etag)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+
+	/**
+	 * one tree, what it's built from and it's last rendered version.
+	 */
+	private static final class TreeView {
+		private final String name;
+		private final Function<HierarchySnapshot, Object[]> dependsOn; // the levels of the graph the tree is built from
+		private final Function<HierarchySnapshot, List<?>> render;
+		private final Function<List<?>, Map<String, FlatNode>> flatten;
+		private volatile TreeSnapshot rendered;
+
+		private final Deque<LoggedVersion> changeLog = new ArrayDeque<>(); // guarded by the view, oldest first
+		private int loggedChanges;
+
+		private final LongAdder renders = new LongAdder();
+		private final LongAdder served = new LongAdder();
+		private final LongAdder notModified = new LongAdder();
+		private final LongAdder deltas = new LongAdder();
+		private final LongAdder deltaFallbacks = new LongAdder();
+
+		private TreeView(String name, Function<HierarchySnapshot, Object[]> dependsOn, Function<HierarchySnapshot, List<?>> render,
+				Function<List<?>, Map<String, FlatNode>> flatten) {
+			this.name = name;
+			this.dependsOn = dependsOn;
+			this.render = render;
+			this.flatten = flatten;
+		}
+	}
+
+	/**
+	 * the changes a version made to the one before it.
+	 */
+	private static final class LoggedVersion {
+		private final long version;
+		private final List<TreeNodeChangeDTO> changes;
+
+		private LoggedVersion(long version, List<TreeNodeChangeDTO> changes) {
+			this.version = version;
+			this.changes = changes;
+		}
+	}
+
+	/**
+	 * a rendered version of a tree, immutable.
+	 */
+	public static final class TreeSnapshot {
+		private final TreeView view;
+		@Getter private final long version;
+		@Getter private final String versionToken; // what a client sends back as since, the version plus the boot id
+		@Getter private final String etag;
+		private final byte[] json;
+		@Getter private final List<?> nodes; // the DTOs the json was written from, never to be changed
+		private final Map<String, FlatNode> flat; // the nodes without their children, to diff the next version against
+		private final Object[] levels;
+		@Getter private final long hierarchyVersion; // version of the graph it was rendered from
+		@Getter private final LocalDateTime renderedAt;
+
+		private TreeSnapshot(TreeView view, long version, String versionToken, String etag, byte[] json, List<?> nodes,
+				Map<String, FlatNode> flat, Object[] levels, long hierarchyVersion, LocalDateTime renderedAt) {
+			this.view = view;
+			this.version = version;
+			this.versionToken = versionToken;
+			this.etag = etag;
+			this.json = json;
+			this.nodes = nodes;
+			this.flat = flat;
+			this.levels = levels;
+			this.hierarchyVersion = hierarchyVersion;
+			this.renderedAt = renderedAt;
+		}
+
+		/**
+		 * @return the serialized tree, shared, it must not be written to.
+		 */
+		public byte[] getJson() {
+			return json;
+		}
+
+		private boolean isOf(Object[] otherLevels) {
+			if (levels.length != otherLevels.length) {
+				return false;
+			}
+			for (int i = 0; i < levels.length; i++) {
+				if (levels[i] != otherLevels[i]) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+}
@@ -1,23 +1,23 @@
 package com.bpmonitor.tasks;
 
-import java.net.URL;
 import java.time.LocalDateTime;
+import java.util.concurrent.CompletableFuture;
 
 import javax.persistence.DiscriminatorValue;
 import javax.persistence.Entity;
-import javax.persistence.PostLoad;
 import javax.persistence.Transient;
 
+import com.bpmonitor.customExceptions.InvalidWorkloadException;
 import com.bpmonitor.enums.*;
 import com.bpmonitor.models.*;
-import com.fasterxml.jackson.databind.JsonNode;
 
 import lombok.NoArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import java.io.IOException;
-import java.net.HttpURLConnection;
-import java.net.MalformedURLException;
+import com.bpmonitor.probes.HttpProbeResult;
+import com.bpmonitor.probes.ProbeDeadline;
+import com.bpmonitor.probes.ProbeEngines;
+import com.bpmonitor.workloads.HttpCheckWorkload;
+import com.bpmonitor.workloads.TaskWorkload;
 
 /**
  * this Task checks whether a web connection is reachable or not.
@@ -35,9 +35,6 @@ public class HttpCheckTask extends Task {
 	 * task specific variables
 	 */
 
-	@Transient
-	private String url;
-
 	@Transient
 	private final int timeout = 10000; // 10 seconds
 
@@ -50,23 +47,13 @@ public class HttpCheckTask extends Task {
 
 	}
 
-	@PostLoad
-	public void extractWorkload() {
-		try {
-			ObjectMapper mapper = new ObjectMapper();
-			JsonNode node = mapper.readTree(this.getWorkload());
-			this.url = node.get("URL").asText();
-		} catch (Exception e) {
-			log.error("Failed to extract URL from workload", e);
-		}
-	}
-
-	public void setUrl(String url) {
-		this.url = url;
+	@Override
+	protected Class<? extends TaskWorkload> workloadType() {
+		return HttpCheckWorkload.class;
 	}
 
 	public String getUrl() {
-		return this.url;
+		return ((HttpCheckWorkload) getCompiledWorkload()).getUrl();
 	}
 
 	@Override
@@ -76,35 +63,56 @@ public class HttpCheckTask extends Task {
 
 	@Override
 	public TaskValidationResult execute() {
+		return executeAsync().join();
+	}
+
+	/**
+	 * the check runs on the HttpProbeEngine, no thread waits for the endpoint to answer.
+	 * the engine's timeout is capped by the deadline, so it gives up (and closes the socket) in time.
+	 */
+	@Override
+	public CompletableFuture<TaskValidationResult> executeAsync(ProbeDeadline deadline) {
 
-		if (this.url == null) {
-			log.debug("URL not loaded, calling extractWorkload()");
-			extractWorkload();
+		HttpCheckWorkload http;
+		try {
+			http = (HttpCheckWorkload) getCompiledWorkload();
+		} catch (InvalidWorkloadException e) {
+			this.setTaskStatus(TaskStatus.FAIL);
+			return CompletableFuture.completedFuture(new TaskValidationResult(this, this.getTaskStatus(),
+					LocalDateTime.now(), "Invalid HTTP check workload - " + e.getMessage()));
 		}
 
+		String url = http.getUrl();
 		log.debug("Checking HTTP connectivity to: {}", url);
 
-		String description;
 		try {
-			HttpURLConnection connection = (HttpURLConnection) new URL(this.url).openConnection();
-			connection.setRequestMethod("GET");
-			connection.setConnectTimeout(timeout);
-			connection.setReadTimeout(timeout);
-
-			int responseCode = connection.getResponseCode();
-
-			if (responseCode >= 200 && responseCode < 400) {
-				this.setTaskStatus(TaskStatus.SUCCESS);
-				description = "Successfully connected to URL: " + url + " (HTTP " + responseCode + ")";
-			} else {
-				this.setTaskStatus(TaskStatus.FAIL);
-				description = "Received error response from URL: " + url + " (HTTP " + responseCode + ")";
-			}
-
-		} catch (IOException e) {
+			// the url was parsed when the workload was compiled, a url that couldn't be goes the slow way to get it's error
+			int timeoutMs = deadline.remainingMillis(timeout);
+			CompletableFuture<HttpProbeResult> probe = http.getTarget() != null
+					? ProbeEngines.http().probe(http.getTarget(), timeoutMs)
+					: ProbeEngines.http().probe(url, timeoutMs);
+			return probe.thenApply(result -> toValidationResult(url, result));
+		} catch (IllegalStateException e) {
+			this.setTaskStatus(TaskStatus.FAIL);
+			return CompletableFuture.completedFuture(new TaskValidationResult(this, this.getTaskStatus(),
+					LocalDateTime.now(), "Failed to reach URL: " + url + " - " + e.getMessage()));
+		}
+	}
+
+	private TaskValidationResult toValidationResult(String url, HttpProbeResult probe) {
+		String description;
+		int responseCode = probe.getStatusCode();
+
+		if (!probe.isResponded()) {
+			this.setTaskStatus(TaskStatus.FAIL);
+			description = "Failed to reach URL: " + url + " - " + probe.getError() + " (" + probe.describeTimings() + ")";
+			log.debug("HTTP check to {} failed: {}", url, probe.getError());
+		} else if (responseCode >= 200 && responseCode < 400) {
+			this.setTaskStatus(TaskStatus.SUCCESS);
+			description = "Successfully connected to URL: " + url + " (HTTP " + responseCode + ", " + probe.describeTimings() + ")";
+		} else {
 			this.setTaskStatus(TaskStatus.FAIL);
-			description = "Failed to reach URL: " + url + " - " + e.getMessage();
-			log.debug("HTTP check failed", e);
+			description = "Received error response from URL: " + url + " (HTTP " + responseCode + ", " + probe.describeTimings() + ")";
 		}
 
 		return new TaskValidationResult(this, this.getTaskStatus(), LocalDateTime.now(), description);
@@ -112,7 +120,8 @@ public class HttpCheckTask extends Task {
 
 	@Override
 	public String toString() {
-		return "HttpCheckTask{" + "taskName='" + getTaskName() + '\'' + ", url='" + url + '\'' + ", timeout=" + timeout
+		HttpCheckWorkload http = (HttpCheckWorkload) compiledWorkloadOrNull();
+		return "HttpCheckTask{" + "taskName='" + getTaskName() + '\'' + ", url='" + (http == null ? null : http.getUrl()) + '\'' + ", timeout=" + timeout
 				+ '}';
 	}
 
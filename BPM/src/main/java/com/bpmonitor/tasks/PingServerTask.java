@@ -1,22 +1,20 @@
 package com.bpmonitor.tasks;
 
-import java.net.InetAddress;
-import java.net.UnknownHostException;
 import java.time.LocalDateTime;
+import java.util.concurrent.CompletableFuture;
 
 import javax.persistence.DiscriminatorValue;
 import javax.persistence.Entity;
-import javax.persistence.PostLoad;
 import javax.persistence.Transient;
-import javax.transaction.Transactional;
-
-import org.springframework.beans.factory.annotation.Autowired;
 
+import com.bpmonitor.customExceptions.InvalidWorkloadException;
 import com.bpmonitor.enums.*;
 import com.bpmonitor.models.*;
-import com.bpmonitor.services.TaskValidationResultService;
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.bpmonitor.probes.ProbeDeadline;
+import com.bpmonitor.probes.ProbeEngines;
+import com.bpmonitor.probes.ReachabilityResult;
+import com.bpmonitor.workloads.PingWorkload;
+import com.bpmonitor.workloads.TaskWorkload;
 
 import lombok.NoArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
@@ -34,10 +32,7 @@ public class PingServerTask extends Task {
 	
 
 	@Transient
-	private String host; //name of the server to ping
-	
-	@Transient
-	int timeout = 5000; //10 seconds
+	int timeout = 5000; //5 seconds
 	
 
 	public PingServerTask( 
@@ -62,23 +57,17 @@ public class PingServerTask extends Task {
 	
 
 	
-	@PostLoad
-	public void extractWorkload() {
-        try {
-            ObjectMapper mapper = new ObjectMapper();
-            JsonNode node = mapper.readTree(this.getWorkload());
-            this.host = node.get("HOST").asText();
-        } catch (Exception e) {
-            // handle or log
-        }
-    }
-
+	@Override
+	protected Class<? extends TaskWorkload> workloadType() {
+		return PingWorkload.class;
+	}
 
-	
 	// setters and getters
-	public void setHost(String host){this.host = host;}
-	
-	public String getHost() { return this.host; }
+	public String getHost() { return compiled().getHost(); }
+
+	private PingWorkload compiled() {
+		return (PingWorkload) getCompiledWorkload();
+	}
 
 	
 	@Override
@@ -88,57 +77,60 @@ public class PingServerTask extends Task {
 
 	@Override
 	public TaskValidationResult execute() {
-		 
-		String description = "";
-		
-		// safety: if a workload  hasn't been extracted yet, I do it 
-	    if (this.host == null) {
-	    	log.debug("I entered extractworkload in execute for pingservertask.");
-	        extractWorkload();
-	    }
-	    
-	    String cleanHost = host.replaceFirst("^(https?://)", "").replaceAll("/$", "");
-	    log.debug("Trying to ping cleaned host: " + cleanHost);
-	    
+		return executeAsync().join();
+	}
+
+	/**
+	 * the host is checked by the ReachabilityEngine with TCP connects,
+	 * no thread waits for an unreachable host to time out.
+	 * the engine's timeout is capped by the deadline.
+	 */
+	@Override
+	public CompletableFuture<TaskValidationResult> executeAsync(ProbeDeadline deadline) {
+
+		PingWorkload ping;
 		try {
-			
-			
-			InetAddress inetAddress = InetAddress.getByName(cleanHost);
-			boolean success = inetAddress.isReachable(timeout);
-			
-			if(success) {
-				this.setTaskStatus(TaskStatus.SUCCESS);
-				description = "pinged host successfully : " + host;
-				log.debug("I'm returning a success");
-				return new TaskValidationResult(this,this.getTaskStatus(),LocalDateTime.now(),description); 
-			}else {
-				this.setTaskStatus(TaskStatus.FAIL);
-				description = "couldn't reach host : " + host;
-				log.debug("I'm returning an error");
-				return new TaskValidationResult(this,this.getTaskStatus(),LocalDateTime.now(),description); 
-			}
-			
-		}catch (UnknownHostException e) {
+			ping = compiled();
+		} catch (InvalidWorkloadException e) {
+			this.setTaskStatus(TaskStatus.FAIL);
+			return CompletableFuture.completedFuture(new TaskValidationResult(this, this.getTaskStatus(),
+					LocalDateTime.now(), "Invalid ping workload - " + e.getMessage()));
+		}
+
+	    // the host was cleaned once when the workload was compiled
+	    String cleanHost = ping.getCleanHost();
+
+	    try {
+	    	return ProbeEngines.reachability().probe(cleanHost, ping.getPorts(), deadline.remainingMillis(timeout))
+	    			.thenApply(probe -> toValidationResult(ping, probe));
+	    } catch (IllegalStateException e) {
+	    	this.setTaskStatus(TaskStatus.FAIL);
+	    	return CompletableFuture.completedFuture(new TaskValidationResult(this, this.getTaskStatus(),
+	    			LocalDateTime.now(), "I couldn't reach this host " + cleanHost + " - " + e.getMessage()));
+	    }
+	}
+
+	private TaskValidationResult toValidationResult(PingWorkload ping, ReachabilityResult probe) {
+		String description;
+		if (probe.isReachable()) {
+			this.setTaskStatus(TaskStatus.SUCCESS);
+			description = "pinged host successfully : " + ping.getHost() + " (" + probe.describe() + ")";
+			log.debug("I'm returning a success");
+		} else {
 			this.setTaskStatus(TaskStatus.FAIL);
-            log.debug("Host not found: " + host);
-            return new TaskValidationResult(this,this.getTaskStatus(),
-            		LocalDateTime.now(),"I couldn't find the host " + cleanHost); 
-        } catch (Exception e) {
-        	log.debug("Host not found: " + host);
-             super.setTaskStatus(TaskStatus.FAIL);
-            e.printStackTrace();
-            return new TaskValidationResult(this,this.getTaskStatus(),
-            		LocalDateTime.now(),
-            		"I couldn't reach this host + " + cleanHost); 
-        }
+			description = probe.describe();
+			log.debug("I'm returning an error");
+		}
+		return new TaskValidationResult(this, this.getTaskStatus(), LocalDateTime.now(), description);
 	}
 
 	
 	@Override
 	public String toString() {
+	    PingWorkload ping = (PingWorkload) compiledWorkloadOrNull();
 	    return "PingServerTask{" +
 	            "taskName='" + getTaskName() + '\'' +
-	            ", host='" + host + '\'' +
+	            ", host='" + (ping == null ? null : ping.getHost()) + '\'' +
 	            ", timeout=" + timeout +	        
 	            '}';
 	}
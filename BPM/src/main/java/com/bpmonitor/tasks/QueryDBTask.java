@@ -1,7 +1,5 @@
 package com.bpmonitor.tasks;
 
-import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
@@ -9,14 +7,18 @@ import java.time.LocalDateTime;
 
 import javax.persistence.DiscriminatorValue;
 import javax.persistence.Entity;
-import javax.persistence.PostLoad;
-import javax.persistence.Transient;
 
+import com.bpmonitor.customExceptions.DBCheckException;
+import com.bpmonitor.customExceptions.InvalidWorkloadException;
 import com.bpmonitor.enums.*;
 import com.bpmonitor.models.*;
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.bpmonitor.probes.JdbcLease;
+import com.bpmonitor.probes.ProbeDeadline;
+import com.bpmonitor.probes.ProbeEngines;
+import com.bpmonitor.workloads.QueryDBWorkload;
+import com.bpmonitor.workloads.TaskWorkload;
 
+import lombok.NoArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 
 
@@ -26,35 +28,12 @@ import lombok.extern.slf4j.Slf4j;
  * It connects to the database, executes the query, and verifies the result.
  */
 @Slf4j
+@NoArgsConstructor
 @Entity
 @DiscriminatorValue("QUERYDBTASK")
 public class QueryDBTask extends Task{
 	
 
-	@Transient
-    private String jdbcUrl;      // JDBC connection URL (e.g., "jdbc:mysql://localhost:3306/mydb")
-	@Transient
-	private String username;     // Database username
-	@Transient
-	private String password;     // Database password
-	@Transient
-	private String query;        // SQL query to execute
-    
-
-	@PostLoad
-	public void extractWorkload() {
-        try {
-            ObjectMapper mapper = new ObjectMapper();
-            JsonNode node = mapper.readTree(this.getWorkload());
-            this.jdbcUrl = node.get("BDURL").asText();
-            this.username = node.get("USERNAME").asText();
-            this.password = node.get("PASSWORD").asText();
-            this.query = node.get("QUERY").asText();
-        } catch (Exception e) {
-            // handle or log
-        }
-    }
-	
 	public QueryDBTask(
 	        String taskName,
 	        String taskDescription,
@@ -65,7 +44,11 @@ public class QueryDBTask extends Task{
 	        String workload
 	) {
 	    super(taskName, taskDescription, type, status, activity, recurrence, workload);
-	    extractWorkload(); 
+	}
+
+	@Override
+	protected Class<? extends TaskWorkload> workloadType() {
+		return QueryDBWorkload.class;
 	}
 
 
@@ -77,56 +60,96 @@ public class QueryDBTask extends Task{
 
 	@Override
 	public TaskValidationResult execute() {
+		return execute(ProbeDeadline.none());
+	}
+
+	/**
+	 * the query runs with a query timeout of whatever is left of the deadline,
+	 * if the driver doesn't honour it the statement is cancelled and the connection aborted when the deadline expires.
+	 */
+	@Override
+	public TaskValidationResult execute(ProbeDeadline deadline) {
 		
 		String description = "";
-		
-		if (jdbcUrl == null || username == null || password == null || query == null) {
-	        extractWorkload(); // Safety fallback
-	    }
-		
-		Connection connection = null;
-        PreparedStatement statement = null;
-        ResultSet resultSet = null;
-        
-        try {
-            // Step 1: Connect to a database 
-            connection = DriverManager.getConnection(jdbcUrl, username, password);
+
+		QueryDBWorkload db;
+		try {
+			db = (QueryDBWorkload) getCompiledWorkload();
+		} catch (InvalidWorkloadException e) {
+			this.setTaskStatus(TaskStatus.FAIL);
+			return new TaskValidationResult(this, this.getTaskStatus(), LocalDateTime.now(),
+					"Invalid database query workload - " + e.getMessage());
+		}
+		String query = db.getQuery();
+
+        // Step 1: borrow a connection from the target's pool, it's only a login the first time
+        try (JdbcLease lease = ProbeEngines.jdbc().borrow(db.getJdbcUrl(), db.getUsername(), db.getPassword(),
+                deadline.remainingMillis(Integer.MAX_VALUE))) {
 
             // Step 2: Prepare and execute the query
-            statement = connection.prepareStatement(query);
-            resultSet = statement.executeQuery();
-            
-            //if I get here all is well
-            this.setTaskStatus(TaskStatus.SUCCESS);
-            description = "Query executed successfully: " + query;
-                      
+            try (PreparedStatement statement = lease.getConnection().prepareStatement(query);
+                 ProbeDeadline.Registration onExpiry = deadline.onExpiry(() -> abort(statement, lease))) {
+
+                if (deadline.isEnforced()) {
+                    statement.setQueryTimeout((deadline.remainingMillis(Integer.MAX_VALUE) + 999) / 1000);
+                }
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    //if I get here all is well
+                    this.setTaskStatus(TaskStatus.SUCCESS);
+                    description = "Query executed successfully: " + query;
+                }
+
+            } catch (SQLException e) {
+                // a failing connection gets reopened next time rather than validated forever
+                if (isConnectionProblem(e)) {
+                    lease.markBroken();
+                }
+                ProbeEngines.jdbc().recordQueryFailure();
+                throw new DBCheckException(DBCheckStage.QUERY, e.getMessage());
+            }
 
             return new TaskValidationResult(this, this.getTaskStatus(), LocalDateTime.now(), description);
 
-        } catch (SQLException e) {
+        } catch (DBCheckException e) {
         	this.setTaskStatus(TaskStatus.FAIL);
-            String error = "Database query failed: " + e.getMessage();
+            String error = "Database query failed (" + e.getStage() + "): " + e.getMessage();
             log.error(error);
             return new TaskValidationResult(this, this.getTaskStatus(), LocalDateTime.now(), error);
-        } finally {
-            try {
-                if (resultSet != null) resultSet.close();
-                if (statement != null) statement.close();
-                if (connection != null) connection.close();
-            } catch (SQLException e) {
-                log.warn("Error closing DB resources: " + e.getMessage());
-            }
+        } catch (IllegalStateException e) {
+        	this.setTaskStatus(TaskStatus.FAIL);
+            return new TaskValidationResult(this, this.getTaskStatus(), LocalDateTime.now(),
+            		"Database query failed: " + e.getMessage());
         }
     }
 
+	/**
+	 * called from the deadline's thread: cancel is the polite way, abort makes sure.
+	 */
+	private static void abort(PreparedStatement statement, JdbcLease lease) {
+		try {
+			statement.cancel();
+		} catch (SQLException e) {
+			log.debug("Failed cancelling an expired query: {}", e.getMessage());
+		}
+		lease.abort();
+	}
+
+	/**
+	 * SQLState class 08 is "connection exception" in both Oracle and MySQL drivers.
+	 */
+	private static boolean isConnectionProblem(SQLException e) {
+		return e.getSQLState() != null && e.getSQLState().startsWith("08");
+	}
+
 
 	
 	 @Override
 	    public String toString() {
+	        QueryDBWorkload db = (QueryDBWorkload) compiledWorkloadOrNull();
 	        return "CheckDatabaseQueryTask{" +
 	                "taskName='" + getTaskName() + '\'' +
-	                ", jdbcUrl='" + jdbcUrl + '\'' +
-	                ", query='" + query + '\'' +
+	                ", jdbcUrl='" + (db == null ? null : db.getJdbcUrl()) + '\'' +
+	                ", query='" + (db == null ? null : db.getQuery()) + '\'' +
 	                '}';
 	    }
 
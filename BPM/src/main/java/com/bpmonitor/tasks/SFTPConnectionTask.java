@@ -2,132 +2,154 @@ package com.bpmonitor.tasks;
 
 
 
+import java.time.LocalDateTime;
+
+import javax.persistence.DiscriminatorValue;
+import javax.persistence.Entity;
+import javax.persistence.Transient;
+
+import com.bpmonitor.customExceptions.InvalidWorkloadException;
 import com.bpmonitor.enums.*;
 import com.bpmonitor.models.*;
-import com.fasterxml.jackson.databind.JsonNode;
+import com.bpmonitor.probes.ProbeDeadline;
+import com.bpmonitor.probes.ProbeEngines;
+import com.bpmonitor.probes.SftpSessionLease;
+import com.bpmonitor.workloads.SftpWorkload;
+import com.bpmonitor.workloads.TaskWorkload;
 import com.jcraft.jsch.ChannelSftp;
-import com.jcraft.jsch.JSch;
 import com.jcraft.jsch.JSchException;
-import com.jcraft.jsch.Session;
 import com.jcraft.jsch.SftpException;
 
+import lombok.NoArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
 /**
  * verifies the connection to a STFP(Secure File Transfer Protocol) server.
  * @author joao7
  *
  */
+@Slf4j
+@NoArgsConstructor
+@Entity
+@DiscriminatorValue("STFPCONNECTIONTASK")
 public class SFTPConnectionTask extends Task{
-	
-	 private String host; // SFTP server host
-	 private int port; // SFTP server port (default is 22)
-	 private String username; // SFTP username
-	 private String password; // SFTP password
-	 private String remoteDirectory; // Directory to list (e.g., "/")
-	    
-
-	 public SFTPConnectionTask( 
-			 String taskName, 
-			 String taskDescription, 
-			 TaskStatus status, 
+
+	 @Transient
+	 private final int timeout = 5000; // 5 seconds, for the handshake and for the channel open
+
+
+	 public SFTPConnectionTask(
+			 String taskName,
+			 String taskDescription,
+			 TaskStatus status,
 			 Activity activity,
 			 TaskType type,
-			 TaskRecurrence recurrence, 
+			 TaskRecurrence recurrence,
 			 String workload
 			 ) {
-		 
-		 
+
+
 		super( taskName, taskDescription,type,
 				status,activity,recurrence, workload
 				);
-		
-		JsonNode workloadJson = super.getParsedWorkload(); // crio um jsonNode
-		String wLoadHost= workloadJson.get("HOST").asText();  // Tiro o valor de "URL" no meu json para uma variavel
-		int wLoadPort = workloadJson.get("PORT").asInt();
-		String wLoadUsername = workloadJson.get("USERNAME").asText();
-		String wLoadPassword = workloadJson.get("PASSWORD").asText();
-		String wLoadDirectory = workloadJson.get("DIRECTORY").asText();
-		 
-	
-		this.host = wLoadHost;
-		this.port = wLoadPort;
-		this.username = wLoadUsername;
-		this.password = wLoadPassword;
-		this.remoteDirectory = wLoadDirectory;
 	}
-	 
-	
-	 //setters and getters
-	 public void setHost(String host) {this.host = host;}
-	 public void setPort(int port) {this.port = port;}
-	 public void setUsername(String username) {this.username = username;}
-	 public void setPassword(String password) {this.password = password;}
-	 public void setRemoteDirectory(String dir) {this.remoteDirectory = dir;}
-
-	 public String getHost() {return this.host;}
-	 public int getPort() {return this.port;}
-	 public String getUsername() {return this.username;}
-	 public String getPassword() {return this.password;}
-	 public String getRemoteDirecotry() {return this.remoteDirectory;}
-
-	 
+
+	@Override
+	protected Class<? extends TaskWorkload> workloadType() {
+		return SftpWorkload.class;
+	}
+
+
+	 //getters
+	 public String getHost() {return compiled().getHost();}
+	 public int getPort() {return compiled().getPort();}
+	 public String getUsername() {return compiled().getUsername();}
+	 public String getPassword() {return compiled().getPassword();}
+	 public String getRemoteDirecotry() {return compiled().getRemoteDirectory();}
+
+	 private SftpWorkload compiled() {
+		 return (SftpWorkload) getCompiledWorkload();
+	 }
+
+
 	@Override
 	public void run() {
 		execute();
-		
+
 	}
 
 	/**
-	 * Creates a JSch instance to configure the session.
-	 * connects to the SFTP server with a 5 seconds timeout.
-	 * if the connection and listing directory isn't done within 5 seconds, it'll auto fail.
+	 * borrows a logged in session from the SftpSessionPool (a full handshake only when none is kept)
+	 * and lists the remote directory to verify the connection.
+	 * handshake and listing times are reported separately.
 	 */
 	@Override
 	public TaskValidationResult execute() {
-		Session session = null;
-        ChannelSftp channelSftp = null;
-
-        try {
-            // Create a JSch instance and configure the session
-            JSch jsch = new JSch();
-            session = jsch.getSession(username, host, port);
-            session.setPassword(password);
-
-            // Avoid asking for key confirmation
-            session.setConfig("StrictHostKeyChecking", "no");
-
-            // Set a timeout for the connection 
-            session.setTimeout(1000); // 1 seconds
-
-            // Connect to the SFTP server
-            session.connect();
-
-            // Open an SFTP channel
-            channelSftp = (ChannelSftp) session.openChannel("sftp");
-            channelSftp.connect();
-         
-
-            // Attempt to list the remote directory to verify the connection
-            channelSftp.ls(remoteDirectory);
-
-    ;
-            //this.getTaskResult().setStatus(TaskStatus.SUCCESS);
-            //this.getTaskResult().setResultDescription("SFTP connection successful.");
-
-        } catch (JSchException e) {
-        } catch (SftpException e) {
-        } finally {
-            // Disconnect the channel and session
-            if (channelSftp != null) {
-                channelSftp.disconnect();
-            }
-            if (session != null) {
-                session.disconnect();
-            }
-        }
-		return null;
+		return execute(ProbeDeadline.none());
+	}
+
+	/**
+	 * the handshake waits at most what's left of the deadline,
+	 * the listing is cut by tearing the channel down if the deadline expires.
+	 */
+	@Override
+	public TaskValidationResult execute(ProbeDeadline deadline) {
+
+		String description;
+		SftpWorkload sftp;
+		try {
+			sftp = compiled();
+		} catch (InvalidWorkloadException e) {
+			this.setTaskStatus(TaskStatus.FAIL);
+			return new TaskValidationResult(this, this.getTaskStatus(), LocalDateTime.now(),
+					"Invalid SFTP workload - " + e.getMessage());
+		}
+		String host = sftp.getHost();
+		int port = sftp.getPort();
+		String remoteDirectory = sftp.getRemoteDirectory();
+
+		SftpSessionLease lease;
+		try {
+			lease = ProbeEngines.sftp().borrow(host, port, sftp.getUsername(), sftp.getPassword(),
+					deadline.remainingMillis(timeout));
+		} catch (JSchException | IllegalStateException e) {
+			this.setTaskStatus(TaskStatus.FAIL);
+			description = "SFTP handshake to " + host + ":" + port + " failed: " + e.getMessage();
+			log.debug(description);
+			return new TaskValidationResult(this, this.getTaskStatus(), LocalDateTime.now(), description);
+		}
+
+		try (ProbeDeadline.Registration onExpiry = deadline.onExpiry(lease::abort)) {
+			// Attempt to list the remote directory to verify the connection
+			lease.getChannel().ls(remoteDirectory);
+
+			this.setTaskStatus(TaskStatus.SUCCESS);
+			description = "SFTP connection successful, listed " + remoteDirectory
+					+ " (handshake " + (lease.isReused() ? "reused" : lease.getHandshakeMillis() + "ms")
+					+ ", listing " + lease.getMillisSinceChannelOpen() + "ms)";
+
+		} catch (SftpException e) {
+			this.setTaskStatus(TaskStatus.FAIL);
+			if (e.id == ChannelSftp.SSH_FX_CONNECTION_LOST) {
+				lease.markBroken();
+			}
+			description = "SFTP listing of " + remoteDirectory + " on " + host + " failed: " + e.getMessage()
+					+ " (listing " + lease.getMillisSinceChannelOpen() + "ms)";
+			log.debug(description);
+		} finally {
+			lease.close();
+		}
+		return new TaskValidationResult(this, this.getTaskStatus(), LocalDateTime.now(), description);
 	}
 
-	
-	
+	@Override
+	public String toString() {
+		SftpWorkload sftp = (SftpWorkload) compiledWorkloadOrNull();
+		if (sftp == null) {
+			return "SFTPConnectionTask{" + "taskName='" + getTaskName() + '\'' + '}';
+		}
+		return "SFTPConnectionTask{" + "taskName='" + getTaskName() + '\'' + ", host='" + sftp.getHost() + '\'' + ", port=" + sftp.getPort()
+				+ ", directory='" + sftp.getRemoteDirectory() + '\'' + '}';
+	}
 
 }
@@ -67,8 +67,7 @@ public class TaskWorkloadJsonValidator {
     		break;
     	
     	case STFPCONNECTIONTASK:
-    		//TODO: return validateFieldSTFPConnectionTask(node);
-    		break;
+    		return validateFieldForSFTPConnectionTask(node);
     	
     	default: 
     		log.error("tried to validate a taskType that doesn't exist in PickValidationByTaskType()");
@@ -127,7 +126,14 @@ public class TaskWorkloadJsonValidator {
    
         return validateFields(node, "BDURL","USERNAME" , "PASSWORD", "QUERY" );
     }
-    
-    
-   
+
+    /**
+     * Validates that a JSON node has the required fields for a task.
+     * PORT (22) and DIRECTORY (".") are optional.
+     * @throws IllegalArgumentException if validation fails.
+     */
+    public static boolean validateFieldForSFTPConnectionTask(JsonNode node) {
+        return validateFields(node, "HOST", "USERNAME", "PASSWORD");
+    }
+
 }
@@ -0,0 +1,15 @@
+package com.bpmonitor.workloads;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+/**
+ * Workload of tasks without a typed workload of their own, only the responsible party is read.
+ * @author joao7
+ *
+ */
+public final class GenericWorkload extends TaskWorkload {
+
+	GenericWorkload(JsonNode node) {
+		super(WorkloadCompiler.optionalText(node, "RESPONSIBLEPARTY", null));
+	}
+}
@@ -0,0 +1,43 @@
+package com.bpmonitor.workloads;
+
+import com.bpmonitor.probes.HttpTarget;
+import com.fasterxml.jackson.databind.JsonNode;
+
+/**
+ * Workload of an HTTPCHECKTASK.
+ * @author joao7
+ *
+ */
+public final class HttpCheckWorkload extends TaskWorkload {
+
+	private final String url;
+	private final HttpTarget target;
+
+	HttpCheckWorkload(JsonNode node) {
+		super(WorkloadCompiler.optionalText(node, "RESPONSIBLEPARTY", null));
+		this.url = WorkloadCompiler.requiredText(node, "URL");
+		HttpTarget parsed;
+		try {
+			parsed = HttpTarget.parse(url);
+		} catch (IllegalArgumentException e) {
+			parsed = null; // an url that can't be checked is a failed check, not an invalid workload
+		}
+		this.target = parsed;
+	}
+
+	public String getUrl() {
+		return url;
+	}
+
+	/**
+	 * @return the url parsed for the HttpProbeEngine, null if it can't be checked.
+	 */
+	public HttpTarget getTarget() {
+		return target;
+	}
+
+	@Override
+	public String getProbeTarget() {
+		return target == null ? null : "HTTP " + target.getNormalizedUrl();
+	}
+}
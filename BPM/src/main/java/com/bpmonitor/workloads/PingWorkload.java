@@ -0,0 +1,64 @@
+package com.bpmonitor.workloads;
+
+import java.util.Arrays;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+/**
+ * Workload of a PINGSERVERTASK, the host is cleaned of it's scheme and trailing slash here
+ * instead of on every ping.
+ * @author joao7
+ *
+ */
+public final class PingWorkload extends TaskWorkload {
+
+	private final String host;
+	private final String cleanHost;
+	private final int[] ports;
+	private final String probeTarget;
+
+	PingWorkload(JsonNode node) {
+		super(WorkloadCompiler.optionalText(node, "RESPONSIBLEPARTY", null));
+		this.host = WorkloadCompiler.requiredText(node, "HOST");
+		this.cleanHost = host.replaceFirst("^(https?://)", "").replaceAll("/$", "");
+
+		JsonNode portsNode = node.get("PORTS");
+		if (portsNode != null && portsNode.isArray() && portsNode.size() > 0) {
+			int[] parsed = new int[portsNode.size()];
+			for (int i = 0; i < parsed.length; i++) {
+				parsed[i] = WorkloadCompiler.port(portsNode.get(i), "PORTS");
+			}
+			this.ports = parsed;
+		} else {
+			this.ports = null;
+		}
+		// ports are tried in order, so the order is part of the target
+		this.probeTarget = "PING " + cleanHost.toLowerCase() + (ports == null ? "" : " " + Arrays.toString(ports));
+	}
+
+	/**
+	 * @return the host as written in the workload.
+	 */
+	public String getHost() {
+		return host;
+	}
+
+	/**
+	 * @return the host without http(s):// and trailing slash, what the probe connects to.
+	 */
+	public String getCleanHost() {
+		return cleanHost;
+	}
+
+	/**
+	 * @return a copy of the PORTS of the workload, null when it has none (the engine's default ports are used).
+	 */
+	public int[] getPorts() {
+		return ports == null ? null : ports.clone();
+	}
+
+	@Override
+	public String getProbeTarget() {
+		return probeTarget;
+	}
+}
@@ -0,0 +1,48 @@
+package com.bpmonitor.workloads;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+/**
+ * Workload of a QUERYDBTASK.
+ * @author joao7
+ *
+ */
+public final class QueryDBWorkload extends TaskWorkload {
+
+	private final String jdbcUrl;
+	private final String username;
+	private final String password;
+	private final String query;
+	private final String probeTarget;
+
+	QueryDBWorkload(JsonNode node) {
+		super(WorkloadCompiler.optionalText(node, "RESPONSIBLEPARTY", null));
+		this.jdbcUrl = WorkloadCompiler.requiredText(node, "BDURL");
+		this.username = WorkloadCompiler.requiredText(node, "USERNAME");
+		this.password = WorkloadCompiler.requiredText(node, "PASSWORD");
+		this.query = WorkloadCompiler.requiredText(node, "QUERY");
+		// a wrong password is a different outcome, so the credentials are part of it, hashed
+		this.probeTarget = "QUERYDB " + jdbcUrl + "|" + WorkloadCompiler.fingerprint(username, password) + "|" + query.trim();
+	}
+
+	public String getJdbcUrl() {
+		return jdbcUrl;
+	}
+
+	public String getUsername() {
+		return username;
+	}
+
+	public String getPassword() {
+		return password;
+	}
+
+	public String getQuery() {
+		return query;
+	}
+
+	@Override
+	public String getProbeTarget() {
+		return probeTarget;
+	}
+}
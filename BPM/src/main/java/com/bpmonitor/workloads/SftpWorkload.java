@@ -0,0 +1,55 @@
+package com.bpmonitor.workloads;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+/**
+ * Workload of an STFPCONNECTIONTASK, PORT defaults to 22 and DIRECTORY to ".".
+ * @author joao7
+ *
+ */
+public final class SftpWorkload extends TaskWorkload {
+
+	private final String host;
+	private final int port;
+	private final String username;
+	private final String password;
+	private final String remoteDirectory;
+	private final String probeTarget;
+
+	SftpWorkload(JsonNode node) {
+		super(WorkloadCompiler.optionalText(node, "RESPONSIBLEPARTY", null));
+		this.host = WorkloadCompiler.requiredText(node, "HOST");
+		JsonNode portNode = node.get("PORT");
+		this.port = portNode == null || portNode.isNull() ? 22 : WorkloadCompiler.port(portNode, "PORT");
+		this.username = WorkloadCompiler.requiredText(node, "USERNAME");
+		this.password = WorkloadCompiler.requiredText(node, "PASSWORD");
+		this.remoteDirectory = WorkloadCompiler.optionalText(node, "DIRECTORY", ".");
+		this.probeTarget = "SFTP " + host.toLowerCase() + ":" + port + "|"
+				+ WorkloadCompiler.fingerprint(username, password) + "|" + remoteDirectory;
+	}
+
+	public String getHost() {
+		return host;
+	}
+
+	public int getPort() {
+		return port;
+	}
+
+	public String getUsername() {
+		return username;
+	}
+
+	public String getPassword() {
+		return password;
+	}
+
+	public String getRemoteDirectory() {
+		return remoteDirectory;
+	}
+
+	@Override
+	public String getProbeTarget() {
+		return probeTarget;
+	}
+}
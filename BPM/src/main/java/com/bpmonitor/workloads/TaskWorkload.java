@@ -0,0 +1,33 @@
+package com.bpmonitor.workloads;
+
+/**
+ * The workload json of a task, compiled once into a typed immutable object.
+ * Each task type has it's own subclass with the fields it's probe needs already parsed and cleaned,
+ * so running a task doesn't touch json at all.
+ * @author joao7
+ *
+ */
+public abstract class TaskWorkload {
+
+	private final String responsibleParty;
+
+	protected TaskWorkload(String responsibleParty) {
+		this.responsibleParty = responsibleParty;
+	}
+
+	/**
+	 * @return the RESPONSIBLEPARTY of the workload, null when it has none.
+	 */
+	public String getResponsibleParty() {
+		return responsibleParty;
+	}
+
+	/**
+	 * what the probe of this workload actually checks, everything that can change it's outcome included.
+	 * Tasks with the same probe target get the same result, so the ProbeCoalescer probes it once for all of them.
+	 * @return the probe target, null if the probe can't be shared.
+	 */
+	public String getProbeTarget() {
+		return null;
+	}
+}
@@ -0,0 +1,248 @@
+package com.bpmonitor.workloads;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+import com.bpmonitor.customExceptions.InvalidWorkloadException;
+import com.bpmonitor.enums.TaskType;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Compiles workload json into the typed workload of a task type.
+ *
+ * Compiled workloads are immutable, so they're cached by (workload type, workload json):
+ * tasks with the same workload share one object and a workload is parsed once, not per execution.
+ * Workloads that fail to compile are cached too, so a broken task doesn't get re-parsed every run.
+ * @author joao7
+ *
+ */
+public final class WorkloadCompiler {
+
+	// ObjectMapper is thread safe once configured, one for the whole app instead of one per parse
+	private static final ObjectMapper MAPPER = new ObjectMapper();
+
+	// way more than the tasks we have, it's only there so edited workloads don't pile up forever
+	private static final int MAX_CACHED = 10_000;
+
+	private static final Map<Class<? extends TaskWorkload>, Function<JsonNode, ? extends TaskWorkload>> COMPILERS = new HashMap<>();
+	private static final Map<TaskType, Class<? extends TaskWorkload>> TYPES = new EnumMap<>(TaskType.class);
+
+	private static final ConcurrentHashMap<CacheKey, Object> CACHE = new ConcurrentHashMap<>();
+
+	static {
+		COMPILERS.put(GenericWorkload.class, GenericWorkload::new);
+		COMPILERS.put(HttpCheckWorkload.class, HttpCheckWorkload::new);
+		COMPILERS.put(PingWorkload.class, PingWorkload::new);
+		COMPILERS.put(QueryDBWorkload.class, QueryDBWorkload::new);
+		COMPILERS.put(SftpWorkload.class, SftpWorkload::new);
+
+		TYPES.put(TaskType.HTTPCHECKTASK, HttpCheckWorkload.class);
+		TYPES.put(TaskType.PINGSERVERTASK, PingWorkload.class);
+		TYPES.put(TaskType.QUERYDBTASK, QueryDBWorkload.class);
+		TYPES.put(TaskType.STFPCONNECTIONTASK, SftpWorkload.class);
+	}
+
+	private WorkloadCompiler() {
+	}
+
+
+	/**
+	 * @param taskType - type of the task.
+	 * @return the workload class of that task type, GenericWorkload for types without one.
+	 */
+	public static Class<? extends TaskWorkload> workloadTypeOf(TaskType taskType) {
+		return TYPES.getOrDefault(taskType, GenericWorkload.class);
+	}
+
+	/**
+	 * compiles the workload of a task type.
+	 * @param taskType - type of the task.
+	 * @param json - workload json.
+	 * @return the compiled workload.
+	 * @throws InvalidWorkloadException if the json isn't a valid workload for that type.
+	 */
+	public static TaskWorkload compile(TaskType taskType, String json) {
+		return compile(workloadTypeOf(taskType), json);
+	}
+
+	/**
+	 * compiles a workload, or returns the cached one if this json was already compiled.
+	 * @param type - workload class to compile into.
+	 * @param json - workload json.
+	 * @return the compiled workload.
+	 * @throws InvalidWorkloadException if the json isn't a valid workload for that type.
+	 */
+	public static <W extends TaskWorkload> W compile(Class<W> type, String json) {
+		CacheKey key = new CacheKey(type, json == null ? "" : json);
+		Object compiled = CACHE.get(key);
+		if (compiled == null) {
+			compiled = doCompile(type, key.json);
+			if (CACHE.size() >= MAX_CACHED) {
+				CACHE.clear();
+			}
+			Object raced = CACHE.putIfAbsent(key, compiled);
+			if (raced != null) {
+				compiled = raced;
+			}
+		}
+		if (compiled instanceof Invalid) {
+			throw new InvalidWorkloadException(((Invalid) compiled).message);
+		}
+		return type.cast(compiled);
+	}
+
+	/**
+	 * @param json - workload json.
+	 * @param fallback - returned when the workload has no responsible party or can't be parsed.
+	 * @return the RESPONSIBLEPARTY of the workload.
+	 */
+	public static String responsiblePartyOf(String json, String fallback) {
+		try {
+			String responsible = compile(GenericWorkload.class, json).getResponsibleParty();
+			return responsible == null ? fallback : responsible;
+		} catch (InvalidWorkloadException e) {
+			return fallback;
+		}
+	}
+
+	/**
+	 * parses json with the shared mapper, for the few places that still want a raw tree.
+	 * @param json - json to parse.
+	 * @return a fresh tree, the caller may change it.
+	 * @throws InvalidWorkloadException if it isn't json.
+	 */
+	public static JsonNode parse(String json) {
+		try {
+			return MAPPER.readTree(json);
+		} catch (Exception e) {
+			throw new InvalidWorkloadException("Workload isn't valid json: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * @return how many compiled workloads are cached.
+	 */
+	public static int cachedCount() {
+		return CACHE.size();
+	}
+
+
+	static String requiredText(JsonNode node, String field) {
+		JsonNode value = node.get(field);
+		if (value == null || value.isNull()) {
+			throw new InvalidWorkloadException("Workload is missing " + field);
+		}
+		return value.asText();
+	}
+
+	static String optionalText(JsonNode node, String field, String fallback) {
+		JsonNode value = node.get(field);
+		return value == null || value.isNull() ? fallback : value.asText();
+	}
+
+	/**
+	 * @param value - a port, as a json number or a string of digits.
+	 * @param field - field it came from, for the error.
+	 * @return the port.
+	 * @throws InvalidWorkloadException if it isn't a port number between 1 and 65535.
+	 */
+	static int port(JsonNode value, String field) {
+		long port = -1;
+		if (value != null && value.isIntegralNumber() && value.canConvertToLong()) {
+			port = value.asLong();
+		} else if (value != null && value.isTextual() && value.asText().trim().matches("\\d{1,5}")) {
+			port = Long.parseLong(value.asText().trim());
+		}
+		if (port < 1 || port > 65535) {
+			throw new InvalidWorkloadException("Workload has an invalid " + field + ": " + value);
+		}
+		return (int) port;
+	}
+
+	/**
+	 * for the probe targets of workloads with credentials, tasks with the same ones still share a probe
+	 * but the credentials themselves never end up in a key that may be logged or shown.
+	 * @param parts - what to fingerprint, in order.
+	 * @return SHA-256 of the parts, in hex.
+	 */
+	static String fingerprint(String... parts) {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-256 isn't available", e); // every JRE has to ship it
+		}
+		for (String part : parts) {
+			digest.update((part == null ? "" : part).getBytes(StandardCharsets.UTF_8));
+			digest.update((byte) 0); // so ("ab", "c") and ("a", "bc") differ
+		}
+		StringBuilder hex = new StringBuilder(64);
+		for (byte b : digest.digest()) {
+			hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+		}
+		return hex.toString();
+	}
+
+	private static Object doCompile(Class<? extends TaskWorkload> type, String json) {
+		Function<JsonNode, ? extends TaskWorkload> compiler = COMPILERS.get(type);
+		if (compiler == null) {
+			return new Invalid("No compiler for workload type " + type.getSimpleName());
+		}
+		try {
+			JsonNode node = MAPPER.readTree(json);
+			if (node == null || !node.isObject()) {
+				return new Invalid("Workload isn't a json object");
+			}
+			return compiler.apply(node);
+		} catch (InvalidWorkloadException e) {
+			return new Invalid(e.getMessage());
+		} catch (Exception e) {
+			return new Invalid("Workload isn't valid json: " + e.getMessage());
+		}
+	}
+
+
+	private static final class CacheKey {
+		private final Class<?> type;
+		private final String json;
+		private final int hash;
+
+		private CacheKey(Class<?> type, String json) {
+			this.type = type;
+			this.json = json;
+			this.hash = 31 * type.hashCode() + json.hashCode();
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (this == o) {
+				return true;
+			}
+			if (!(o instanceof CacheKey)) {
+				return false;
+			}
+			CacheKey other = (CacheKey) o;
+			return hash == other.hash && type == other.type && json.equals(other.json);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+	}
+
+	private static final class Invalid {
+		private final String message;
+
+		private Invalid(String message) {
+			this.message = message;
+		}
+	}
+}
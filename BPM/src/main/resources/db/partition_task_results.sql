@@ -0,0 +1,85 @@
+-- Moves TASK_RESULT and TASK_ERROR to daily partitions, so retention drops days instead of deleting rows.
+-- Run it once, with the app stopped, as the schema owner (Oracle 12c or newer).
+-- Hibernate (ddl-auto=update) leaves partitioned tables as they are, ResultPartitionManager takes over from there.
+--
+-- TASK_RESULT: interval partitioned by day on DATE_OF_EXECUTION, each day split in SUCCESS and the rest,
+--              so successful results can be dropped sooner than the failures.
+-- TASK_ERROR:  partitioned by reference to TASK_RESULT, an error is always in the partition of it's result
+--              and is dropped with it (a plain FK would forbid dropping the parent partitions).
+--
+-- Only the last 7 days are copied over, older results were due for deletion anyway.
+
+-- Hibernate already created the entities' indexes on the unpartitioned tables, their names move to the new ones
+-- (IX_TASK_RESULT_DATE isn't declared anymore, IX_TASK_RESULT_DATE_ID starts with the same column, it just goes)
+BEGIN
+	FOR ix IN (SELECT INDEX_NAME FROM USER_INDEXES
+	           WHERE TABLE_NAME IN ('TASK_RESULT', 'TASK_ERROR')
+	           AND INDEX_NAME IN ('IX_TASK_RESULT_DATE', 'IX_TASK_RESULT_DATE_ID', 'IX_TASK_RESULT_TASK_DATE',
+	                              'IX_TASK_ERROR_RESULT', 'IX_TASK_ERROR_DATE_ID')) LOOP
+		EXECUTE IMMEDIATE 'DROP INDEX ' || ix.INDEX_NAME;
+	END LOOP;
+END;
+/
+
+CREATE TABLE TASK_RESULT_NEW (
+	TASK_RESULT_ID          NUMBER(19)          NOT NULL,
+	TASK_ID                 NUMBER(19),
+	RESULT                  VARCHAR2(255 CHAR),
+	DATE_OF_EXECUTION       TIMESTAMP           NOT NULL,
+	TASK_RESULT_DESCRIPTION VARCHAR2(500 CHAR),
+	ELAPSED_MS              NUMBER(19),
+	WRITER_ID               NUMBER(19),
+	CONSTRAINT PK_TASK_RESULT PRIMARY KEY (TASK_RESULT_ID),
+	CONSTRAINT FK_TASK_RESULT_TASK FOREIGN KEY (TASK_ID) REFERENCES CONTROL_TASKS (TASK_ID)
+)
+PARTITION BY RANGE (DATE_OF_EXECUTION) INTERVAL (NUMTODSINTERVAL(1, 'DAY'))
+SUBPARTITION BY LIST (RESULT)
+SUBPARTITION TEMPLATE (
+	SUBPARTITION SP_SUCCESS VALUES ('SUCCESS'),
+	SUBPARTITION SP_OTHER VALUES (DEFAULT)
+)
+(PARTITION P_START VALUES LESS THAN (TIMESTAMP '2024-01-01 00:00:00'));
+
+-- latest results per task, local so a dropped day takes it's part of the index with it
+CREATE INDEX IX_TASK_RESULT_TASK_DATE ON TASK_RESULT_NEW (TASK_ID, DATE_OF_EXECUTION, TASK_RESULT_ID) LOCAL;
+
+-- the keyset order the result list pages in, newest first, the retention chunks scan by it's DATE_OF_EXECUTION prefix
+-- the names are the ones the entity declares so Hibernate doesn't add others
+CREATE INDEX IX_TASK_RESULT_DATE_ID ON TASK_RESULT_NEW (DATE_OF_EXECUTION, TASK_RESULT_ID) LOCAL;
+
+CREATE TABLE TASK_ERROR_NEW (
+	TASK_ERROR_ID     NUMBER(19)          NOT NULL,
+	TASK_RESULT_ID    NUMBER(19)          NOT NULL,
+	DATE_OF_EXECUTION TIMESTAMP,
+	DESCRIPTION       VARCHAR2(1000 CHAR) NOT NULL,
+	WORKLOAD_JSON     VARCHAR2(4000 CHAR) NOT NULL,
+	CONSTRAINT PK_TASK_ERROR PRIMARY KEY (TASK_ERROR_ID),
+	CONSTRAINT FK_TASK_ERROR_RESULT FOREIGN KEY (TASK_RESULT_ID) REFERENCES TASK_RESULT_NEW (TASK_RESULT_ID)
+)
+PARTITION BY REFERENCE (FK_TASK_ERROR_RESULT);
+
+CREATE INDEX IX_TASK_ERROR_RESULT ON TASK_ERROR_NEW (TASK_RESULT_ID) LOCAL;
+
+CREATE INDEX IX_TASK_ERROR_DATE_ID ON TASK_ERROR_NEW (DATE_OF_EXECUTION, TASK_ERROR_ID) LOCAL;
+
+-- WRITER_ID isn't copied, a clean shutdown leaves nothing to recover (an instance that crashed would lose it's last flush)
+INSERT /*+ APPEND */ INTO TASK_RESULT_NEW (TASK_RESULT_ID, TASK_ID, RESULT, DATE_OF_EXECUTION, TASK_RESULT_DESCRIPTION, ELAPSED_MS)
+SELECT TASK_RESULT_ID, TASK_ID, RESULT, DATE_OF_EXECUTION, TASK_RESULT_DESCRIPTION, ELAPSED_MS
+FROM TASK_RESULT
+WHERE DATE_OF_EXECUTION >= TRUNC(SYSDATE) - 7;
+COMMIT;
+
+INSERT /*+ APPEND */ INTO TASK_ERROR_NEW (TASK_ERROR_ID, TASK_RESULT_ID, DATE_OF_EXECUTION, DESCRIPTION, WORKLOAD_JSON)
+SELECT e.TASK_ERROR_ID, e.TASK_RESULT_ID, e.DATE_OF_EXECUTION, e.DESCRIPTION, e.WORKLOAD_JSON
+FROM TASK_ERROR e
+JOIN TASK_RESULT_NEW r ON r.TASK_RESULT_ID = e.TASK_RESULT_ID;
+COMMIT;
+
+ALTER TABLE TASK_ERROR RENAME TO TASK_ERROR_OLD;
+ALTER TABLE TASK_RESULT RENAME TO TASK_RESULT_OLD;
+ALTER TABLE TASK_RESULT_NEW RENAME TO TASK_RESULT;
+ALTER TABLE TASK_ERROR_NEW RENAME TO TASK_ERROR;
+
+-- once the app runs fine on the new tables:
+-- DROP TABLE TASK_ERROR_OLD PURGE;
+-- DROP TABLE TASK_RESULT_OLD PURGE;
@@ -0,0 +1,141 @@
+package com.bpmonitor.executors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+import com.bpmonitor.DTOs.response.ProbeConcurrencyLimitResponseDTO;
+import com.bpmonitor.enums.TaskType;
+
+class ProbeConcurrencyLimiterTest {
+
+	private final List<ProbeConcurrencyLimiter.Permit> granted = new ArrayList<>();
+	private final AtomicInteger dropped = new AtomicInteger();
+
+	@Test
+	void dispatchesOverTheLimitWaitForAPermit() {
+		ProbeConcurrencyLimiter limiter = limiter(2, 1000);
+
+		submit(limiter, 1, "a");
+		submit(limiter, 2, "a");
+		submit(limiter, 3, "a");
+
+		assertEquals(2, granted.size());
+		assertEquals(1, metrics(limiter).getQueued());
+
+		granted.get(0).release(false);
+
+		assertEquals(3, granted.size());
+		assertEquals(3, granted.get(2).getTaskId());
+		assertEquals(0, metrics(limiter).getQueued());
+	}
+
+	@Test
+	void fullQueueDropsTheDispatch() {
+		ProbeConcurrencyLimiter limiter = limiter(1, 1);
+
+		assertTrue(submit(limiter, 1, "a"));
+		assertTrue(submit(limiter, 2, "a"));
+		assertFalse(submit(limiter, 3, "a"));
+
+		assertEquals(1, dropped.get());
+		assertEquals(1, metrics(limiter).getRejected());
+	}
+
+	@Test
+	void releasingTwiceCountsOnce() {
+		ProbeConcurrencyLimiter limiter = limiter(1, 10);
+
+		submit(limiter, 1, "a");
+		submit(limiter, 2, "a");
+		granted.get(0).release(true);
+		granted.get(0).release(true);
+
+		assertEquals(1, metrics(limiter).getInFlight());
+	}
+
+	@Test
+	void slowTargetIsMeasuredAgainstItselfNotTheFastOnes() throws InterruptedException {
+		ProbeConcurrencyLimiter limiter = limiter(8, 10);
+
+		for (int i = 0; i < 10; i++) {
+			probe(limiter, "fast", 0);
+			probe(limiter, "slow", 20);
+		}
+
+		assertTrue(metrics(limiter).getLimit() >= 8, "limit " + metrics(limiter).getLimit());
+		assertEquals(0, metrics(limiter).getOverloads());
+	}
+
+	@Test
+	void timeoutOfATargetThatAnsweredBeforeIsAnOverload() throws InterruptedException {
+		ProbeConcurrencyLimiter limiter = limiter(10, 10);
+		probe(limiter, "a", 0);
+		int before = metrics(limiter).getLimit();
+
+		submit(limiter, 99, "a");
+		granted.get(granted.size() - 1).releaseTimedOut();
+
+		assertEquals(1, metrics(limiter).getOverloads());
+		assertTrue(metrics(limiter).getLimit() < before);
+	}
+
+	@Test
+	void timeoutOfATargetThatNeverAnsweredIsNot() {
+		ProbeConcurrencyLimiter limiter = limiter(10, 10);
+
+		submit(limiter, 1, "down");
+		granted.get(0).releaseTimedOut();
+
+		assertEquals(0, metrics(limiter).getOverloads());
+		assertEquals(10, metrics(limiter).getLimit());
+	}
+
+	@Test
+	void overloadsWithinARoundTripCutTheLimitOnce() {
+		ProbeConcurrencyLimiter limiter = new ProbeConcurrencyLimiter(10, 1, 100, 10, 30000, 2.0, 0.5);
+		limiter.submit(TaskType.HTTPCHECKTASK, 1, "a", permit -> {
+			throw new RejectedExecutionException("full");
+		}, dropped::incrementAndGet);
+		limiter.submit(TaskType.HTTPCHECKTASK, 2, "a", permit -> {
+			throw new RejectedExecutionException("full");
+		}, dropped::incrementAndGet);
+
+		assertEquals(2, dropped.get());
+		assertEquals(2, metrics(limiter).getOverloads());
+		assertEquals(5, metrics(limiter).getLimit());
+	}
+
+	@Test
+	void averageStartsAtTheFirstSampleAndMovesSlowly() {
+		assertEquals(100, ProbeConcurrencyLimiter.average(0, 100, 100));
+		double moved = ProbeConcurrencyLimiter.average(100, 1000, 99);
+		assertEquals(118, moved, 0.001);
+	}
+
+
+	private ProbeConcurrencyLimiter limiter(int initialLimit, int queueCapacity) {
+		return new ProbeConcurrencyLimiter(initialLimit, 1, 100, queueCapacity, 30000, 2.0, 0.9);
+	}
+
+	private boolean submit(ProbeConcurrencyLimiter limiter, long taskId, String target) {
+		return limiter.submit(TaskType.HTTPCHECKTASK, taskId, target, granted::add, dropped::incrementAndGet);
+	}
+
+	private void probe(ProbeConcurrencyLimiter limiter, String target, long latencyMillis) throws InterruptedException {
+		submit(limiter, granted.size(), target);
+		Thread.sleep(latencyMillis);
+		granted.get(granted.size() - 1).release(true);
+	}
+
+	private static ProbeConcurrencyLimitResponseDTO metrics(ProbeConcurrencyLimiter limiter) {
+		return limiter.getMetrics().get(0);
+	}
+}
@@ -0,0 +1,113 @@
+package com.bpmonitor.hierarchy;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import com.bpmonitor.DTOs.response.ProcessTreeNodeResponseDTO;
+import com.bpmonitor.DTOs.response.TreeNodeChangeDTO;
+import com.bpmonitor.enums.OperationalStatus;
+import com.bpmonitor.enums.TreeChangeType;
+
+class TreeDiffTest {
+
+	@Test
+	void diffRemovesChildrenFirstAndAddsParentsFirst() {
+		Map<String, TreeDiff.FlatNode> before = TreeDiff.flattenProcessTree(Arrays.asList(
+				node(1L, "p1", OperationalStatus.UP, node(10L, "s10", OperationalStatus.UP, node(100L, "a100", OperationalStatus.UP)))));
+		Map<String, TreeDiff.FlatNode> after = TreeDiff.flattenProcessTree(Arrays.asList(
+				node(2L, "p2", OperationalStatus.UP, node(20L, "s20", OperationalStatus.DOWN))));
+
+		List<String> changes = describe(TreeDiff.diff(before, after));
+
+		assertEquals(Arrays.asList(
+				"REMOVED ACTIVITY:100", "REMOVED SUBPROCESS:10", "REMOVED PROCESS:1",
+				"ADDED PROCESS:2", "ADDED SUBPROCESS:20"), changes);
+	}
+
+	@Test
+	void diffTellsStatusChangesFromUpdates() {
+		Map<String, TreeDiff.FlatNode> before = TreeDiff.flattenProcessTree(Arrays.asList(
+				node(1L, "p1", OperationalStatus.UP, node(10L, "s10", OperationalStatus.UP), node(11L, "s11", OperationalStatus.UP))));
+		Map<String, TreeDiff.FlatNode> after = TreeDiff.flattenProcessTree(Arrays.asList(
+				node(1L, "p1", OperationalStatus.UP, node(10L, "s10", OperationalStatus.DOWN), node(11L, "renamed", OperationalStatus.UP))));
+
+		List<TreeNodeChangeDTO> changes = TreeDiff.diff(before, after);
+
+		assertEquals(Arrays.asList("STATUS_CHANGED SUBPROCESS:10", "UPDATED SUBPROCESS:11"), describe(changes));
+		assertEquals("UP", changes.get(0).getPreviousStatus());
+		assertEquals("DOWN", changes.get(0).getStatus());
+	}
+
+	@Test
+	void mergeKeepsAParentChangedAgainBeforeTheChildrenAddedMeanwhile() {
+		List<TreeNodeChangeDTO> first = Arrays.asList(change(TreeChangeType.ADDED, "SUBPROCESS", 20L, null, "UP"));
+		List<TreeNodeChangeDTO> second = Arrays.asList(
+				change(TreeChangeType.ADDED, "ACTIVITY", 200L, null, "UP"),
+				change(TreeChangeType.STATUS_CHANGED, "SUBPROCESS", 20L, "UP", "DOWN"));
+
+		List<TreeNodeChangeDTO> merged = TreeDiff.merge(Arrays.asList(first, second));
+
+		assertEquals(Arrays.asList("ADDED SUBPROCESS:20", "ADDED ACTIVITY:200"), describe(merged));
+		assertEquals("DOWN", merged.get(0).getStatus());
+	}
+
+	@Test
+	void mergePutsRemovalsChildrenFirstAcrossVersions() {
+		List<TreeNodeChangeDTO> first = Arrays.asList(change(TreeChangeType.REMOVED, "SUBPROCESS", 10L, "UP", null));
+		List<TreeNodeChangeDTO> second = Arrays.asList(
+				change(TreeChangeType.REMOVED, "ACTIVITY", 100L, "UP", null),
+				change(TreeChangeType.ADDED, "PROCESS", 3L, null, "UP"));
+
+		assertEquals(Arrays.asList("REMOVED ACTIVITY:100", "REMOVED SUBPROCESS:10", "ADDED PROCESS:3"),
+				describe(TreeDiff.merge(Arrays.asList(first, second))));
+	}
+
+	@Test
+	void mergeCancelsOutWhatTheClientNeverSaw() {
+		List<TreeNodeChangeDTO> first = Arrays.asList(
+				change(TreeChangeType.ADDED, "ACTIVITY", 100L, null, "UP"),
+				change(TreeChangeType.STATUS_CHANGED, "ACTIVITY", 101L, "UP", "DOWN"));
+		List<TreeNodeChangeDTO> second = Arrays.asList(
+				change(TreeChangeType.REMOVED, "ACTIVITY", 100L, "UP", null),
+				change(TreeChangeType.STATUS_CHANGED, "ACTIVITY", 101L, "DOWN", "UP"));
+
+		assertTrue(TreeDiff.merge(Arrays.asList(first, second)).isEmpty());
+	}
+
+	@Test
+	void mergeTurnsRemovedAndAddedBackIntoAnUpdate() {
+		List<TreeNodeChangeDTO> first = Arrays.asList(change(TreeChangeType.REMOVED, "ACTIVITY", 100L, "UP", null));
+		List<TreeNodeChangeDTO> second = Arrays.asList(change(TreeChangeType.ADDED, "ACTIVITY", 100L, null, "DOWN"));
+
+		List<TreeNodeChangeDTO> merged = TreeDiff.merge(Arrays.asList(first, second));
+
+		assertEquals(Collections.singletonList("UPDATED ACTIVITY:100"), describe(merged));
+		assertEquals("UP", merged.get(0).getPreviousStatus());
+		assertEquals("DOWN", merged.get(0).getStatus());
+	}
+
+
+	private static ProcessTreeNodeResponseDTO node(Long id, String name, OperationalStatus status, ProcessTreeNodeResponseDTO... children) {
+		return new ProcessTreeNodeResponseDTO(id, name, status, new ArrayList<>(Arrays.asList(children)));
+	}
+
+	private static TreeNodeChangeDTO change(TreeChangeType type, String level, Long id, String previousStatus, String status) {
+		return new TreeNodeChangeDTO(type, level, id, null, type == TreeChangeType.REMOVED ? null : level + id, previousStatus, status);
+	}
+
+	private static List<String> describe(List<TreeNodeChangeDTO> changes) {
+		List<String> described = new ArrayList<>();
+		for (TreeNodeChangeDTO change : changes) {
+			described.add(change.getChange() + " " + change.getLevel() + ":" + change.getId());
+		}
+		return described;
+	}
+}
@@ -0,0 +1,127 @@
+package com.bpmonitor.paging;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+
+import org.junit.jupiter.api.Test;
+
+class KeysetQueryTest {
+
+	private static final LocalDateTime AT = LocalDateTime.of(2024, 3, 1, 12, 30, 15, 123_000_000);
+
+	@Test
+	void cursorGoesBackAndForthThroughItsToken() {
+		KeysetCursor byTime = KeysetCursor.decode(new KeysetCursor(AT, 42).encode(), true);
+		KeysetCursor byId = KeysetCursor.decode(new KeysetCursor(null, 7).encode(), false);
+
+		assertEquals(AT, byTime.getTimestamp());
+		assertEquals(42, byTime.getId());
+		assertNull(byId.getTimestamp());
+		assertEquals(7, byId.getId());
+		assertFalse(new KeysetCursor(AT, 42).encode().contains("="), "the token goes in a url unpadded");
+	}
+
+	@Test
+	void noTokenIsTheFirstPage() {
+		assertNull(KeysetCursor.decode(null, true));
+		assertNull(KeysetCursor.decode("", false));
+	}
+
+	@Test
+	void badOrForeignTokensAreRefused() {
+		String timeToken = new KeysetCursor(AT, 42).encode();
+		String idToken = new KeysetCursor(null, 42).encode();
+
+		assertThrows(IllegalArgumentException.class, () -> KeysetCursor.decode(timeToken, false));
+		assertThrows(IllegalArgumentException.class, () -> KeysetCursor.decode(idToken, true));
+		assertThrows(IllegalArgumentException.class, () -> KeysetCursor.decode("not base64!", false));
+		assertThrows(IllegalArgumentException.class, () -> KeysetCursor.decode(encode("abc"), false));
+		assertThrows(IllegalArgumentException.class, () -> KeysetCursor.decode(encode("yesterday|1"), true));
+	}
+
+	@Test
+	void firstPageByIdHasOnlyTheFiltersAskedFor() {
+		KeysetQuery<Row> query = KeysetQuery.of(Row.class, "r", "id", Row::getId)
+				.where("r.name = :name", "name", "x")
+				.where("r.status = :status", "status", null);
+
+		assertEquals("SELECT r FROM Row r WHERE r.name = :name ORDER BY r.id ASC", query.toJpql("Row", null));
+		assertEquals(Collections.singletonMap("name", "x"), query.getParams());
+		assertFalse(query.isTimeOrdered());
+	}
+
+	@Test
+	void nextPageByIdStartsAfterTheCursor() {
+		KeysetQuery<Row> query = KeysetQuery.of(Row.class, "r", "id", Row::getId);
+
+		assertEquals("SELECT r FROM Row r WHERE r.id > :keysetId ORDER BY r.id ASC",
+				query.toJpql("Row", new KeysetCursor(null, 5)));
+	}
+
+	@Test
+	void newestFirstIsBoundedAtTheCursorTime() {
+		KeysetQuery<Row> query = KeysetQuery.of(Row.class, "r", "id", Row::getId).newestFirst("at", Row::getAt);
+
+		assertTrue(query.isTimeOrdered());
+		assertEquals("SELECT r FROM Row r WHERE r.at IS NOT NULL ORDER BY r.at DESC, r.id DESC", query.toJpql("Row", null));
+		assertEquals("SELECT r FROM Row r WHERE r.at IS NOT NULL AND r.at <= :keysetTime "
+				+ "AND (r.at < :keysetTime OR (r.at = :keysetTime AND r.id < :keysetId)) ORDER BY r.at DESC, r.id DESC",
+				query.toJpql("Row", new KeysetCursor(AT, 5)));
+	}
+
+	@Test
+	void cursorAfterARowCarriesWhatTheOrderNeeds() {
+		Row row = new Row(9L, AT);
+
+		KeysetCursor byTime = KeysetQuery.of(Row.class, "r", "id", Row::getId).newestFirst("at", Row::getAt).cursorAfter(row);
+		KeysetCursor byId = KeysetQuery.of(Row.class, "r", "id", Row::getId).cursorAfter(row);
+
+		assertEquals(AT, byTime.getTimestamp());
+		assertEquals(9, byTime.getId());
+		assertNull(byId.getTimestamp());
+	}
+
+	@Test
+	void pageKeepsItsCursorWhenMapped() {
+		KeysetPage<Integer> page = new KeysetPage<>(Arrays.asList(1, 2), "next");
+
+		KeysetPage<String> mapped = page.map(i -> "#" + i);
+
+		assertEquals(Arrays.asList("#1", "#2"), mapped.getItems());
+		assertEquals("next", mapped.getNextCursor());
+		assertEquals("next", mapped.toResponse().getHeaders().getFirst(KeysetPage.NEXT_CURSOR_HEADER));
+		assertFalse(KeysetPage.empty().toResponse().getHeaders().containsKey(KeysetPage.NEXT_CURSOR_HEADER));
+	}
+
+
+	private static String encode(String raw) {
+		return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+	}
+
+	private static final class Row {
+		private final Long id;
+		private final LocalDateTime at;
+
+		private Row(Long id, LocalDateTime at) {
+			this.id = id;
+			this.at = at;
+		}
+
+		private Long getId() {
+			return id;
+		}
+
+		private LocalDateTime getAt() {
+			return at;
+		}
+	}
+}
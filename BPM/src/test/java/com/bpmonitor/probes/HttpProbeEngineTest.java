@@ -0,0 +1,339 @@
+package com.bpmonitor.probes;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * runs the engine against a local server that answers with canned responses,
+ * to check the response parsing, keep-alive and redirects.
+ */
+class HttpProbeEngineTest {
+
+	private ProbeResolver resolver;
+	private HttpProbeEngine engine;
+	private CannedServer server;
+
+	@BeforeEach
+	void setUp() throws Exception {
+		resolver = new ProbeResolver(1, 10);
+		resolver.start();
+		engine = new HttpProbeEngine(1, 30000, 4, 1048576, 3, resolver);
+		engine.start();
+	}
+
+	@AfterEach
+	void tearDown() throws IOException {
+		engine.stop();
+		resolver.stop();
+		if (server != null) {
+			server.close();
+		}
+	}
+
+
+	@Test
+	void readsStatusWithContentLength() throws Exception {
+		server = new CannedServer(path -> "HTTP/1.1 200 OK\r\nContent-Length: 5\r\n\r\nhello");
+
+		HttpProbeResult result = probe("/");
+
+		assertTrue(result.isResponded());
+		assertEquals(200, result.getStatusCode());
+		assertNull(result.getError());
+	}
+
+	@Test
+	void readsChunkedBodyAndReusesTheConnection() throws Exception {
+		server = new CannedServer(path -> "HTTP/1.1 503 Service Unavailable\r\nTransfer-Encoding: chunked\r\n\r\n"
+				+ "4\r\nbusy\r\n3;ext=1\r\n...\r\n0\r\nTrailer: x\r\n\r\n");
+
+		HttpProbeResult first = probe("/");
+		HttpProbeResult second = probe("/");
+
+		assertEquals(503, first.getStatusCode());
+		assertEquals(503, second.getStatusCode());
+		assertFalse(first.isConnectionReused());
+		assertTrue(second.isConnectionReused());
+		assertEquals(1, server.connections.get());
+	}
+
+	@Test
+	void skipsInterimResponses() throws Exception {
+		server = new CannedServer(path -> "HTTP/1.1 100 Continue\r\n\r\nHTTP/1.1 204 No Content\r\n\r\n");
+
+		assertEquals(204, probe("/").getStatusCode());
+	}
+
+	@Test
+	void readsHttp10BodyUntilClose() throws Exception {
+		server = new CannedServer(path -> "HTTP/1.0 404 Not Found\r\n\r\nnothing here", true);
+
+		HttpProbeResult first = probe("/");
+		HttpProbeResult second = probe("/");
+
+		assertEquals(404, first.getStatusCode());
+		assertEquals(404, second.getStatusCode());
+		assertFalse(second.isConnectionReused());
+		assertEquals(2, server.connections.get());
+	}
+
+	@Test
+	void readsAResponseThatArrivesAByteAtATime() throws Exception {
+		server = new CannedServer(path -> "HTTP/1.1 201 Created\r\nTransfer-Encoding: chunked\r\n\r\n"
+				+ "a\r\n0123456789\r\n0\r\n\r\n");
+		server.trickle = true;
+
+		HttpProbeResult first = probe("/");
+		HttpProbeResult second = probe("/");
+
+		assertEquals(201, first.getStatusCode());
+		assertEquals(201, second.getStatusCode());
+		assertTrue(second.isConnectionReused());
+	}
+
+	@Test
+	void doesNotKeepAConnectionTheServerCloses() throws Exception {
+		server = new CannedServer(path -> "HTTP/1.1 200 OK\r\nConnection: close\r\nContent-Length: 2\r\n\r\nok");
+
+		probe("/");
+		HttpProbeResult second = probe("/");
+
+		assertEquals(200, second.getStatusCode());
+		assertFalse(second.isConnectionReused());
+		assertEquals(2, server.connections.get());
+	}
+
+	@Test
+	void doesNotDrainABodyTooBigToBeWorthTheConnection() throws Exception {
+		server = new CannedServer(path -> "HTTP/1.1 200 OK\r\nContent-Length: 2000000\r\n\r\n");
+
+		HttpProbeResult first = probe("/");
+		HttpProbeResult second = probe("/");
+
+		assertEquals(200, first.getStatusCode());
+		assertFalse(second.isConnectionReused());
+		assertEquals(2, server.connections.get());
+	}
+
+	@Test
+	void failsOnSomethingThatIsNotHttp() throws Exception {
+		server = new CannedServer(path -> "SSH-2.0-OpenSSH_8.9\r\n\r\n", true);
+
+		HttpProbeResult result = probe("/");
+
+		assertFalse(result.isResponded());
+		assertEquals(-1, result.getStatusCode());
+		assertTrue(result.getError().contains("Not an HTTP response"), result.getError());
+	}
+
+	@Test
+	void followsSameProtocolRedirects() throws Exception {
+		server = new CannedServer(path -> "/login".equals(path)
+				? "HTTP/1.1 500 Internal Server Error\r\nContent-Length: 0\r\n\r\n"
+				: "HTTP/1.1 302 Found\r\nLocation: /login\r\nContent-Length: 0\r\n\r\n");
+
+		HttpProbeResult result = probe("/app");
+
+		assertEquals(500, result.getStatusCode());
+		assertTrue(result.getUrl().endsWith("/login"), result.getUrl());
+		assertEquals(2, server.paths.size());
+	}
+
+	@Test
+	void doesNotFollowRedirectsToAnotherProtocol() throws Exception {
+		server = new CannedServer(path -> "HTTP/1.1 301 Moved Permanently\r\nLocation: https://127.0.0.1/secure\r\nContent-Length: 0\r\n\r\n");
+
+		HttpProbeResult result = probe("/");
+
+		assertEquals(301, result.getStatusCode());
+		assertEquals("https://127.0.0.1/secure", result.getLocation());
+		assertEquals(1, server.paths.size());
+	}
+
+	@Test
+	void givesUpOnRedirectLoops() throws Exception {
+		server = new CannedServer(path -> "HTTP/1.1 302 Found\r\nLocation: /again\r\nContent-Length: 0\r\n\r\n");
+
+		HttpProbeResult result = probe("/");
+
+		assertFalse(result.isResponded());
+		assertTrue(result.getError().contains("redirected too many times"), result.getError());
+		assertEquals(4, server.paths.size()); // the first request and 3 redirects
+	}
+
+	@Test
+	void timesOutWhenTheServerNeverAnswers() throws Exception {
+		server = new CannedServer(path -> null);
+
+		HttpProbeResult result = engine.probe("http://127.0.0.1:" + server.port() + "/", 300).get(5, TimeUnit.SECONDS);
+
+		assertFalse(result.isResponded());
+		assertTrue(result.getError().startsWith("Timed out"), result.getError());
+		assertTrue(result.getTotalMillis() >= 300);
+	}
+
+	@Test
+	void resolvesHostNamesOnTheResolver() throws Exception {
+		server = new CannedServer(path -> "HTTP/1.1 200 OK\r\nContent-Length: 0\r\n\r\n");
+
+		HttpProbeResult result = engine.probe("http://localhost:" + server.port() + "/", 5000).get(10, TimeUnit.SECONDS);
+
+		assertEquals(200, result.getStatusCode(), String.valueOf(result.getError()));
+	}
+
+	@Test
+	void reportsInvalidUrls() throws Exception {
+		HttpProbeResult result = engine.probe("ftp://example.com/", 1000).get(1, TimeUnit.SECONDS);
+
+		assertFalse(result.isResponded());
+		assertNotNull(result.getError());
+	}
+
+	@Test
+	void recognisesIpLiterals() {
+		assertTrue(ProbeResolver.isLiteral("10.0.0.1"));
+		assertTrue(ProbeResolver.isLiteral("[::1]"));
+		assertFalse(ProbeResolver.isLiteral("localhost"));
+		assertFalse(ProbeResolver.isLiteral("1.2.3"));
+		assertFalse(ProbeResolver.isLiteral(""));
+	}
+
+	@Test
+	void parsesTargets() {
+		HttpTarget target = HttpTarget.parse(" HTTPS://Example.com/a?b=1 ");
+
+		assertTrue(target.isTls());
+		assertEquals(443, target.getPort());
+		assertEquals("https://example.com:443/a?b=1", target.getNormalizedUrl());
+		assertTrue(new String(target.requestBytes(), StandardCharsets.ISO_8859_1).startsWith("GET /a?b=1 HTTP/1.1\r\nHost: Example.com\r\n"));
+		assertThrows(IllegalArgumentException.class, () -> HttpTarget.parse("mailto:someone@example.com"));
+	}
+
+
+	private HttpProbeResult probe(String path) throws Exception {
+		return engine.probe("http://127.0.0.1:" + server.port() + path, 5000).get(10, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * answers every request with whatever the handler returns for it's path,
+	 * keeping the connection open unless told to close it. A null answer never responds.
+	 */
+	private static final class CannedServer {
+		private final ServerSocket socket;
+		private final Function<String, String> handler;
+		private final boolean closeAfterResponse;
+		private final AtomicInteger connections = new AtomicInteger();
+		private final List<String> paths = new CopyOnWriteArrayList<>();
+		private final List<Socket> accepted = new CopyOnWriteArrayList<>();
+		private volatile boolean trickle; // one byte per write, so the response is parsed across many reads
+
+		CannedServer(Function<String, String> handler) throws IOException {
+			this(handler, false);
+		}
+
+		CannedServer(Function<String, String> handler, boolean closeAfterResponse) throws IOException {
+			this.socket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+			this.handler = handler;
+			this.closeAfterResponse = closeAfterResponse;
+			Thread thread = new Thread(this::accept, "CannedServer");
+			thread.setDaemon(true);
+			thread.start();
+		}
+
+		int port() {
+			return socket.getLocalPort();
+		}
+
+		void close() throws IOException {
+			socket.close();
+			for (Socket client : accepted) {
+				client.close();
+			}
+		}
+
+		private void accept() {
+			while (!socket.isClosed()) {
+				try {
+					Socket client = socket.accept();
+					connections.incrementAndGet();
+					accepted.add(client);
+					Thread thread = new Thread(() -> serve(client), "CannedServer-Client");
+					thread.setDaemon(true);
+					thread.start();
+				} catch (IOException e) {
+					return;
+				}
+			}
+		}
+
+		private void serve(Socket client) {
+			try (Socket s = client) {
+				InputStream in = s.getInputStream();
+				OutputStream out = s.getOutputStream();
+				String request;
+				while ((request = readHeaders(in)) != null) {
+					String path = request.split(" ")[1];
+					paths.add(path);
+					String response = handler.apply(path);
+					if (response == null) {
+						continue; // let it time out
+					}
+					byte[] bytes = response.getBytes(StandardCharsets.ISO_8859_1);
+					if (trickle) {
+						for (byte b : bytes) {
+							out.write(b);
+							out.flush();
+							Thread.sleep(1);
+						}
+					} else {
+						out.write(bytes);
+						out.flush();
+					}
+					if (closeAfterResponse) {
+						return;
+					}
+				}
+			} catch (IOException e) {
+				// the client went away
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		private static String readHeaders(InputStream in) throws IOException {
+			ByteArrayOutputStream headers = new ByteArrayOutputStream();
+			int matched = 0;
+			int b;
+			while ((b = in.read()) != -1) {
+				headers.write(b);
+				matched = (b == '\r' && matched % 2 == 0) || (b == '\n' && matched % 2 == 1) ? matched + 1 : 0;
+				if (matched == 4) {
+					return new String(headers.toByteArray(), StandardCharsets.ISO_8859_1);
+				}
+			}
+			return null;
+		}
+	}
+}
@@ -0,0 +1,152 @@
+package com.bpmonitor.probes;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.DriverManager;
+import java.sql.DriverPropertyInfo;
+import java.sql.SQLException;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.bpmonitor.customExceptions.DBCheckException;
+import com.bpmonitor.enums.DBCheckStage;
+
+class JdbcTargetPoolsTest {
+
+	private final StubDriver driver = new StubDriver();
+
+	@BeforeEach
+	void setUp() throws SQLException {
+		DriverManager.registerDriver(driver);
+	}
+
+	@AfterEach
+	void tearDown() throws SQLException {
+		DriverManager.deregisterDriver(driver);
+	}
+
+
+	@Test
+	void reusesTheConnectionGivenBack() {
+		JdbcTargetPools pools = new JdbcTargetPools(10, 2, 60000, 1000, 1, 1000);
+
+		try (JdbcLease lease = pools.borrow("jdbc:stub:a", "user", "secret", 1000)) {
+			assertNotNull(lease.getConnection());
+		}
+		try (JdbcLease lease = pools.borrow("jdbc:stub:a", "user", "secret", 1000)) {
+			assertNotNull(lease.getConnection());
+		}
+
+		assertEquals(1, driver.logins.get());
+		assertEquals(1, pools.getMetrics().getLogins());
+	}
+
+	@Test
+	void evictedPoolStillCountsTheConnectionsItLent() {
+		JdbcTargetPools pools = new JdbcTargetPools(1, 1, 60000, 1000, 1, 1000);
+
+		JdbcLease held = pools.borrow("jdbc:stub:a", "user", "secret", 1000);
+		pools.borrow("jdbc:stub:b", "user", "secret", 1000).close(); // evicts a's pool, the only one allowed
+
+		DBCheckException e = assertThrows(DBCheckException.class,
+				() -> pools.borrow("jdbc:stub:a", "user", "secret", 50));
+		assertEquals(DBCheckStage.ACQUIRE, e.getStage());
+
+		held.close();
+		pools.borrow("jdbc:stub:a", "user", "secret", 50).close();
+	}
+
+	@Test
+	void changedPasswordStillCountsTheConnectionsLentWithTheOldOne() {
+		JdbcTargetPools pools = new JdbcTargetPools(10, 1, 60000, 1000, 1, 1000);
+
+		JdbcLease held = pools.borrow("jdbc:stub:a", "user", "old", 1000);
+
+		assertThrows(DBCheckException.class, () -> pools.borrow("jdbc:stub:a", "user", "new", 50));
+		held.close();
+		pools.borrow("jdbc:stub:a", "user", "new", 50).close();
+	}
+
+	@Test
+	void loginTimeoutGoesToTheDriversOwnProperty() {
+		Properties oracle = JdbcTargetPools.loginProperties("jdbc:oracle:thin:@db:1521/X", "user", "secret", 1500);
+		Properties mysql = JdbcTargetPools.loginProperties("jdbc:mysql://db/x", "user", null, 1500);
+
+		assertEquals("1500", oracle.getProperty("oracle.net.CONNECT_TIMEOUT"));
+		assertEquals("secret", oracle.getProperty("password"));
+		assertEquals("1500", mysql.getProperty("connectTimeout"));
+		assertFalse(mysql.containsKey("password"));
+	}
+
+
+	/**
+	 * hands out connections that are always valid and do nothing else.
+	 */
+	private static final class StubDriver implements Driver {
+		private final AtomicInteger logins = new AtomicInteger();
+
+		@Override
+		public Connection connect(String url, Properties info) {
+			if (!acceptsURL(url)) {
+				return null;
+			}
+			logins.incrementAndGet();
+			return (Connection) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { Connection.class },
+					(proxy, method, args) -> {
+						switch (method.getName()) {
+						case "isValid":
+							return true;
+						case "isClosed":
+							return false;
+						case "hashCode":
+							return java.lang.System.identityHashCode(proxy);
+						case "equals":
+							return proxy == args[0];
+						default:
+							return null;
+						}
+					});
+		}
+
+		@Override
+		public boolean acceptsURL(String url) {
+			return url.startsWith("jdbc:stub:");
+		}
+
+		@Override
+		public DriverPropertyInfo[] getPropertyInfo(String url, Properties info) {
+			return new DriverPropertyInfo[0];
+		}
+
+		@Override
+		public int getMajorVersion() {
+			return 1;
+		}
+
+		@Override
+		public int getMinorVersion() {
+			return 0;
+		}
+
+		@Override
+		public boolean jdbcCompliant() {
+			return false;
+		}
+
+		@Override
+		public Logger getParentLogger() {
+			return Logger.getGlobal();
+		}
+	}
+}
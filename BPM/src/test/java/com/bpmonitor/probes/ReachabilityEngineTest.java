@@ -0,0 +1,67 @@
+package com.bpmonitor.probes;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class ReachabilityEngineTest {
+
+	private ProbeResolver resolver;
+	private ReachabilityEngine engine;
+
+	@BeforeEach
+	void setUp() throws IOException {
+		resolver = new ProbeResolver(1, 10);
+		resolver.start();
+		engine = new ReachabilityEngine(new int[] { 80 }, 10, resolver);
+		engine.start();
+	}
+
+	@AfterEach
+	void tearDown() {
+		engine.stop();
+		resolver.stop();
+	}
+
+
+	@Test
+	void listeningPortIsReachable() throws Exception {
+		try (ServerSocket server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+			ReachabilityResult result = engine.probe("127.0.0.1", new int[] { server.getLocalPort() }, 2000)
+					.get(5, TimeUnit.SECONDS);
+
+			assertTrue(result.isReachable());
+			assertFalse(result.isRefused());
+			assertEquals(server.getLocalPort(), result.getPort());
+		}
+	}
+
+	@Test
+	void refusedPortStillMeansTheHostIsUp() throws Exception {
+		int closedPort;
+		try (ServerSocket server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+			closedPort = server.getLocalPort();
+		}
+
+		ReachabilityResult result = engine.probe("127.0.0.1", new int[] { closedPort }, 2000).get(5, TimeUnit.SECONDS);
+
+		assertTrue(result.isReachable());
+		assertTrue(result.isRefused());
+	}
+
+	@Test
+	void invalidHostIsUnreachable() throws Exception {
+		ReachabilityResult result = engine.probe("no such host", new int[] { 80 }, 2000).get(5, TimeUnit.SECONDS);
+
+		assertFalse(result.isReachable());
+	}
+}
@@ -0,0 +1,53 @@
+package com.bpmonitor.schedulers;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+class TaskSchedulingEngineTest {
+
+	private static final long MINUTE = 60_000;
+
+	@Test
+	void phaseIsATickInsideThePeriodAndStable() {
+		for (long taskId = 0; taskId < 1000; taskId++) {
+			long phase = TaskSchedulingEngine.phaseOffset(taskId, 5 * MINUTE, 1000);
+			assertTrue(phase >= 0 && phase < 5 * MINUTE, "phase " + phase);
+			assertEquals(0, phase % 1000);
+			assertEquals(phase, TaskSchedulingEngine.phaseOffset(taskId, 5 * MINUTE, 1000));
+		}
+	}
+
+	@Test
+	void neighbouringIdsAreSpreadOverThePeriod() {
+		Set<Long> phases = new HashSet<>();
+		for (long taskId = 1; taskId <= 60; taskId++) {
+			phases.add(TaskSchedulingEngine.phaseOffset(taskId, MINUTE, 1000));
+		}
+		// 60 tasks on 60 ticks, consecutive ids piling up on a few ticks would show up here
+		assertTrue(phases.size() > 30, phases.size() + " distinct ticks");
+	}
+
+	@Test
+	void sameTargetFiresOnTheSameTickAcrossPeriods() {
+		long key = TaskSchedulingEngine.hash("HTTP http://example.com:80/health");
+		long everyMinute = TaskSchedulingEngine.phaseOffset(key, MINUTE, 1000);
+		long everyFiveMinutes = TaskSchedulingEngine.phaseOffset(key, 5 * MINUTE, 1000);
+
+		assertEquals(everyMinute, everyFiveMinutes % MINUTE);
+		assertNotEquals(TaskSchedulingEngine.hash("a"), TaskSchedulingEngine.hash("b"));
+	}
+
+	@Test
+	void nextFireTimeIsTheNextPhaseAfterNow() {
+		assertEquals(65_000, TaskSchedulingEngine.nextFireTime(10_000, MINUTE, 5_000));
+		assertEquals(65_000, TaskSchedulingEngine.nextFireTime(5_000, MINUTE, 5_000)); // on the phase, the next one
+		assertEquals(5_000, TaskSchedulingEngine.nextFireTime(4_999, MINUTE, 5_000));
+		assertEquals(5_000, TaskSchedulingEngine.nextFireTime(-1, MINUTE, 5_000));
+	}
+}
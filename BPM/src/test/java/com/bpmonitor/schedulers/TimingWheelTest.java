@@ -0,0 +1,105 @@
+package com.bpmonitor.schedulers;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+class TimingWheelTest {
+
+	private final List<String> fired = new ArrayList<>();
+
+	@Test
+	void entryFiresOnItsTickAndNotBefore() {
+		TimingWheel<String> wheel = new TimingWheel<>(10, 0, 8);
+		assertTrue(wheel.add(35, "a")); // rounded up to the tick at 40
+
+		wheel.advanceTo(39, fired::add);
+		assertTrue(fired.isEmpty());
+
+		wheel.advanceTo(40, fired::add);
+		assertEquals(Collections.singletonList("a"), fired);
+		assertEquals(0, wheel.size());
+	}
+
+	@Test
+	void dueDeadlineIsNotStored() {
+		TimingWheel<String> wheel = new TimingWheel<>(10, 100, 8);
+
+		assertFalse(wheel.add(100, "now"));
+		assertFalse(wheel.add(50, "past"));
+		assertEquals(0, wheel.size());
+	}
+
+	@Test
+	void entriesCascadeDownTheLevelsToTheirExactTick() {
+		TimingWheel<Long> wheel = new TimingWheel<>(1, 0, 4, 4, 4); // 64 ticks before the overflow
+		List<Long> fireTicks = new ArrayList<>();
+		for (long deadline = 1; deadline < 64; deadline++) {
+			wheel.add(deadline, deadline);
+		}
+		assertEquals(63, wheel.size());
+
+		for (long now = 1; now < 64; now++) {
+			long tick = now;
+			wheel.advanceTo(now, deadline -> {
+				assertEquals(tick, (long) deadline);
+				fireTicks.add(deadline);
+			});
+		}
+		assertEquals(63, fireTicks.size());
+		assertEquals(0, wheel.size());
+	}
+
+	@Test
+	void deadlinesPastTheTopLevelStillFireOnTime() {
+		TimingWheel<String> wheel = new TimingWheel<>(1, 0, 4, 4); // 16 ticks before the overflow
+		wheel.add(100, "far");
+		wheel.add(37, "farther than a lap");
+
+		wheel.advanceTo(36, fired::add);
+		assertTrue(fired.isEmpty());
+		wheel.advanceTo(37, fired::add);
+		assertEquals(Collections.singletonList("farther than a lap"), fired);
+		wheel.advanceTo(99, fired::add);
+		assertEquals(1, fired.size());
+		wheel.advanceTo(100, fired::add);
+		assertEquals(Arrays.asList("farther than a lap", "far"), fired);
+	}
+
+	@Test
+	void aBigJumpFiresEverythingOnTheWayInOrder() {
+		TimingWheel<String> wheel = new TimingWheel<>(1000, 0, 60, 60);
+		wheel.add(3_000, "3s");
+		wheel.add(125_000, "2m5s");
+		wheel.add(61_000, "1m1s");
+
+		wheel.advanceTo(200_000, fired::add);
+
+		assertEquals(Arrays.asList("3s", "1m1s", "2m5s"), fired);
+	}
+
+	@Test
+	void startsAtItsStartTime() {
+		TimingWheel<String> wheel = new TimingWheel<>(1000, 1_000_000, 60);
+		wheel.add(1_002_000, "a");
+
+		wheel.advanceTo(1_001_999, fired::add);
+		assertTrue(fired.isEmpty());
+		wheel.advanceTo(1_002_000, fired::add);
+		assertEquals(1, fired.size());
+	}
+
+	@Test
+	void needsATickAndALevel() {
+		assertThrows(IllegalArgumentException.class, () -> new TimingWheel<String>(0, 0, 8));
+		assertThrows(IllegalArgumentException.class, () -> new TimingWheel<String>(10, 0));
+	}
+}
@@ -0,0 +1,27 @@
+package com.bpmonitor.services;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+
+class ResultExportServiceTest {
+
+	@Test
+	void csvCellsThatWouldBeFormulasAreTurnedIntoText() {
+		assertEquals("'=1+1", ResultExportService.CsvWriter.escape("=1+1"));
+		assertEquals("\"'=HYPERLINK(\"\"x\"\")\"", ResultExportService.CsvWriter.escape("=HYPERLINK(\"x\")"));
+		assertEquals("'+1", ResultExportService.CsvWriter.escape("+1"));
+		assertEquals("'-1", ResultExportService.CsvWriter.escape("-1"));
+		assertEquals("'@SUM(A1)", ResultExportService.CsvWriter.escape("@SUM(A1)"));
+		assertEquals("'\tx", ResultExportService.CsvWriter.escape("\tx"));
+	}
+
+	@Test
+	void csvQuotesWhatWouldBreakTheRow() {
+		assertEquals("plain", ResultExportService.CsvWriter.escape("plain"));
+		assertEquals("\"a,b\"", ResultExportService.CsvWriter.escape("a,b"));
+		assertEquals("\"say \"\"hi\"\"\"", ResultExportService.CsvWriter.escape("say \"hi\""));
+		assertEquals("\"'=1,2\"", ResultExportService.CsvWriter.escape("=1,2"));
+		assertEquals("", ResultExportService.CsvWriter.escape(""));
+	}
+}
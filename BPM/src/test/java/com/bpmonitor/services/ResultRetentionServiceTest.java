@@ -0,0 +1,91 @@
+package com.bpmonitor.services;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+class ResultRetentionServiceTest {
+
+	private static final LocalDateTime CUTOFF = LocalDateTime.of(2024, 3, 1, 0, 0);
+
+	@Test
+	void mostSpecificPolicyComesFirstAndTheDefaultLast() {
+		List<ResultRetentionService.RetentionPolicy> policies = ResultRetentionService.parsePolicies(
+				"status=SUCCESS:24; type=pingservertask,status=success:6 ;process=12:720;", 168);
+
+		assertEquals(Arrays.asList("process=12", "type=PINGSERVERTASK,status=SUCCESS", "status=SUCCESS", "default"), describe(policies));
+		assertEquals(720, policies.get(0).hours);
+		assertEquals(6, policies.get(1).hours);
+		assertEquals(24, policies.get(2).hours);
+		assertEquals(168, policies.get(3).hours);
+	}
+
+	@Test
+	void emptyPoliciesLeaveTheDefault() {
+		List<ResultRetentionService.RetentionPolicy> policies = ResultRetentionService.parsePolicies("", 0);
+
+		assertEquals(1, policies.size());
+		assertEquals(1, policies.get(0).hours); // at least an hour
+		assertFalse(policies.get(0).deleteResultsSql.contains("NOT ("));
+	}
+
+	@Test
+	void aPolicyLeavesOutTheRowsOfTheMoreSpecificOnesItOverlaps() {
+		List<ResultRetentionService.RetentionPolicy> policies = ResultRetentionService.parsePolicies(
+				"status=SUCCESS:24;status=FAIL:168;type=PINGSERVERTASK,status=SUCCESS:6", 100);
+		ResultRetentionService.RetentionPolicy success = policies.get(1);
+		ResultRetentionService.RetentionPolicy fail = policies.get(2);
+
+		assertEquals("status=SUCCESS", describe(policies).get(1));
+		assertTrue(success.deleteResultsSql.contains(" AND NOT (NVL(r.RESULT, '-') = ? AND EXISTS"));
+		assertArrayEquals(new Object[] { Timestamp.valueOf(CUTOFF), "SUCCESS", "SUCCESS", "PINGSERVERTASK", 500 },
+				success.params(CUTOFF, 500));
+
+		assertEquals("status=FAIL", describe(policies).get(2));
+		assertFalse(fail.deleteResultsSql.contains("NOT ("), "a FAIL can't be a PINGSERVERTASK SUCCESS");
+		assertArrayEquals(new Object[] { Timestamp.valueOf(CUTOFF), "FAIL", 500 }, fail.params(CUTOFF, 500));
+	}
+
+	@Test
+	void errorsAndResultsAreDeletedInChunks() {
+		ResultRetentionService.RetentionPolicy policy = ResultRetentionService.parsePolicies("process=3:48", 168).get(0);
+
+		assertTrue(policy.deleteErrorsSql.startsWith("DELETE FROM TASK_ERROR WHERE TASK_RESULT_ID IN (SELECT"));
+		assertTrue(policy.deleteErrorsSql.endsWith("AND ROWNUM <= ?)"));
+		assertTrue(policy.deleteResultsSql.contains("AND NOT EXISTS (SELECT 1 FROM TASK_ERROR e"));
+		assertTrue(policy.deleteResultsSql.contains("s.PROCESS_ID = ?"));
+		assertArrayEquals(new Object[] { Timestamp.valueOf(CUTOFF), 3L, 10 }, policy.params(CUTOFF, 10));
+	}
+
+	@Test
+	void badPoliciesAreRefused() {
+		assertThrows(IllegalArgumentException.class, () -> ResultRetentionService.parsePolicies("status=SUCCESS", 168));
+		assertThrows(IllegalArgumentException.class, () -> ResultRetentionService.parsePolicies("status=SUCCESS:abc", 168));
+		assertThrows(IllegalArgumentException.class, () -> ResultRetentionService.parsePolicies("status=SUCCESS:0", 168));
+		assertThrows(IllegalArgumentException.class, () -> ResultRetentionService.parsePolicies("status=MAYBE:24", 168));
+		assertThrows(IllegalArgumentException.class, () -> ResultRetentionService.parsePolicies("type=NOSUCHTASK:24", 168));
+		assertThrows(IllegalArgumentException.class, () -> ResultRetentionService.parsePolicies("process=x:24", 168));
+		assertThrows(IllegalArgumentException.class, () -> ResultRetentionService.parsePolicies("owner=ops:24", 168));
+		assertThrows(IllegalArgumentException.class, () -> ResultRetentionService.parsePolicies("status:24", 168));
+		assertThrows(IllegalArgumentException.class, () -> ResultRetentionService.parsePolicies("status=FAIL:24;status=fail:48", 168));
+	}
+
+
+	private static List<String> describe(List<ResultRetentionService.RetentionPolicy> policies) {
+		List<String> described = new ArrayList<>();
+		for (ResultRetentionService.RetentionPolicy policy : policies) {
+			described.add(policy.toString());
+		}
+		return described;
+	}
+}
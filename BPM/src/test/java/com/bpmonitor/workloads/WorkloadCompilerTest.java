@@ -0,0 +1,118 @@
+package com.bpmonitor.workloads;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+import com.bpmonitor.customExceptions.InvalidWorkloadException;
+import com.bpmonitor.enums.TaskType;
+
+class WorkloadCompilerTest {
+
+	@Test
+	void sameJsonCompilesToTheSameObject() {
+		String json = "{\"URL\":\"http://Example.com/health\",\"RESPONSIBLEPARTY\":\"ops\"}";
+
+		TaskWorkload first = WorkloadCompiler.compile(TaskType.HTTPCHECKTASK, json);
+		TaskWorkload second = WorkloadCompiler.compile(TaskType.HTTPCHECKTASK, json);
+
+		assertSame(first, second);
+		assertEquals("ops", first.getResponsibleParty());
+		assertEquals("HTTP http://example.com:80/health", first.getProbeTarget());
+	}
+
+	@Test
+	void typesWithoutTheirOwnWorkloadGetTheGenericOne() {
+		assertEquals(GenericWorkload.class, WorkloadCompiler.workloadTypeOf(TaskType.TOMCATSERVICETASK));
+		assertNull(WorkloadCompiler.compile(TaskType.TOMCATSERVICETASK, "{}").getProbeTarget());
+	}
+
+	@Test
+	void invalidWorkloadsFailEveryTime() {
+		InvalidWorkloadException first = assertThrows(InvalidWorkloadException.class,
+				() -> WorkloadCompiler.compile(TaskType.QUERYDBTASK, "{\"BDURL\":\"jdbc:oracle:thin:@db\"}"));
+		InvalidWorkloadException again = assertThrows(InvalidWorkloadException.class,
+				() -> WorkloadCompiler.compile(TaskType.QUERYDBTASK, "{\"BDURL\":\"jdbc:oracle:thin:@db\"}"));
+
+		assertEquals(first.getMessage(), again.getMessage());
+		assertThrows(InvalidWorkloadException.class, () -> WorkloadCompiler.compile(TaskType.HTTPCHECKTASK, "not json"));
+		assertThrows(InvalidWorkloadException.class, () -> WorkloadCompiler.compile(TaskType.HTTPCHECKTASK, "[1]"));
+	}
+
+	@Test
+	void unparsableUrlIsAFailedCheckNotAnInvalidWorkload() {
+		HttpCheckWorkload http = (HttpCheckWorkload) WorkloadCompiler.compile(TaskType.HTTPCHECKTASK, "{\"URL\":\"ftp://x\"}");
+
+		assertNull(http.getTarget());
+		assertNull(http.getProbeTarget());
+	}
+
+	@Test
+	void pingHostIsCleanedAndPortsKeptInOrder() {
+		PingWorkload ping = (PingWorkload) WorkloadCompiler.compile(TaskType.PINGSERVERTASK,
+				"{\"HOST\":\"https://Server.local/\",\"PORTS\":[443,\"22\"]}");
+
+		assertEquals("Server.local", ping.getCleanHost());
+		assertArrayEquals(new int[] { 443, 22 }, ping.getPorts());
+		assertEquals("PING server.local [443, 22]", ping.getProbeTarget());
+	}
+
+	@Test
+	void invalidPortsAreRejected() {
+		assertThrows(InvalidWorkloadException.class,
+				() -> WorkloadCompiler.compile(TaskType.PINGSERVERTASK, "{\"HOST\":\"a\",\"PORTS\":[\"http\"]}"));
+		assertThrows(InvalidWorkloadException.class,
+				() -> WorkloadCompiler.compile(TaskType.PINGSERVERTASK, "{\"HOST\":\"a\",\"PORTS\":[0]}"));
+		assertThrows(InvalidWorkloadException.class,
+				() -> WorkloadCompiler.compile(TaskType.PINGSERVERTASK, "{\"HOST\":\"a\",\"PORTS\":[65536]}"));
+		assertThrows(InvalidWorkloadException.class,
+				() -> WorkloadCompiler.compile(TaskType.PINGSERVERTASK, "{\"HOST\":\"a\",\"PORTS\":[22.5]}"));
+		assertThrows(InvalidWorkloadException.class,
+				() -> WorkloadCompiler.compile(TaskType.STFPCONNECTIONTASK,
+						"{\"HOST\":\"a\",\"PORT\":\"ssh\",\"USERNAME\":\"u\",\"PASSWORD\":\"p\"}"));
+	}
+
+	@Test
+	void sftpPortDefaultsTo22() {
+		SftpWorkload sftp = (SftpWorkload) WorkloadCompiler.compile(TaskType.STFPCONNECTIONTASK,
+				"{\"HOST\":\"a\",\"PORT\":null,\"USERNAME\":\"u\",\"PASSWORD\":\"p\"}");
+
+		assertEquals(22, sftp.getPort());
+		assertEquals(".", sftp.getRemoteDirectory());
+	}
+
+	@Test
+	void probeTargetsDontCarryCredentials() {
+		String json = "{\"BDURL\":\"jdbc:oracle:thin:@db\",\"USERNAME\":\"scott\",\"PASSWORD\":\"tiger\",\"QUERY\":\"select 1 from dual \"}";
+		TaskWorkload db = WorkloadCompiler.compile(TaskType.QUERYDBTASK, json);
+		TaskWorkload otherPassword = WorkloadCompiler.compile(TaskType.QUERYDBTASK, json.replace("tiger", "lion"));
+		TaskWorkload sftp = WorkloadCompiler.compile(TaskType.STFPCONNECTIONTASK,
+				"{\"HOST\":\"a\",\"USERNAME\":\"scott\",\"PASSWORD\":\"tiger\"}");
+
+		assertFalse(db.getProbeTarget().contains("tiger"));
+		assertFalse(db.getProbeTarget().contains("scott"));
+		assertTrue(db.getProbeTarget().endsWith("|select 1 from dual"));
+		assertNotEquals(db.getProbeTarget(), otherPassword.getProbeTarget());
+		assertFalse(sftp.getProbeTarget().contains("tiger"));
+	}
+
+	@Test
+	void fingerprintSeparatesItsParts() {
+		assertNotEquals(WorkloadCompiler.fingerprint("ab", "c"), WorkloadCompiler.fingerprint("a", "bc"));
+		assertEquals(64, WorkloadCompiler.fingerprint("a").length());
+	}
+
+	@Test
+	void responsiblePartyFallsBack() {
+		assertEquals("ops", WorkloadCompiler.responsiblePartyOf("{\"RESPONSIBLEPARTY\":\"ops\"}", "nobody"));
+		assertEquals("nobody", WorkloadCompiler.responsiblePartyOf("{}", "nobody"));
+		assertEquals("nobody", WorkloadCompiler.responsiblePartyOf("{broken", "nobody"));
+	}
+}